@@ -10,19 +10,23 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.prefs.PreferenceChangeEvent;
 
 import javax.print.attribute.standard.MediaName;
 import javax.swing.text.html.HTML.Tag;
 
 import expansion.Recorder;
+import expansion.TaskGraph;
 import expansion.dataIn;
 import expansion.dataOut;
 import weka.attributeSelection.ASSearch;
 import weka.attributeSelection.GeneticSearch;
 import weka.attributeSelection.GreedyStepwise;
 import weka.attributeSelection.NSGAII;
+import weka.attributeSelection.NSGAIIP;
 import weka.attributeSelection.RegressionEval;
 import weka.attributeSelection.SingleWrapperSubsetEval;
 import weka.attributeSelection.WrapperSubsetEval;
@@ -45,7 +49,8 @@ public class MOFES extends expansion.experiment{
 	
 	private final Random rnd=new Random(13);
 	
-	private ASSearch[] searchs=new ASSearch[5];
+	/** number of cells run at the same time (0 = number of available processors) */
+	private final int concurrency;
 	
 	private ArrayList<Attribute> resAttrs=new ArrayList<Attribute>();
 	
@@ -53,7 +58,8 @@ public class MOFES extends expansion.experiment{
 	
 	private double[][] ratio;
 	
-	private Recorder[] perf;
+	/** names and columns of the result curves, one per search plus MOFES-B */
+	private Recorder[] perfTemplate;
 	
 	private class RecordCmp implements Comparator<Double[]>{
 
@@ -71,43 +77,101 @@ public class MOFES extends expansion.experiment{
 		}
 	}
 	
+	/**
+	 * One (dataset, seed, search) cell of the experiment. Cells share nothing
+	 * mutable, so they can run in any order and on any thread.
+	 */
+	private class Cell implements Callable<Cell>{
+		private final int search;
+		private final int seed;
+		private final TaskGraph.Node<Instances[]> split;
+		private final double[] ratio;
+		
+		/** the Pareto curve of the selected subsets on the test set */
+		private Recorder perf;
+		
+		/** CPU time of the search (s) */
+		private double time;
+		
+		public Cell(int search,int seed,TaskGraph.Node<Instances[]> split,double[] ratio){
+			this.search=search;
+			this.seed=seed;
+			this.split=split;
+			this.ratio=ratio;
+		}
+		
+		@Override
+		public Cell call() throws Exception{
+			perf=new Recorder(perfTemplate[search]);
+			time=runOnce(newSearch(search),split.get()[0],split.get()[1],ratio,perf,seed)/1e9;
+			return this;
+		}
+	}
+	
 	public MOFES() throws FileNotFoundException, IOException{
+		this(0);
+	}
+	
+	/**
+	 * @param concurrency the number of cells run at the same time, 0 for the number of available processors
+	 */
+	public MOFES(int concurrency) throws FileNotFoundException, IOException{
+		this.concurrency=concurrency;
 		input=new dataIn(dataSetsName);
 		output=new dataOut(dataSetsName);
 		dataSet=input.getDataSet(0);
 		time=new double[input.size()][5];
 		ratio=new double[input.size()*runtimes][dataSet.numAttributes()-1];
-		GreedyStepwise FW=new GreedyStepwise();
-		FW.setSearchBackwards(false);
-		GreedyStepwise BW=new GreedyStepwise();
-		BW.setSearchBackwards(true);
-		GeneticSearch GS=new GeneticSearch();
-		GS.setPopulationSize(40);
-		GS.setMaxGenerations(30);
-		GS.setCrossoverProb(0.2);
-		GS.setMutationProb(0.6);
-		NSGAII nsgaii=new NSGAII();
-		nsgaii.setPopulationSize(40);
-		nsgaii.setMaxGenerations(30);
-		nsgaii.setCrossoverProb(0.2);
-		nsgaii.setMutationProb(0.6);
-		searchs[0]=FW;
-		searchs[1]=BW;
-		searchs[2]=GS;
-		searchs[3]=null;
-		searchs[4]=nsgaii;
 		for(String m:statNames)
 			resAttrs.add(new Attribute(m));
 		
-		perf=new Recorder[6];
+		perfTemplate=new Recorder[6];
 		String[] perfNames={"Feature number","AUC"};
 		for(int i=0;i<4;++i)
-			perf[i]=new Recorder(searchNames[i], perfNames);
-		perf[4]=new Recorder("MOFES-A", perfNames);
-		perf[5]=new Recorder("MOFES-B", perfNames);
+			perfTemplate[i]=new Recorder(searchNames[i], perfNames);
+		perfTemplate[4]=new Recorder("MOFES-A", perfNames);
+		perfTemplate[5]=new Recorder("MOFES-B", perfNames);
+	}
+	
+	/**
+	 * Creates the k-th search. Every cell gets its own search object, since a
+	 * search keeps its state in fields while it runs. NSGAIIP runs on one
+	 * thread, so the cell's CPU time covers the whole search.
+	 */
+	private ASSearch newSearch(int k){
+		switch(k){
+		case 0:
+			GreedyStepwise FW=new GreedyStepwise();
+			FW.setSearchBackwards(false);
+			return FW;
+		case 1:
+			GreedyStepwise BW=new GreedyStepwise();
+			BW.setSearchBackwards(true);
+			return BW;
+		case 2:
+			GeneticSearch GS=new GeneticSearch();
+			GS.setPopulationSize(40);
+			GS.setMaxGenerations(30);
+			GS.setCrossoverProb(0.2);
+			GS.setMutationProb(0.6);
+			return GS;
+		case 3:
+			return null;
+		default:
+			NSGAIIP nsgaii=new NSGAIIP();
+			nsgaii.setThreadsNum(1);
+			nsgaii.setPopulationSize(40);
+			nsgaii.setMaxGenerations(30);
+			nsgaii.setCrossoverProb(0.2);
+			nsgaii.setMutationProb(0.6);
+			return nsgaii;
+		}
 	}
 	
-	private long runOnce(ASSearch search,double ratio[],Recorder perfs,int seed) throws Exception {
+	/**
+	 * @return the CPU time of the search (ns)
+	 */
+	private long runOnce(ASSearch search,Instances trainSet,Instances testSet,double ratio[],Recorder perfs,int seed) throws Exception {
 		int i,j;
 		long start;
 		long time=0;
@@ -120,27 +184,27 @@ public class MOFES extends expansion.experiment{
 		wrap.setSeed(seed);
 
 		int[][] temp;
-		start=System.currentTimeMillis();
+		start=TaskGraph.cpuTime();
 		if (search instanceof NSGAII){
 			temp=((NSGAII)search).search(wrap, trainSet,statNames);
 			for(i=0;i<temp.length;++i)
 				for(j=0;j<temp[i].length;++j)
 					++ratio[temp[i][j]];
-			for(i=0;i<dataSet.numAttributes()-1;++i)
+			for(i=0;i<trainSet.numAttributes()-1;++i)
 				ratio[i]/=temp.length;
 		}
 		else{
 			temp=new int[1][];
 			if(search==null){
-				temp[0]=new int[dataSet.numAttributes()-1];
-				for(i=0,j=0;i<dataSet.numAttributes();++i)
-					if(i!=dataSet.classIndex())
+				temp[0]=new int[trainSet.numAttributes()-1];
+				for(i=0,j=0;i<trainSet.numAttributes();++i)
+					if(i!=trainSet.classIndex())
 						temp[0][j++]=i;
 			}
 			else
 				temp[0]=search.search(wrap, trainSet);
 		}
-		time+=System.currentTimeMillis()-start;
+		time+=TaskGraph.cpuTime()-start;
 		
 		Recorder perf=new Recorder(perfs);
 		for(i=0;i<temp.length;++i){
@@ -148,7 +212,7 @@ public class MOFES extends expansion.experiment{
 			for(j=0;j<temp[i].length;++j)
 				attrsIndex[j]=temp[i][j];
 			
-			attrsIndex[j]=dataSet.classIndex();
+			attrsIndex[j]=trainSet.classIndex();
 			Instances trainCopy=trainSet.attributeFilter(attrsIndex);
 			Instances testCopy=testSet.attributeFilter(attrsIndex);
 			Evaluation eval=new Evaluation(trainCopy);
@@ -167,46 +231,89 @@ public class MOFES extends expansion.experiment{
 		return time;
 	}
 	
+	/**
+	 * Runs all (dataset, seed, search) cells on a TaskGraph. The seeds are
+	 * drawn up front in the sequential order, and the results of a dataset
+	 * are merged in seed and search order once all its cells are done, so
+	 * the output doesn't depend on the number of threads.
+	 */
 	public void run() throws Exception{
-		int i,j,k;
-		double[][] ratioOut=new double[input.size()*(dataSet.numAttributes()-1)*runtimes][2];
-		String[] ratioName={"SelectionRatio","FeatureID"};
+		final TaskGraph graph=new TaskGraph(concurrency);
+		final String[] ratioName={"SelectionRatio","FeatureID"};
+		TaskGraph.Node<?> previous=null;
 		
-		for(i=0;i<input.size();++i){
-			dataSet=input.getDataSet(i);
-			dataSet.setClassIndex("Defective");
-			output.setSubDir(dataSet.relationName());
-			randomSplit(dataSet, 0.7,1);
-			for(j=0;j<runtimes;++j){
+		for(int i=0;i<input.size();++i){
+			final int dataIndex=i;
+			final Instances data=input.getDataSet(i);
+			data.setClassIndex("Defective");
+			final TaskGraph.Node<Instances[]> split=graph.add(data.relationName()+" split",new Callable<Instances[]>(){
+				@Override
+				public Instances[] call() throws Exception{
+					return split(data, 0.7, 1);
+				}
+			});
+			
+			final List<TaskGraph.Node<Cell>> cells=new ArrayList<TaskGraph.Node<Cell>>();
+			for(int j=0;j<runtimes;++j){
 				int seed=rnd.nextInt();
-				for(k=0;k<searchs.length;++k)
-					time[i][k]+=runOnce(searchs[k],ratio[i*runtimes+j],perf[k],seed)/1000.0;
+				for(int k=0;k<searchNames.length;++k)
+					cells.add(graph.add(data.relationName()+" "+seed+" "+searchNames[k],
+							new Cell(k,seed,split,ratio[i*runtimes+j]),split));
 			}
 			
-			output.setSubDir(dataSet.relationName());
-			System.out.println(perf[5]);
-			perf[5].meanCurve(perf[4],new RecordCmp());
-			System.out.println(perf[5]);
-			System.out.println(perf[4]);
-			perf[4].paretoCurve(perf[4],new RecordCmp());
-			System.out.println(perf[4]);
-			for(k=0;k<perf.length;++k){
-				output.outCSV(perf[k]);
-				perf[k].clear();
-			}
+			// dataOut is not thread-safe, so the outputs run one after the other
+			List<TaskGraph.Node<?>> deps=new ArrayList<TaskGraph.Node<?>>(cells);
+			if(previous!=null)
+				deps.add(previous);
+			previous=graph.add(data.relationName()+" output",new Callable<Void>(){
+				@Override
+				public Void call() throws Exception{
+					Recorder[] perf=new Recorder[perfTemplate.length];
+					for(int k=0;k<perf.length;++k)
+						perf[k]=new Recorder(perfTemplate[k]);
+					for(TaskGraph.Node<Cell> m:cells){
+						Cell cell=m.get();
+						perf[cell.search].add(cell.perf);
+						time[dataIndex][cell.search]+=cell.time;
+					}
+					
+					output.setSubDir(data.relationName());
+					System.out.println(perf[5]);
+					perf[5].meanCurve(perf[4],new RecordCmp());
+					System.out.println(perf[5]);
+					System.out.println(perf[4]);
+					perf[4].paretoCurve(perf[4],new RecordCmp());
+					System.out.println(perf[4]);
+					for(int k=0;k<perf.length;++k)
+						output.outCSV(perf[k]);
+					return null;
+				}
+			},deps);
 		}
-		output.setSubDir("");
-		output.outCSV("Computational Cost",searchNames,time);
-		for(j=0;j<dataSet.numAttributes()-1;++j)
-			for(k=0;k<ratio.length;++k){
-				ratioOut[j*ratio.length+k][0]=ratio[k][j];
-				ratioOut[j*ratio.length+k][1]=j+1;
+		
+		graph.add("summary",new Callable<Void>(){
+			@Override
+			public Void call() throws Exception{
+				int numAttributes=ratio[0].length;
+				double[][] ratioOut=new double[ratio.length*numAttributes][2];
+				output.setSubDir("");
+				output.outCSV("Computational Cost",searchNames,time);
+				for(int j=0;j<numAttributes;++j)
+					for(int k=0;k<ratio.length;++k){
+						ratioOut[j*ratio.length+k][0]=ratio[k][j];
+						ratioOut[j*ratio.length+k][1]=j+1;
+					}
+				output.outCSV("Selection Ratio",ratioName,ratioOut);
+				return null;
 			}
-		output.outCSV("Selection Ratio",ratioName,ratioOut);
+		},previous);
+		
+		graph.run();
+		System.out.print(graph);
 	}
 	
 	public static void main(String[] args)throws Exception{
-		MOFES mofes=new MOFES();
+		MOFES mofes=new MOFES(args.length>0?Integer.parseInt(args[0]):0);
 		mofes.run();
 		//for(weka.core.Tag m:WrapperSubsetEval.TAGS_EVALUATION)
 		//	System.out.println(m);
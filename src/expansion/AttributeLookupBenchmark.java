@@ -0,0 +1,176 @@
+package expansion;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.NominalAttributeInfo;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Measures the nominal and string value lookups of Attribute (indexOfValue,
+ * addStringValue) against a synchronized Hashtable of boxed indices, the load
+ * time of string-heavy ARFF data, and the heap retained by many datasets with
+ * the same header, with and without interned nominal values.
+ */
+public class AttributeLookupBenchmark {
+	private static final int reps=5;
+
+	private static long usedHeap(){
+		for(int i=0;i<3;++i)
+			System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static List<String> labels(String prefix,int count){
+		List<String> labels=new ArrayList<String>(count);
+		for(int i=0;i<count;++i)
+			labels.add(prefix+i);
+		return labels;
+	}
+
+	/** indexOfValue on random labels, against a Hashtable of the same labels */
+	private static void lookups(int numLabels,int queries,boolean print){
+		List<String> labels=labels("value-",numLabels);
+		Attribute att=new Attribute("a",labels);
+		Hashtable<Object,Integer> table=new Hashtable<Object,Integer>();
+		for(int i=0;i<numLabels;++i)
+			table.put(labels.get(i),new Integer(i));
+		Random rand=new Random(1);
+		String[] keys=new String[queries];
+		for(int i=0;i<queries;++i)
+			keys[i]=new String(labels.get(rand.nextInt(numLabels)));
+		long check=0;
+		long start=System.nanoTime();
+		for(int r=0;r<reps;++r)
+			for(String key:keys)
+				check+=table.get(key).intValue();
+		long tableTime=System.nanoTime()-start;
+		start=System.nanoTime();
+		for(int r=0;r<reps;++r)
+			for(String key:keys)
+				check-=att.indexOfValue(key);
+		long attTime=System.nanoTime()-start;
+		if(check!=0)
+			throw new IllegalStateException("indices differ");
+		if(print)
+			System.out.println(String.format("indexOfValue   %7d labels  Hashtable %6.1f ns  Attribute %6.1f ns  speedup %.2f",
+				numLabels,tableTime/1.0/reps/queries,attTime/1.0/reps/queries,(double)tableTime/attTime));
+	}
+
+	/** addStringValue of strings with some repeats, or the same with a Hashtable and a list */
+	private static Object addStrings(String[] values,boolean table){
+		if(table){
+			Hashtable<Object,Integer> hash=new Hashtable<Object,Integer>();
+			ArrayList<Object> list=new ArrayList<Object>();
+			for(String value:values)
+				if(!hash.containsKey(value)){
+					hash.put(value,new Integer(list.size()));
+					list.add(value);
+				}
+			return new Object[]{hash,list};
+		}
+		Attribute att=new Attribute("s",(List<String>)null);
+		for(String value:values)
+			att.addStringValue(value);
+		return att;
+	}
+
+	/** time and heap of adding the strings of a string attribute */
+	private static void strings(int count,boolean print){
+		Random rand=new Random(2);
+		String[] values=new String[count];
+		for(int i=0;i<count;++i)
+			values[i]="doc "+rand.nextInt(count/2);
+		StringBuilder line=new StringBuilder(String.format("addStringValue %7d values",count));
+		for(boolean table:new boolean[]{true,false}){
+			long bytes=usedHeap();
+			long start=System.nanoTime();
+			Object kept=addStrings(values,table);
+			long time=System.nanoTime()-start;
+			bytes=usedHeap()-bytes;
+			line.append(String.format("  %s %6.1f ns %6d KB",table?"Hashtable":"Attribute",time/1.0/count,bytes/1024));
+			if(kept==null)
+				throw new IllegalStateException();
+		}
+		if(print)
+			System.out.println(line);
+	}
+
+	/** ARFF text with a string attribute and nominal attributes of many labels */
+	private static byte[] arff(int rows,int numLabels){
+		StringBuilder text=new StringBuilder("@relation strings\n@attribute text string\n");
+		for(int a=0;a<5;++a){
+			text.append("@attribute n").append(a).append(" {");
+			for(int i=0;i<numLabels;++i)
+				text.append(i>0?",":"").append("label").append(a).append('-').append(i);
+			text.append("}\n");
+		}
+		text.append("@attribute class {yes,no}\n@data\n");
+		Random rand=new Random(3);
+		for(int r=0;r<rows;++r){
+			text.append("'text ").append(rand.nextInt(rows/4)).append('\'');
+			for(int a=0;a<5;++a)
+				text.append(",label").append(a).append('-').append(rand.nextInt(numLabels));
+			text.append(rand.nextBoolean()?",yes\n":",no\n");
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Instances load(byte[] data,boolean fast) throws Exception{
+		ArffLoader loader=new ArffLoader();
+		loader.setFastParsing(fast);
+		loader.setSource(new ByteArrayInputStream(data));
+		return loader.getDataSet();
+	}
+
+	private static void loading(byte[] data,boolean print) throws Exception{
+		for(boolean fast:new boolean[]{false,true}){
+			long start=System.nanoTime();
+			for(int r=0;r<reps;++r)
+				load(data,fast);
+			long time=System.nanoTime()-start;
+			if(print)
+				System.out.println(String.format("load %-15s %8.1f ms  %6.1f MB/s",fast?"fast":"StreamTokenizer",
+					time/1e6/reps,data.length/(double)(1<<20)*reps/(time/1e9)));
+		}
+	}
+
+	/** heap held by copies of a header loaded from separate files */
+	private static void headers(int copies,int numLabels,boolean intern,boolean print) throws Exception{
+		NominalAttributeInfo.setInternNominalValues(intern);
+		byte[] data=arff(10,numLabels);
+		Instances[] kept=new Instances[copies];
+		long bytes=usedHeap();
+		for(int i=0;i<copies;++i)
+			kept[i]=load(data,false);
+		bytes=usedHeap()-bytes;
+		NominalAttributeInfo.setInternNominalValues(false);
+		if(print)
+			System.out.println(String.format("%d headers, 5 x %d labels, intern %-5s %8d KB",copies,numLabels,intern,bytes/1024));
+		if(kept[0].numInstances()!=kept[copies-1].numInstances())
+			throw new IllegalStateException("datasets differ");
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):200000;
+		byte[] data=arff(rows,1000);
+		for(int pass=0;pass<2;++pass){
+			boolean print=pass==1;
+			for(int numLabels:new int[]{10,1000,100000})
+				lookups(numLabels,1000000,print);
+			strings(rows,print);
+			if(print)
+				System.out.println(rows+" rows, one string and 5 nominal attributes of 1000 labels, "+data.length/1024+" KB");
+			loading(data,print);
+		}
+		headers(200,1000,false,true);
+		headers(200,1000,true,true);
+	}
+}
@@ -0,0 +1,100 @@
+package expansion;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.ChebyshevDistance;
+import weka.core.DenseInstance;
+import weka.core.EuclideanDistance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.MinkowskiDistance;
+import weka.core.NormalizableDistance;
+import weka.core.Utils;
+
+/**
+ * Compares the distances from each query to all rows computed one pair at a
+ * time with distance() against the block computation of distances(), for
+ * Euclidean, Manhattan, Chebyshev and Minkowski distance, on data with
+ * numeric, nominal and date attributes and missing values. Checks that both
+ * give the same values bit for bit, with and without a cut-off.
+ */
+public class BatchDistanceBenchmark {
+
+	/** numeric, nominal and date attributes, some missing values */
+	private static Instances data(int rows,int dims,Random rand){
+		ArrayList<Attribute> atts=new ArrayList<Attribute>();
+		ArrayList<String> labels=new ArrayList<String>();
+		for(int v=0;v<4;++v)
+			labels.add("v"+v);
+		for(int j=0;j<dims;++j){
+			if(j%5==3)
+				atts.add(new Attribute("n"+j,labels));
+			else if(j%5==4)
+				atts.add(new Attribute("d"+j,"yyyy-MM-dd"));
+			else
+				atts.add(new Attribute("a"+j));
+		}
+		Instances data=new Instances("synthetic",atts,rows);
+		for(int i=0;i<rows;++i){
+			double[] values=new double[dims];
+			for(int j=0;j<dims;++j){
+				if(j%5==3)
+					values[j]=rand.nextInt(labels.size());
+				else if(j%5==4)
+					values[j]=1.5e12+rand.nextInt(1000)*86400000.0;
+				else
+					values[j]=rand.nextGaussian()*10;
+				if(rand.nextInt(30)==0)
+					values[j]=Utils.missingValue();
+			}
+			data.add(new DenseInstance(1,values));
+		}
+		return data;
+	}
+
+	private static void run(NormalizableDistance distance,Instances data,int queries){
+		distance.setInstances(data);
+		int n=data.numInstances();
+		double[] single=new double[n];
+		double[] batch=new double[n];
+		long singleTime=0,batchTime=0;
+		int mismatches=0;
+		for(int q=0;q<queries;++q){
+			double cutOff=q%2==0?Double.POSITIVE_INFINITY:distance.distance(data.instance(q),data.instance(n-1-q));
+			long start=System.nanoTime();
+			for(int i=0;i<n;++i)
+				single[i]=distance.distance(data.instance(q),data.instance(i),cutOff);
+			singleTime+=System.nanoTime()-start;
+			start=System.nanoTime();
+			distance.distances(data.instance(q),0,n,cutOff,batch);
+			batchTime+=System.nanoTime()-start;
+			for(int i=0;i<n;++i){
+				// beyond the cut-off only the fact that it is exceeded matters
+				if(single[i]>cutOff&&batch[i]>cutOff)
+					continue;
+				if(Double.doubleToLongBits(single[i])!=Double.doubleToLongBits(batch[i]))
+					++mismatches;
+			}
+		}
+		System.out.println(String.format("%-18s distance %9.1f ms  distances %9.1f ms  speedup %5.2f  mismatches %d",
+			distance.getClass().getSimpleName(),singleTime/1e6,batchTime/1e6,(double)singleTime/batchTime,mismatches));
+		if(mismatches>0)
+			throw new IllegalStateException(distance.getClass().getSimpleName()+": batch distances differ from distance()");
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):20000;
+		int dims=args.length>1?Integer.parseInt(args[1]):20;
+		int queries=args.length>2?Integer.parseInt(args[2]):200;
+		Instances data=data(rows,dims,new Random(1));
+		System.out.println(rows+" instances, "+dims+" attributes (numeric, nominal, date), "+queries+" queries");
+		for(int pass=0;pass<2;++pass){
+			run(new EuclideanDistance(),data,queries);
+			run(new ManhattanDistance(),data,queries);
+			run(new ChebyshevDistance(),data,queries);
+			run(new MinkowskiDistance(),data,queries);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package expansion;
+
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Compares the row layout of Instances with the columnar ones (doubles,
+ * floats, and the compact dictionary-coded columns of either): the heap retained by a copy of the dataset and the time of
+ * column scans (attributeToDoubleArray, variance, attributeStats) over all
+ * attributes. The dataset can be stacked several times to get past the
+ * caches. Also checks that the layouts give the same values.
+ */
+public class ColumnarBenchmark {
+	private static final int reps=20;
+
+	private static long usedHeap(){
+		for(int i=0;i<3;++i)
+			System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * copies a dataset in the layout of the given one; a row copy gets its own
+	 * value vectors (the copy constructor shares them)
+	 */
+	private static Instances copy(Instances data){
+		if(data.isColumnar())
+			return new Instances(data);
+		Instances copy=new Instances(data,data.numInstances());
+		for(int i=0;i<data.numInstances();++i)
+			copy.add(new DenseInstance(data.instance(i).weight(),data.instance(i).toDoubleArray()));
+		return copy;
+	}
+
+	private static double scan(Instances data){
+		double sum=0;
+		for(int j=0;j<data.numAttributes();++j){
+			double[] values=data.attributeToDoubleArray(j);
+			sum+=values[values.length-1];
+			if(data.attribute(j).isNumeric())
+				sum+=data.variance(j);
+		}
+		return sum;
+	}
+
+	private static double stats(Instances data){
+		double sum=0;
+		for(int j=0;j<data.numAttributes();++j)
+			sum+=data.attributeStats(j).distinctCount;
+		return sum;
+	}
+
+	private static void check(Instances a,Instances b,double tolerance){
+		for(int r=0;r<a.numInstances();++r){
+			if(a.instance(r).weight()!=b.instance(r).weight())
+				throw new IllegalStateException("weight differs at row "+r);
+			for(int c=0;c<a.numAttributes();++c){
+				double x=a.instance(r).value(c),y=b.instance(r).value(c);
+				if(Double.isNaN(x)!=Double.isNaN(y)||Math.abs(x-y)>tolerance*Math.max(1,Math.abs(x)))
+					throw new IllegalStateException("values differ at row "+r+" column "+c);
+			}
+		}
+	}
+
+	private static void measure(String name,Instances data,boolean print){
+		long bytes=usedHeap();
+		Instances copy=copy(data);
+		bytes=usedHeap()-bytes;
+		double check=0;
+		for(int i=0;i<3;++i)
+			check+=scan(copy)+stats(copy);
+		long start=System.nanoTime();
+		for(int i=0;i<reps;++i)
+			check+=scan(copy);
+		long scanTime=System.nanoTime()-start;
+		start=System.nanoTime();
+		for(int i=0;i<reps;++i)
+			check+=stats(copy);
+		long statsTime=System.nanoTime()-start;
+		double mb=(double)copy.numInstances()*copy.numAttributes()*8/(1<<20);
+		if(print)
+			System.out.println(String.format("%-9s %8d KB  scan %8.3f ms (%7.1f MB/s)  attributeStats %8.3f ms  [%s]",name,
+				bytes/1024,scanTime/1e6/reps,mb*reps/(scanTime/1e9),statsTime/1e6/reps,Double.toString(check)));
+	}
+
+	public static void main(String[] args) throws Exception{
+		String file=args.length>0?args[0]:"data/AEEEM/ML.arff";
+		int stack=args.length>1?Integer.parseInt(args[1]):20;
+		Instances source=new Instances(new FileReader(file));
+		Instances rows=new Instances(source,source.numInstances()*stack);
+		for(int i=0;i<stack;++i)
+			rows.add(source);
+		rows.setClassIndex(rows.numAttributes()-1);
+
+		Instances columns=new Instances(rows);
+		columns.toColumnar(false);
+		Instances floats=new Instances(rows);
+		floats.toColumnar(true);
+		Instances compact=new Instances(rows);
+		compact.toColumnar(false,true);
+		Instances compactFloats=new Instances(rows);
+		compactFloats.toColumnar(true,true);
+		check(rows,columns,0);
+		check(rows,floats,1e-6);
+		check(rows,compact,0);
+		check(rows,compactFloats,1e-6);
+
+		System.out.println(file+" x"+stack+": "+rows.numInstances()+" instances, "+rows.numAttributes()+" attributes");
+		for(int pass=0;pass<2;++pass){
+			if(pass==1)
+				System.out.println("layout    heap         column scans over all attributes, per pass");
+			measure("rows",rows,pass==1);
+			measure("double[]",columns,pass==1);
+			measure("float[]",floats,pass==1);
+			measure("compact",compact,pass==1);
+			measure("compact-f",compactFloats,pass==1);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package expansion;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Measures the scoring throughput of a RandomForest, one instance at a time
+ * with distributionForInstance and in batches with distributionsForInstances,
+ * for a nominal and a numeric class. Checks that both give exactly the
+ * distributions of the trees as built, before they were compiled to arrays,
+ * combined as Bagging combines them.
+ */
+public class ForestScoringBenchmark {
+	private static final int reps=3;
+
+	/** the prediction of the trees as built, summed and averaged as Bagging does */
+	private static double[] reference(RandomForest forest,Instance inst) throws Exception{
+		Field classifiers=IteratedSingleClassifierEnhancer.class.getDeclaredField("m_Classifiers");
+		Field root=RandomTree.class.getDeclaredField("m_Tree");
+		classifiers.setAccessible(true);
+		root.setAccessible(true);
+		double[] sums=new double[inst.numClasses()];
+		double numPreds=0;
+		for(Classifier tree:(Classifier[])classifiers.get(forest)){
+			Object node=root.get(tree);
+			Method dist=node.getClass().getMethod("distributionForInstance",Instance.class);
+			dist.setAccessible(true);
+			double[] probs=(double[])dist.invoke(node,inst);
+			if(probs==null)
+				throw new Exception("Null distribution predicted");
+			if(inst.classAttribute().isNumeric()){
+				if(!Utils.isMissingValue(probs[0])){
+					sums[0]+=probs[0];
+					numPreds++;
+				}
+			}else
+				for(int j=0;j<probs.length;++j)
+					sums[j]+=probs[j];
+		}
+		if(inst.classAttribute().isNumeric())
+			sums[0]=numPreds==0?Utils.missingValue():sums[0]/numPreds;
+		else if(!Utils.eq(Utils.sum(sums),0))
+			Utils.normalize(sums);
+		return sums;
+	}
+
+	private static void run(Instances train,Instances test,int trees) throws Exception{
+		RandomForest forest=new RandomForest();
+		forest.setNumIterations(trees);
+		long start=System.nanoTime();
+		forest.buildClassifier(train);
+		System.out.println(String.format("build %d trees %9.1f ms",trees,(System.nanoTime()-start)/1e6));
+		int n=test.numInstances();
+		double[][] single=new double[n][];
+		double[][] batch=null;
+		long singleTime=Long.MAX_VALUE,batchTime=Long.MAX_VALUE;
+		for(int r=0;r<reps;++r){
+			start=System.nanoTime();
+			for(int i=0;i<n;++i)
+				single[i]=forest.distributionForInstance(test.instance(i));
+			singleTime=Math.min(singleTime,System.nanoTime()-start);
+			start=System.nanoTime();
+			batch=forest.distributionsForInstances(test);
+			batchTime=Math.min(batchTime,System.nanoTime()-start);
+		}
+		int singleDiffs=0,batchDiffs=0;
+		for(int i=0;i<n;++i){
+			double[] expected=reference(forest,test.instance(i));
+			for(int j=0;j<expected.length;++j){
+				if(single[i][j]!=expected[j])
+					singleDiffs++;
+				if(batch[i][j]!=expected[j])
+					batchDiffs++;
+			}
+		}
+		System.out.println(String.format("distributionForInstance    %10.0f instances/s  values differing from the trees %d",n/(singleTime/1e9),singleDiffs));
+		System.out.println(String.format("distributionsForInstances  %10.0f instances/s  values differing from the trees %d",n/(batchTime/1e9),batchDiffs));
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):20000;
+		int queries=args.length>1?Integer.parseInt(args[1]):50000;
+		int trees=args.length>2?Integer.parseInt(args[2]):100;
+		Random rand=new Random(1);
+		for(boolean nominalClass:new boolean[]{true,false}){
+			Instances train=nominalClass?SyntheticData.classification(rows,20,0.01,rand)
+				:SyntheticData.regression(rows,20,0.01,rand);
+			Instances test=nominalClass?SyntheticData.classification(queries,20,0.01,rand)
+				:SyntheticData.regression(queries,20,0.01,rand);
+			System.out.println(rows+" training instances, "+queries+" test instances, 20 attributes, "+(nominalClass?"nominal":"numeric")+" class");
+			run(train,test,trees);
+		}
+	}
+}
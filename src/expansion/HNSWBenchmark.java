@@ -0,0 +1,140 @@
+package expansion;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.neighboursearch.HNSWSearch;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+/**
+ * Measures recall against latency of HNSWSearch for several search beam
+ * widths, with LinearNNSearch as the exact reference, on clustered dense
+ * data and on sparse word-count like vectors. Also checks a graph built
+ * incrementally with update(Instance) and one that went through
+ * serialization.
+ */
+public class HNSWBenchmark {
+	private static final int k=10;
+
+	/** rows around 50 random centres, dense or with a few of many attributes set */
+	private static Instances data(int rows,int dims,boolean sparse,Random rand){
+		ArrayList<Attribute> atts=new ArrayList<Attribute>();
+		for(int j=0;j<dims;++j)
+			atts.add(new Attribute("a"+j));
+		Instances data=new Instances(sparse?"words":"dense",atts,rows);
+		int[][] topics=new int[50][30];
+		double[][] centres=new double[50][dims];
+		for(int c=0;c<centres.length;++c){
+			for(int j=0;j<topics[c].length;++j)
+				topics[c][j]=rand.nextInt(dims);
+			for(int j=0;j<dims;++j)
+				centres[c][j]=rand.nextDouble()*10;
+		}
+		for(int i=0;i<rows;++i){
+			int c=rand.nextInt(centres.length);
+			double[] values=new double[dims];
+			if(sparse){
+				for(int j=0;j<20;++j)
+					values[rand.nextInt(4)==0?rand.nextInt(dims):topics[c][rand.nextInt(topics[c].length)]]+=1;
+				data.add(new SparseInstance(1,values));
+			}else{
+				for(int j=0;j<dims;++j)
+					values[j]=centres[c][j]+rand.nextGaussian();
+				data.add(new DenseInstance(1,values));
+			}
+		}
+		return data;
+	}
+
+	private static double[][] search(NearestNeighbourSearch search,Instances test) throws Exception{
+		int n=test.numInstances();
+		int[][] indices=new int[n][];
+		double[][] distances=new double[n][];
+		search.kNearestNeighbours(test,0,n,k,indices,distances,null);
+		return distances;
+	}
+
+	/** share of the exact neighbours found, counting ties at the k-th distance as found */
+	private static double recall(double[][] exact,double[][] found){
+		int hits=0,total=0;
+		for(int i=0;i<exact.length;++i){
+			double kth=exact[i][exact[i].length-1];
+			total+=Math.min(k,exact[i].length);
+			for(double d:found[i])
+				if(d<=kth*(1+1e-12))
+					++hits;
+		}
+		return (double)hits/total;
+	}
+
+	private static HNSWSearch copy(HNSWSearch search) throws Exception{
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		ObjectOutputStream out=new ObjectOutputStream(bytes);
+		out.writeObject(search);
+		out.close();
+		System.out.println(String.format("serialized graph %d KB",bytes.size()/1024));
+		return (HNSWSearch)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	private static void run(Instances train,Instances test) throws Exception{
+		int n=test.numInstances();
+		LinearNNSearch linear=new LinearNNSearch();
+		linear.setInstances(train);
+		search(linear,test);
+		long start=System.nanoTime();
+		double[][] exact=search(linear,test);
+		long linearTime=System.nanoTime()-start;
+		System.out.println(String.format("LinearNNSearch             query %8.1f us/query  recall 1.000",linearTime/1e3/n));
+
+		HNSWSearch hnsw=new HNSWSearch();
+		start=System.nanoTime();
+		hnsw.setInstances(train);
+		System.out.println(String.format("HNSWSearch build %9.1f ms",(System.nanoTime()-start)/1e6));
+		for(int width:new int[]{10,20,50,100,200,400}){
+			hnsw.setSearchBeamWidth(width);
+			search(hnsw,test);
+			start=System.nanoTime();
+			double[][] found=search(hnsw,test);
+			long time=System.nanoTime()-start;
+			System.out.println(String.format("HNSWSearch beam %4d       query %8.1f us/query  recall %.3f  speedup %6.1f",
+				width,time/1e3/n,recall(exact,found),(double)linearTime/time));
+		}
+
+		hnsw.setSearchBeamWidth(50);
+		HNSWSearch restored=copy(hnsw);
+		if(recall(search(hnsw,test),search(restored,test))!=1)
+			throw new IllegalStateException("serialized graph finds other neighbours");
+
+		Instances half=new Instances(train,0,train.numInstances()/2);
+		HNSWSearch incremental=new HNSWSearch();
+		incremental.setInstances(half);
+		start=System.nanoTime();
+		for(int i=half.numInstances();i<train.numInstances();++i){
+			half.add(train.instance(i));
+			incremental.update(half.lastInstance());
+		}
+		System.out.println(String.format("HNSWSearch update of %d instances %9.1f ms, beam 50 recall %.3f",
+			train.numInstances()-train.numInstances()/2,(System.nanoTime()-start)/1e6,recall(exact,search(incremental,test))));
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):20000;
+		int queries=args.length>1?Integer.parseInt(args[1]):500;
+		Random rand=new Random(1);
+		for(boolean sparse:new boolean[]{false,true}){
+			int dims=sparse?2000:64;
+			Instances all=data(rows+queries,dims,sparse,rand);
+			System.out.println(rows+" instances, "+queries+" queries, "+dims+(sparse?" sparse":" dense")+" dimensions, k="+k);
+			run(new Instances(all,0,rows),new Instances(all,rows,queries));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package expansion;
+
+import java.util.Random;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.REPTree;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Measures the build time and accuracy of RandomTree, REPTree and
+ * RandomForest with split points found from sorted values against splits
+ * found from histograms of binned values, on synthetic data with many
+ * distinct values and a nominal or numeric class. Also checks that with at
+ * least as many bins as distinct values the trees do not change.
+ */
+public class HistogramTreeBenchmark {
+
+	private static Classifier make(String name,int bins){
+		if(name.equals("RandomTree")){
+			RandomTree tree=new RandomTree();
+			tree.setNumBins(bins);
+			tree.setMinNum(5);
+			return tree;
+		}
+		if(name.equals("REPTree")){
+			REPTree tree=new REPTree();
+			tree.setNumBins(bins);
+			return tree;
+		}
+		RandomForest forest=new RandomForest();
+		forest.setNumIterations(20);
+		forest.setNumBins(bins);
+		return forest;
+	}
+
+	private static void run(Instances train,Instances test) throws Exception{
+		boolean nominalClass=train.classAttribute().isNominal();
+		for(String name:new String[]{"RandomTree","REPTree","RandomForest"}){
+			long exactTime=0;
+			for(int bins:new int[]{0,255,32}){
+				Classifier classifier=make(name,bins);
+				long start=System.nanoTime();
+				classifier.buildClassifier(train);
+				long time=System.nanoTime()-start;
+				if(bins==0)
+					exactTime=time;
+				Evaluation eval=new Evaluation(train);
+				eval.evaluateModel(classifier,test);
+				System.out.println(String.format("%-12s bins %3d  build %8.1f ms  speedup %5.2f  %s %.4f",name,bins,time/1e6,
+					(double)exactTime/time,nominalClass?"accuracy":"rmse",nominalClass?eval.pctCorrect()/100:eval.rootMeanSquaredError()));
+			}
+		}
+	}
+
+	/** trees with one bin per distinct value should be the ones of the exact split points */
+	private static void check(Instances data) throws Exception{
+		for(String name:new String[]{"RandomTree","REPTree"}){
+			Classifier exact=make(name,0);
+			Classifier binned=make(name,65535);
+			exact.buildClassifier(data);
+			binned.buildClassifier(data);
+			String a=exact.toString().replace("/-0)","/0)");
+			String b=binned.toString().replace("/-0)","/0)");
+			System.out.println(String.format("%-12s %s: %s",name,data.relationName(),a.equals(b)?"same tree with 65535 bins":"trees differ"));
+		}
+		Classifier copy=AbstractClassifier.makeCopy(make("RandomForest",255));
+		if(((RandomForest)copy).getNumBins()!=255)
+			throw new IllegalStateException("bins option not kept");
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):100000;
+		int dims=args.length>1?Integer.parseInt(args[1]):20;
+		Random rand=new Random(1);
+		for(boolean nominalClass:new boolean[]{true,false}){
+			Instances train=nominalClass?SyntheticData.classification(rows,dims,0.02,rand)
+				:SyntheticData.regression(rows,dims,0.02,rand);
+			Instances test=nominalClass?SyntheticData.classification(rows/4,dims,0.02,rand)
+				:SyntheticData.regression(rows/4,dims,0.02,rand);
+			System.out.println(rows+" training instances, "+dims+" numeric attributes, "+(nominalClass?"nominal":"numeric")+" class");
+			run(train,test);
+		}
+		for(int i=2;i<args.length;++i){
+			Instances data=DataSource.read(args[i]);
+			data.setClassIndex(data.numAttributes()-1);
+			check(data);
+		}
+	}
+}
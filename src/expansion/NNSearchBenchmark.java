@@ -0,0 +1,141 @@
+package expansion;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.neighboursearch.BallTree;
+import weka.core.neighboursearch.CoverTree;
+import weka.core.neighboursearch.KDTree;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+import weka.core.neighboursearch.balltrees.TopDownConstructor;
+
+/**
+ * Compares the build time and the query time of LinearNNSearch, KDTree,
+ * BallTree and CoverTree on clustered synthetic data of several
+ * dimensionalities, with one and with several execution slots. Checks that
+ * the trees built with several slots are the same as the serial ones and
+ * that the concurrent queries find the neighbours of the serial ones, and
+ * counts the queries whose neighbours agree with the linear search.
+ */
+public class NNSearchBenchmark {
+	private static final int k=10;
+	private static String serialShape;
+
+	/** rows around 20 random centres, the last queries rows of which are the test set */
+	private static Instances data(int rows,int dims,Random rand){
+		ArrayList<Attribute> atts=new ArrayList<Attribute>();
+		for(int j=0;j<dims;++j)
+			atts.add(new Attribute("a"+j));
+		Instances data=new Instances("synthetic",atts,rows);
+		double[][] centres=new double[20][dims];
+		for(double[] centre:centres)
+			for(int j=0;j<dims;++j)
+				centre[j]=rand.nextDouble()*10;
+		for(int i=0;i<rows;++i){
+			double[] centre=centres[rand.nextInt(centres.length)];
+			double[] values=new double[dims];
+			for(int j=0;j<dims;++j)
+				values[j]=centre[j]+rand.nextGaussian();
+			data.add(new DenseInstance(1,values));
+		}
+		return data;
+	}
+
+	private static NearestNeighbourSearch search(String name,int slots){
+		if(name.equals("KDTree")){
+			KDTree tree=new KDTree();
+			tree.setNumExecutionSlots(slots);
+			return tree;
+		}
+		if(name.equals("BallTree")){
+			BallTree tree=new BallTree();
+			TopDownConstructor constructor=new TopDownConstructor();
+			constructor.setNumExecutionSlots(slots);
+			tree.setBallTreeConstructor(constructor);
+			return tree;
+		}
+		if(name.equals("CoverTree"))
+			return new CoverTree();
+		return new LinearNNSearch();
+	}
+
+	/** size, leaves and depth of a tree, empty for the other searches */
+	private static String shape(NearestNeighbourSearch search){
+		if(!(search instanceof KDTree||search instanceof BallTree))
+			return "";
+		return search.getMeasure("measureTreeSize")+"/"+search.getMeasure("measureNumLeaves")+"/"+search.getMeasure("measureMaxDepth");
+	}
+
+	/** number of queries whose sorted distances agree */
+	private static int agree(double[][] expected,double[][] actual){
+		int count=0;
+		for(int i=0;i<expected.length;++i){
+			boolean same=expected[i].length==actual[i].length;
+			for(int j=0;same&&j<expected[i].length;++j)
+				same=Math.abs(expected[i][j]-actual[i][j])<=1e-9*Math.max(1,expected[i][j]);
+			if(same)
+				++count;
+		}
+		return count;
+	}
+
+	private static double[][] measure(String name,Instances train,Instances test,int slots,double[][] serial,double[][] linear,boolean print) throws Exception{
+		NearestNeighbourSearch search=search(name,slots);
+		long start=System.nanoTime();
+		search.setInstances(train);
+		long buildTime=System.nanoTime()-start;
+		if(slots==1)
+			serialShape=shape(search);
+		else if(!shape(search).equals(serialShape))
+			throw new IllegalStateException(name+": tree differs from the serial one");
+		int n=test.numInstances();
+		int[][] indices=new int[n][];
+		double[][] distances=new double[n][];
+		ExecutorService pool=slots>1?Executors.newFixedThreadPool(slots):null;
+		start=System.nanoTime();
+		try{
+			search.kNearestNeighbours(test,0,n,k,indices,distances,pool);
+		}finally{
+			if(pool!=null)
+				pool.shutdown();
+		}
+		long queryTime=System.nanoTime()-start;
+		// sorted per query, as trees order the neighbours at the k-th distance differently
+		for(double[] d:distances)
+			java.util.Arrays.sort(d);
+		if(serial!=null&&agree(serial,distances)!=n)
+			throw new IllegalStateException(name+": concurrent queries differ from the serial ones");
+		if(print)
+			System.out.println(String.format("%-14s slots %2d  build %9.3f ms  query %9.3f ms (%7.1f us/query)  exact %d/%d",name,
+				slots,buildTime/1e6,queryTime/1e6,queryTime/1e3/n,linear==null?n:agree(linear,distances),n));
+		return distances;
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):50000;
+		int queries=args.length>1?Integer.parseInt(args[1]):2000;
+		int slots=args.length>2?Integer.parseInt(args[2]):Runtime.getRuntime().availableProcessors();
+		String[] names={"LinearNNSearch","KDTree","BallTree","CoverTree"};
+		Random rand=new Random(1);
+		for(int dims:new int[]{2,8,32}){
+			Instances all=data(rows+queries,dims,rand);
+			Instances train=new Instances(all,0,rows);
+			Instances test=new Instances(all,rows,queries);
+			System.out.println(rows+" instances, "+queries+" queries, "+dims+" dimensions, k="+k);
+			double[][] linear=null;
+			for(int pass=0;pass<2;++pass)
+				for(String name:names){
+					double[][] serial=measure(name,train,test,1,null,linear,pass==1);
+					if(linear==null)
+						linear=serial;
+					measure(name,train,test,slots,serial,linear,pass==1);
+				}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package expansion;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.classifiers.evaluation.NominalPrediction;
+import weka.classifiers.evaluation.Prediction;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+/**
+ * Measures what calculating the out-of-bag error adds to building a forest of
+ * many shallow trees: the build time and the most heap in use, sampled as the
+ * trees are built, with and without it. The out-of-bag part was a second pass
+ * over the training data after all trees were built, keeping the bag of every
+ * tree until then, and now counts the votes of each tree as it finishes. Also
+ * prints the out-of-bag error and area under ROC, and checks that building
+ * the trees on several execution slots gives bit for bit the same
+ * out-of-bag predictions as building them one after another.
+ */
+public class OutOfBagBenchmark {
+
+	/** a forest that samples the heap in use after every tenth of its trees */
+	private static class SampledForest extends RandomForest{
+		private static final long serialVersionUID=4262870781390713624L;
+		long time;
+		long peak;
+
+		@Override
+		protected void buildIteration(int iteration) throws Exception{
+			super.buildIteration(iteration);
+			int step=Math.max(1,getNumIterations()/10);
+			if(iteration%step==step-1)
+				peak=Math.max(peak,used());
+		}
+	}
+
+	private static long used(){
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static SampledForest run(Instances train,int trees,boolean oob,int slots) throws Exception{
+		SampledForest forest=new SampledForest();
+		forest.setNumIterations(trees);
+		forest.setMaxDepth(3);
+		forest.setCalcOutOfBag(oob);
+		forest.setStoreOutOfBagPredictions(oob);
+		forest.setNumExecutionSlots(slots);
+		long base=used();
+		long start=System.nanoTime();
+		forest.buildClassifier(train);
+		forest.time=System.nanoTime()-start;
+		forest.peak=Math.max(forest.peak,used())-base;
+		return forest;
+	}
+
+	private static double[][] predictions(RandomForest forest){
+		ArrayList<Prediction> preds=forest.getOutOfBagEvaluationObject().predictions();
+		double[][] result=new double[preds.size()][];
+		for(int i=0;i<result.length;++i)
+			result[i]=((NominalPrediction)preds.get(i)).distribution();
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows=args.length>0?Integer.parseInt(args[0]):50000;
+		int trees=args.length>1?Integer.parseInt(args[1]):500;
+		Instances train=SyntheticData.classification(rows,20,0.02,new Random(1));
+		System.out.println(rows+" training instances, 20 numeric attributes, "+trees+" trees of depth 3");
+		SampledForest plain=run(train,trees,false,1);
+		SampledForest oob=run(train,trees,true,1);
+		System.out.println(String.format("out-of-bag error %.4f  area under ROC %.4f",oob.measureOutOfBagError(),
+			oob.getOutOfBagEvaluationObject().areaUnderROC(1)));
+		System.out.println(String.format("build %9.1f ms  heap %5d MB  with out-of-bag %9.1f ms  heap %5d MB",
+			plain.time/1e6,plain.peak>>20,oob.time/1e6,oob.peak>>20));
+		double[][] serial=predictions(oob);
+		for(int slots=2;slots<=8;slots*=2){
+			SampledForest parallel=run(train,trees,true,slots);
+			boolean same=Double.doubleToLongBits(parallel.measureOutOfBagError())==Double.doubleToLongBits(oob.measureOutOfBagError())
+				&&Arrays.deepEquals(predictions(parallel),serial);
+			System.out.println(String.format("%d slots  build %9.1f ms  out-of-bag predictions %s",
+				slots,parallel.time/1e6,same?"identical":"DIFFERENT"));
+		}
+	}
+}
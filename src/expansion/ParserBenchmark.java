@@ -0,0 +1,101 @@
+package expansion;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import weka.core.Instances;
+import weka.core.converters.AbstractFileLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+
+/**
+ * Compares the StreamTokenizer based loading of ARFF and CSV data with
+ * FastDataParser (fastParsing on one thread and on all processors). The data
+ * section of each file is stacked several times and loaded from memory, so
+ * only parsing is timed. Also checks that all ways give the same instances.
+ */
+public class ParserBenchmark {
+	private static final int reps=5;
+
+	/** repeats the data part of a file; for CSV the first line is the header */
+	private static byte[] stack(File file,int times) throws Exception{
+		String text=new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8);
+		int split;
+		if(file.getName().endsWith(".csv"))
+			split=text.indexOf('\n')+1;
+		else{
+			split=text.toLowerCase().indexOf("@data");
+			split=text.indexOf('\n',split)+1;
+		}
+		StringBuilder result=new StringBuilder(text.substring(0,split));
+		String data=text.substring(split);
+		if(!data.endsWith("\n"))
+			data+="\n";
+		for(int i=0;i<times;++i)
+			result.append(data);
+		return result.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Instances load(byte[] data,boolean csv,boolean fast,int threads) throws Exception{
+		AbstractFileLoader loader;
+		if(csv){
+			CSVLoader csvLoader=new CSVLoader();
+			csvLoader.setFastParsing(fast);
+			csvLoader.setNumThreads(threads);
+			loader=csvLoader;
+		}else{
+			ArffLoader arffLoader=new ArffLoader();
+			arffLoader.setFastParsing(fast);
+			arffLoader.setNumThreads(threads);
+			loader=arffLoader;
+		}
+		loader.setSource(new ByteArrayInputStream(data));
+		return loader.getDataSet();
+	}
+
+	private static void check(Instances a,Instances b){
+		if(!a.equalHeaders(b)||a.numInstances()!=b.numInstances())
+			throw new IllegalStateException("headers differ: "+a.equalHeadersMsg(b));
+		for(int r=0;r<a.numInstances();++r){
+			if(a.instance(r).weight()!=b.instance(r).weight())
+				throw new IllegalStateException("weight differs at row "+r);
+			for(int c=0;c<a.numAttributes();++c){
+				double x=a.instance(r).value(c),y=b.instance(r).value(c);
+				if(Double.doubleToLongBits(x)!=Double.doubleToLongBits(y))
+					throw new IllegalStateException("values differ at row "+r+" column "+c);
+			}
+		}
+	}
+
+	private static Instances measure(String name,byte[] data,boolean csv,boolean fast,int threads,boolean print) throws Exception{
+		Instances result=null;
+		long start=System.nanoTime();
+		for(int i=0;i<reps;++i)
+			result=load(data,csv,fast,threads);
+		long time=System.nanoTime()-start;
+		double mb=data.length/(double)(1<<20);
+		if(print)
+			System.out.println(String.format("%-14s %9.1f ms  %7.1f MB/s",name,time/1e6/reps,mb*reps/(time/1e9)));
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception{
+		String[] files=args.length>0?args[0].split(","):new String[]{"data/AEEEM/ML.arff","data/PROMISEcsv/xalan-2.6.csv"};
+		int stack=args.length>1?Integer.parseInt(args[1]):50;
+		int cores=Runtime.getRuntime().availableProcessors();
+		for(String file:files){
+			boolean csv=file.endsWith(".csv");
+			byte[] data=stack(new File(file),stack);
+			Instances reference=load(data,csv,false,1);
+			System.out.println(file+" x"+stack+": "+data.length/1024+" KB, "+reference.numInstances()+" instances, "+reference.numAttributes()+" attributes");
+			for(int pass=0;pass<2;++pass){
+				boolean print=pass==1;
+				measure("StreamTokenizer",data,csv,false,1,print);
+				check(reference,measure("fast",data,csv,true,1,print));
+				check(reference,measure("fast x"+cores,data,csv,true,cores,print));
+			}
+		}
+	}
+}
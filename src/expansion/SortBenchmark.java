@@ -0,0 +1,68 @@
+package expansion;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.attributeSelection.NonDominatedSorter;
+
+/**
+ * Times the non-dominated sorting algorithms on random populations of
+ * (-feature number, AUC) pairs, and on three objectives, for population
+ * sizes between 40 and 10,000. The naive algorithm is the pairwise counting
+ * NSGAII used before NonDominatedSorter.
+ */
+public class SortBenchmark {
+	private static final int[] sizes={40,100,400,1000,4000,10000};
+
+	private static final int[] algorithms={NonDominatedSorter.SORT_NAIVE,NonDominatedSorter.SORT_SWEEP,NonDominatedSorter.SORT_ENS};
+
+	private static final String[] algorithmNames={"naive","sweep","ens"};
+
+	private static double[] population(int n,int m,Random rnd){
+		double[] obj=new double[n*m];
+		for(int i=0;i<n;++i){
+			obj[i*m]=-(1+rnd.nextInt(40));
+			for(int k=1;k<m;++k)
+				obj[i*m+k]=0.5+rnd.nextDouble()/2;
+		}
+		return obj;
+	}
+
+	private static double time(NonDominatedSorter sorter,double[] obj,int n,int m,int[] rank){
+		// repeat until at least 200ms have been spent
+		long start=System.nanoTime();
+		int reps=0;
+		do{
+			sorter.sort(obj, n, m, rank);
+			++reps;
+		}while(System.nanoTime()-start<200000000L);
+		return (System.nanoTime()-start)/1e6/reps;
+	}
+
+	public static void main(String[] args){
+		Random rnd=new Random(1);
+		for(int m=2;m<=3;++m){
+			System.out.println("objectives="+m);
+			System.out.print("N");
+			for(String name:algorithmNames)
+				System.out.print(","+name+"(ms)");
+			System.out.println();
+			for(int n:sizes){
+				double[] obj=population(n, m, rnd);
+				int[] expected=new int[n];
+				new NonDominatedSorter(NonDominatedSorter.SORT_NAIVE).sort(obj, n, m, expected);
+				System.out.print(n);
+				for(int a:algorithms){
+					NonDominatedSorter sorter=new NonDominatedSorter(a);
+					int[] rank=new int[n];
+					time(sorter, obj, n, m, rank); // warm up
+					double ms=time(sorter, obj, n, m, rank);
+					if(!Arrays.equals(rank, expected))
+						throw new IllegalStateException(algorithmNames[a-1]+" disagrees with naive for N="+n);
+					System.out.print(","+String.format("%.4f",ms));
+				}
+				System.out.println();
+			}
+		}
+	}
+}
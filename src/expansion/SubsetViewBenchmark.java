@@ -0,0 +1,86 @@
+package expansion;
+
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+
+/**
+ * Compares the heap allocated to restrict a dataset to an attribute subset,
+ * once with the copy + Remove filter + copy path the wrapper used before
+ * Instances.attributeView, and once with the view. Also checks that both
+ * give the same values.
+ */
+public class SubsetViewBenchmark {
+	private static final int reps=200;
+
+	private static com.sun.management.ThreadMXBean bean=(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static Instances filterCopy(Instances data,int[] features) throws Exception{
+		Remove delTransform=new Remove();
+		Instances trainCopy=new Instances(data);
+		delTransform.setInvertSelection(true);
+		delTransform.setAttributeIndicesArray(features);
+		delTransform.setInputFormat(trainCopy);
+		trainCopy=Filter.useFilter(trainCopy, delTransform);
+		trainCopy.setClassIndex(trainCopy.numAttributes()-1);
+		return new Instances(trainCopy);
+	}
+
+	private static int[] randomSubset(Instances data,Random rnd){
+		int n=0;
+		int[] tmp=new int[data.numAttributes()];
+		for(int i=0;i<data.numAttributes()-1;++i)
+			if(rnd.nextBoolean())
+				tmp[n++]=i;
+		tmp[n++]=data.classIndex();
+		int[] features=new int[n];
+		System.arraycopy(tmp, 0, features, 0, n);
+		return features;
+	}
+
+	public static void main(String[] args) throws Exception{
+		String file=args.length>0?args[0]:"data/AEEEM/JDT.arff";
+		Instances data=new Instances(new FileReader(file));
+		data.setClassIndex(data.numAttributes()-1);
+		Random rnd=new Random(1);
+		int[][] subsets=new int[reps][];
+		for(int i=0;i<reps;++i)
+			subsets[i]=randomSubset(data, rnd);
+
+		for(int i=0;i<reps;++i){
+			Instances a=filterCopy(data, subsets[i]);
+			Instances b=data.attributeView(subsets[i]);
+			for(int r=0;r<a.numInstances();++r)
+				for(int c=0;c<a.numAttributes();++c)
+					if(Double.compare(a.instance(r).value(c),b.instance(r).value(c))!=0)
+						throw new IllegalStateException("view differs at row "+r+" column "+c);
+		}
+
+		long tid=Thread.currentThread().getId();
+		for(int pass=0;pass<2;++pass){
+			long bytes=bean.getThreadAllocatedBytes(tid);
+			long start=System.nanoTime();
+			for(int i=0;i<reps;++i)
+				filterCopy(data, subsets[i]);
+			long copyBytes=bean.getThreadAllocatedBytes(tid)-bytes;
+			long copyTime=System.nanoTime()-start;
+
+			bytes=bean.getThreadAllocatedBytes(tid);
+			start=System.nanoTime();
+			for(int i=0;i<reps;++i)
+				new Instances(data.attributeView(subsets[i]));
+			long viewBytes=bean.getThreadAllocatedBytes(tid)-bytes;
+			long viewTime=System.nanoTime()-start;
+
+			if(pass==1){
+				System.out.println(file+": "+data.numInstances()+" instances, "+data.numAttributes()+" attributes");
+				System.out.println("filter+copies: "+copyBytes/reps/1024+" KB, "+String.format("%.3f",copyTime/1e6/reps)+" ms per subset");
+				System.out.println("view:          "+viewBytes/reps/1024+" KB, "+String.format("%.3f",viewTime/1e6/reps)+" ms per subset");
+			}
+		}
+	}
+}
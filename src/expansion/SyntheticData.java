@@ -0,0 +1,56 @@
+package expansion;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Synthetic data for the tree and forest benchmarks: Gaussian numeric
+ * attributes of which the first four are informative, with a numeric target
+ * or a two-valued class derived from it, and values missing at random.
+ */
+class SyntheticData {
+
+	private SyntheticData(){
+	}
+
+	/** a numeric target, the last attribute */
+	static Instances regression(int rows,int dims,double missingRate,Random rand){
+		return data(rows,dims,false,missingRate,rand);
+	}
+
+	/** a two-valued class, the last attribute */
+	static Instances classification(int rows,int dims,double missingRate,Random rand){
+		return data(rows,dims,true,missingRate,rand);
+	}
+
+	private static Instances data(int rows,int dims,boolean nominalClass,double missingRate,Random rand){
+		if(dims<4)
+			throw new IllegalArgumentException("at least 4 attributes are needed, not "+dims);
+		ArrayList<Attribute> atts=new ArrayList<Attribute>();
+		for(int j=0;j<dims;++j)
+			atts.add(new Attribute("a"+j));
+		ArrayList<String> labels=new ArrayList<String>();
+		labels.add("neg");
+		labels.add("pos");
+		atts.add(nominalClass?new Attribute("class",labels):new Attribute("target"));
+		Instances data=new Instances("synthetic",atts,rows);
+		data.setClassIndex(dims);
+		for(int i=0;i<rows;++i){
+			double[] values=new double[dims+1];
+			for(int j=0;j<dims;++j)
+				values[j]=rand.nextGaussian();
+			double y=Math.sin(2*values[0])+values[1]*values[2]+(values[3]>0.5?1:0)+0.5*rand.nextGaussian();
+			for(int j=0;j<dims;++j)
+				if(rand.nextDouble()<missingRate)
+					values[j]=Utils.missingValue();
+			values[dims]=nominalClass?(y>0.5?1:0):y;
+			data.add(new DenseInstance(1,values));
+		}
+		return data;
+	}
+}
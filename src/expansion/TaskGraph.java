@@ -0,0 +1,214 @@
+package expansion;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a graph of tasks on a fixed number of threads. A task is started once
+ * all tasks it depends on have finished, and it can read their results with
+ * Node.get(). Tasks that must not overlap, e.g. because they write through the
+ * same dataOut, are chained with dependencies.
+ * <p/>
+ * Each task's CPU time is taken from ThreadMXBean for the thread that runs it,
+ * so it stays comparable to a sequential run when several tasks share the
+ * cores. Work a task hands to other threads is not included.
+ */
+public class TaskGraph {
+	private static final ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+
+	static{
+		if(bean.isCurrentThreadCpuTimeSupported()&&!bean.isThreadCpuTimeEnabled())
+			bean.setThreadCpuTimeEnabled(true);
+	}
+
+	/**
+	 * A task in the graph and its result.
+	 */
+	public class Node<T>{
+		private final String name;
+		private final Callable<T> task;
+		private final List<Node<?>> dependents=new ArrayList<Node<?>>();
+		private int pending;
+		private T result;
+		private long cpuTime;
+		private long wallTime;
+
+		private Node(String name,Callable<T> task){
+			this.name=name;
+			this.task=task;
+		}
+
+		private Node<T> call() throws Exception{
+			long cpu=cpuTime();
+			long wall=System.nanoTime();
+			result=task.call();
+			cpuTime=cpuTime()-cpu;
+			wallTime=System.nanoTime()-wall;
+			return this;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * @return the result of the task, valid in the tasks depending on it
+		 *         and after run()
+		 */
+		public T get(){
+			return result;
+		}
+
+		/**
+		 * @return the CPU time of the task (ns)
+		 */
+		public long getCpuTime(){
+			return cpuTime;
+		}
+
+		/**
+		 * @return the wall time of the task (ns)
+		 */
+		public long getWallTime(){
+			return wallTime;
+		}
+	}
+
+	private final int concurrency;
+
+	private final List<Node<?>> nodes=new ArrayList<Node<?>>();
+
+	private long wallTime;
+
+	/**
+	 * @param concurrency
+	 *            the number of tasks run at the same time, 0 for the number
+	 *            of available processors
+	 */
+	public TaskGraph(int concurrency){
+		this.concurrency=concurrency>0?concurrency:Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Adds a task.
+	 *
+	 * @param name
+	 *            the name used in the report
+	 * @param task
+	 *            the task
+	 * @param dependsOn
+	 *            the tasks that must finish first
+	 * @return the node of the task
+	 */
+	public synchronized <T> Node<T> add(String name,Callable<T> task,Node<?>... dependsOn){
+		Node<T> node=new Node<T>(name,task);
+		for(Node<?> m:dependsOn){
+			m.dependents.add(node);
+			++node.pending;
+		}
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Adds a task that depends on a list of tasks.
+	 */
+	public <T> Node<T> add(String name,Callable<T> task,List<? extends Node<?>> dependsOn){
+		return add(name,task,dependsOn.toArray(new Node<?>[dependsOn.size()]));
+	}
+
+	/**
+	 * Runs all tasks. When a task fails no further tasks are started, the
+	 * running ones are finished and the first failure is thrown.
+	 *
+	 * @throws Exception
+	 *             the exception of the first failed task
+	 */
+	public synchronized void run() throws Exception{
+		long start=System.nanoTime();
+		ExecutorService pool=Executors.newFixedThreadPool(concurrency);
+		CompletionService<Node<?>> done=new ExecutorCompletionService<Node<?>>(pool);
+		int running=0;
+		int finished=0;
+		Exception failure=null;
+		try{
+			for(Node<?> m:nodes)
+				if(m.pending==0){
+					submit(done,m);
+					++running;
+				}
+			while(running>0){
+				Future<Node<?>> f=done.take();
+				--running;
+				try{
+					Node<?> node=f.get();
+					++finished;
+					if(failure!=null)
+						continue;
+					for(Node<?> m:node.dependents)
+						if(--m.pending==0){
+							submit(done,m);
+							++running;
+						}
+				}catch(ExecutionException e){
+					if(failure==null)
+						failure=e.getCause() instanceof Exception?(Exception)e.getCause():e;
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+			wallTime=System.nanoTime()-start;
+		}
+		if(failure!=null)
+			throw failure;
+		if(finished<nodes.size())
+			throw new IllegalStateException((nodes.size()-finished)+" tasks never became ready");
+	}
+
+	private <T> void submit(CompletionService<Node<?>> done,final Node<T> node){
+		done.submit(new Callable<Node<?>>(){
+			@Override
+			public Node<?> call() throws Exception{
+				return node.call();
+			}
+		});
+	}
+
+	/**
+	 * @return the CPU time used by the current thread (ns), or the wall clock
+	 *         if the JVM doesn't measure thread CPU time
+	 */
+	public static long cpuTime(){
+		if(bean.isCurrentThreadCpuTimeSupported())
+			return bean.getCurrentThreadCpuTime();
+		return System.nanoTime();
+	}
+
+	public int getConcurrency(){
+		return concurrency;
+	}
+
+	/**
+	 * @return the CPU and wall time of each task and of the whole run
+	 */
+	public synchronized String toString(){
+		StringBuilder str=new StringBuilder();
+		long cpu=0;
+		for(Node<?> m:nodes){
+			str.append(String.format("%-40s cpu %10.3f s  wall %10.3f s%n",m.name,m.cpuTime/1e9,m.wallTime/1e9));
+			cpu+=m.cpuTime;
+		}
+		str.append(String.format("%d tasks on %d threads: cpu %.3f s, wall %.3f s, speed-up %.2f%n",nodes.size(),
+				concurrency,cpu/1e9,wallTime/1e9,wallTime>0?(double)cpu/wallTime:0.0));
+		return str.toString();
+	}
+}
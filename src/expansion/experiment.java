@@ -20,12 +20,18 @@ public abstract class experiment {
 	protected dataOut output;
 	
 	protected void randomSplit(Instances dataSet, double d,int seed) throws Exception {
+		Instances[] split=split(dataSet, d, seed);
+		trainSet = split[0];
+		testSet = split[1];
+	}
+	
+	/** like randomSplit, but returns {train, test} instead of setting the fields */
+	protected Instances[] split(Instances dataSet, double d,int seed) {
 		dataSet.randomize(new Random(seed));
 		int dataSize = dataSet.numInstances();
 		int trainSize = (int)Math.round(dataSize * d);
         int testSize = dataSize - trainSize;
-        trainSet = new Instances(dataSet, 0, trainSize);
-        testSet = new Instances(dataSet, trainSize, testSize);
+        return new Instances[]{new Instances(dataSet, 0, trainSize), new Instances(dataSet, trainSize, testSize)};
 	}
 	
 	public experiment(){
@@ -0,0 +1,430 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FitnessCache.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.core.Instances;
+
+/**
+ * A thread-safe, size-bounded cache of the objective values of evaluated
+ * chromosomes. The cache is split into lock-striped segments, each kept in
+ * least-recently-used order. A chromosome that is requested by several threads
+ * at the same time is evaluated only once; the other threads wait for the
+ * result.
+ * <p/>
+ * A cache can be shared between several searches. It is bound to the
+ * training data and evaluator settings it was filled with, and it clears
+ * itself when it is bound to different ones.
+ */
+public class FitnessCache {
+
+	/** number of lock stripes */
+	protected static final int SEGMENTS = 16;
+
+	/**
+	 * Computes the objective values of a chromosome on a cache miss.
+	 */
+	public interface Evaluator {
+		/**
+		 * evaluates a chromosome
+		 *
+		 * @param chromosome
+		 *            the attribute subset to evaluate
+		 * @return the objective values
+		 * @throws Exception
+		 *             if the subset can't be evaluated
+		 */
+		double[] evaluate(BitSet chromosome) throws Exception;
+	}
+
+	/**
+	 * Compact, immutable key holding the words of a chromosome.
+	 */
+	protected static final class Key {
+		private final long[] m_words;
+		private final int m_hash;
+
+		public Key(BitSet chromosome) {
+			m_words = chromosome.toLongArray();
+			m_hash = Arrays.hashCode(m_words);
+		}
+
+		@Override
+		public int hashCode() {
+			return m_hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return m_hash == k.m_hash && Arrays.equals(m_words, k.m_words);
+		}
+	}
+
+	/**
+	 * One lock stripe. The map is kept in access order so the eldest entry is
+	 * the least recently used one.
+	 */
+	protected static final class Segment extends LinkedHashMap<Key, FutureTask<double[]>> {
+		private static final long serialVersionUID = 4309218877401716325L;
+
+		private final int m_capacity;
+		private long m_evictions;
+
+		public Segment(int capacity) {
+			super(16, 0.75f, true);
+			m_capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<double[]>> eldest) {
+			if (m_capacity > 0 && size() > m_capacity) {
+				++m_evictions;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/** the lock stripes */
+	private final Segment[] m_segments;
+
+	/** the maximum number of entries (0 = unbounded) */
+	private final int m_maxSize;
+
+	/** number of lookups answered from the cache */
+	private final AtomicLong m_hits = new AtomicLong();
+
+	/** number of lookups that required an evaluation */
+	private final AtomicLong m_misses = new AtomicLong();
+
+	/** the training data the cached values were computed on */
+	private WeakReference<Instances> m_data;
+
+	/** the evaluator settings the cached values were computed with */
+	private String m_settings;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSize
+	 *            the maximum number of cached chromosomes, 0 for no bound
+	 */
+	public FitnessCache(int maxSize) {
+		m_maxSize = Math.max(maxSize, 0);
+		int perSegment = m_maxSize == 0 ? 0 : (m_maxSize + SEGMENTS - 1) / SEGMENTS;
+		m_segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; ++i)
+			m_segments[i] = new Segment(perSegment);
+	}
+
+	private Segment segmentFor(Key key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return m_segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Binds the cache to a training set and evaluator settings. If either
+	 * differs from the ones the cache is currently bound to, all entries are
+	 * dropped.
+	 *
+	 * @param data
+	 *            the training data (compared by identity)
+	 * @param settings
+	 *            a description of everything else that affects the objective
+	 *            values, e.g. the evaluator options
+	 */
+	public synchronized void bind(Instances data, String settings) {
+		Instances current = m_data == null ? null : m_data.get();
+		if (current != data || !settings.equals(m_settings)) {
+			clear();
+			m_data = new WeakReference<Instances>(data);
+			m_settings = settings;
+		}
+	}
+
+	/**
+	 * Returns the objective values of a chromosome, evaluating it if it is not
+	 * cached yet. The returned array is shared and must not be modified.
+	 *
+	 * @param chromosome
+	 *            the chromosome to look up
+	 * @param evaluator
+	 *            computes the objective values on a miss
+	 * @return the objective values
+	 * @throws Exception
+	 *             if the evaluation fails
+	 */
+	public double[] get(final BitSet chromosome, final Evaluator evaluator) throws Exception {
+		Key key = new Key(chromosome);
+		Segment seg = segmentFor(key);
+		FutureTask<double[]> task;
+		boolean owner = false;
+		synchronized (seg) {
+			task = seg.get(key);
+			if (task == null) {
+				final BitSet copy = (BitSet) chromosome.clone();
+				task = new FutureTask<double[]>(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						return evaluator.evaluate(copy);
+					}
+				});
+				seg.put(key, task);
+				owner = true;
+			}
+		}
+
+		if (owner) {
+			m_misses.incrementAndGet();
+			task.run();
+		} else {
+			m_hits.incrementAndGet();
+		}
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			// don't keep failed evaluations around
+			synchronized (seg) {
+				if (seg.get(key) == task)
+					seg.remove(key);
+			}
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Convenience method that evaluates misses with a wrapper evaluator.
+	 *
+	 * @param chromosome
+	 *            the chromosome to look up
+	 * @param evaluator
+	 *            the wrapper used on a miss
+	 * @param statNames
+	 *            the objectives to compute
+	 * @return the objective values
+	 * @throws Exception
+	 *             if the evaluation fails
+	 */
+	public double[] get(BitSet chromosome, final WrapperSubsetEval evaluator, final String[] statNames)
+			throws Exception {
+		return get(chromosome, new Evaluator() {
+			@Override
+			public double[] evaluate(BitSet c) throws Exception {
+				return evaluator.evaluateSubset(c, statNames);
+			}
+		});
+	}
+
+	/**
+	 * Returns the cached objective values of a chromosome without evaluating
+	 * it.
+	 *
+	 * @param chromosome
+	 *            the chromosome to look up
+	 * @return the objective values, or null if not cached or still being
+	 *         evaluated
+	 */
+	public double[] peek(BitSet chromosome) {
+		Key key = new Key(chromosome);
+		Segment seg = segmentFor(key);
+		FutureTask<double[]> task;
+		synchronized (seg) {
+			task = seg.get(key);
+		}
+		if (task == null || !task.isDone())
+			return null;
+		try {
+			return task.get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the evaluated entries, e.g. to checkpoint a search. Entries are
+	 * listed segment by segment, least recently used first, so putting them
+	 * back in this order restores the eviction order. Entries that are still
+	 * being evaluated are left out.
+	 *
+	 * @return the chromosomes and their objective values
+	 */
+	public List<Map.Entry<BitSet, double[]>> entries() {
+		List<Map.Entry<BitSet, double[]>> entries = new ArrayList<Map.Entry<BitSet, double[]>>();
+		for (Segment seg : m_segments) {
+			synchronized (seg) {
+				for (Map.Entry<Key, FutureTask<double[]>> e : seg.entrySet()) {
+					FutureTask<double[]> task = e.getValue();
+					if (!task.isDone())
+						continue;
+					try {
+						entries.add(new AbstractMap.SimpleImmutableEntry<BitSet, double[]>(
+								BitSet.valueOf(e.getKey().m_words), task.get()));
+					} catch (Exception ex) {
+						// failed evaluation, not cached
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Adds the objective values of a chromosome that were computed elsewhere,
+	 * e.g. when restoring a checkpoint. The hit and miss counters are not
+	 * changed.
+	 *
+	 * @param chromosome
+	 *            the chromosome
+	 * @param values
+	 *            its objective values
+	 */
+	public void put(BitSet chromosome, double[] values) {
+		Key key = new Key(chromosome);
+		Segment seg = segmentFor(key);
+		FutureTask<double[]> task = new FutureTask<double[]>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, values);
+		task.run();
+		synchronized (seg) {
+			seg.put(key, task);
+		}
+	}
+
+	/**
+	 * Sets the hit, miss and eviction counters, e.g. when restoring a
+	 * checkpoint. Only the total number of evictions is kept.
+	 *
+	 * @param hits
+	 *            the number of lookups answered from the cache
+	 * @param misses
+	 *            the number of lookups that required an evaluation
+	 * @param evictions
+	 *            the number of entries dropped to respect the size bound
+	 */
+	public void setStatistics(long hits, long misses, long evictions) {
+		resetStatistics();
+		m_hits.set(hits);
+		m_misses.set(misses);
+		synchronized (m_segments[0]) {
+			m_segments[0].m_evictions = evictions;
+		}
+	}
+
+	/**
+	 * Removes all entries. The hit and miss counters are kept.
+	 */
+	public void clear() {
+		for (Segment seg : m_segments) {
+			synchronized (seg) {
+				seg.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of cached chromosomes
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment seg : m_segments) {
+			synchronized (seg) {
+				size += seg.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the maximum number of cached chromosomes (0 = unbounded)
+	 */
+	public int getMaxSize() {
+		return m_maxSize;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return m_hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that required an evaluation
+	 */
+	public long getMisses() {
+		return m_misses.get();
+	}
+
+	/**
+	 * @return the number of entries dropped to respect the size bound
+	 */
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment seg : m_segments) {
+			synchronized (seg) {
+				evictions += seg.m_evictions;
+			}
+		}
+		return evictions;
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters.
+	 */
+	public void resetStatistics() {
+		m_hits.set(0);
+		m_misses.set(0);
+		for (Segment seg : m_segments) {
+			synchronized (seg) {
+				seg.m_evictions = 0;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Fitness cache: " + size() + " entries, " + getHits() + " hits, " + getMisses() + " misses, "
+				+ getEvictions() + " evictions";
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FitnessCompute.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.rmi.MarshalledObject;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface to a worker that evaluates chromosomes for a remote genetic
+ * search.
+ *
+ * @see FitnessEngine
+ * @see RemoteFitnessEvaluator
+ */
+public interface FitnessCompute extends Remote {
+
+	/**
+	 * Prepares the worker for a search. The evaluator, including its training
+	 * data, is sent once and kept until the next call.
+	 *
+	 * @param session
+	 *            identifies the search, passed again with every evaluation
+	 * @param evaluator
+	 *            the built wrapper evaluator. It is sent marshalled so the
+	 *            plugin metrics can be registered before it is deserialized
+	 * @param statNames
+	 *            the objectives to compute
+	 * @param pluginMetrics
+	 *            pairs of plugin metric names and class names to register
+	 * @param slots
+	 *            the number of evaluations the worker runs at the same time
+	 * @throws Exception
+	 *             if the evaluator can't be set up
+	 */
+	void init(String session, MarshalledObject<WrapperSubsetEval> evaluator, String[] statNames,
+			String[][] pluginMetrics, int slots) throws RemoteException, Exception;
+
+	/**
+	 * Evaluates a chromosome.
+	 *
+	 * @param session
+	 *            the session passed to init()
+	 * @param chromosome
+	 *            the words of the chromosome's BitSet
+	 * @param seed
+	 *            the cross validation seed
+	 * @return the objective values
+	 * @throws Exception
+	 *             if the chromosome can't be evaluated
+	 */
+	double[] evaluate(String session, long[] chromosome, int seed) throws RemoteException, Exception;
+
+	/**
+	 * Stops the worker process.
+	 *
+	 * @throws RemoteException
+	 *             if the call fails
+	 */
+	void shutdown() throws RemoteException;
+}
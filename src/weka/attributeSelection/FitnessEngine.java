@@ -0,0 +1,201 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FitnessEngine.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.rmi.MarshalledObject;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.classifiers.evaluation.AbstractEvaluationMetric;
+import weka.core.PluginManager;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * A worker process that evaluates chromosomes sent via RMI, in the style of
+ * weka.experiment.RemoteEngine. The training data travels once, inside the
+ * evaluator passed to init(); every evaluation then only carries the
+ * chromosome and the cross validation seed.
+ * <p/>
+ * Start with
+ *
+ * <pre>
+ * java weka.attributeSelection.FitnessEngine [-p &lt;port&gt;]
+ * </pre>
+ *
+ * An RMI registry is created on the port (default 1099) if none is running.
+ * The engine is bound as //&lt;host&gt;:&lt;port&gt;/FitnessEngine.
+ */
+public class FitnessEngine extends UnicastRemoteObject implements FitnessCompute, RevisionHandler {
+
+	/** for serialization */
+	private static final long serialVersionUID = -3342808766932017290L;
+
+	/** the name the engine is bound under */
+	public static final String BINDING = "FitnessEngine";
+
+	/** printed to standard output once the engine can be looked up */
+	public static final String READY = "FitnessEngine bound in RMI registry";
+
+	/** the current session */
+	private String m_session;
+
+	/** the objectives of the current session */
+	private String[] m_statNames;
+
+	/** one evaluator per slot */
+	private BlockingQueue<WrapperSubsetEval> m_evaluators;
+
+	/** number of evaluations done */
+	private final AtomicLong m_evaluations = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @exception RemoteException
+	 *                if the engine can't be exported
+	 */
+	public FitnessEngine() throws RemoteException {
+		super();
+	}
+
+	@Override
+	public void init(String session, MarshalledObject<WrapperSubsetEval> evaluator, String[] statNames,
+			String[][] pluginMetrics, int slots) throws Exception {
+		// register the metrics before WrapperSubsetEval builds its tags
+		if (pluginMetrics != null) {
+			for (String[] metric : pluginMetrics) {
+				PluginManager.addPlugin(AbstractEvaluationMetric.class.getName(), metric[0], metric[1]);
+			}
+		}
+
+		WrapperSubsetEval eval = evaluator.get();
+		slots = Math.max(slots, 1);
+		BlockingQueue<WrapperSubsetEval> evaluators = new ArrayBlockingQueue<WrapperSubsetEval>(slots);
+		evaluators.add(eval);
+		for (int i = 1; i < slots; ++i) {
+			evaluators.add((WrapperSubsetEval) eval.clone());
+		}
+
+		synchronized (this) {
+			m_session = session;
+			m_statNames = statNames;
+			m_evaluators = evaluators;
+		}
+		System.err.println("FitnessEngine : session " + session + " initialised with " + slots + " slot(s).");
+	}
+
+	@Override
+	public double[] evaluate(String session, long[] chromosome, int seed) throws Exception {
+		BlockingQueue<WrapperSubsetEval> evaluators;
+		String[] statNames;
+		synchronized (this) {
+			if (m_session == null || !m_session.equals(session)) {
+				throw new Exception("FitnessEngine : unknown session " + session);
+			}
+			evaluators = m_evaluators;
+			statNames = m_statNames;
+		}
+
+		WrapperSubsetEval eval = evaluators.take();
+		try {
+			eval.setSeed(seed);
+			double[] result = eval.evaluateSubset(BitSet.valueOf(chromosome), statNames);
+			m_evaluations.incrementAndGet();
+			return result;
+		} finally {
+			evaluators.put(eval);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		System.err.println("FitnessEngine : shutting down after " + m_evaluations.get() + " evaluations.");
+		// exit once the reply has been sent
+		Thread exit = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				System.exit(0);
+			}
+		};
+		exit.setDaemon(true);
+		exit.start();
+	}
+
+	/**
+	 * Returns the revision string.
+	 *
+	 * @return the revision
+	 */
+	@Override
+	public String getRevision() {
+		return RevisionUtils.extract("$Revision: 13375 $");
+	}
+
+	/**
+	 * Main method. Creates an engine and binds it in the RMI registry on the
+	 * given port, starting a registry if there is none.
+	 *
+	 * @param args
+	 *            -p &lt;port&gt;
+	 */
+	public static void main(String[] args) {
+		int port = 1099;
+		try {
+			String portOption = Utils.getOption('p', args);
+			if (portOption.length() != 0) {
+				port = Integer.parseInt(portOption);
+			}
+		} catch (Exception ex) {
+			System.err.println("Usage : -p <port>");
+			System.exit(1);
+		}
+
+		String name = "//localhost:" + port + "/" + BINDING;
+		try {
+			FitnessCompute engine = new FitnessEngine();
+			try {
+				Naming.rebind(name, engine);
+			} catch (RemoteException ex) {
+				System.err.println("Attempting to start RMI registry on port " + port + "...");
+				LocateRegistry.createRegistry(port);
+				Naming.bind(name, engine);
+			}
+			System.out.println(READY);
+			System.out.flush();
+		} catch (Exception e) {
+			System.err.println("FitnessEngine exception: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
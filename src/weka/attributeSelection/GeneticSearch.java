@@ -21,6 +21,7 @@
 
 package weka.attributeSelection;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.BitSet;
 import java.util.Enumeration;
@@ -116,6 +117,19 @@ import weka.core.Utils;
  *  (default = 1)
  * </pre>
  * 
+ * <pre>
+ * -checkpoint &lt;file&gt;
+ *  Save the state of the search to this file and resume
+ *  from it if it exists.
+ *  (default = no checkpointing)
+ * </pre>
+ * 
+ * <pre>
+ * -checkpoint-interval &lt;generations&gt;
+ *  Save a checkpoint every this many generations.
+ *  (default = 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -191,6 +205,12 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
   /** holds the generation reports */
   private StringBuffer m_generationReports;
 
+  /** the file the state of the search is saved to, empty for none */
+  private String m_checkpointFile;
+
+  /** save a checkpoint every this many generations */
+  private int m_checkpointInterval;
+
   // Inner class
   /**
    * A bitset for the genetic algorithm
@@ -333,7 +353,7 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
    **/
   @Override
   public Enumeration<Option> listOptions() {
-    Vector<Option> newVector = new Vector<Option>(7);
+    Vector<Option> newVector = new Vector<Option>(9);
 
     newVector.addElement(new Option("\tSpecify a starting set of attributes."
       + "\n\tEg. 1,3,5-7." + "If supplied, the starting set becomes"
@@ -356,6 +376,14 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       "-R <report frequency>"));
     newVector.addElement(new Option("\tSet the random number seed."
       + "\n\t(default = 1)", "S", 1, "-S <seed>"));
+    newVector.addElement(new Option(
+      "\tSave the state of the search to this file and resume"
+        + "\n\tfrom it if it exists." + "\n\t(default = no checkpointing)",
+      "checkpoint", 1, "-checkpoint <file>"));
+    newVector.addElement(new Option(
+      "\tSave a checkpoint every this many generations."
+        + "\n\t(default = 1)", "checkpoint-interval", 1,
+      "-checkpoint-interval <generations>"));
     return newVector.elements();
   }
 
@@ -412,6 +440,19 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
    *  (default = 1)
    * </pre>
    * 
+   * <pre>
+   * -checkpoint &lt;file&gt;
+   *  Save the state of the search to this file and resume
+   *  from it if it exists.
+   *  (default = no checkpointing)
+   * </pre>
+   * 
+   * <pre>
+   * -checkpoint-interval &lt;generations&gt;
+   *  Save a checkpoint every this many generations.
+   *  (default = 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -459,6 +500,13 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       setSeed(Integer.parseInt(optionString));
     }
 
+    setCheckpointFile(Utils.getOption("checkpoint", options));
+
+    optionString = Utils.getOption("checkpoint-interval", options);
+    if (optionString.length() != 0) {
+      setCheckpointInterval(Integer.parseInt(optionString));
+    }
+
     Utils.checkForRemainingOptions(options);
   }
 
@@ -488,6 +536,12 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     options.add("" + getReportFrequency());
     options.add("-S");
     options.add("" + getSeed());
+    if (getCheckpointFile().length() > 0) {
+      options.add("-checkpoint");
+      options.add(getCheckpointFile());
+      options.add("-checkpoint-interval");
+      options.add("" + getCheckpointInterval());
+    }
 
     return options.toArray(new String[0]);
   }
@@ -556,6 +610,65 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     return m_seed;
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String checkpointFileTipText() {
+    return "The file the population, the random state and the lookup table "
+      + "are saved to during the search. If it exists when a search starts, "
+      + "the search resumes from it. Leave empty to disable checkpointing.";
+  }
+
+  /**
+   * set the checkpoint file
+   *
+   * @param file the file, empty for none
+   */
+  public void setCheckpointFile(String file) {
+    m_checkpointFile = file;
+  }
+
+  /**
+   * get the checkpoint file
+   *
+   * @return the file, empty for none
+   */
+  public String getCheckpointFile() {
+    return m_checkpointFile;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String checkpointIntervalTipText() {
+    return "Save a checkpoint every this many generations. The last "
+      + "generation is always saved.";
+  }
+
+  /**
+   * set how often a checkpoint is saved
+   *
+   * @param n the number of generations between checkpoints
+   */
+  public void setCheckpointInterval(int n) {
+    m_checkpointInterval = n;
+  }
+
+  /**
+   * get how often a checkpoint is saved
+   *
+   * @return the number of generations between checkpoints
+   */
+  public int getCheckpointInterval() {
+    return m_checkpointInterval;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -850,16 +963,28 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     m_random = new Random(m_seed);
     m_population = new GABitSet[m_popSize];
 
-    // set up random initial population
-    initPopulation();
-    evaluatePopulation(ASEvaluator);
-    populationStatistics();
-    scalePopulation();
-    checkBest();
-    m_generationReports.append(populationReport(0));
+    String settings = checkpointSettings(ASEval, data);
+    SearchCheckpoint checkpoint = readCheckpoint(settings);
+    int first = 1;
+    boolean converged = false;
+    if (checkpoint != null) {
+      restoreCheckpoint(checkpoint);
+      first = checkpoint.m_generation + 1;
+      converged = checkpoint.m_finished;
+    } else {
+      // set up random initial population
+      initPopulation();
+      evaluatePopulation(ASEvaluator);
+      populationStatistics();
+      scalePopulation();
+      checkBest();
+      m_generationReports.append(populationReport(0));
+      if (checkpointDue(0, false)) {
+        saveCheckpoint(settings, 0, false);
+      }
+    }
 
-    boolean converged;
-    for (int i = 1; i <= m_maxGenerations; i++) {
+    for (int i = first; i <= m_maxGenerations && !converged; i++) {
       generation();
       evaluatePopulation(ASEvaluator);
       populationStatistics();
@@ -870,14 +995,156 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       if ((i == m_maxGenerations) || ((i % m_reportFrequency) == 0)
         || (converged == true)) {
         m_generationReports.append(populationReport(i));
-        if (converged == true) {
-          break;
-        }
+      }
+      if (checkpointDue(i, converged)) {
+        saveCheckpoint(settings, i, converged);
       }
     }
     return attributeList(m_best.getChromosome());
   }
 
+  /**
+   * describes everything a checkpoint must agree on to be resumed. The number
+   * of generations and the report frequency are left out, so a finished
+   * search can be extended.
+   * 
+   * @param ASEval the attribute evaluator guiding the search
+   * @param data the training instances
+   * @return the settings
+   */
+  private String checkpointSettings(ASEvaluation ASEval, Instances data) {
+    String evaluator = ASEval.getClass().getName();
+    if (ASEval instanceof OptionHandler) {
+      evaluator += " "
+        + Utils.joinOptions(((OptionHandler) ASEval).getOptions());
+    }
+    return getClass().getName() + " -P " + getStartSet() + " -Z " + m_popSize
+      + " -C " + m_pCrossover + " -M " + m_pMutation + " -S " + m_seed + "\n"
+      + evaluator + "\n" + SearchCheckpoint.fingerprint(data);
+  }
+
+  /**
+   * reads the checkpoint file, if checkpointing is enabled and the file exists
+   * 
+   * @param settings the settings of the current search
+   * @return the checkpoint, or null to start from scratch
+   * @throws Exception if the file can't be read or belongs to another search
+   */
+  private SearchCheckpoint readCheckpoint(String settings) throws Exception {
+    if (m_checkpointFile.length() == 0) {
+      return null;
+    }
+    File file = new File(m_checkpointFile);
+    if (!file.exists()) {
+      return null;
+    }
+    SearchCheckpoint checkpoint = SearchCheckpoint.read(file);
+    if (!checkpoint.m_settings.equals(settings)) {
+      throw new Exception("Checkpoint " + file
+        + " was written by a search with different settings");
+    }
+    if (checkpoint.m_generation > m_maxGenerations) {
+      throw new Exception("Checkpoint " + file + " is at generation "
+        + checkpoint.m_generation + ", beyond the number of generations");
+    }
+    return checkpoint;
+  }
+
+  /**
+   * @param generation the generation just completed
+   * @param converged true if the search stops after this generation
+   * @return true if a checkpoint should be saved after the generation
+   */
+  private boolean checkpointDue(int generation, boolean converged) {
+    return m_checkpointFile.length() > 0
+      && (converged || generation == m_maxGenerations || generation
+        % Math.max(m_checkpointInterval, 1) == 0);
+  }
+
+  /**
+   * saves the state of the search after a generation to the checkpoint file.
+   * Population members keep their merit and scaled fitness, the lookup table
+   * the merit only.
+   * 
+   * @param settings the settings of the search
+   * @param generation the generation just completed
+   * @param converged true if the search stops after this generation
+   * @throws Exception if the checkpoint can't be written
+   */
+  private void saveCheckpoint(String settings, int generation,
+    boolean converged) throws Exception {
+    SearchCheckpoint checkpoint = new SearchCheckpoint();
+    checkpoint.m_settings = settings;
+    checkpoint.m_generation = generation;
+    checkpoint.m_finished = converged;
+    checkpoint.setRandom(m_random);
+    checkpoint.m_population = new SearchCheckpoint.Record[m_popSize];
+    for (int i = 0; i < m_popSize; i++) {
+      checkpoint.m_population[i] = new SearchCheckpoint.Record(
+        m_population[i].getChromosome(), new double[] {
+          m_population[i].getObjective(), m_population[i].getFitness() });
+    }
+    checkpoint.m_best = new SearchCheckpoint.Record(m_best.getChromosome(),
+      new double[] { m_best.getObjective(), m_best.getFitness() });
+    checkpoint.m_statistics = new double[] { m_sumFitness, m_maxFitness,
+      m_minFitness, m_avgFitness };
+    checkpoint.m_report = m_generationReports.toString();
+    checkpoint.m_cache = new SearchCheckpoint.Record[m_lookupTable.size()];
+    int i = 0;
+    for (GABitSet e : m_lookupTable.values()) {
+      checkpoint.m_cache[i++] = new SearchCheckpoint.Record(e.getChromosome(),
+        new double[] { e.getObjective() });
+    }
+    checkpoint.write(new File(m_checkpointFile));
+  }
+
+  /**
+   * restores the population, the best member so far, the population
+   * statistics, the lookup table and the random state from a checkpoint
+   * 
+   * @param checkpoint the checkpoint
+   * @throws Exception if the checkpoint can't be restored
+   */
+  private void restoreCheckpoint(SearchCheckpoint checkpoint) throws Exception {
+    if (checkpoint.m_population.length != m_popSize) {
+      throw new Exception("Checkpoint has " + checkpoint.m_population.length
+        + " population members, expected " + m_popSize);
+    }
+    for (int i = 0; i < m_popSize; i++) {
+      m_population[i] = restoreMember(checkpoint.m_population[i]);
+    }
+    m_best = restoreMember(checkpoint.m_best);
+    m_bestFeatureCount = countFeatures(m_best.getChromosome());
+    m_sumFitness = checkpoint.m_statistics[0];
+    m_maxFitness = checkpoint.m_statistics[1];
+    m_minFitness = checkpoint.m_statistics[2];
+    m_avgFitness = checkpoint.m_statistics[3];
+    for (SearchCheckpoint.Record r : checkpoint.m_cache) {
+      GABitSet e = restoreMember(r);
+      m_lookupTable.put(e.getChromosome(), e);
+    }
+    m_random = checkpoint.getRandom();
+    m_generationReports.append(checkpoint.m_report);
+    m_generationReports.append("\nResumed after generation "
+      + checkpoint.m_generation + "\n");
+  }
+
+  /**
+   * creates a population member from a checkpoint record
+   * 
+   * @param r the record holding the merit and, optionally, the scaled fitness
+   * @return the population member
+   */
+  private GABitSet restoreMember(SearchCheckpoint.Record r) {
+    GABitSet e = new GABitSet();
+    e.setChromosome(r.getChromosome());
+    e.setObjective(r.m_values[0]);
+    if (r.m_values.length > 1) {
+      e.setFitness(r.m_values[1]);
+    }
+    return e;
+  }
+
   /**
    * converts a BitSet into a list of attribute indexes
    * 
@@ -1322,6 +1589,8 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     m_starting = null;
     m_startRange = new Range();
     m_seed = 1;
+    m_checkpointFile = "";
+    m_checkpointInterval = 1;
   }
 
   /**
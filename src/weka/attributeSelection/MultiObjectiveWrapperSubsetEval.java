@@ -0,0 +1,555 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MultiObjectiveWrapperSubsetEval.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.evaluation.AbstractEvaluationMetric;
+import weka.classifiers.evaluation.InformationRetrievalEvaluationMetric;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.SelectedTag;
+import weka.core.Statistics;
+import weka.core.Utils;
+
+/**
+ * Wrapper evaluator for multi-objective searches that computes all objectives
+ * of a subset in one pass.
+ * <p/>
+ * Structural objectives (FN, the number of attributes) are computed from the
+ * subset without running the classifier. All metric objectives are read from
+ * the same cross-validation, which is repeated until the confidence interval
+ * of the mean of every metric objective is narrower than the threshold
+ * (relative to the mean), or the maximum number of repetitions is reached.
+ * <p/>
+ * Objective values are oriented for maximisation in the same way as
+ * WrapperSubsetEval.evaluateSubset(BitSet, String[]).
+ *
+ * <pre>
+ * -M &lt;num&gt;
+ *  Maximum number of cross validation repetitions per subset.
+ *  (default: 5)
+ * </pre>
+ *
+ * <pre>
+ * -C &lt;level&gt;
+ *  Confidence level of the interval used to stop repeating.
+ *  (default: 0.95)
+ * </pre>
+ *
+ * All options of WrapperSubsetEval are supported as well.
+ */
+public class MultiObjectiveWrapperSubsetEval extends WrapperSubsetEval {
+
+  /** for serialization */
+  private static final long serialVersionUID = 5290740119648226538L;
+
+  /** objective computed from the subset alone */
+  public static final int OBJECTIVE_STRUCTURAL = 0;
+
+  /** objective read from the cross-validation */
+  public static final int OBJECTIVE_METRIC = 1;
+
+  /** maximum number of cross-validation repetitions */
+  protected int m_maxRepetitions;
+
+  /** confidence level of the stopping interval */
+  protected double m_confidenceLevel;
+
+  /** the objective names m_objectives was resolved for */
+  protected transient String[] m_objectiveNames;
+
+  /** the resolved objectives */
+  protected transient Objective[] m_objectives;
+
+  /**
+   * A resolved objective. Immutable, so clones of the evaluator can share it.
+   */
+  protected static class Objective implements Serializable {
+
+    private static final long serialVersionUID = -2751908462305374124L;
+
+    /** OBJECTIVE_STRUCTURAL or OBJECTIVE_METRIC */
+    protected final int m_type;
+
+    /** the EVAL_* ID of a metric objective */
+    protected final int m_id;
+
+    /** the plugin metric name, if any */
+    protected final String m_metricName;
+
+    /** the plugin statistic name, if any */
+    protected final String m_statisticName;
+
+    /** whether the value is negated to be maximised */
+    protected final boolean m_negate;
+
+    /** whether the error rate is turned into accuracy */
+    protected final boolean m_oneMinus;
+
+    public Objective(int type, int id, String metricName,
+      String statisticName, boolean negate, boolean oneMinus) {
+      m_type = type;
+      m_id = id;
+      m_metricName = metricName;
+      m_statisticName = statisticName;
+      m_negate = negate;
+      m_oneMinus = oneMinus;
+    }
+  }
+
+  /**
+   * Returns a string describing this attribute evaluator
+   *
+   * @return a description of the evaluator suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  @Override
+  public String globalInfo() {
+    return "MultiObjectiveWrapperSubsetEval:\n\n"
+      + "Wrapper evaluator for multi-objective searches. Structural objectives "
+      + "such as the number of features are computed without the classifier, "
+      + "all other objectives share one cross validation, which is repeated "
+      + "until the confidence interval of every objective is narrower than "
+      + "the threshold.";
+  }
+
+  @Override
+  protected void resetOptions() {
+    super.resetOptions();
+    m_maxRepetitions = 5;
+    m_confidenceLevel = 0.95;
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   **/
+  @Override
+  public Enumeration<Option> listOptions() {
+    Vector<Option> newVector = new Vector<Option>();
+
+    newVector.addElement(new Option(
+      "\tMaximum number of cross validation repetitions per subset.\n"
+        + "\t(default: 5)", "M", 1, "-M <num>"));
+
+    newVector.addElement(new Option(
+      "\tConfidence level of the interval used to stop repeating.\n"
+        + "\t(default: 0.95)", "C", 1, "-C <level>"));
+
+    newVector.addAll(Collections.list(super.listOptions()));
+
+    return newVector.elements();
+  }
+
+  /**
+   * Parses a given list of options. Valid options are -M and -C, plus the
+   * options of WrapperSubsetEval.
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  @Override
+  public void setOptions(String[] options) throws Exception {
+    String optionString;
+
+    super.setOptions(options);
+
+    optionString = Utils.getOption('M', options);
+    if (optionString.length() != 0) {
+      setMaxRepetitions(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption('C', options);
+    if (optionString.length() != 0) {
+      setConfidenceLevel(Double.parseDouble(optionString));
+    }
+  }
+
+  /**
+   * Gets the current settings of the evaluator.
+   *
+   * @return an array of strings suitable for passing to setOptions()
+   */
+  @Override
+  public String[] getOptions() {
+    Vector<String> result = new Vector<String>();
+
+    result.add("-M");
+    result.add("" + getMaxRepetitions());
+    result.add("-C");
+    result.add("" + getConfidenceLevel());
+
+    Collections.addAll(result, super.getOptions());
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String maxRepetitionsTipText() {
+    return "Maximum number of cross validation repetitions per subset.";
+  }
+
+  /**
+   * Set the maximum number of cross validation repetitions per subset
+   *
+   * @param n the maximum number of repetitions
+   */
+  public void setMaxRepetitions(int n) {
+    m_maxRepetitions = n;
+  }
+
+  /**
+   * Get the maximum number of cross validation repetitions per subset
+   *
+   * @return the maximum number of repetitions
+   */
+  public int getMaxRepetitions() {
+    return m_maxRepetitions;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String confidenceLevelTipText() {
+    return "Stop repeating the cross validation once the interval with this "
+      + "confidence around the mean of every objective is narrower than the "
+      + "threshold times the mean.";
+  }
+
+  /**
+   * Set the confidence level of the stopping interval
+   *
+   * @param level the confidence level, between 0 and 1
+   */
+  public void setConfidenceLevel(double level) {
+    m_confidenceLevel = level;
+  }
+
+  /**
+   * Get the confidence level of the stopping interval
+   *
+   * @return the confidence level
+   */
+  public double getConfidenceLevel() {
+    return m_confidenceLevel;
+  }
+
+  /**
+   * Resolves the objective names into objectives.
+   *
+   * @param statNames the objective names
+   * @return the objectives
+   */
+  protected Objective[] resolveObjectives(String[] statNames) {
+    Objective[] objectives = new Objective[statNames.length];
+    boolean nominal = m_trainInstances.classAttribute().isNominal();
+
+    for (int i = 0; i < statNames.length; ++i) {
+      if (statNames[i].equalsIgnoreCase("FN")) {
+        // same value as RegressionEval's FN, which is not maximisable
+        objectives[i] = new Objective(OBJECTIVE_STRUCTURAL, 0, null, null,
+          true, false);
+        continue;
+      }
+
+      SelectedTag tag = new SelectedTag(statNames[i], TAGS_EVALUATION);
+      int id = tag.getSelectedTag().getID();
+      switch (id) {
+      case EVAL_DEFAULT:
+      case EVAL_ACCURACY:
+      case EVAL_RMSE:
+      case EVAL_MAE:
+        boolean accuracy = nominal
+          && (id == EVAL_DEFAULT || id == EVAL_ACCURACY);
+        objectives[i] = new Objective(OBJECTIVE_METRIC, id, null, null,
+          !accuracy, accuracy);
+        break;
+      case EVAL_FMEASURE:
+      case EVAL_AUC:
+      case EVAL_AUPRC:
+      case EVAL_CORRELATION:
+        objectives[i] = new Objective(OBJECTIVE_METRIC, id, null, null,
+          false, false);
+        break;
+      default:
+        PluginTag pluginTag = (PluginTag) tag.getSelectedTag();
+        String statName = pluginTag.getStatisticName();
+        objectives[i] = new Objective(OBJECTIVE_METRIC, id,
+          pluginTag.getMetricName(), statName, !pluginTag.getMetric()
+            .statisticIsMaximisable(statName), false);
+      }
+    }
+
+    return objectives;
+  }
+
+  /**
+   * Reads the value of a metric objective from an evaluation.
+   *
+   * @param eval the evaluation of one cross validation
+   * @param objective the objective
+   * @return the value, oriented for maximisation
+   * @throws Exception if the value can't be computed
+   */
+  protected double metricValue(Evaluation eval, Objective objective)
+    throws Exception {
+    double value;
+
+    switch (objective.m_id) {
+    case EVAL_DEFAULT:
+    case EVAL_ACCURACY:
+      value = eval.errorRate();
+      break;
+    case EVAL_RMSE:
+      value = eval.rootMeanSquaredError();
+      break;
+    case EVAL_MAE:
+      value = eval.meanAbsoluteError();
+      break;
+    case EVAL_FMEASURE:
+      value = m_IRClassVal < 0 ? eval.weightedFMeasure() : eval
+        .fMeasure(m_IRClassVal);
+      break;
+    case EVAL_AUC:
+      value = m_IRClassVal < 0 ? eval.weightedAreaUnderROC() : eval
+        .areaUnderROC(m_IRClassVal);
+      break;
+    case EVAL_AUPRC:
+      value = m_IRClassVal < 0 ? eval.weightedAreaUnderPRC() : eval
+        .areaUnderPRC(m_IRClassVal);
+      break;
+    case EVAL_CORRELATION:
+      value = eval.correlationCoefficient();
+      break;
+    default:
+      AbstractEvaluationMetric pluginMetric = eval
+        .getPluginMetric(objective.m_metricName);
+      if (pluginMetric == null) {
+        throw new Exception("Metric  " + objective.m_metricName
+          + " does not seem to be " + "available");
+      }
+      if (pluginMetric instanceof InformationRetrievalEvaluationMetric) {
+        InformationRetrievalEvaluationMetric irMetric = (InformationRetrievalEvaluationMetric) pluginMetric;
+        value = m_IRClassVal < 0 ? irMetric
+          .getClassWeightedAverageStatistic(objective.m_statisticName)
+          : irMetric.getStatistic(objective.m_statisticName, m_IRClassVal);
+      } else {
+        value = pluginMetric.getStatistic(objective.m_statisticName);
+      }
+    }
+
+    if (objective.m_oneMinus) {
+      value = 1 - value;
+    } else if (objective.m_negate) {
+      value = -value;
+    }
+    return value;
+  }
+
+  /**
+   * Evaluates all objectives of a subset of attributes in one pass.
+   *
+   * @param subset a bitset representing the attribute subset to be evaluated
+   * @param statNames the objectives
+   * @return the objective values, oriented for maximisation
+   * @throws Exception if the subset could not be evaluated
+   */
+  @Override
+  public double[] evaluateSubset(BitSet subset, String[] statNames)
+    throws Exception {
+    if (m_objectives == null || !Arrays.equals(m_objectiveNames, statNames)) {
+      m_objectives = resolveObjectives(statNames);
+      m_objectiveNames = statNames.clone();
+    }
+    Objective[] objectives = m_objectives;
+    int numObj = objectives.length;
+    double[] evalMetric = new double[numObj];
+
+    BitSet subsetCopy = (BitSet) subset.clone();
+    subsetCopy.set(m_classIndex);
+
+    int numMetrics = 0;
+    for (int i = 0; i < numObj; ++i) {
+      if (objectives[i].m_type == OBJECTIVE_STRUCTURAL) {
+        evalMetric[i] = subsetCopy.cardinality();
+        if (objectives[i].m_negate) {
+          evalMetric[i] = -evalMetric[i];
+        }
+      } else {
+        ++numMetrics;
+      }
+    }
+    if (numMetrics == 0) {
+      return evalMetric;
+    }
+
+    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
+    Random rnd = new Random(m_seed);
+    int maxReps = Math.max(m_maxRepetitions, 1);
+    double[][] repError = new double[numObj][maxReps];
+    int reps = 0;
+    while (reps < maxReps) {
+      Evaluation eval = new Evaluation(trainCopy);
+      eval.setNumExecutionSlots(m_numExecutionSlots);
+      crossValidateSubset(eval, trainCopy, subsetCopy, reps, rnd);
+      for (int i = 0; i < numObj; ++i) {
+        if (objectives[i].m_type == OBJECTIVE_METRIC) {
+          repError[i][reps] = metricValue(eval, objectives[i]);
+        }
+      }
+      ++reps;
+
+      if (converged(repError, objectives, reps)) {
+        break;
+      }
+    }
+
+    for (int i = 0; i < numObj; ++i) {
+      if (objectives[i].m_type == OBJECTIVE_METRIC) {
+        double sum = 0;
+        for (int j = 0; j < reps; ++j) {
+          sum += repError[i][j];
+        }
+        evalMetric[i] = sum / reps;
+      }
+    }
+    return evalMetric;
+  }
+
+  /**
+   * Decides whether the repetitions can stop: the half-width of the Student t
+   * confidence interval of the mean of every metric objective must be at most
+   * the threshold times the absolute mean. A negative threshold stops after
+   * the first repetition.
+   *
+   * @param repError the values of each objective in each repetition
+   * @param objectives the objectives
+   * @param reps the number of repetitions done so far
+   * @return true if no more repetitions are needed
+   */
+  protected boolean converged(double[][] repError, Objective[] objectives,
+    int reps) {
+    double threshold = getThreshold();
+
+    if (threshold < 0) {
+      return true;
+    }
+    if (reps < 2) {
+      return false;
+    }
+
+    double t = tQuantile(1 - (1 - m_confidenceLevel) / 2, reps - 1);
+    for (int i = 0; i < objectives.length; ++i) {
+      if (objectives[i].m_type != OBJECTIVE_METRIC) {
+        continue;
+      }
+      double mean = 0;
+      for (int j = 0; j < reps; ++j) {
+        mean += repError[i][j];
+      }
+      mean /= reps;
+      double variance = 0;
+      for (int j = 0; j < reps; ++j) {
+        variance += (repError[i][j] - mean) * (repError[i][j] - mean);
+      }
+      variance /= reps - 1;
+      double halfWidth = t * Math.sqrt(variance / reps);
+      // like repeat(), NaN values (e.g. an undefined AUC) don't block stopping
+      if (halfWidth > threshold * Math.abs(mean)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the p-quantile of Student's t distribution, found by bisection on
+   * its distribution function.
+   *
+   * @param p the probability, between 0.5 and 1
+   * @param df the degrees of freedom
+   * @return the quantile
+   */
+  protected static double tQuantile(double p, int df) {
+    double lo = 0;
+    double hi = 1;
+    while (tProbability(hi, df) < p && hi < 1e6) {
+      hi *= 2;
+    }
+    for (int i = 0; i < 100 && hi - lo > 1e-10; ++i) {
+      double mid = (lo + hi) / 2;
+      if (tProbability(mid, df) < p) {
+        lo = mid;
+      } else {
+        hi = mid;
+      }
+    }
+    return (lo + hi) / 2;
+  }
+
+  /**
+   * Returns P(T &lt;= t) for t &gt;= 0 under Student's t distribution.
+   *
+   * @param t the value
+   * @param df the degrees of freedom
+   * @return the probability
+   */
+  protected static double tProbability(double t, int df) {
+    return 1 - 0.5 * Statistics.incompleteBeta(df / 2.0, 0.5, df / (df + t * t));
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13375 $");
+  }
+
+  /**
+   * Main method for testing this class.
+   *
+   * @param args the options
+   */
+  public static void main(String[] args) {
+    runEvaluator(new MultiObjectiveWrapperSubsetEval(), args);
+  }
+}
@@ -21,12 +21,13 @@
 
 package weka.attributeSelection;
 
+import java.io.File;
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -38,6 +39,7 @@ import weka.core.OptionHandler;
 import weka.core.Range;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.SelectedTag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -120,6 +122,19 @@ import weka.core.Utils;
  *  (default = 1)
  * </pre>
  * 
+ * <pre>
+ * -checkpoint &lt;file&gt;
+ *  Save the state of the search to this file and resume
+ *  from it if it exists.
+ *  (default = no checkpointing)
+ * </pre>
+ * 
+ * <pre>
+ * -checkpoint-interval &lt;generations&gt;
+ *  Save a checkpoint every this many generations.
+ *  (default = 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -163,7 +178,10 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	protected int m_lookupTableSize;
 	
 	/** the lookup table */
-	protected Hashtable<BitSet, GABitSet> m_lookupTable;
+	protected transient FitnessCache m_lookupTable;
+
+	/** a lookup table supplied by the user that is kept across searches */
+	protected transient FitnessCache m_sharedLookupTable;
 	
 	/** seed for random number generation */
 	protected int m_seed;
@@ -190,6 +208,15 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 
 	/** the evaluator of objective */
 	protected String m_stateName[];
+
+	/** assigns the Pareto fronts */
+	protected NonDominatedSorter m_sorter = new NonDominatedSorter();
+
+	/** the file the state of the search is saved to, empty for none */
+	protected String m_checkpointFile;
+
+	/** save a checkpoint every this many generations */
+	protected int m_checkpointInterval;
 	
 	// Inner class
 	/**
@@ -327,17 +354,10 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		/** holds raw merit */
 		private MyDoub m_objective;
 
-		/** the n (pops that dominate it) by XieNaoban */
-		public int n;
-
-		/** the s (pops that are dominated by it) by XieNaoban */
-		public int s;
-		public GABitSet[] sArr;
-
-		/** the n (pops that dominate it) by XieNaoban */
+		/** the front this member belongs to (0 = non-dominated) */
 		public int rank;
 
-		/** the distance (pops that dominate it) by XieNaoban */
+		/** the crowding distance */
 		public double d;
 
 		/**
@@ -346,11 +366,8 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		public GABitSet() {
 			m_objective = new MyDoub();
 			m_chromosome = new BitSet();
-			s = 0;
-			n = 0;
 			d = 0;
 			rank = -1;
-			sArr = new GABitSet[m_popSize * 2];
 		}
 
 		/**
@@ -366,11 +383,8 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 
 			temp.setObjective(this.getObjective());
 			temp.setChromosome((BitSet) (this.m_chromosome.clone()));
-			temp.s = 0;
-			temp.n = 0;
 			temp.d = 0;
 			temp.rank = rank;
-			temp.sArr = new GABitSet[m_popSize * 2];
 			return temp;
 			// return super.clone();
 		}
@@ -382,8 +396,18 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		 *            the objective value of this population member
 		 */
 		public void setObjective(MyDoub objective) {
+			setObjective(objective.d);
+		}
+
+		/**
+		 * sets the objective merit values
+		 * 
+		 * @param objective
+		 *            the objective values of this population member
+		 */
+		public void setObjective(double[] objective) {
 			for (int i = 0; i != m_objects; ++i)
-				m_objective.d[i] = objective.d[i];
+				m_objective.d[i] = objective[i];
 		}
 
 		/**
@@ -464,7 +488,7 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	 **/
 	@Override
 	public Enumeration<Option> listOptions() {
-		Vector<Option> newVector = new Vector<Option>(7);
+		Vector<Option> newVector = new Vector<Option>(9);
 
 		newVector.addElement(new Option("\tSpecify a starting set of attributes." + "\n\tEg. 1,3,5-7."
 				+ "If supplied, the starting set becomes" + "\n\tone member of the initial random" + "\n\tpopulation.",
@@ -483,6 +507,11 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 						+ "\n\treport every 5th generation" + "\n\t(default = number of generations)",
 				"R", 1, "-R <report frequency>"));
 		newVector.addElement(new Option("\tSet the random number seed." + "\n\t(default = 1)", "S", 1, "-S <seed>"));
+		newVector.addElement(new Option("\tSave the state of the search to this file and resume"
+				+ "\n\tfrom it if it exists." + "\n\t(default = no checkpointing)", "checkpoint", 1,
+				"-checkpoint <file>"));
+		newVector.addElement(new Option("\tSave a checkpoint every this many generations." + "\n\t(default = 1)",
+				"checkpoint-interval", 1, "-checkpoint-interval <generations>"));
 		return newVector.elements();
 	}
 
@@ -539,6 +568,19 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	 *  (default = 1)
 	 * </pre>
 	 * 
+	 * <pre>
+	 * -checkpoint &lt;file&gt;
+	 *  Save the state of the search to this file and resume
+	 *  from it if it exists.
+	 *  (default = no checkpointing)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -checkpoint-interval &lt;generations&gt;
+	 *  Save a checkpoint every this many generations.
+	 *  (default = 1)
+	 * </pre>
+	 * 
 	 * <!-- options-end -->
 	 * 
 	 * @param options
@@ -588,6 +630,13 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 			setSeed(Integer.parseInt(optionString));
 		}
 
+		setCheckpointFile(Utils.getOption("checkpoint", options));
+
+		optionString = Utils.getOption("checkpoint-interval", options);
+		if (optionString.length() != 0) {
+			setCheckpointInterval(Integer.parseInt(optionString));
+		}
+
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -617,6 +666,12 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		options.add("" + getReportFrequency());
 		options.add("-S");
 		options.add("" + getSeed());
+		if (getCheckpointFile().length() > 0) {
+			options.add("-checkpoint");
+			options.add(getCheckpointFile());
+			options.add("-checkpoint-interval");
+			options.add("" + getCheckpointInterval());
+		}
 
 		return options.toArray(new String[0]);
 	}
@@ -987,6 +1042,9 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		m_starting = null;
 		m_startRange = new Range();
 		m_seed = 1;
+		m_lookupTableSize = 10000;
+		m_checkpointFile = "";
+		m_checkpointInterval = 1;
 
 		mode_remove_repetitive_pop=true;
 		debug_print_pop=false;
@@ -1020,6 +1078,268 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		System.out.println("\n");
 	}
 
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String sortAlgorithmTipText() {
+		return "Set the algorithm used to sort the population into Pareto fronts.";
+	}
+
+	/**
+	 * set the non-dominated sorting algorithm
+	 * 
+	 * @param algorithm
+	 *            one of NonDominatedSorter.TAGS_SORT
+	 */
+	public void setSortAlgorithm(SelectedTag algorithm) {
+		if (algorithm.getTags() == NonDominatedSorter.TAGS_SORT) {
+			m_sorter.setAlgorithm(algorithm.getSelectedTag().getID());
+		}
+	}
+
+	/**
+	 * get the non-dominated sorting algorithm
+	 * 
+	 * @return the algorithm as a SelectedTag
+	 */
+	public SelectedTag getSortAlgorithm() {
+		return new SelectedTag(m_sorter.getAlgorithm(), NonDominatedSorter.TAGS_SORT);
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String lookupTableSizeTipText() {
+		return "Set the maximum number of evaluated subsets to cache (0 = no limit).";
+	}
+
+	/**
+	 * set the maximum number of evaluated subsets to cache
+	 * 
+	 * @param size
+	 *            the size bound, 0 for no bound
+	 */
+	public void setLookupTableSize(int size) {
+		m_lookupTableSize = size;
+	}
+
+	/**
+	 * get the maximum number of evaluated subsets to cache
+	 * 
+	 * @return the size bound
+	 */
+	public int getLookupTableSize() {
+		return m_lookupTableSize;
+	}
+
+	/**
+	 * Share a lookup table between searches. The table is reused as long as
+	 * the training data and the evaluator settings stay the same, and cleared
+	 * otherwise. The settings include the evaluator's seed, which decides its
+	 * cross-validation folds, so searches that give the evaluator a new seed
+	 * each time never reuse anything. Set to null to start every search with
+	 * an empty table.
+	 * 
+	 * @param cache
+	 *            the table to share, or null
+	 */
+	public void setSharedLookupTable(FitnessCache cache) {
+		m_sharedLookupTable = cache;
+	}
+
+	/**
+	 * get the lookup table shared between searches
+	 * 
+	 * @return the shared table, or null if none is set
+	 */
+	public FitnessCache getSharedLookupTable() {
+		return m_sharedLookupTable;
+	}
+
+	/**
+	 * get the lookup table used by the last search
+	 * 
+	 * @return the lookup table
+	 */
+	public FitnessCache getLookupTable() {
+		return m_lookupTable;
+	}
+
+	/**
+	 * sets up the lookup table for a search, reusing the shared one if present
+	 * 
+	 * @param ASEval
+	 *            the evaluator the search uses
+	 * @param data
+	 *            the training data
+	 */
+	protected void initLookupTable(WrapperSubsetEval ASEval, Instances data) {
+		if (m_sharedLookupTable != null) {
+			m_sharedLookupTable.bind(data, ASEval.getClass().getName() + " " + Utils.joinOptions(ASEval.getOptions())
+					+ " " + Arrays.toString(m_stateName));
+			m_lookupTable = m_sharedLookupTable;
+		} else {
+			m_lookupTable = new FitnessCache(m_lookupTableSize);
+		}
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String checkpointFileTipText() {
+		return "The file the population, the random state and the lookup table are saved to "
+				+ "during the search. If it exists when a search starts, the search resumes "
+				+ "from it. Leave empty to disable checkpointing.";
+	}
+
+	/**
+	 * set the checkpoint file
+	 *
+	 * @param file
+	 *            the file, empty for none
+	 */
+	public void setCheckpointFile(String file) {
+		m_checkpointFile = file;
+	}
+
+	/**
+	 * get the checkpoint file
+	 *
+	 * @return the file, empty for none
+	 */
+	public String getCheckpointFile() {
+		return m_checkpointFile;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String checkpointIntervalTipText() {
+		return "Save a checkpoint every this many generations. The last generation is always saved.";
+	}
+
+	/**
+	 * set how often a checkpoint is saved
+	 *
+	 * @param n
+	 *            the number of generations between checkpoints
+	 */
+	public void setCheckpointInterval(int n) {
+		m_checkpointInterval = n;
+	}
+
+	/**
+	 * get how often a checkpoint is saved
+	 *
+	 * @return the number of generations between checkpoints
+	 */
+	public int getCheckpointInterval() {
+		return m_checkpointInterval;
+	}
+
+	/**
+	 * describes everything a checkpoint must agree on to be resumed. The
+	 * number of generations is left out, so a finished search can be
+	 * extended.
+	 *
+	 * @param ASEval
+	 *            the evaluator the search uses
+	 * @param data
+	 *            the training data
+	 * @return the settings
+	 */
+	protected String checkpointSettings(WrapperSubsetEval ASEval, Instances data) {
+		return getClass().getName() + " -P " + getStartSet() + " -Z " + m_popSize + " -C " + m_pCrossover + " -M "
+				+ m_pMutation + " -S " + m_seed + " " + mode_remove_repetitive_pop + " "
+				+ getSortAlgorithm().getSelectedTag().getReadable() + "\n" + ASEval.getClass().getName() + " "
+				+ Utils.joinOptions(ASEval.getOptions()) + " " + Arrays.toString(m_stateName) + "\n"
+				+ SearchCheckpoint.fingerprint(data);
+	}
+
+	/**
+	 * reads the checkpoint file, if checkpointing is enabled and the file
+	 * exists
+	 *
+	 * @param settings
+	 *            the settings of the current search
+	 * @return the checkpoint, or null to start from scratch
+	 * @throws Exception
+	 *             if the file can't be read or belongs to another search
+	 */
+	protected SearchCheckpoint readCheckpoint(String settings) throws Exception {
+		if (m_checkpointFile.length() == 0)
+			return null;
+		File file = new File(m_checkpointFile);
+		if (!file.exists())
+			return null;
+		SearchCheckpoint checkpoint = SearchCheckpoint.read(file);
+		if (!checkpoint.m_settings.equals(settings))
+			throw new Exception("Checkpoint " + file + " was written by a search with different settings");
+		if (checkpoint.m_generation > m_maxGenerations)
+			throw new Exception("Checkpoint " + file + " is at generation " + checkpoint.m_generation
+					+ ", beyond the number of generations");
+		return checkpoint;
+	}
+
+	/**
+	 * @param generation
+	 *            the generation just completed
+	 * @return true if a checkpoint should be saved after the generation
+	 */
+	protected boolean checkpointDue(int generation) {
+		return m_checkpointFile.length() > 0
+				&& (generation == m_maxGenerations || generation % Math.max(m_checkpointInterval, 1) == 0);
+	}
+
+	/**
+	 * @return the current population as checkpoint records
+	 */
+	protected SearchCheckpoint.Record[] populationRecords() {
+		SearchCheckpoint.Record[] records = new SearchCheckpoint.Record[m_population.length];
+		for (int i = 0; i < records.length; ++i) {
+			GABitSet e = m_population[i];
+			records[i] = new SearchCheckpoint.Record(e.getChromosome(), e.getObjective().d.clone());
+			records[i].m_rank = e.rank;
+			records[i].m_distance = e.d;
+		}
+		return records;
+	}
+
+	/**
+	 * replaces the population with the members of a checkpoint
+	 *
+	 * @param records
+	 *            the checkpoint records
+	 * @throws Exception
+	 *             if the records don't have one value per objective
+	 */
+	protected void restorePopulation(SearchCheckpoint.Record[] records) throws Exception {
+		m_population = new GABitSet[records.length];
+		for (int i = 0; i < records.length; ++i) {
+			if (records[i].m_values.length != m_objects)
+				throw new Exception("Checkpoint has " + records[i].m_values.length + " objectives, expected "
+						+ m_objects);
+			GABitSet e = new GABitSet();
+			e.setChromosome(records[i].getChromosome());
+			e.setObjective(records[i].m_values);
+			e.rank = records[i].m_rank;
+			e.d = records[i].m_distance;
+			m_population[i] = e;
+		}
+	}
+
 	/** Set whether remove repetitive pop */
 	public boolean isRemoveRepetitivePop(){
 		return mode_remove_repetitive_pop;
@@ -1066,35 +1386,6 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 
 	}
 
-	protected class PopComparator implements Comparator<GABitSet> {
-		int obj;
-
-		public PopComparator(int n) {
-			obj = n;
-		}
-
-		public int compare(GABitSet arg1, GABitSet arg2) {
-			return (int) (arg2.getObjective().d[obj] - arg1.getObjective().d[obj]);
-		}
-	}
-
-	protected class DPopComparator implements Comparator<GABitSet> {
-		public int compare(GABitSet arg1, GABitSet arg2) {
-			if (arg1 == null && arg2 == null)
-				return 0;
-			if (arg1 == null)
-				return 1;
-			if (arg2 == null)
-				return -1;
-			if (arg2.d > arg1.d)
-				return 1;
-			if (arg2.d < arg1.d)
-				return -1;
-			return 0;
-		}
-
-	}
-
 	protected class IntComparator implements Comparator<int[]> {
 		public int compare(int[] o1, int[] o2) {
 			if (o1.length != o2.length)
@@ -1131,81 +1422,55 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	}
 
 	protected void nonDominatedSort() {
-		/** set the s and n of each popu */
-		for (int i = 0; i < m_population.length; ++i) {
-			for (int j = i + 1; j < m_population.length; ++j) {
-				int isDomi = dominate(m_population[i].getObjective(), m_population[j].getObjective());
-				if (isDomi == 1) {
-					m_population[i].sArr[m_population[i].s++] = m_population[j];
-					++m_population[j].n;
-				} else if (isDomi == -1) {
-					++m_population[i].n;
-					m_population[j].sArr[m_population[j].s++] = m_population[i];
-				}
-			}
+		int num = m_population.length;
+		double[] obj = new double[num * m_objects];
+		for (int i = 0; i < num; ++i)
+			System.arraycopy(m_population[i].getObjective().d, 0, obj, i * m_objects, m_objects);
+
+		/** set the rank of each popu */
+		int[] rank = new int[num];
+		int numLayers = m_sorter.sort(obj, num, m_objects, rank);
+
+		/** group the popus by layer */
+		int[] layerStart = new int[numLayers + 1];
+		for (int i = 0; i < num; ++i) {
+			m_population[i].rank = rank[i];
+			++layerStart[rank[i] + 1];
 		}
+		for (int k = 0; k < numLayers; ++k)
+			layerStart[k + 1] += layerStart[k];
+		int[] byLayer = new int[num];
+		int[] fill = Arrays.copyOf(layerStart, numLayers);
+		for (int i = 0; i < num; ++i)
+			byLayer[fill[rank[i]]++] = i;
 
-		/** set layers (the first layer) */
-		Vector<Vector<GABitSet>> layers = new Vector<Vector<GABitSet>>();
-		Vector<GABitSet> H = new Vector<GABitSet>();
-		int layer = 0;
-		for (int i = 0; i < m_population.length; ++i) {
-			if (m_population[i].n == 0) {
-				m_population[i].rank = layer;
-				H.add(m_population[i]);
-			}
-		}
-		layers.add(H);
-
-		/** set layers (the other layers) */
-		while (layers.get(layer).size() != 0) {
-			H = new Vector<GABitSet>();
-			for (GABitSet e : layers.get(layer)) {
-				for (int j = 0; j < e.s; ++j)
-					if (--e.sArr[j].n == 0) {
-						e.sArr[j].rank = layer + 1;
-						H.add(e.sArr[j]);
-					}
-			}
-			if (H.size() > 0)
-				layers.add(H);
-			else
-				break;
-			++layer;
+		/** get degree of congestion */
+		double[] dist = new double[num];
+		for (int layer = 0; layer < numLayers; ++layer) {
+			int[] members = Arrays.copyOfRange(byLayer, layerStart[layer], layerStart[layer + 1]);
+			m_sorter.crowdingDistance(obj, m_objects, members, members.length, dist);
 		}
+		for (int i = 0; i < num; ++i)
+			m_population[i].d = dist[i];
 
 		/** get new generation form lower layers */
 		GABitSet[] newPop = new GABitSet[m_popSize];
 		int sz = 0;
-		Vector<GABitSet> last = null;
-		for (Vector<GABitSet> ee : layers) {
-			if (ee.size() + sz < m_popSize) {
-				for (GABitSet e : ee) {
-					newPop[sz++] = e.clone();
-				}
-			} else {
-				last = ee;
-				break;
-			}
+		int layer = 0;
+		while (layer < numLayers && layerStart[layer + 1] <= m_popSize) {
+			for (int i = layerStart[layer]; i < layerStart[layer + 1]; ++i)
+				newPop[sz++] = m_population[byLayer[i]];
+			++layer;
 		}
 
-		/** get degree of congestion */
-		if (last == null) {
-		} else {
-			for (int i = 0; i != m_objects; ++i) {
-				PopComparator cmp = new PopComparator(i);
-				last.sort(cmp);
-				for (int j = 1; j < last.size() - 1; ++j) {
-					last.get(j).d += (last.get(j + 1).getObjective().d[i] - last.get(j - 1).getObjective().d[i]);
-				}
-			}
-			DPopComparator cmpD = new DPopComparator();
-			last.sort(cmpD);
-			for (GABitSet e : last) {
-				newPop[sz++] = e.clone();
-				if (sz == m_popSize)
-					break;
-			}
+		/** fill up with the least crowded popus of the next layer */
+		if (layer < numLayers && sz < m_popSize) {
+			int from = layerStart[layer];
+			int count = layerStart[layer + 1] - from;
+			int[] members = Arrays.copyOfRange(byLayer, from, from + count);
+			m_sorter.sortByCrowding(members, count, dist);
+			for (int j = 0; sz < m_popSize; ++j)
+				newPop[sz++] = m_population[members[j]];
 		}
 		m_population = newPop;
 	}
@@ -21,17 +21,28 @@
 
 package weka.attributeSelection;
 
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
-import java.util.Hashtable;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import weka.attributeSelection.*;
 import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.Tag;
 
 /**
  * <!-- globalinfo-start --> GeneticSearch:<br/>
@@ -119,29 +130,59 @@ public class NSGAIIP extends NSGAII {
 	/** for serialization */
 	static final long serialVersionUID = -1618264232838472679L;
 
+	/** run the offspring tasks on a work-stealing ForkJoinPool */
+	public static final int EXECUTOR_FORK_JOIN = 0;
+
+	/** run the offspring tasks on a bounded fixed-size thread pool */
+	public static final int EXECUTOR_FIXED = 1;
+
 	/**
-	 * holds a starting set as an array of attributes. Becomes one member of the
-	 * initial random population
+	 * run the offspring tasks on virtual threads (falls back to a fixed pool
+	 * when the JVM does not provide them)
 	 */
+	public static final int EXECUTOR_VIRTUAL = 2;
+
+	/** the available executor modes */
+	public static final Tag[] TAGS_EXECUTOR = {
+			new Tag(EXECUTOR_FORK_JOIN, "fork-join", "Work-stealing ForkJoinPool"),
+			new Tag(EXECUTOR_FIXED, "fixed", "Bounded fixed-size thread pool"),
+			new Tag(EXECUTOR_VIRTUAL, "virtual", "Virtual threads (if available)") };
 
-	/** number of threads */
+	/** number of threads (0 = number of available processors) */
 	private int m_threadsNum;
-	
-	/** threads */
-	private EachThread[] m_threads;
-	
-	/** offer pop to threads */
-	private LinkedList<GABitSet> m_popQue;
+
+	/** the executor mode */
+	private int m_executorType;
+
+	/** the executor used during a call to search() */
+	private transient ExecutorService m_executor;
+
+	/**
+	 * evaluators handed out to the running tasks, one per execution slot since
+	 * a WrapperSubsetEval keeps per-evaluation state
+	 */
+	private transient BlockingQueue<WrapperSubsetEval> m_evaluators;
+
+	/**
+	 * comma-separated host[:port] list of running FitnessEngine workers to
+	 * evaluate on
+	 */
+	private String m_remoteWorkers;
+
+	/** number of FitnessEngine worker processes to start on this host */
+	private int m_localWorkers;
+
+	/** number of evaluations each worker runs at the same time */
+	private int m_workerSlots;
+
+	/** the worker pool used during a call to search(), if any */
+	private transient RemoteFitnessEvaluator m_remote;
 
 	/** random number generation */
-	private Random[] m_random;
+	private Random m_random;
 
-	/** used in threads to count how many pops have been calculated */
-	Integer m_sumPop;
-	
-	/** locks */
-	private Object m_lock;
-	private Object m_sumPopLock;
+	/** wall time (in milliseconds) used by each generation of the last search */
+	private long[] m_generationTimes;
 
 	/**
 	 * Constructor. Make a new GeneticSearch object
@@ -149,6 +190,10 @@ public class NSGAIIP extends NSGAII {
 	public NSGAIIP() {
 		super();
 		m_threadsNum = 4;
+		m_executorType = EXECUTOR_FORK_JOIN;
+		m_remoteWorkers = "";
+		m_localWorkers = 0;
+		m_workerSlots = 1;
 	}
 
 	/**
@@ -213,9 +258,9 @@ public class NSGAIIP extends NSGAII {
 	}
 
 	/**
-	 * evaluates an entire population. Population members are looked up in a
-	 * hash table and if they are not found then they are evaluated using
-	 * ASEvaluator.
+	 * evaluates a population member. It is looked up in the lookup table
+	 * and if it is not found then it is evaluated using ASEvaluator. Members
+	 * requested concurrently are evaluated only once.
 	 * 
 	 * @param ASEvaluator
 	 *            the subset evaluator to use for evaluating population members
@@ -223,15 +268,10 @@ public class NSGAIIP extends NSGAII {
 	 *             if something goes wrong during evaluation
 	 */
 	private void evaluatePopulation(GABitSet now, WrapperSubsetEval ASEvaluator) throws Exception {
-		MyDoub merit = new MyDoub();
-		if (m_lookupTable.containsKey(now.getChromosome()) == false) {
-				merit.d = ASEvaluator.evaluateSubset(now.getChromosome(), m_stateName);
-			now.setObjective(merit);
-			m_lookupTable.put(now.getChromosome(), now);
-		} else {
-			GABitSet temp = m_lookupTable.get(now.getChromosome());
-			now.setObjective(temp.getObjective());
-		}
+		if (m_remote != null)
+			now.setObjective(m_lookupTable.get(now.getChromosome(), m_remote));
+		else
+			now.setObjective(m_lookupTable.get(now.getChromosome(), ASEvaluator, m_stateName));
 	}
 
 	/**
@@ -285,131 +325,344 @@ public class NSGAIIP extends NSGAII {
 	 * 
 	 */
 
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String threadsNumTipText() {
+		return "The number of execution slots (threads) used to breed and evaluate "
+				+ "offspring (0 = number of available processors).";
+	}
+
+	/**
+	 * set the number of execution slots
+	 * 
+	 * @param n
+	 *            the number of threads, 0 to use all available processors
+	 */
 	public void setThreadsNum(int n){
 		m_threadsNum = n;
 	}
-	
-	private class InitThread extends Thread
-	{
-		public int num;
-		public Set<GABitSet> noRepet;
-		Random rand;
-		WrapperSubsetEval evaluator;
-		
-		public InitThread(int n, Set<GABitSet> nr,Random r,WrapperSubsetEval ASE)
-		{
-			num=n;
-			noRepet=nr;
-			rand = r;
-			evaluator=ASE;
+
+	/**
+	 * get the number of execution slots
+	 * 
+	 * @return the number of threads
+	 */
+	public int getThreadsNum() {
+		return m_threadsNum;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String executorTypeTipText() {
+		return "The kind of executor that runs the offspring tasks of each generation.";
+	}
+
+	/**
+	 * set the executor mode
+	 * 
+	 * @param type
+	 *            one of TAGS_EXECUTOR
+	 */
+	public void setExecutorType(SelectedTag type) {
+		if (type.getTags() == TAGS_EXECUTOR) {
+			m_executorType = type.getSelectedTag().getID();
 		}
-		
-		public void run()
-		{
-			GABitSet now;
-			while (true) {
-				now = new GABitSet();
-				try {
-					initPopulation(now,rand);
-					evaluatePopulation(now, evaluator);
-					synchronized (noRepet) {
-						noRepet.add(now);
-						if(noRepet.size()>m_popSize) return;
-					}
-				} catch (Exception e) {
-					System.out.println("init error in threads: " + e);
-				}
+	}
+
+	/**
+	 * get the executor mode
+	 * 
+	 * @return the executor mode as a SelectedTag
+	 */
+	public SelectedTag getExecutorType() {
+		return new SelectedTag(m_executorType, TAGS_EXECUTOR);
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String remoteWorkersTipText() {
+		return "Comma-separated host[:port] list of running FitnessEngine workers "
+				+ "that evaluate the chromosomes instead of this JVM.";
+	}
+
+	/**
+	 * set the running workers to evaluate on
+	 * 
+	 * @param workers
+	 *            comma-separated host[:port] list, empty for none
+	 */
+	public void setRemoteWorkers(String workers) {
+		m_remoteWorkers = workers;
+	}
+
+	/**
+	 * get the running workers to evaluate on
+	 * 
+	 * @return comma-separated host[:port] list
+	 */
+	public String getRemoteWorkers() {
+		return m_remoteWorkers;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String localWorkersTipText() {
+		return "Number of FitnessEngine worker processes to start on this host "
+				+ "for the duration of a search (0 = evaluate in this JVM).";
+	}
+
+	/**
+	 * set the number of worker processes to start on this host
+	 * 
+	 * @param n
+	 *            the number of workers
+	 */
+	public void setLocalWorkers(int n) {
+		m_localWorkers = n;
+	}
+
+	/**
+	 * get the number of worker processes to start on this host
+	 * 
+	 * @return the number of workers
+	 */
+	public int getLocalWorkers() {
+		return m_localWorkers;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String workerSlotsTipText() {
+		return "Number of chromosomes each worker evaluates at the same time.";
+	}
+
+	/**
+	 * set the number of chromosomes each worker evaluates at the same time
+	 * 
+	 * @param n
+	 *            the number of slots per worker
+	 */
+	public void setWorkerSlots(int n) {
+		m_workerSlots = n;
+	}
+
+	/**
+	 * get the number of chromosomes each worker evaluates at the same time
+	 * 
+	 * @return the number of slots per worker
+	 */
+	public int getWorkerSlots() {
+		return m_workerSlots;
+	}
+
+	/**
+	 * get the wall time used by each generation of the last search. Entry 0
+	 * holds the time used to set up and evaluate the initial population.
+	 * 
+	 * @return the generation times in milliseconds
+	 */
+	public long[] getGenerationTimes() {
+		return m_generationTimes;
+	}
+
+	/**
+	 * creates the executor for the configured mode
+	 * 
+	 * @param slots
+	 *            the number of execution slots
+	 * @return a new executor, to be shut down by the caller
+	 */
+	private ExecutorService createExecutor(int slots) {
+		switch (m_executorType) {
+		case EXECUTOR_VIRTUAL:
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (Exception e) {
+				// pre-Loom JVM, use a bounded pool instead
+				return Executors.newFixedThreadPool(slots);
 			}
+		case EXECUTOR_FIXED:
+			return Executors.newFixedThreadPool(slots);
+		default:
+			return new ForkJoinPool(slots);
 		}
 	}
-	
-	void calInitGene()
-	{
-		Set<GABitSet> noRepet = new TreeSet<GABitSet>(new BitSetComparator());
-		InitThread[] thds = new InitThread[m_threadsNum];
-		for (int th = 0; th < m_threadsNum; ++th) {
-			thds[th] = new InitThread(th, noRepet, m_random[th], ASEvaluator[th]);
-			thds[th].start();
+
+	/**
+	 * Evaluates a single member of the initial population.
+	 */
+	private class InitTask implements Callable<Void> {
+		private final GABitSet m_pop;
+
+		public InitTask(GABitSet pop) {
+			m_pop = pop;
 		}
-		for (int th = 0; th < m_threadsNum; ++th) {
+
+		@Override
+		public Void call() throws Exception {
+			WrapperSubsetEval evaluator = m_evaluators.take();
 			try {
-				thds[th].join();
-			} catch (Exception e) {
-				System.out.println("error in join: " + e);
+				evaluatePopulation(m_pop, evaluator);
+			} finally {
+				m_evaluators.put(evaluator);
 			}
+			return null;
 		}
-		m_population = noRepet.toArray(new GABitSet[0]);
-		nonDominatedSort();
 	}
 
-	private GABitSet[] takeTwoPop() {
-		GABitSet[] ans = new GABitSet[2];
-		synchronized (m_popQue) {
+	/**
+	 * Breeds a pair of offspring from two parents and evaluates them. Each task
+	 * carries its own seed so the result does not depend on scheduling.
+	 */
+	private class OffspringTask implements Callable<Void> {
+		private final GABitSet m_parent0;
+		private final GABitSet m_parent1;
+		private final long m_taskSeed;
+
+		public OffspringTask(GABitSet parent0, GABitSet parent1, long seed) {
+			m_parent0 = parent0;
+			m_parent1 = parent1;
+			m_taskSeed = seed;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			generation(m_parent0, m_parent1, new Random(m_taskSeed));
+			WrapperSubsetEval evaluator = m_evaluators.take();
 			try {
-				while (m_popQue.size() == 0)
-					m_popQue.wait();	// Changed to "m_popQue.size() < 2" later
-				ans[0] = m_popQue.remove();
-				ans[1] = m_popQue.remove();
-				m_popQue.notify();
-			} catch (Exception e) {
-				System.out.println("Errors in takeTwoPop(): " + e);
+				evaluatePopulation(m_parent0, evaluator);
+				evaluatePopulation(m_parent1, evaluator);
+			} finally {
+				m_evaluators.put(evaluator);
 			}
+			return null;
 		}
-		return ans;
 	}
 
-	private class EachThread extends Thread {
-		public int num;
-		
-		public Random rand;
-		public WrapperSubsetEval evaluator;
-		
-		public EachThread(int n, Random r, WrapperSubsetEval ASE) {
-			num = n;
-			rand = r;
-			evaluator = ASE;
+	/**
+	 * submits a batch of tasks and waits until all of them have finished. With
+	 * a single execution slot the tasks run on the calling thread, so its CPU
+	 * time covers the whole search.
+	 * 
+	 * @param tasks
+	 *            the tasks to run
+	 * @throws Exception
+	 *             the first exception thrown by a task
+	 */
+	private void runTasks(List<Callable<Void>> tasks) throws Exception {
+		if (m_executor == null) {
+			for (Callable<Void> task : tasks)
+				task.call();
+			return;
 		}
-
-		public void run() {
-			GABitSet[] now;
-			while (true) {
-				try {
-					now = takeTwoPop();
-					generation(now[0], now[1], rand);
-					evaluatePopulation(now[0], evaluator);
-					evaluatePopulation(now[1], evaluator);
-				} catch (Exception e) {
-					System.out.println("Errors in EachThread.run(): " + e);
-				}
-				synchronized (m_sumPopLock) {
-					if ((m_sumPop += 2) >= m_popSize) {
-						synchronized (m_lock) {
-							m_lock.notify();
-						}
-					}
-				}
+		List<Future<Void>> futures = m_executor.invokeAll(tasks);
+		for (Future<Void> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
 			}
+		}
+	}
+
+	/**
+	 * saves the state of the search after a generation to the checkpoint file
+	 * 
+	 * @param settings
+	 *            the settings of the search
+	 * @param generation
+	 *            the generation just completed
+	 * @throws Exception
+	 *             if the checkpoint can't be written
+	 */
+	private void saveCheckpoint(String settings, int generation) throws Exception {
+		SearchCheckpoint checkpoint = new SearchCheckpoint();
+		checkpoint.m_settings = settings;
+		checkpoint.m_generation = generation;
+		checkpoint.setRandom(m_random);
+		checkpoint.m_population = populationRecords();
+		checkpoint.m_generationTimes = Arrays.copyOf(m_generationTimes, generation + 1);
+		checkpoint.m_report = m_generationReports.toString();
+		checkpoint.setCache(m_lookupTable);
+		checkpoint.write(new File(m_checkpointFile));
+	}
 
+	void calInitGene() throws Exception {
+		Set<GABitSet> noRepet = new TreeSet<GABitSet>(new BitSetComparator());
+		while (noRepet.size() < m_popSize) {
+			GABitSet now = new GABitSet();
+			initPopulation(now, m_random);
+			noRepet.add(now);
 		}
+		m_population = noRepet.toArray(new GABitSet[0]);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(m_population.length);
+		for (GABitSet e : m_population)
+			tasks.add(new InitTask(e));
+		runTasks(tasks);
+		nonDominatedSort();
 	}
 
 	@Override
 	public int[][] search(WrapperSubsetEval ASEval, Instances data, String[] objs) throws Exception {
 		long startMili = System.currentTimeMillis();
+		long genStart = System.nanoTime();
 		m_stateName = objs;
 		m_objects = objs.length;
 		m_generationReports = new StringBuffer();
-		m_lock = new Object();
-		m_sumPopLock = new Object();
+		m_generationTimes = new long[m_maxGenerations + 1];
 
 		m_hasClass = true;
 		m_classIndex = data.classIndex();
 
-		ASEvaluator = new WrapperSubsetEval[m_threadsNum];
+		int slots = (m_threadsNum <= 0) ? Runtime.getRuntime().availableProcessors() : m_threadsNum;
+		if (m_localWorkers > 0 || m_remoteWorkers.trim().length() > 0) {
+			m_remote = new RemoteFitnessEvaluator();
+			try {
+				for (String hostPort : m_remoteWorkers.split(",")) {
+					if (hostPort.trim().length() > 0)
+						m_remote.addWorker(hostPort.trim());
+				}
+				m_remote.startLocalWorkers(m_localWorkers);
+				m_remote.init(ASEval, objs, m_workerSlots);
+			} catch (Exception e) {
+				m_remote.close();
+				m_remote = null;
+				throw e;
+			}
+			// one thread per remote slot, each mostly waiting on its worker
+			slots = m_remote.numSlots();
+		}
+		ASEvaluator = new WrapperSubsetEval[slots];
 		ASEvaluator[0] = ASEval;
-		for(int i=1;i<m_threadsNum;++i){
+		for(int i=1;i<slots;++i){
 			ASEvaluator[i] = (WrapperSubsetEval)ASEval.clone();
 		}
+		m_evaluators = new ArrayBlockingQueue<WrapperSubsetEval>(slots);
+		m_evaluators.addAll(Arrays.asList(ASEvaluator));
 		m_numAttribs = data.numAttributes();
 
 		m_startRange.setUpper(m_numAttribs - 1);
@@ -417,57 +670,93 @@ public class NSGAIIP extends NSGAII {
 			m_starting = m_startRange.getSelection();
 		}
 
-		m_popQue = new LinkedList<GABitSet>();
-		m_threads = new EachThread[m_threadsNum];
-
-		m_random = new Random[m_threadsNum];
-		for (int i = 0; i < m_threadsNum; ++i)
-			m_random[i] = new Random(m_seed + i);
-
-		m_lookupTable = new Hashtable<BitSet, GABitSet>(m_lookupTableSize);
+		m_random = new Random(m_seed);
+
+		initLookupTable(ASEval, data);
+
+		String settings = checkpointSettings(ASEval, data);
+		SearchCheckpoint checkpoint = readCheckpoint(settings);
+		int first = 1;
+		if (checkpoint != null) {
+			restorePopulation(checkpoint.m_population);
+			m_random = checkpoint.getRandom();
+			checkpoint.restoreCache(m_lookupTable, m_lookupTable != m_sharedLookupTable);
+			System.arraycopy(checkpoint.m_generationTimes, 0, m_generationTimes, 0, checkpoint.m_generation + 1);
+			m_generationReports.append(checkpoint.m_report);
+			m_generationReports.append("\tResumed after generation " + checkpoint.m_generation + "\n");
+			first = checkpoint.m_generation + 1;
+		}
+		int checkpoints = 0;
+		long checkpointTime = 0;
+
+		m_executor = slots > 1 ? createExecutor(slots) : null;
+		try {
+			if (checkpoint == null) {
+				// Set up random initial population
+				calInitGene();
+				if (isPrintPop())
+					printPop(m_population, 0);
+				m_generationTimes[0] = (System.nanoTime() - genStart) / 1000000;
+				m_generationReports.append("\tGeneration 0: " + m_generationTimes[0] + " ms\n");
+				if (checkpointDue(0)) {
+					long start = System.nanoTime();
+					saveCheckpoint(settings, 0);
+					checkpointTime += System.nanoTime() - start;
+					++checkpoints;
+				}
+			}
 
-		// Set up random initial population
-		calInitGene();
-		if (isPrintPop())
-			printPop(m_population, 0);
+			// The other generations
+			for (int i = first; i <= m_maxGenerations; i++) {
+				genStart = System.nanoTime();
+				GABitSet[] newPop = new GABitSet[2 * m_popSize];
+				for (int j = 0; j < m_popSize; ++j) {
+					newPop[j] = m_population[j];
+					m_population[j] = newPop[j].clone();
+				}
+				List<GABitSet> parents = Arrays.asList(m_population);
+				Collections.shuffle(parents, m_random);
 
-		// The other generations
-		m_sumPop = 0;
-		for (int th = 0; th < m_threadsNum; ++th) {
-			m_threads[th] = new EachThread(th, m_random[th], ASEvaluator[th]);
-			m_threads[th].setDaemon(true);
-			m_threads[th].start();
-		}
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(m_popSize / 2);
+				for (int j = 0; j + 1 < m_popSize; j += 2)
+					tasks.add(new OffspringTask(parents.get(j), parents.get(j + 1), m_random.nextLong()));
+				runTasks(tasks);
 
-		for (int i = 1; i <= m_maxGenerations; i++) {
-			m_sumPop = 0;
-			GABitSet[] newPop = new GABitSet[2 * m_popSize];
-			for (int j = 0; j < m_popSize; ++j) {
-				newPop[j] = m_population[j];
-				m_population[j] = newPop[j].clone();
-			}
-			List<GABitSet> parents = Arrays.asList(m_population);
-			Collections.shuffle(parents);
-			synchronized (m_lock) {
-				synchronized (m_popQue) {
-					m_popQue.addAll(parents);
-					m_popQue.notify();
+				for (int j = 0; j < m_popSize; ++j) {
+					newPop[j + m_popSize] = parents.get(j);
+				}
+				m_population = newPop;
+				if (isRemoveRepetitivePop())
+					removeRepetitivePop();
+				nonDominatedSort();
+				if (isPrintPop())
+					printPop(m_population, i);
+				m_generationTimes[i] = (System.nanoTime() - genStart) / 1000000;
+				m_generationReports.append("\tGeneration " + i + ": " + m_generationTimes[i] + " ms\n");
+				if (checkpointDue(i)) {
+					long start = System.nanoTime();
+					saveCheckpoint(settings, i);
+					checkpointTime += System.nanoTime() - start;
+					++checkpoints;
 				}
-				m_lock.wait();
 			}
-			for (int j = 0; j < m_popSize; ++j) {
-				newPop[j + m_popSize] = parents.get(j);
+			if (checkpoints > 0)
+				m_generationReports.append("\tCheckpoints: " + checkpoints + " saved to " + m_checkpointFile + ", "
+						+ checkpointTime / 1000000 + " ms\n");
+			m_generationReports.append("\t" + m_lookupTable + "\n");
+			if (m_remote != null)
+				m_generationReports.append("\t" + m_remote);
+		} finally {
+			if (m_executor != null)
+				m_executor.shutdownNow();
+			m_executor = null;
+			m_evaluators = null;
+			if (m_remote != null) {
+				m_remote.close();
+				m_remote = null;
 			}
-			m_population = newPop;
-			if (isRemoveRepetitivePop())
-				removeRepetitivePop();
-			nonDominatedSort();
-			if (isPrintPop())
-				printPop(m_population, i);
 		}
 
-		// for (int th = 0; th < m_numThreads; ++th) m_threads[th].stop();
-
 		int[][] ans;
 		Set<int[]> ansSet = new TreeSet<int[]>(new IntComparator());
 		for (GABitSet e : m_population) {
@@ -24,7 +24,6 @@ package weka.attributeSelection;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -335,17 +334,8 @@ public class NSGAIIS extends NSGAII {
 	 *             if something goes wrong during evaluation
 	 */
 	private void evaluatePopulation(WrapperSubsetEval ASEvaluator) throws Exception {
-		int i;
-		MyDoub merit = new MyDoub();
-		for (i = 0; i < m_population.length; i++) {
-			if (m_lookupTable.containsKey(m_population[i].getChromosome()) == false) {
-				merit.d = ASEvaluator.evaluateSubset(m_population[i].getChromosome(), m_stateName);
-				m_population[i].setObjective(merit);
-				m_lookupTable.put(m_population[i].getChromosome(), m_population[i]);
-			} else {
-				GABitSet temp = m_lookupTable.get(m_population[i].getChromosome());
-				m_population[i].setObjective(temp.getObjective());
-			}
+		for (int i = 0; i < m_population.length; i++) {
+			m_population[i].setObjective(m_lookupTable.get(m_population[i].getChromosome(), ASEvaluator, m_stateName));
 		}
 	}
 
@@ -420,7 +410,7 @@ public class NSGAIIS extends NSGAII {
 		}
 
 		// initial random population
-		m_lookupTable = new Hashtable<BitSet, GABitSet>(m_lookupTableSize);
+		initLookupTable(ASEvaluator, data);
 		m_random = new Random(m_seed);
 
 		// set up random initial population
@@ -441,6 +431,7 @@ public class NSGAIIS extends NSGAII {
 			
 			if(isPrintPop()) printPop(m_population,i);
 		}
+		m_generationReports.append("\t" + m_lookupTable + "\n");
 
 		int[][] ans;
 		Set<int[]> ansSet = new TreeSet<int[]>(new IntComparator());
@@ -0,0 +1,466 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    NonDominatedSorter.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Tag;
+
+/**
+ * Assigns Pareto front ranks to a population whose objective values are
+ * stored row-major in a primitive array (individual i, objective k at
+ * obj[i * m + k]). All objectives are maximised. Rank 0 is the
+ * non-dominated front.
+ * <p/>
+ * Available algorithms:
+ * <ul>
+ * <li>naive: the O(M N^2) pairwise counting of Deb et al. (2002)</li>
+ * <li>sweep: O(N log N) sweep for two objectives</li>
+ * <li>ens: efficient non-dominated sort with binary search over the fronts
+ * (Zhang et al. 2015), for any number of objectives</li>
+ * <li>auto: sweep for two objectives, ens otherwise</li>
+ * </ul>
+ */
+public class NonDominatedSorter implements Serializable {
+
+	/** for serialization */
+	private static final long serialVersionUID = 6153370428561952163L;
+
+	public static final int SORT_AUTO = 0;
+	public static final int SORT_NAIVE = 1;
+	public static final int SORT_SWEEP = 2;
+	public static final int SORT_ENS = 3;
+
+	/** the available algorithms */
+	public static final Tag[] TAGS_SORT = { new Tag(SORT_AUTO, "auto", "Sweep for two objectives, ENS otherwise"),
+			new Tag(SORT_NAIVE, "naive", "Pairwise comparison, O(MN^2)"),
+			new Tag(SORT_SWEEP, "sweep", "Sweep for two objectives, O(N log N)"),
+			new Tag(SORT_ENS, "ens", "Efficient non-dominated sort (binary search)") };
+
+	/** the algorithm to use */
+	protected int m_algorithm;
+
+	/** scratch buffers, reused between calls */
+	private transient int[] m_order;
+	private transient int[] m_tmp;
+	private transient int[] m_last;
+	private transient int[][] m_fronts;
+	private transient int[] m_frontSize;
+
+	/**
+	 * Constructor. Uses the automatic choice of algorithm.
+	 */
+	public NonDominatedSorter() {
+		this(SORT_AUTO);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param algorithm
+	 *            one of the SORT_ constants
+	 */
+	public NonDominatedSorter(int algorithm) {
+		m_algorithm = algorithm;
+	}
+
+	/**
+	 * set the algorithm
+	 *
+	 * @param algorithm
+	 *            one of the SORT_ constants
+	 */
+	public void setAlgorithm(int algorithm) {
+		m_algorithm = algorithm;
+	}
+
+	/**
+	 * get the algorithm
+	 *
+	 * @return one of the SORT_ constants
+	 */
+	public int getAlgorithm() {
+		return m_algorithm;
+	}
+
+	/**
+	 * Compares two individuals
+	 *
+	 * @param obj
+	 *            the objective matrix
+	 * @param m
+	 *            the number of objectives
+	 * @param a
+	 *            the first individual
+	 * @param b
+	 *            the second individual
+	 * @return 1 if a dominates b, -1 if b dominates a, 0 otherwise
+	 */
+	public static int dominate(double[] obj, int m, int a, int b) {
+		int offA = a * m, offB = b * m;
+		boolean better = false, worse = false;
+		for (int k = 0; k < m; ++k) {
+			double x = obj[offA + k], y = obj[offB + k];
+			if (x > y)
+				better = true;
+			else if (x < y)
+				worse = true;
+			if (better && worse)
+				return 0;
+		}
+		if (better)
+			return 1;
+		if (worse)
+			return -1;
+		return 0;
+	}
+
+	/**
+	 * Assigns front ranks.
+	 *
+	 * @param obj
+	 *            the objective matrix, n rows of m values
+	 * @param n
+	 *            the number of individuals
+	 * @param m
+	 *            the number of objectives
+	 * @param rank
+	 *            receives the front of each individual (length &gt;= n)
+	 * @return the number of fronts
+	 */
+	public int sort(double[] obj, int n, int m, int[] rank) {
+		if (n == 0)
+			return 0;
+		switch (m_algorithm) {
+		case SORT_NAIVE:
+			return sortNaive(obj, n, m, rank);
+		case SORT_SWEEP:
+			if (m == 2)
+				return sortSweep(obj, n, rank);
+			return sortENS(obj, n, m, rank);
+		case SORT_ENS:
+			return sortENS(obj, n, m, rank);
+		default:
+			if (m == 2)
+				return sortSweep(obj, n, rank);
+			return sortENS(obj, n, m, rank);
+		}
+	}
+
+	/**
+	 * pairwise comparison of all individuals
+	 */
+	protected int sortNaive(double[] obj, int n, int m, int[] rank) {
+		int[] count = new int[n];
+		int[][] dominated = new int[n][];
+		int[] numDominated = new int[n];
+		for (int i = 0; i < n; ++i)
+			dominated[i] = new int[4];
+
+		for (int i = 0; i < n; ++i) {
+			for (int j = i + 1; j < n; ++j) {
+				int d = dominate(obj, m, i, j);
+				if (d == 1) {
+					dominated[i] = append(dominated[i], numDominated[i]++, j);
+					++count[j];
+				} else if (d == -1) {
+					dominated[j] = append(dominated[j], numDominated[j]++, i);
+					++count[i];
+				}
+			}
+		}
+
+		int[] current = new int[n];
+		int[] next = new int[n];
+		int currentSize = 0;
+		for (int i = 0; i < n; ++i) {
+			if (count[i] == 0) {
+				rank[i] = 0;
+				current[currentSize++] = i;
+			}
+		}
+		int front = 0;
+		while (currentSize > 0) {
+			int nextSize = 0;
+			for (int c = 0; c < currentSize; ++c) {
+				int i = current[c];
+				for (int s = 0; s < numDominated[i]; ++s) {
+					int j = dominated[i][s];
+					if (--count[j] == 0) {
+						rank[j] = front + 1;
+						next[nextSize++] = j;
+					}
+				}
+			}
+			int[] t = current;
+			current = next;
+			next = t;
+			currentSize = nextSize;
+			++front;
+		}
+		return front;
+	}
+
+	/**
+	 * two objectives: visit the individuals in decreasing lexicographic order
+	 * and binary search the first front whose most recently added member does
+	 * not dominate the current individual
+	 */
+	protected int sortSweep(double[] obj, int n, int[] rank) {
+		int[] order = lexicographicOrder(obj, n, 2);
+		if (m_last == null || m_last.length < n)
+			m_last = new int[n];
+		int[] last = m_last;
+		int fronts = 0;
+		for (int o = 0; o < n; ++o) {
+			int p = order[o];
+			double p0 = obj[2 * p], p1 = obj[2 * p + 1];
+			int lo = 0, hi = fronts;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int q = last[mid];
+				double q0 = obj[2 * q], q1 = obj[2 * q + 1];
+				// q precedes p, so q0 >= p0
+				if (q1 >= p1 && (q0 > p0 || q1 > p1))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			rank[p] = lo;
+			last[lo] = p;
+			if (lo == fronts)
+				++fronts;
+		}
+		return fronts;
+	}
+
+	/**
+	 * any number of objectives: visit the individuals in decreasing
+	 * lexicographic order, so that an individual can only be dominated by
+	 * individuals visited before it, and binary search the first front that
+	 * holds no individual dominating it
+	 */
+	protected int sortENS(double[] obj, int n, int m, int[] rank) {
+		int[] order = lexicographicOrder(obj, n, m);
+		if (m_fronts == null || m_fronts.length < n) {
+			m_fronts = new int[n][];
+			m_frontSize = new int[n];
+		}
+		int fronts = 0;
+		for (int o = 0; o < n; ++o) {
+			int p = order[o];
+			int lo = 0, hi = fronts;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (dominatedByFront(obj, m, p, m_fronts[mid], m_frontSize[mid]))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			if (lo == fronts) {
+				if (m_fronts[lo] == null)
+					m_fronts[lo] = new int[8];
+				m_frontSize[lo] = 0;
+				++fronts;
+			}
+			m_fronts[lo] = append(m_fronts[lo], m_frontSize[lo]++, p);
+			rank[p] = lo;
+		}
+		return fronts;
+	}
+
+	private static boolean dominatedByFront(double[] obj, int m, int p, int[] front, int size) {
+		// recently added members are the most similar, check them first
+		for (int i = size - 1; i >= 0; --i) {
+			if (dominate(obj, m, front[i], p) == 1)
+				return true;
+		}
+		return false;
+	}
+
+	private static int[] append(int[] a, int size, int value) {
+		if (size == a.length)
+			a = Arrays.copyOf(a, size * 2);
+		a[size] = value;
+		return a;
+	}
+
+	private int[] scratch(int n) {
+		if (m_tmp == null || m_tmp.length < n)
+			m_tmp = new int[n];
+		return m_tmp;
+	}
+
+	/**
+	 * @return the individuals ordered by decreasing objective values, ties
+	 *         broken by the following objectives
+	 */
+	private int[] lexicographicOrder(double[] obj, int n, int m) {
+		if (m_order == null || m_order.length < n)
+			m_order = new int[n];
+		for (int i = 0; i < n; ++i)
+			m_order[i] = i;
+		sortIndices(m_order, n, obj, m, 0, m, scratch(n));
+		return m_order;
+	}
+
+	/**
+	 * Stable sort of individual indices by decreasing objective values.
+	 * Objectives firstObj .. firstObj + numObj - 1 are compared in turn.
+	 *
+	 * @param idx
+	 *            the indices to sort, the first n are used
+	 * @param n
+	 *            the number of indices
+	 * @param obj
+	 *            the objective matrix
+	 * @param m
+	 *            the number of objectives
+	 * @param firstObj
+	 *            the first objective to compare
+	 * @param numObj
+	 *            the number of objectives to compare
+	 */
+	public static void sortIndices(int[] idx, int n, double[] obj, int m, int firstObj, int numObj) {
+		sortIndices(idx, n, obj, m, firstObj, numObj, new int[n]);
+	}
+
+	/**
+	 * Stable sort of individual indices by decreasing objective values, using
+	 * a caller supplied scratch buffer.
+	 *
+	 * @param tmp
+	 *            scratch buffer of length &gt;= n
+	 * @see #sortIndices(int[], int, double[], int, int, int)
+	 */
+	public static void sortIndices(int[] idx, int n, double[] obj, int m, int firstObj, int numObj, int[] tmp) {
+		mergeSort(idx, tmp, 0, n, obj, m, firstObj, numObj);
+	}
+
+	/**
+	 * Computes the crowding distance of the members of one front. Each
+	 * objective is normalised by its range within the front, and the members
+	 * with the smallest and largest value of an objective get an infinite
+	 * distance.
+	 *
+	 * @param obj
+	 *            the objective matrix
+	 * @param m
+	 *            the number of objectives
+	 * @param members
+	 *            the individuals of the front, the first count are used
+	 * @param count
+	 *            the number of individuals in the front
+	 * @param dist
+	 *            receives the distances, indexed by individual
+	 */
+	public void crowdingDistance(double[] obj, int m, int[] members, int count, double[] dist) {
+		for (int j = 0; j < count; ++j)
+			dist[members[j]] = 0;
+		if (count <= 2) {
+			for (int j = 0; j < count; ++j)
+				dist[members[j]] = Double.POSITIVE_INFINITY;
+			return;
+		}
+
+		if (m_order == null || m_order.length < count)
+			m_order = new int[count];
+		int[] tmp = scratch(count);
+		int[] order = m_order;
+		for (int k = 0; k < m; ++k) {
+			System.arraycopy(members, 0, order, 0, count);
+			sortIndices(order, count, obj, m, k, 1, tmp);
+			double max = obj[order[0] * m + k];
+			double min = obj[order[count - 1] * m + k];
+			dist[order[0]] = Double.POSITIVE_INFINITY;
+			dist[order[count - 1]] = Double.POSITIVE_INFINITY;
+			double range = max - min;
+			if (range <= 0)
+				continue;
+			for (int j = 1; j < count - 1; ++j)
+				dist[order[j]] += (obj[order[j - 1] * m + k] - obj[order[j + 1] * m + k]) / range;
+		}
+	}
+
+	/**
+	 * Orders the members of a front by decreasing crowding distance, keeping
+	 * the current order for equal distances.
+	 *
+	 * @param members
+	 *            the individuals of the front, the first count are sorted in
+	 *            place
+	 * @param count
+	 *            the number of individuals in the front
+	 * @param dist
+	 *            the crowding distances, indexed by individual
+	 */
+	public void sortByCrowding(int[] members, int count, double[] dist) {
+		sortIndices(members, count, dist, 1, 0, 1, scratch(count));
+	}
+
+	private static void mergeSort(int[] idx, int[] tmp, int from, int to, double[] obj, int m, int firstObj,
+			int numObj) {
+		if (to - from < 16) {
+			// insertion sort
+			for (int i = from + 1; i < to; ++i) {
+				int v = idx[i];
+				int j = i - 1;
+				while (j >= from && compare(obj, m, firstObj, numObj, idx[j], v) > 0) {
+					idx[j + 1] = idx[j];
+					--j;
+				}
+				idx[j + 1] = v;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(idx, tmp, from, mid, obj, m, firstObj, numObj);
+		mergeSort(idx, tmp, mid, to, obj, m, firstObj, numObj);
+		if (compare(obj, m, firstObj, numObj, idx[mid - 1], idx[mid]) <= 0)
+			return;
+		System.arraycopy(idx, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			if (compare(obj, m, firstObj, numObj, tmp[j], tmp[i]) < 0)
+				idx[k++] = tmp[j++];
+			else
+				idx[k++] = tmp[i++];
+		}
+		while (i < mid)
+			idx[k++] = tmp[i++];
+		while (j < to)
+			idx[k++] = tmp[j++];
+	}
+
+	/** descending order */
+	private static int compare(double[] obj, int m, int firstObj, int numObj, int a, int b) {
+		int offA = a * m, offB = b * m;
+		for (int k = firstObj; k < firstObj + numObj; ++k) {
+			double x = obj[offA + k], y = obj[offB + k];
+			if (x > y)
+				return -1;
+			if (x < y)
+				return 1;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    RandomForestAttributeEval.java
+ *    Copyright (C) 2026 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SelectedTag;
+import weka.core.Tag;
+import weka.core.Utils;
+
+/**
+ * <!-- globalinfo-start --> RandomForestAttributeEval :<br/>
+ * <br/>
+ * Evaluates the worth of an attribute by its importance in a random forest
+ * built on all attributes: either the mean impurity decrease at the nodes
+ * splitting on it, or the mean increase of the trees' out-of-bag error when
+ * its values are permuted. The forest is built once, so all attributes are
+ * evaluated for the cost of one forest; the trees (and their permutations)
+ * are processed in parallel with the forest's execution slots.<br/>
+ * <p/>
+ * <!-- globalinfo-end -->
+ *
+ * <!-- options-start --> Valid options are:
+ * <p/>
+ *
+ * <pre>
+ * -M &lt;0 = impurity decrease | 1 = permutation&gt;
+ *  The importance measure. (default = 0)
+ * </pre>
+ *
+ * <pre>
+ * -W &lt;forest specification&gt;
+ *  Full specification of the random forest to build, with options.
+ *  (default = weka.classifiers.trees.RandomForest)
+ * </pre>
+ *
+ * <!-- options-end -->
+ *
+ * @version $Revision: 13375 $
+ */
+public class RandomForestAttributeEval extends ASEvaluation implements
+  AttributeEvaluator, OptionHandler {
+
+  /** for serialization */
+  static final long serialVersionUID = -3914827603528120411L;
+
+  /** importance measure: mean impurity decrease */
+  public static final int IMPORTANCE_IMPURITY = 0;
+  /** importance measure: out-of-bag permutation */
+  public static final int IMPORTANCE_PERMUTATION = 1;
+  /** importance measures */
+  public static final Tag[] TAGS_IMPORTANCE = {
+    new Tag(IMPORTANCE_IMPURITY, "Mean impurity decrease"),
+    new Tag(IMPORTANCE_PERMUTATION, "Out-of-bag permutation"), };
+
+  /** The importance measure */
+  protected int m_importance;
+
+  /** The forest to build */
+  protected RandomForest m_forest;
+
+  /** The importance of each attribute */
+  protected double[] m_importances;
+
+  /** The out-of-bag error of the built forest, if it was calculated */
+  protected double m_outOfBagError;
+
+  /**
+   * Returns a string describing this attribute evaluator
+   *
+   * @return a description of the evaluator suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "RandomForestAttributeEval :\n\nEvaluates the worth of an "
+      + "attribute by its importance in a random forest built on all "
+      + "attributes: either the mean impurity decrease at the nodes "
+      + "splitting on it, or the mean increase of the trees' out-of-bag "
+      + "error when its values are permuted. The forest is built once, so "
+      + "all attributes are evaluated for the cost of one forest; the trees "
+      + "(and their permutations) are processed in parallel with the "
+      + "forest's execution slots.\n";
+  }
+
+  /**
+   * Constructor
+   */
+  public RandomForestAttributeEval() {
+    resetOptions();
+  }
+
+  /**
+   * Returns a string for this option suitable for display in the gui as a tip
+   * text
+   *
+   * @return a string describing this option
+   */
+  public String importanceTipText() {
+    return "The importance measure: mean impurity decrease, or out-of-bag "
+      + "permutation (the out-of-bag error is calculated for it).";
+  }
+
+  /**
+   * Set the importance measure
+   *
+   * @param importance the importance measure
+   */
+  public void setImportance(SelectedTag importance) {
+    if (importance.getTags() == TAGS_IMPORTANCE) {
+      m_importance = importance.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get the importance measure
+   *
+   * @return the importance measure
+   */
+  public SelectedTag getImportance() {
+    return new SelectedTag(m_importance, TAGS_IMPORTANCE);
+  }
+
+  /**
+   * Returns a string for this option suitable for display in the gui as a tip
+   * text
+   *
+   * @return a string describing this option
+   */
+  public String forestTipText() {
+    return "The random forest to build; its settings for computing "
+      + "importance are set as needed.";
+  }
+
+  /**
+   * Set the random forest to build
+   *
+   * @param forest the random forest
+   */
+  public void setForest(RandomForest forest) {
+    m_forest = forest;
+  }
+
+  /**
+   * Get the random forest to build
+   *
+   * @return the random forest
+   */
+  public RandomForest getForest() {
+    return m_forest;
+  }
+
+  /**
+   * Gets the forest specification string, which contains the class name of
+   * the forest and any options to it
+   *
+   * @return the forest string.
+   */
+  protected String getForestSpec() {
+    return m_forest.getClass().getName() + " "
+      + Utils.joinOptions(m_forest.getOptions());
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   **/
+  @Override
+  public Enumeration<Option> listOptions() {
+    Vector<Option> newVector = new Vector<Option>(2);
+
+    newVector.addElement(new Option("\tThe importance measure. (default = 0)",
+      "M", 1, "-M <0 = impurity decrease | 1 = permutation>"));
+
+    newVector.addElement(new Option(
+      "\tFull specification of the random forest to build, with options.\n"
+        + "\t(default = weka.classifiers.trees.RandomForest)", "W", 1,
+      "-W <forest specification>"));
+
+    return newVector.elements();
+  }
+
+  /**
+   * Parses a given list of options.
+   * <p/>
+   *
+   * <!-- options-start --> Valid options are:
+   * <p/>
+   *
+   * <pre>
+   * -M &lt;0 = impurity decrease | 1 = permutation&gt;
+   *  The importance measure. (default = 0)
+   * </pre>
+   *
+   * <pre>
+   * -W &lt;forest specification&gt;
+   *  Full specification of the random forest to build, with options.
+   *  (default = weka.classifiers.trees.RandomForest)
+   * </pre>
+   *
+   * <!-- options-end -->
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  @Override
+  public void setOptions(String[] options) throws Exception {
+    resetOptions();
+
+    String temp = Utils.getOption('M', options);
+    if (temp.length() != 0) {
+      setImportance(new SelectedTag(Integer.parseInt(temp), TAGS_IMPORTANCE));
+    }
+
+    temp = Utils.getOption('W', options);
+    if (temp.length() != 0) {
+      String[] forestSpec = Utils.splitOptions(temp);
+      String forestName = forestSpec[0];
+      forestSpec[0] = "";
+      setForest((RandomForest) AbstractClassifier.forName(forestName,
+        forestSpec));
+    }
+
+    Utils.checkForRemainingOptions(options);
+  }
+
+  /**
+   * returns the current setup.
+   *
+   * @return the options of the current setup
+   */
+  @Override
+  public String[] getOptions() {
+
+    Vector<String> options = new Vector<String>();
+
+    options.add("-M");
+    options.add("" + m_importance);
+    options.add("-W");
+    options.add(getForestSpec());
+
+    return options.toArray(new String[0]);
+  }
+
+  /**
+   * Returns the capabilities of this evaluator.
+   *
+   * @return the capabilities of this evaluator
+   * @see Capabilities
+   */
+  @Override
+  public Capabilities getCapabilities() {
+    Capabilities result = m_forest.getCapabilities();
+    result.setOwner(this);
+
+    // set dependencies
+    for (Capability cap : Capability.values()) {
+      result.enableDependency(cap);
+    }
+
+    return result;
+  }
+
+  /**
+   * Initializes the evaluator by building the forest and computing the
+   * importance of every attribute.
+   *
+   * @param data set of instances serving as training data
+   * @throws Exception if the evaluator has not been generated successfully
+   */
+  @Override
+  public void buildEvaluator(Instances data) throws Exception {
+
+    // can evaluator handle data?
+    getCapabilities().testWithFail(data);
+
+    RandomForest forest = (RandomForest) AbstractClassifier.makeCopy(m_forest);
+    if (m_importance == IMPORTANCE_PERMUTATION) {
+      forest.setCalcOutOfBag(true);
+      forest.setComputePermutationImportance(true);
+    } else {
+      forest.setComputeAttributeImportance(true);
+    }
+    forest.buildClassifier(data);
+
+    if (m_importance == IMPORTANCE_PERMUTATION) {
+      m_importances = forest.computeAveragePermutationImportance();
+    } else {
+      m_importances = forest.computeAverageImpurityDecreasePerAttribute(null);
+    }
+    m_outOfBagError = forest.getCalcOutOfBag() ? forest.measureOutOfBagError()
+      : Utils.missingValue();
+  }
+
+  /**
+   * resets to defaults.
+   */
+  protected void resetOptions() {
+    m_importance = IMPORTANCE_IMPURITY;
+    m_forest = new RandomForest();
+    m_importances = null;
+    m_outOfBagError = Utils.missingValue();
+  }
+
+  /**
+   * evaluates an individual attribute by its importance in the forest.
+   *
+   * @param attribute the index of the attribute to be evaluated
+   * @throws Exception if the attribute could not be evaluated
+   */
+  @Override
+  public double evaluateAttribute(int attribute) throws Exception {
+
+    if (m_importances == null) {
+      throw new Exception("Evaluator has not been built yet!");
+    }
+    return m_importances[attribute];
+  }
+
+  /**
+   * Return a description of the evaluator
+   *
+   * @return description as a string
+   */
+  @Override
+  public String toString() {
+    StringBuffer text = new StringBuffer();
+
+    if (m_importances == null) {
+      text.append("\tRandom forest feature evaluator has not been built yet");
+    } else {
+      text.append("\tRandom forest feature evaluator.\n\n");
+      text.append("\tImportance: "
+        + getImportance().getSelectedTag().getReadable() + "\n");
+      text.append("\tForest: " + getForestSpec());
+      if (!Utils.isMissingValue(m_outOfBagError)) {
+        text.append("\n\tOut-of-bag error of the forest: "
+          + Utils.doubleToString(m_outOfBagError, 4));
+      }
+    }
+
+    text.append("\n");
+    return text.toString();
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13375 $");
+  }
+
+  // ============
+  // Test method.
+  // ============
+  /**
+   * Main method for testing this class.
+   *
+   * @param args the options
+   */
+  public static void main(String[] args) {
+    runEvaluator(new RandomForestAttributeEval(), args);
+  }
+}
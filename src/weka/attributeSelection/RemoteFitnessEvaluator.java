@@ -0,0 +1,453 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    RemoteFitnessEvaluator.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.rmi.MarshalledObject;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.classifiers.evaluation.AbstractEvaluationMetric;
+import weka.core.PluginManager;
+
+/**
+ * Evaluates chromosomes on a pool of FitnessEngine worker processes, on this
+ * host or on others. Each worker receives the evaluator and its training data
+ * once per search; each evaluation then sends the chromosome and the cross
+ * validation seed, so a chromosome gets the same objective values whichever
+ * worker evaluates it.
+ * <p/>
+ * A call that fails with a RemoteException is retried on another worker. A
+ * worker started by this pool is restarted when it crashes, other workers
+ * are dropped. Per-worker task, failure and busy time counters are kept for
+ * the report.
+ *
+ * @see FitnessEngine
+ */
+public class RemoteFitnessEvaluator implements FitnessCache.Evaluator {
+
+	/** how long to wait for a spawned worker to come up (ms) */
+	protected static final long STARTUP_TIMEOUT = 60000;
+
+	/**
+	 * A worker and its counters.
+	 */
+	protected static class Worker {
+		/** the RMI name of the engine */
+		protected final String m_url;
+
+		/** the port of a spawned worker, 0 otherwise */
+		protected final int m_port;
+
+		/** the engine */
+		protected volatile FitnessCompute m_engine;
+
+		/** the process of a spawned worker */
+		protected volatile Process m_process;
+
+		/** incremented on every restart */
+		protected volatile int m_generation;
+
+		/** false once the worker has been dropped */
+		protected volatile boolean m_alive = true;
+
+		/** evaluations completed */
+		protected final AtomicLong m_tasks = new AtomicLong();
+
+		/** failed calls */
+		protected final AtomicLong m_failures = new AtomicLong();
+
+		/** restarts after a crash */
+		protected final AtomicLong m_restarts = new AtomicLong();
+
+		/** time spent in completed evaluations (ns) */
+		protected final AtomicLong m_busy = new AtomicLong();
+
+		public Worker(String url, int port) {
+			m_url = url;
+			m_port = port;
+		}
+
+		@Override
+		public String toString() {
+			long tasks = m_tasks.get();
+			double busy = m_busy.get() / 1e9;
+			return m_url + (m_alive ? "" : " (dropped)") + ": " + tasks + " tasks, "
+					+ String.format("%.2f", busy > 0 ? tasks / busy : 0.0) + " tasks/s busy, " + m_failures.get()
+					+ " failures, " + m_restarts.get() + " restarts";
+		}
+	}
+
+	/**
+	 * A free execution slot of a worker. Slots handed out before a restart
+	 * are stale and dropped when they come back.
+	 */
+	protected static class Slot {
+		protected final Worker m_worker;
+		protected final int m_generation;
+
+		public Slot(Worker worker, int generation) {
+			m_worker = worker;
+			m_generation = generation;
+		}
+
+		public boolean isCurrent() {
+			return m_worker.m_alive && m_worker.m_generation == m_generation;
+		}
+	}
+
+	/** the workers */
+	protected final List<Worker> m_workers = new ArrayList<Worker>();
+
+	/** the free execution slots */
+	protected final LinkedBlockingQueue<Slot> m_idle = new LinkedBlockingQueue<Slot>();
+
+	/** the marshalled evaluator of the current session */
+	protected MarshalledObject<WrapperSubsetEval> m_evaluator;
+
+	/** the objectives of the current session */
+	protected String[] m_statNames;
+
+	/** the plugin metrics to register on the workers */
+	protected String[][] m_pluginMetrics;
+
+	/** the evaluations a worker runs at the same time */
+	protected int m_slotsPerWorker = 1;
+
+	/** the current session */
+	protected String m_session;
+
+	/** the cross validation seed sent with every evaluation */
+	protected int m_seed;
+
+	/** how often a failed evaluation is retried */
+	protected int m_maxRetries = 3;
+
+	/** when the current session started (ns) */
+	protected long m_sessionStart;
+
+	/**
+	 * Adds a running worker.
+	 *
+	 * @param hostPort
+	 *            host[:port] of the worker's RMI registry
+	 * @throws Exception
+	 *             if the worker can't be looked up
+	 */
+	public synchronized void addWorker(String hostPort) throws Exception {
+		Worker w = new Worker("//" + hostPort + "/" + FitnessEngine.BINDING, 0);
+		w.m_engine = (FitnessCompute) Naming.lookup(w.m_url);
+		m_workers.add(w);
+	}
+
+	/**
+	 * Starts worker processes on this host with the class path of this JVM.
+	 *
+	 * @param count
+	 *            the number of workers to start
+	 * @throws Exception
+	 *             if a worker doesn't come up
+	 */
+	public synchronized void startLocalWorkers(int count) throws Exception {
+		for (int i = 0; i < count; ++i) {
+			int port;
+			ServerSocket socket = new ServerSocket(0);
+			try {
+				port = socket.getLocalPort();
+			} finally {
+				socket.close();
+			}
+			Worker w = new Worker("//localhost:" + port + "/" + FitnessEngine.BINDING, port);
+			m_workers.add(w);
+			spawn(w);
+		}
+	}
+
+	/**
+	 * Starts the process of a local worker and looks it up.
+	 *
+	 * @param w
+	 *            the worker
+	 * @throws Exception
+	 *             if the worker doesn't come up
+	 */
+	protected void spawn(final Worker w) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				FitnessEngine.class.getName(), "-p", "" + w.m_port);
+		builder.redirectErrorStream(true);
+		final Process process = builder.start();
+		final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+
+		// wait for the ready line, then keep draining the output
+		final Object ready = new Object();
+		final boolean[] isReady = new boolean[1];
+		Thread drain = new Thread() {
+			@Override
+			public void run() {
+				try {
+					String line;
+					while ((line = out.readLine()) != null) {
+						if (line.equals(FitnessEngine.READY)) {
+							synchronized (ready) {
+								isReady[0] = true;
+								ready.notifyAll();
+							}
+						}
+					}
+				} catch (IOException e) {
+				}
+				synchronized (ready) {
+					ready.notifyAll();
+				}
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+		synchronized (ready) {
+			while (!isReady[0] && drain.isAlive() && System.currentTimeMillis() < deadline) {
+				ready.wait(1000);
+			}
+		}
+		if (!isReady[0]) {
+			process.destroy();
+			throw new Exception("Worker " + w.m_url + " did not start");
+		}
+		w.m_process = process;
+		w.m_engine = (FitnessCompute) Naming.lookup(w.m_url);
+	}
+
+	/**
+	 * Sends the evaluator to every worker and opens a new session.
+	 *
+	 * @param evaluator
+	 *            the built wrapper evaluator; its seed is sent with every
+	 *            evaluation
+	 * @param statNames
+	 *            the objectives to compute
+	 * @param slotsPerWorker
+	 *            the number of evaluations a worker runs at the same time
+	 * @throws Exception
+	 *             if no worker could be initialised
+	 */
+	public synchronized void init(WrapperSubsetEval evaluator, String[] statNames, int slotsPerWorker)
+			throws Exception {
+		m_evaluator = new MarshalledObject<WrapperSubsetEval>(evaluator);
+		m_statNames = statNames;
+		m_seed = evaluator.getSeed();
+		m_slotsPerWorker = Math.max(slotsPerWorker, 1);
+		m_session = UUID.randomUUID().toString();
+		m_sessionStart = System.nanoTime();
+
+		List<String[]> metrics = new ArrayList<String[]>();
+		if (PluginManager.getPluginNamesOfType(AbstractEvaluationMetric.class.getName()) != null) {
+			for (String name : PluginManager.getPluginNamesOfType(AbstractEvaluationMetric.class.getName())) {
+				Object metric = PluginManager.getPluginInstance(AbstractEvaluationMetric.class.getName(), name);
+				metrics.add(new String[] { name, metric.getClass().getName() });
+			}
+		}
+		m_pluginMetrics = metrics.toArray(new String[metrics.size()][]);
+
+		m_idle.clear();
+		Exception last = null;
+		for (Worker w : m_workers) {
+			if (!w.m_alive)
+				continue;
+			try {
+				initWorker(w);
+			} catch (Exception e) {
+				last = e;
+				restart(w, w.m_generation);
+				if (!w.m_alive)
+					System.err.println("RemoteFitnessEvaluator : dropped " + w.m_url + ": " + e.getMessage());
+			}
+		}
+		if (m_idle.isEmpty()) {
+			throw new Exception("No fitness worker could be initialised", last);
+		}
+	}
+
+	/**
+	 * Initialises a worker for the current session and makes its slots
+	 * available.
+	 *
+	 * @param w
+	 *            the worker
+	 * @throws Exception
+	 *             if the worker can't be initialised
+	 */
+	protected void initWorker(Worker w) throws Exception {
+		w.m_engine.init(m_session, m_evaluator, m_statNames, m_pluginMetrics, m_slotsPerWorker);
+		for (int i = 0; i < m_slotsPerWorker; ++i)
+			m_idle.add(new Slot(w, w.m_generation));
+	}
+
+	/**
+	 * Handles a crashed worker: a spawned worker is restarted and gets fresh
+	 * slots, other workers are dropped. Only the first caller that saw the
+	 * given generation acts.
+	 *
+	 * @param w
+	 *            the worker
+	 * @param generation
+	 *            the generation of the worker when the failing call started
+	 */
+	protected void restart(Worker w, int generation) {
+		synchronized (w) {
+			if (w.m_generation != generation)
+				return;
+			++w.m_generation;
+			if (w.m_process != null) {
+				w.m_process.destroy();
+				try {
+					spawn(w);
+					w.m_restarts.incrementAndGet();
+					initWorker(w);
+					System.err.println("RemoteFitnessEvaluator : restarted " + w.m_url);
+					return;
+				} catch (Exception e) {
+					System.err.println("RemoteFitnessEvaluator : can't restart " + w.m_url + ": " + e.getMessage());
+				}
+			}
+			w.m_alive = false;
+		}
+	}
+
+	/**
+	 * @return the number of workers that are still in use
+	 */
+	public synchronized int numWorkers() {
+		int n = 0;
+		for (Worker w : m_workers)
+			if (w.m_alive)
+				++n;
+		return n;
+	}
+
+	/**
+	 * @return the number of evaluations the pool can run at the same time
+	 */
+	public int numSlots() {
+		return numWorkers() * m_slotsPerWorker;
+	}
+
+	/**
+	 * set how often a failed evaluation is retried on another worker
+	 *
+	 * @param retries
+	 *            the number of retries
+	 */
+	public void setMaxRetries(int retries) {
+		m_maxRetries = retries;
+	}
+
+	/**
+	 * @return how often a failed evaluation is retried on another worker
+	 */
+	public int getMaxRetries() {
+		return m_maxRetries;
+	}
+
+	@Override
+	public double[] evaluate(BitSet chromosome) throws Exception {
+		long[] words = chromosome.toLongArray();
+		RemoteException last = null;
+
+		for (int attempt = 0; attempt <= m_maxRetries; ++attempt) {
+			Slot slot = null;
+			while (slot == null) {
+				slot = m_idle.poll(1, TimeUnit.SECONDS);
+				if (slot == null && numWorkers() == 0)
+					throw new Exception("All fitness workers have failed", last);
+				if (slot != null && !slot.isCurrent())
+					slot = null;
+			}
+
+			Worker w = slot.m_worker;
+			long start = System.nanoTime();
+			try {
+				double[] result = w.m_engine.evaluate(m_session, words, m_seed);
+				w.m_busy.addAndGet(System.nanoTime() - start);
+				w.m_tasks.incrementAndGet();
+				m_idle.put(slot);
+				return result;
+			} catch (RemoteException e) {
+				// the worker crashed or can't be reached, try another one
+				last = e;
+				w.m_failures.incrementAndGet();
+				restart(w, slot.m_generation);
+			} catch (Exception e) {
+				// the evaluation itself failed, retrying won't help
+				m_idle.put(slot);
+				throw e;
+			}
+		}
+		throw new Exception("Evaluation failed after " + (m_maxRetries + 1) + " attempts", last);
+	}
+
+	/**
+	 * Stops the spawned workers. Workers added with addWorker() keep running.
+	 */
+	public synchronized void close() {
+		for (Worker w : m_workers) {
+			if (w.m_process != null) {
+				try {
+					w.m_engine.shutdown();
+				} catch (RemoteException e) {
+				}
+				w.m_process.destroy();
+				w.m_process = null;
+			}
+			w.m_alive = false;
+		}
+		m_idle.clear();
+	}
+
+	/**
+	 * @return the per-worker counters of the current session
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuffer text = new StringBuffer();
+		double wall = (System.nanoTime() - m_sessionStart) / 1e9;
+		long tasks = 0;
+		for (Worker w : m_workers)
+			tasks += w.m_tasks.get();
+		text.append("Remote fitness evaluation: " + numWorkers() + " workers, " + tasks + " tasks, "
+				+ String.format("%.2f", wall > 0 ? tasks / wall : 0.0) + " tasks/s\n");
+		for (Worker w : m_workers)
+			text.append("\t\t" + w + "\n");
+		return text.toString();
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    SearchCheckpoint.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import weka.core.Instances;
+
+/**
+ * The state of a genetic search after a generation: the population, the
+ * random number generator, the lookup table and the report so far. A search
+ * resumed from a checkpoint continues exactly as the interrupted one would
+ * have.
+ * <p/>
+ * The state is kept in a compact binary file: chromosomes are stored as the
+ * words of their BitSet and objective values as raw doubles. A file is
+ * written next to the target and renamed over it, so an interrupted write
+ * leaves the previous checkpoint intact, and it ends with a CRC32 of its
+ * content.
+ */
+public class SearchCheckpoint {
+
+	/** identifies a checkpoint file */
+	protected static final int MAGIC = 0x47414350;
+
+	/** the version of the file format */
+	protected static final int VERSION = 1;
+
+	/** used for the strings in the file */
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * A chromosome with its values.
+	 */
+	public static class Record {
+		/** the words of the chromosome */
+		public long[] m_words;
+
+		/** the objective values, and whatever else the search keeps per member */
+		public double[] m_values;
+
+		/** the front of the member (NSGA-II only) */
+		public int m_rank;
+
+		/** the crowding distance of the member (NSGA-II only) */
+		public double m_distance;
+
+		public Record(BitSet chromosome, double[] values) {
+			m_words = chromosome.toLongArray();
+			m_values = values;
+		}
+
+		public Record(long[] words, double[] values) {
+			m_words = words;
+			m_values = values;
+		}
+
+		/**
+		 * @return the chromosome
+		 */
+		public BitSet getChromosome() {
+			return BitSet.valueOf(m_words);
+		}
+	}
+
+	/** the settings the search was run with */
+	public String m_settings = "";
+
+	/** the last completed generation */
+	public int m_generation;
+
+	/** true if the search stopped early after this generation */
+	public boolean m_finished;
+
+	/** the state of the search's random number generator */
+	public byte[] m_random;
+
+	/** the population, in order */
+	public Record[] m_population;
+
+	/** the best member so far, if the search keeps one */
+	public Record m_best;
+
+	/** search-specific scalars, e.g. population statistics */
+	public double[] m_statistics = new double[0];
+
+	/** the wall time of the completed generations (ms) */
+	public long[] m_generationTimes = new long[0];
+
+	/** the generation reports so far */
+	public String m_report = "";
+
+	/** the lookup table, least recently used first */
+	public Record[] m_cache = new Record[0];
+
+	/** the hit, miss and eviction counters of the lookup table */
+	public long[] m_cacheStatistics = new long[3];
+
+	/**
+	 * Stores the state of a random number generator.
+	 *
+	 * @param random
+	 *            the generator
+	 * @throws IOException
+	 *             if the generator can't be serialized
+	 */
+	public void setRandom(Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(random);
+		out.close();
+		m_random = bytes.toByteArray();
+	}
+
+	/**
+	 * @return a generator in the stored state
+	 * @throws Exception
+	 *             if the state can't be read
+	 */
+	public Random getRandom() throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(m_random));
+		try {
+			return (Random) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the evaluated entries and the counters of a lookup table.
+	 *
+	 * @param cache
+	 *            the lookup table
+	 */
+	public void setCache(FitnessCache cache) {
+		List<Map.Entry<BitSet, double[]>> entries = cache.entries();
+		m_cache = new Record[entries.size()];
+		for (int i = 0; i < m_cache.length; ++i)
+			m_cache[i] = new Record(entries.get(i).getKey(), entries.get(i).getValue());
+		m_cacheStatistics = new long[] { cache.getHits(), cache.getMisses(), cache.getEvictions() };
+	}
+
+	/**
+	 * Adds the stored entries to a lookup table.
+	 *
+	 * @param cache
+	 *            the lookup table
+	 * @param statistics
+	 *            true to restore the counters as well
+	 */
+	public void restoreCache(FitnessCache cache, boolean statistics) {
+		for (Record r : m_cache)
+			cache.put(r.getChromosome(), r.m_values);
+		if (statistics)
+			cache.setStatistics(m_cacheStatistics[0], m_cacheStatistics[1], m_cacheStatistics[2]);
+	}
+
+	/**
+	 * Describes a data set for the settings of a checkpoint: its header and a
+	 * hash of its values.
+	 *
+	 * @param data
+	 *            the data set
+	 * @return the description
+	 */
+	public static String fingerprint(Instances data) {
+		long hash = 17;
+		for (int i = 0; i < data.numInstances(); ++i) {
+			for (int j = 0; j < data.numAttributes(); ++j) {
+				long bits = Double.doubleToLongBits(data.instance(i).value(j));
+				hash = 31 * hash + (bits ^ (bits >>> 32));
+			}
+		}
+		return data.relationName() + " " + data.numInstances() + "x" + data.numAttributes() + " class "
+				+ data.classIndex() + " " + Long.toHexString(hash);
+	}
+
+	/**
+	 * Writes the checkpoint. The file is replaced only once it has been
+	 * written completely.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(tmp), crc), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, m_settings);
+			out.writeInt(m_generation);
+			out.writeBoolean(m_finished);
+			out.writeInt(m_random.length);
+			out.write(m_random);
+			writeRecords(out, m_population, true);
+			out.writeBoolean(m_best != null);
+			if (m_best != null)
+				writeRecords(out, new Record[] { m_best }, true);
+			out.writeInt(m_statistics.length);
+			for (double d : m_statistics)
+				out.writeDouble(d);
+			out.writeInt(m_generationTimes.length);
+			for (long t : m_generationTimes)
+				out.writeLong(t);
+			writeString(out, m_report);
+			writeRecords(out, m_cache, false);
+			for (long s : m_cacheStatistics)
+				out.writeLong(s);
+			out.flush();
+			out.writeLong(crc.getValue());
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a checkpoint.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @return the checkpoint
+	 * @throws Exception
+	 *             if the file can't be read or is not a valid checkpoint
+	 */
+	public static SearchCheckpoint read(File file) throws Exception {
+		SearchCheckpoint c = new SearchCheckpoint();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length < 16)
+			throw new Exception(file + " is not a search checkpoint");
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new Exception(file + " is not a search checkpoint");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new Exception(file + " has unsupported checkpoint version " + version);
+			c.m_settings = readString(in);
+			c.m_generation = in.readInt();
+			c.m_finished = in.readBoolean();
+			c.m_random = new byte[in.readInt()];
+			in.readFully(c.m_random);
+			c.m_population = readRecords(in, true);
+			if (in.readBoolean())
+				c.m_best = readRecords(in, true)[0];
+			c.m_statistics = new double[in.readInt()];
+			for (int i = 0; i < c.m_statistics.length; ++i)
+				c.m_statistics[i] = in.readDouble();
+			c.m_generationTimes = new long[in.readInt()];
+			for (int i = 0; i < c.m_generationTimes.length; ++i)
+				c.m_generationTimes[i] = in.readLong();
+			c.m_report = readString(in);
+			c.m_cache = readRecords(in, false);
+			for (int i = 0; i < c.m_cacheStatistics.length; ++i)
+				c.m_cacheStatistics[i] = in.readLong();
+			if (in.readLong() != crc.getValue())
+				throw new Exception(file + " is corrupt (checksum mismatch)");
+		} finally {
+			in.close();
+		}
+		return c;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeRecords(DataOutputStream out, Record[] records, boolean ranked) throws IOException {
+		out.writeInt(records.length);
+		for (Record r : records) {
+			out.writeShort(r.m_words.length);
+			for (long w : r.m_words)
+				out.writeLong(w);
+			out.writeShort(r.m_values.length);
+			for (double v : r.m_values)
+				out.writeDouble(v);
+			if (ranked) {
+				out.writeInt(r.m_rank);
+				out.writeDouble(r.m_distance);
+			}
+		}
+	}
+
+	private static Record[] readRecords(DataInputStream in, boolean ranked) throws IOException {
+		Record[] records = new Record[in.readInt()];
+		for (int i = 0; i < records.length; ++i) {
+			long[] words = new long[in.readUnsignedShort()];
+			for (int j = 0; j < words.length; ++j)
+				words[j] = in.readLong();
+			double[] values = new double[in.readUnsignedShort()];
+			for (int j = 0; j < values.length; ++j)
+				values[j] = in.readDouble();
+			records[i] = new Record(words, values);
+			if (ranked) {
+				records[i].m_rank = in.readInt();
+				records[i].m_distance = in.readDouble();
+			}
+		}
+		return records;
+	}
+}
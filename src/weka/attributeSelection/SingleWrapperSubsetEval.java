@@ -19,7 +19,7 @@ public class SingleWrapperSubsetEval extends WrapperSubsetEval{
 		double evalMetric = 0;
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 
 	    AbstractEvaluationMetric pluginMetric = null;
 	    String statName = null;
@@ -108,7 +108,7 @@ public class SingleWrapperSubsetEval extends WrapperSubsetEval{
 	    double[] evalMetric=new double[numObjective];
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 	    SelectedTag[] statTags=new SelectedTag[numObjective];
 	    for(i=0;i<numObjective;++i)
 	    	statTags[i]=new SelectedTag(statNames[i], TAGS_EVALUATION);
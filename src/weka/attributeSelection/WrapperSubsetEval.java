@@ -26,6 +26,7 @@ import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.evaluation.AbstractEvaluationMetric;
 import weka.classifiers.evaluation.InformationRetrievalEvaluationMetric;
+import weka.classifiers.lazy.IBkFoldCache;
 import weka.classifiers.rules.ZeroR;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
@@ -128,6 +129,12 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -cache-distances
+ *  Keep the distances of the cross validation folds between subsets
+ *  when the classifier is IBk with Euclidean distance.
+ * </pre>
+ * 
+ * <pre>
  * Options specific to scheme weka.classifiers.rules.ZeroR:
  * </pre>
  * 
@@ -162,6 +169,14 @@ public class WrapperSubsetEval extends ASEvaluation
   private int m_folds;
   /** random number seed */
   protected int m_seed;
+  /** number of execution slots used to run the folds of a cross validation */
+  protected int m_numExecutionSlots;
+  /** whether to keep the distances of IBk's folds between subsets */
+  protected boolean m_cacheDistances;
+  /** the distances of IBk's folds, if kept */
+  protected transient IBkFoldCache m_distanceCache;
+  /** the memory for the distances, shared with the copies of this evaluator */
+  protected transient IBkFoldCache.Budget m_distanceBudget;
   /**
    * the threshold by which to do further cross validations when estimating the
    * accuracy of a subset
@@ -374,6 +389,17 @@ public class WrapperSubsetEval extends ASEvaluation
         + "\tthe class-weighted average.",
       "IRclass", 1, "-IRclass <label | index>"));
 
+    newVector.addElement(new Option(
+      "\tNumber of execution slots used to run the cross validation folds.\n"
+        + "\t(default 1 - i.e. no parallelism)\n"
+        + "\t(use 0 to auto-detect number of cores)", "num-slots", 1,
+      "-num-slots <num>"));
+
+    newVector.addElement(new Option(
+      "\tKeep the distances of the cross validation folds between subsets\n"
+        + "\twhen the classifier is IBk with Euclidean distance.",
+      "cache-distances", 0, "-cache-distances"));
+
     if ((m_BaseClassifier != null)
       && (m_BaseClassifier instanceof OptionHandler)) {
       newVector.addElement(new Option("", "", 0, "\nOptions specific to scheme "
@@ -435,6 +461,19 @@ public class WrapperSubsetEval extends ASEvaluation
    * </pre>
    * 
    * <pre>
+   * -num-slots &lt;num&gt;
+   *  Number of execution slots used to run the cross validation folds.
+   *  (default 1 - i.e. no parallelism)
+   *  (use 0 to auto-detect number of cores)
+   * </pre>
+   * 
+   * <pre>
+   * -cache-distances
+   *  Keep the distances of the cross validation folds between subsets
+   *  when the classifier is IBk with Euclidean distance.
+   * </pre>
+   * 
+   * <pre>
    * Options specific to scheme weka.classifiers.rules.ZeroR:
    * </pre>
    * 
@@ -498,6 +537,13 @@ public class WrapperSubsetEval extends ASEvaluation
     if (optionString.length() > 0) {
       setIRClassValue(optionString);
     }
+
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    }
+
+    setCacheDistances(Utils.getFlag("cache-distances", options));
   }
 
     /**
@@ -628,6 +674,73 @@ public class WrapperSubsetEval extends ASEvaluation
     return m_folds;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for running the "
+      + "cross validation folds (0 = number of cores).";
+  }
+
+  /**
+   * Set the number of execution slots (threads) used to run the folds of a
+   * cross validation
+   * 
+   * @param numSlots the number of slots, 0 for the number of cores
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Get the number of execution slots (threads) used to run the folds of a
+   * cross validation
+   * 
+   * @return the number of slots
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String cacheDistancesTipText() {
+    return "Keep the distances of the cross validation folds between subsets, "
+      + "so that a subset is evaluated by updating them with the attributes "
+      + "it differs in. Only used for IBk with Euclidean distance on all "
+      + "attributes (no hold-one-out selection of k, no window); gives the "
+      + "same results but takes memory for every repetition (the copies of "
+      + "the evaluator made after it is built together use at most a quarter "
+      + "of the memory free when it was built).";
+  }
+
+  /**
+   * Set whether to keep the distances of the cross validation folds between
+   * subsets when the classifier is IBk
+   * 
+   * @param cache true to keep the distances
+   */
+  public void setCacheDistances(boolean cache) {
+    m_cacheDistances = cache;
+  }
+
+  /**
+   * Get whether the distances of the cross validation folds are kept
+   * between subsets when the classifier is IBk
+   * 
+   * @return true if the distances are kept
+   */
+  public boolean getCacheDistances() {
+    return m_cacheDistances;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -698,7 +811,7 @@ public class WrapperSubsetEval extends ASEvaluation
       classifierOptions = ((OptionHandler) m_BaseClassifier).getOptions();
     }
 
-    String[] options = new String[13 + classifierOptions.length];
+    String[] options = new String[16 + classifierOptions.length];
     int current = 0;
 
     if (getClassifier() != null) {
@@ -721,6 +834,13 @@ public class WrapperSubsetEval extends ASEvaluation
       options[current++] = m_IRClassValS;
     }
 
+    options[current++] = "-num-slots";
+    options[current++] = "" + getNumExecutionSlots();
+
+    if (getCacheDistances()) {
+      options[current++] = "-cache-distances";
+    }
+
     options[current++] = "--";
     System.arraycopy(classifierOptions, 0, options, current,
       classifierOptions.length);
@@ -739,7 +859,10 @@ public class WrapperSubsetEval extends ASEvaluation
     m_BaseClassifier = new ZeroR();
     m_folds = 5;
     m_seed = 1;
+    m_numExecutionSlots = 1;
     m_threshold = 0.01;
+    m_cacheDistances = false;
+    m_distanceCache = null;
   }
 
   /**
@@ -806,6 +929,12 @@ public class WrapperSubsetEval extends ASEvaluation
 
     m_trainInstances = data;
     m_classIndex = m_trainInstances.classIndex();
+    if (m_distanceCache != null) {
+      m_distanceCache.release();
+      m_distanceCache = null;
+    }
+    // made before the search copies the evaluator, so the copies share it
+    m_distanceBudget = new IBkFoldCache.Budget();
     m_numAttribs = m_trainInstances.numAttributes();
 
     if (m_IRClassValS != null && m_IRClassValS.length() > 0) {
@@ -821,6 +950,47 @@ public class WrapperSubsetEval extends ASEvaluation
     }
   }
 
+  /**
+   * Runs one repetition of the cross validation of a subset. With
+   * cacheDistances set and a classifier IBkFoldCache can handle, the
+   * distances of the folds are kept between subsets, giving the same
+   * statistics.
+   * 
+   * @param eval the evaluation to add the predictions to
+   * @param trainCopy the training data reduced to the subset
+   * @param subset the subset, including the class
+   * @param repetition the number of the repetition, starting at 0
+   * @param random the random number generator of the subset
+   * @throws Exception if the cross validation fails
+   */
+  protected void crossValidateSubset(Evaluation eval, Instances trainCopy,
+    BitSet subset, int repetition, Random random) throws Exception {
+
+    if (m_cacheDistances
+      && IBkFoldCache.canCache(m_BaseClassifier, m_trainInstances, m_folds)) {
+      IBkFoldCache cache;
+      synchronized (this) {
+        if (m_distanceCache == null
+          || !m_distanceCache.isFor(m_trainInstances, m_folds)) {
+          if (m_distanceCache != null) {
+            m_distanceCache.release();
+          }
+          if (m_distanceBudget == null) {
+            m_distanceBudget = new IBkFoldCache.Budget();
+          }
+          m_distanceCache = new IBkFoldCache(m_trainInstances, m_folds,
+            m_distanceBudget);
+        }
+        cache = m_distanceCache;
+      }
+      if (cache.crossValidate(m_BaseClassifier, trainCopy, subset, repetition,
+        random, eval)) {
+        return;
+      }
+    }
+    eval.crossValidateModel(m_BaseClassifier, trainCopy, m_folds, random);
+  }
+
    /**
     * Evaluates a subset of attributes
     * 
@@ -836,7 +1006,7 @@ public class WrapperSubsetEval extends ASEvaluation
 	    Random Rnd = new Random(m_seed);
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 
 	    AbstractEvaluationMetric pluginMetric = null;
 	    String statName = null;
@@ -844,7 +1014,8 @@ public class WrapperSubsetEval extends ASEvaluation
 	    // max of 5 repetitions of cross validation
 	    for (i = 0; i < 5; i++) {
 	    	m_Evaluation = new Evaluation(trainCopy);
-	    	m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds,Rnd);
+	    	m_Evaluation.setNumExecutionSlots(m_numExecutionSlots);
+	    	crossValidateSubset(m_Evaluation, trainCopy, subsetCopy, i, Rnd);
 	    	
 	    	switch (m_evaluationMeasure.getID()) {
 	    		case EVAL_DEFAULT:
@@ -942,7 +1113,7 @@ public class WrapperSubsetEval extends ASEvaluation
 	    Random Rnd = new Random(m_seed);
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 	    SelectedTag[] statTags=new SelectedTag[numObj];
 	    for(i=0;i<numObj;++i)
 	    	statTags[i]=new SelectedTag(statNames[i], TAGS_EVALUATION);
@@ -955,7 +1126,8 @@ public class WrapperSubsetEval extends ASEvaluation
 	    terminate=false;
 	    for (j = 0; j < 5; j++) {
 	    	m_Evaluation = new Evaluation(trainCopy);
-	    	m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds,Rnd);
+	    	m_Evaluation.setNumExecutionSlots(m_numExecutionSlots);
+	    	crossValidateSubset(m_Evaluation, trainCopy, subsetCopy, j, Rnd);
 	    	terminate=true;
  
 	    	for(i = 0; i < numObj; ++i){
@@ -1273,8 +1445,11 @@ public class WrapperSubsetEval extends ASEvaluation
         		else
         			return true; // maximize
         	default:
-        		if (pluginMetric != null&&!pluginMetric.statisticIsMaximisable(statName))
-        			return true; // maximize
+        		if (m_evaluationMeasure instanceof PluginTag) {
+        			PluginTag pluginTag = (PluginTag) m_evaluationMeasure;
+        			if (!pluginTag.getMetric().statisticIsMaximisable(pluginTag.getStatisticName()))
+        				return true; // maximize
+        		}
         }
 		return false;
     }
@@ -1284,6 +1459,7 @@ public class WrapperSubsetEval extends ASEvaluation
     	WrapperSubsetEval wSubsetEval=null;
     	try{
     		wSubsetEval = (WrapperSubsetEval)super.clone();   
+    		wSubsetEval.m_distanceCache = null;
     	}
     	catch(CloneNotSupportedException e) {  
     		e.printStackTrace();  
@@ -300,6 +300,29 @@ public class Evaluation implements Serializable, Summarizable, RevisionHandler {
     return m_delegate.getDiscardPredictions();
   }
 
+  /**
+   * Sets the number of execution slots (threads) used to train and test the
+   * folds of a cross-validation concurrently. The results are the same as
+   * with a single slot.
+   * 
+   * @param numSlots the number of slots, 1 for sequential execution, 0 to use
+   *          the number of cores
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_delegate.setNumExecutionSlots(numSlots);
+  }
+
+  /**
+   * Gets the number of execution slots (threads) used to train and test the
+   * folds of a cross-validation concurrently.
+   * 
+   * @return the number of slots, 1 for sequential execution, 0 for the number
+   *         of cores
+   */
+  public int getNumExecutionSlots() {
+    return m_delegate.getNumExecutionSlots();
+  }
+
   /**
    * Returns the area under ROC for those predictions that have been collected
    * in the evaluateClassifier(Classifier, Instances) method. Returns
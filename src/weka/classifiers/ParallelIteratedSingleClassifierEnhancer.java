@@ -187,9 +187,8 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
 
       for (int i = 0; i < m_Classifiers.length; i++) {
 
-        final Classifier currentClassifier = m_Classifiers[i];
         // MultiClassClassifier may produce occasional NULL classifiers ...
-        if (currentClassifier == null)
+        if (m_Classifiers[i] == null)
           continue;
         final int iteration = i;
 
@@ -200,7 +199,7 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
           @Override
           public void run() {
             try {
-              currentClassifier.buildClassifier(getTrainingSet(iteration));
+              buildIteration(iteration);
             } catch (Throwable ex) {
               ex.printStackTrace();
               numFailed.incrementAndGet();
@@ -226,11 +225,23 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
     } else {
       // simple single-threaded execution
       for (int i = 0; i < m_Classifiers.length; i++) {
-        m_Classifiers[i].buildClassifier(getTrainingSet(i));
+        buildIteration(i);
       }
     }
   }
 
+  /**
+   * Builds the classifier of a particular iteration from its training set.
+   * Implementations need to be careful with thread safety, as iterations may
+   * be built concurrently.
+   *
+   * @param iteration the number of the iteration to build
+   * @throws Exception if the classifier can't be built successfully
+   */
+  protected void buildIteration(int iteration) throws Exception {
+    m_Classifiers[iteration].buildClassifier(getTrainingSet(iteration));
+  }
+
   /**
    * Gets a training set for a particular iteration. Implementations need to be
    * careful with thread safety and should probably be synchronized to be on the
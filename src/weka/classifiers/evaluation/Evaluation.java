@@ -76,6 +76,11 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -246,6 +251,12 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
   /** The number of folds for a cross-validation. */
   protected int m_NumFolds;
 
+  /**
+   * The number of execution slots (threads) used to run the folds of a
+   * cross-validation (1 = sequential, 0 = number of cores).
+   */
+  protected int m_NumExecutionSlots = 1;
+
   /** The weight of all incorrectly classified instances. */
   protected double m_Incorrect;
 
@@ -538,6 +549,30 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     return m_DiscardPredictions;
   }
 
+  /**
+   * Sets the number of execution slots (threads) used to train and test the
+   * folds of a cross-validation concurrently. The results are the same as
+   * with a single slot.
+   * 
+   * @param numSlots the number of slots, 1 for sequential execution, 0 to use
+   *          the number of cores
+   * @see #crossValidateModel(Classifier, Instances, int, Random, Object...)
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_NumExecutionSlots = numSlots;
+  }
+
+  /**
+   * Gets the number of execution slots (threads) used to train and test the
+   * folds of a cross-validation concurrently.
+   * 
+   * @return the number of slots, 1 for sequential execution, 0 for the number
+   *         of cores
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
   /**
    * Returns the list of plugin metrics in use (or null if there are none)
    * 
@@ -761,14 +796,23 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       classificationOutput.printHeader();
     }
 
+    if (m_NumExecutionSlots < 0) {
+      throw new Exception("Number of execution slots needs to be >= 0!");
+    }
+
     // Do the folds
-    for (int i = 0; i < numFolds; i++) {
-      Instances train = data.trainCV(numFolds, i, random);
-      setPriors(train);
-      Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-      copiedClassifier.buildClassifier(train);
-      Instances test = data.testCV(numFolds, i);
-      evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+    if (m_NumExecutionSlots != 1 && numFolds > 1 && classificationOutput == null
+      && !(classifier instanceof weka.classifiers.misc.InputMappedClassifier)) {
+      crossValidateFolds(classifier, data, numFolds, random);
+    } else {
+      for (int i = 0; i < numFolds; i++) {
+        Instances train = data.trainCV(numFolds, i, random);
+        setPriors(train);
+        Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+        copiedClassifier.buildClassifier(train);
+        Instances test = data.testCV(numFolds, i);
+        evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+      }
     }
     m_NumFolds = numFolds;
 
@@ -777,6 +821,139 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
   }
 
+  /**
+   * The predictions of the model built on one fold of a cross-validation.
+   */
+  protected static class FoldPredictions {
+
+    /** the classifier built on the training part of the fold */
+    protected Classifier m_Classifier;
+
+    /** the test part of the fold */
+    protected Instances m_Test;
+
+    /** the test instances with the class set to missing */
+    protected Instance[] m_ClassMissing;
+
+    /** the distribution predicted for each test instance */
+    protected double[][] m_Dists;
+
+    /** whether the distributions were predicted as a batch */
+    protected boolean m_Batch;
+
+    /**
+     * Predicts the test instances of a fold, in the same way evaluateModel()
+     * does.
+     * 
+     * @param classifier the classifier built on the training part of the fold
+     * @param test the test part of the fold
+     * @throws Exception if the predictions can't be made
+     */
+    public FoldPredictions(Classifier classifier, Instances test)
+      throws Exception {
+
+      m_Classifier = classifier;
+      m_Test = test;
+      m_Batch = classifier instanceof BatchPredictor
+        && ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction();
+      if (m_Batch) {
+        Instances dataPred = new Instances(test);
+        for (int i = 0; i < test.numInstances(); i++) {
+          dataPred.instance(i).setClassMissing();
+        }
+        m_Dists = ((BatchPredictor) classifier).distributionsForInstances(dataPred);
+      } else {
+        m_ClassMissing = new Instance[test.numInstances()];
+        m_Dists = new double[test.numInstances()][];
+        for (int i = 0; i < test.numInstances(); i++) {
+          Instance classMissing = (Instance) test.instance(i).copy();
+          classMissing.setDataset(test);
+          classMissing.setClassMissing();
+          m_ClassMissing[i] = classMissing;
+          m_Dists[i] = classifier.distributionForInstance(classMissing);
+        }
+      }
+    }
+
+    /**
+     * Adds the predictions to an evaluation.
+     * 
+     * @param eval the evaluation to update
+     * @throws Exception if the predictions can't be evaluated
+     */
+    public void evaluate(Evaluation eval) throws Exception {
+
+      for (int i = 0; i < m_Test.numInstances(); i++) {
+        if (m_Batch) {
+          eval.evaluationForSingleInstance(m_Dists[i], m_Test.instance(i), true);
+        } else {
+          eval.evaluationForSingleInstance(m_Classifier, m_Dists[i],
+            m_Test.instance(i), m_ClassMissing[i], true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Trains and tests the folds of a cross-validation concurrently. The folds
+   * and the classifier copies are made up front in the same order as the
+   * sequential loop, so the random number generator ends in the same state.
+   * The predictions of each fold are then added in fold order, with the priors
+   * of its training data, which gives exactly the sequential statistics,
+   * including those of plugin metrics.
+   * 
+   * @param classifier the classifier with any options set.
+   * @param data the randomized (and stratified) data
+   * @param numFolds the number of folds for the cross-validation
+   * @param random random number generator for randomization
+   * @throws Exception if a classifier could not be generated successfully
+   */
+  protected void crossValidateFolds(Classifier classifier, Instances data,
+    int numFolds, Random random) throws Exception {
+
+    Instances[] train = new Instances[numFolds];
+    List<Future<FoldPredictions>> results =
+      new ArrayList<Future<FoldPredictions>>(numFolds);
+    int numThreads = (m_NumExecutionSlots == 0) ? Runtime.getRuntime()
+      .availableProcessors() : m_NumExecutionSlots;
+    ExecutorService executorPool =
+      Executors.newFixedThreadPool(Math.min(numThreads, numFolds));
+
+    try {
+      for (int i = 0; i < numFolds; i++) {
+        train[i] = data.trainCV(numFolds, i, random);
+        final Instances foldTrain = train[i];
+        final Instances foldTest = data.testCV(numFolds, i);
+        final Classifier copiedClassifier =
+          AbstractClassifier.makeCopy(classifier);
+        results.add(executorPool.submit(new Callable<FoldPredictions>() {
+          @Override
+          public FoldPredictions call() throws Exception {
+            copiedClassifier.buildClassifier(foldTrain);
+            return new FoldPredictions(copiedClassifier, foldTest);
+          }
+        }));
+      }
+
+      for (int i = 0; i < numFolds; i++) {
+        FoldPredictions fold;
+        try {
+          fold = results.get(i).get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+        setPriors(train[i]);
+        fold.evaluate(this);
+        results.set(i, null);
+      }
+    } finally {
+      executorPool.shutdownNow();
+    }
+  }
+
   /**
    * Performs a (stratified if class is nominal) cross-validation for a
    * classifier on a set of instances.
@@ -1955,7 +2132,30 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
 
     // System.out.println("instance (to predict)" + classMissing);
-    double pred=evaluationForSingleInstance(classifier.distributionForInstance(classMissing), instance,storePredictions);
+    return evaluationForSingleInstance(classifier,
+      classifier.distributionForInstance(classMissing), instance, classMissing,
+      storePredictions);
+  }
+
+  /**
+   * Evaluates a distribution the classifier has produced for a single instance.
+   * The classifier is only used for the interval and density statistics of a
+   * numeric class.
+   * 
+   * @param classifier the classifier that produced the distribution
+   * @param dist the distribution predicted for the instance
+   * @param instance the test instance
+   * @param classMissing the copy of the test instance with the class set to
+   *          missing that the distribution was predicted for
+   * @param storePredictions whether to store predictions for nominal classifier
+   * @return the prediction made by the clasifier
+   * @throws Exception if model could not be evaluated successfully
+   */
+  protected double evaluationForSingleInstance(Classifier classifier,
+    double[] dist, Instance instance, Instance classMissing,
+    boolean storePredictions) throws Exception {
+
+    double pred = evaluationForSingleInstance(dist, instance, storePredictions);
 
     // We don't need to do the following if the class is nominal because in that
     // case
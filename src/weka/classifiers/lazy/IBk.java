@@ -21,9 +21,13 @@
 
 package weka.classifiers.lazy;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.UpdateableClassifier;
@@ -34,6 +38,7 @@ import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
@@ -105,6 +110,11 @@ import weka.core.neighboursearch.NearestNeighbourSearch;
  *  The nearest neighbour search algorithm to use (default: weka.core.neighboursearch.LinearNNSearch).
  * </pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for batch prediction.
+ *  (default 1 - i.e. no parallelism)
+ *  (use 0 to auto-detect number of cores)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Stuart Inglis (singlis@cs.waikato.ac.nz)
@@ -185,6 +195,9 @@ public class IBk
 
   /** The number of attributes the contribute to a prediction. */
   protected double m_NumAttributesUsed;
+
+  /** The number of threads for batch prediction, 0 for one per core. */
+  protected int m_numExecutionSlots = 1;
   
   /**
    * IBk classifier. Simple instance-based learner that uses the class
@@ -439,6 +452,33 @@ public class IBk
     m_NNSearch = nearestNeighbourSearchAlgorithm;
   }
    
+  /**
+   * Returns the tip text for this property.
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for batch " +
+           "prediction with a search that supports concurrent queries (0 = one " +
+           "per core).";
+  }
+
+  /**
+   * Gets the number of execution slots (threads) for batch prediction.
+   * @return the number of slots.
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Sets the number of execution slots (threads) for batch prediction.
+   * @param numSlots the number of slots, 0 for one per core.
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+   
   /**
    * Get the number of training instances the classifier is currently using.
    * 
@@ -589,6 +629,91 @@ public class IBk
     return distribution;
   }
 
+  /**
+   * Returns true when the nearest neighbour search supports concurrent
+   * queries, so that the neighbours of many test instances can be searched
+   * at once.
+   *
+   * @return true if batch prediction is more efficient
+   */
+  public boolean implementsMoreEfficientBatchPrediction() {
+    return m_NNSearch.supportsConcurrentQueries();
+  }
+
+  /**
+   * Calculates the class membership probabilities for the given test
+   * instances. Gives the same distributions as calling
+   * distributionForInstance for each in turn: as that adds each test
+   * instance to the ranges of the distance function before searching its
+   * neighbours, the instances are searched together in runs that leave the
+   * ranges as they are. The neighbours are returned as indices and
+   * distances, without copying them into Instances.
+   *
+   * @param insts the instances to be classified
+   * @return predicted class probability distributions
+   * @throws Exception if an error occurred during the prediction
+   */
+  public double [][] distributionsForInstances(Instances insts) throws Exception {
+
+    if (!implementsMoreEfficientBatchPrediction()
+        || (m_Train.numInstances() == 0) || (insts.numInstances() == 0)) {
+      return super.distributionsForInstances(insts);
+    }
+    if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
+      m_kNNValid = false;
+      while (m_Train.numInstances() > m_WindowSize) {
+	m_Train.delete(0);
+      }
+    }
+
+    // Select k by cross validation
+    if (!m_kNNValid && (m_CrossValidate) && (m_kNNUpper >= 1)) {
+      crossValidate();
+    }
+
+    NearestNeighbourSearch search = m_NNSearch;
+    NormalizableDistance ranges = null;
+    if (search.getDistanceFunction() instanceof NormalizableDistance) {
+      ranges = (NormalizableDistance) search.getDistanceFunction();
+    }
+    int numSlots = (m_numExecutionSlots == 0)
+      ? Runtime.getRuntime().availableProcessors() : m_numExecutionSlots;
+    ExecutorService pool = (numSlots > 1)
+      ? Executors.newFixedThreadPool(numSlots) : null;
+
+    int n = insts.numInstances();
+    int[][] indices = new int[n][];
+    double[][] distances = new double[n][];
+    double[][] distributions = new double[n][];
+    try {
+      int start = 0;
+      while (start < n) {
+        search.addInstanceInfo(insts.instance(start));
+        int end = start + 1;
+        while ((end < n) && (ranges != null) && ranges.rangesSet()
+            && ranges.inRanges(insts.instance(end), ranges.getRanges())) {
+          end++;
+        }
+        search.kNearestNeighbours(insts, start, end, m_kNN, indices,
+                                  distances, pool);
+        for (int i = start; i < end; i++) {
+          distributions[i] = makeDistribution(search.getInstances(),
+                                              indices[i - start],
+                                              distances[i - start]);
+          indices[i - start] = null;
+          distances[i - start] = null;
+        }
+        start = end;
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+
+    return distributions;
+  }
+
   /**
    * Returns an enumeration describing the available options.
    *
@@ -627,6 +752,11 @@ public class IBk
 	      "\tThe nearest neighbour search algorithm to use "+
           "(default: weka.core.neighboursearch.LinearNNSearch).\n",
 	      "A", 0, "-A"));
+    newVector.addElement(new Option(
+	      "\tNumber of execution slots for batch prediction.\n"+
+	      "\t(default 1 - i.e. no parallelism)\n"+
+	      "\t(use 0 to auto-detect number of cores)",
+	      "num-slots", 1, "-num-slots <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
     
@@ -668,6 +798,11 @@ public class IBk
    *  The nearest neighbour search algorithm to use (default: weka.core.neighboursearch.LinearNNSearch).
    * </pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for batch prediction.
+   *  (default 1 - i.e. no parallelism)
+   *  (use 0 to auto-detect number of cores)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -715,6 +850,13 @@ public class IBk
     }
     else 
       this.setNearestNeighbourSearchAlgorithm(new LinearNNSearch());
+
+    String slotsString = Utils.getOption("num-slots", options);
+    if (slotsString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(slotsString));
+    } else {
+      setNumExecutionSlots(1);
+    }
     
     super.setOptions(options);
     
@@ -745,6 +887,9 @@ public class IBk
 
     options.add("-A");
     options.add(m_NNSearch.getClass().getName()+" "+Utils.joinOptions(m_NNSearch.getOptions())); 
+    if (m_numExecutionSlots != 1) {
+      options.add("-num-slots"); options.add("" + m_numExecutionSlots);
+    }
     
     Collections.addAll(options, super.getOptions());
     
@@ -851,6 +996,23 @@ public class IBk
   protected double [] makeDistribution(Instances neighbours, double[] distances)
     throws Exception {
 
+    return makeDistribution(neighbours, null, distances);
+  }
+
+  /**
+   * Turn a list of nearest neighbors given by their indices into a
+   * probability distribution.
+   *
+   * @param data the instances the indices refer to
+   * @param indices the indices of the nearest neighbors, null if data
+   * holds just the neighbors
+   * @param distances the distances of the neighbors
+   * @return the probability distribution
+   * @throws Exception if computation goes wrong or has no class attribute
+   */
+  protected double [] makeDistribution(Instances data, int[] indices,
+                                       double[] distances) throws Exception {
+
     double total = 0, weight;
     double [] distribution = new double [m_NumClasses];
     
@@ -862,9 +1024,11 @@ public class IBk
       total = (double)m_NumClasses / Math.max(1,m_Train.numInstances());
     }
 
-    for(int i=0; i < neighbours.numInstances(); i++) {
+    int numNeighbours = (indices == null) ? data.numInstances() : indices.length;
+    for(int i=0; i < numNeighbours; i++) {
       // Collect class counts
-      Instance current = neighbours.instance(i);
+      Instance current = (indices == null) ? data.instance(i)
+        : data.instance(indices[i]);
       distances[i] = distances[i]*distances[i];
       distances[i] = Math.sqrt(distances[i]/m_NumAttributesUsed);
       switch (m_DistanceWeighting) {
@@ -1049,6 +1213,23 @@ public class IBk
     return neighbours;
   }
   
+  /**
+   * Custom de-serialization, so that models saved before the number of
+   * execution slots was added keep predicting batches in one thread
+   * instead of getting 0, i.e., one thread per core.
+   *
+   * @param in the stream to read from
+   * @throws IOException if the model can't be read
+   * @throws ClassNotFoundException if a class of the model isn't found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+
+    // left as it is if the stream has no value for it
+    m_numExecutionSlots = 1;
+    in.defaultReadObject();
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -0,0 +1,673 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    IBkFoldCache.java
+ *
+ */
+
+package weka.classifiers.lazy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+/**
+ * Cross-validates IBk on subsets of the attributes of one dataset, the way a
+ * wrapper evaluating many subsets does, with exactly the statistics of
+ * Evaluation.crossValidateModel but without computing all distances anew
+ * for every subset.
+ * <p/>
+ * For each repetition of the cross-validation it keeps, per fold, the
+ * normalized values of the instances (with the ranges each test instance
+ * sees, as IBk adds test instances to the ranges) and the matrix of squared
+ * Euclidean distances between test and training instances over the
+ * attributes of the last subset. The next subset is reached by adding and
+ * subtracting the contributions of the attributes in which the subsets
+ * differ. As such sums are rounded differently from the distance function,
+ * they are only used to skip training instances that are certainly farther
+ * than the current k-th neighbour; the distances of the others are summed
+ * again in attribute order.
+ * <p/>
+ * The folds are laid out with the same random numbers as
+ * Evaluation.crossValidateModel, so repetitions that do not fit into the
+ * memory can be left to it. The memory is taken from a Budget shared by the
+ * caches of a wrapper and its copies, as a search evaluating subsets in
+ * several threads gives each thread a copy of the wrapper, and with it a
+ * cache of its own.
+ *
+ * @version $Revision: 10141 $
+ * @see #canCache(Classifier, Instances, int)
+ */
+public class IBkFoldCache implements RevisionHandler {
+
+  /**
+   * The distances and normalized values of one fold of a repetition.
+   */
+  protected static class Fold {
+
+    /** the rows of the training instances */
+    protected int[] m_TrainRows;
+
+    /** the rows of the test instances, in the order they are evaluated */
+    protected int[] m_TestRows;
+
+    /** row index and class of the training instances, in IBk's order */
+    protected Instances m_Train;
+
+    /** the normalized values of the test instances */
+    protected double[][] m_Queries;
+
+    /**
+     * the normalized values of the training instances per attribute and
+     * version of its range
+     */
+    protected double[][][] m_Columns;
+
+    /** the first test instance of each version of the ranges */
+    protected int[][] m_Starts;
+
+    /** the version of the range of each attribute for each test instance */
+    protected int[] m_Versions;
+
+    /** the squared distances over the current attributes, row by row */
+    protected double[] m_Sums;
+
+    /** the attributes the sums are over */
+    protected boolean[] m_Used;
+
+    /** the number of attributes added or subtracted since the last rebuild */
+    protected int m_Updates;
+
+    /** the largest contribution in the sums */
+    protected double m_MaxContribution;
+  }
+
+  /**
+   * The memory a wrapper and its copies may use for their caches. The limit
+   * is fixed when the budget is made, and what a cache reserves is only
+   * given back when the cache is released, so whether a repetition is cached
+   * does not depend on when the garbage collector runs.
+   */
+  public static class Budget {
+
+    /** the bytes the caches may reserve */
+    protected long m_MaxBytes;
+
+    /** the bytes the caches have reserved */
+    protected long m_ReservedBytes;
+
+    /**
+     * Creates a budget of a quarter of the memory that is free now.
+     */
+    public Budget() {
+      Runtime runtime = Runtime.getRuntime();
+      m_MaxBytes = (runtime.maxMemory()
+        - (runtime.totalMemory() - runtime.freeMemory())) / 4;
+    }
+
+    /**
+     * Reserves memory if it fits into the budget.
+     *
+     * @param bytes the bytes to reserve
+     * @return true if the memory was reserved
+     */
+    public synchronized boolean reserve(long bytes) {
+      if (m_ReservedBytes + bytes > m_MaxBytes) {
+        return false;
+      }
+      m_ReservedBytes += bytes;
+      return true;
+    }
+
+    /**
+     * Gives reserved memory back.
+     *
+     * @param bytes the bytes to give back
+     */
+    public synchronized void release(long bytes) {
+      m_ReservedBytes -= bytes;
+    }
+  }
+
+  /** the data of the wrapper, with all attributes */
+  protected Instances m_Data;
+
+  /** the number of folds */
+  protected int m_NumFolds;
+
+  /** row index and class of each instance, to lay out the folds with */
+  protected Instances m_Tags;
+
+  /** the attributes that count for the distance */
+  protected int[] m_Attributes;
+
+  /** computes the differences of normalized values */
+  protected EuclideanDistance m_Distance;
+
+  /** searches the neighbours among the cached distances */
+  protected LinearNNSearch m_Search;
+
+  /** the folds of the repetitions cached so far */
+  protected List<Fold[]> m_Repetitions = new ArrayList<Fold[]>();
+
+  /** the budget the memory of the repetitions is reserved from */
+  protected Budget m_Budget;
+
+  /** the bytes the folds of one repetition take */
+  protected long m_RepetitionBytes;
+
+  /** the bytes reserved for the repetitions of this cache */
+  protected long m_ReservedBytes;
+
+  /**
+   * Checks whether the cross-validation of a classifier on subsets of the
+   * data can be cached: IBk with a LinearNNSearch using EuclideanDistance
+   * with normalization on all attributes, no hold-one-out selection of k and
+   * no window, on dense data without string or relational attributes and
+   * without missing class values.
+   *
+   * @param classifier the classifier
+   * @param data the data with all attributes
+   * @param numFolds the number of folds
+   * @return true if the cross-validation can be cached
+   */
+  public static boolean canCache(Classifier classifier, Instances data,
+    int numFolds) {
+
+    if (classifier == null || classifier.getClass() != IBk.class
+      || data.classIndex() < 0 || numFolds < 2
+      || data.numInstances() < numFolds) {
+      return false;
+    }
+    IBk ibk = (IBk) classifier;
+    NearestNeighbourSearch search = ibk.getNearestNeighbourSearchAlgorithm();
+    if (ibk.getCrossValidate() || ibk.getWindowSize() != 0
+      || search.getClass() != LinearNNSearch.class
+      || search.getMeasurePerformance()) {
+      return false;
+    }
+    DistanceFunction distance = search.getDistanceFunction();
+    if (distance.getClass() != EuclideanDistance.class
+      || ((EuclideanDistance) distance).getDontNormalize()
+      || distance.getInvertSelection()
+      || !distance.getAttributeIndices().equals("first-last")) {
+      return false;
+    }
+    if (data.checkForAttributeType(Attribute.STRING)
+      || data.checkForAttributeType(Attribute.RELATIONAL)) {
+      return false;
+    }
+    for (int i = 0; i < data.numInstances(); i++) {
+      if (data.instance(i) instanceof SparseInstance
+        || data.instance(i).classIsMissing()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates a cache for cross-validations on subsets of the data, which
+   * canCache has to accept. The repetitions are only cached as long as their
+   * memory can be reserved from the budget.
+   *
+   * @param data the data with all attributes
+   * @param numFolds the number of folds
+   * @param budget the budget shared with the caches of copies of the wrapper
+   */
+  public IBkFoldCache(Instances data, int numFolds, Budget budget) {
+    m_Data = data;
+    m_NumFolds = numFolds;
+    m_Budget = budget;
+
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>(2);
+    attributes.add(new Attribute("row"));
+    attributes.add((Attribute) data.classAttribute().copy());
+    int n = data.numInstances();
+    m_Tags = new Instances(data.relationName(), attributes, n);
+    m_Tags.setClassIndex(1);
+    for (int i = 0; i < n; i++) {
+      Instance inst = data.instance(i);
+      m_Tags.add(new DenseInstance(inst.weight(), new double[] { i,
+        inst.classValue() }));
+    }
+
+    m_Distance = new EuclideanDistance(new Instances(data, 0));
+    m_Attributes = m_Distance.batchAttributes();
+    m_Search = new LinearNNSearch();
+    try {
+      m_Search.setDistanceFunction(m_Distance);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+
+    long m = m_Attributes.length;
+    m_RepetitionBytes = 8 * ((long) n * n - (long) n * n / numFolds)
+      + 8 * n * m * (2 * numFolds + 1) + 4 * n * m;
+  }
+
+  /**
+   * Reserves the memory for one more repetition from the budget.
+   *
+   * @return true if the memory was reserved
+   */
+  protected boolean reserve() {
+    if (!m_Budget.reserve(m_RepetitionBytes)) {
+      return false;
+    }
+    m_ReservedBytes += m_RepetitionBytes;
+    return true;
+  }
+
+  /**
+   * Drops the cached repetitions and gives their memory back to the budget.
+   */
+  public synchronized void release() {
+    m_Repetitions.clear();
+    m_Budget.release(m_ReservedBytes);
+    m_ReservedBytes = 0;
+  }
+
+  /**
+   * Checks whether this cache was created for the given data and folds.
+   *
+   * @param data the data with all attributes
+   * @param numFolds the number of folds
+   * @return true if the cache is for the data and folds
+   */
+  public boolean isFor(Instances data, int numFolds) {
+    return data == m_Data && numFolds == m_NumFolds;
+  }
+
+  /**
+   * Runs one repetition of a cross-validation of IBk on a subset of the
+   * attributes, adding the predictions to an evaluation just like
+   * Evaluation.crossValidateModel(classifier, data, numFolds, random) does
+   * (apart from not setting the number of folds the evaluation reports). If
+   * the repetition does not fit into the memory, nothing is done and the
+   * random number generator is left as it is.
+   *
+   * @param classifier the classifier, which canCache has to accept
+   * @param data the data reduced to the subset
+   * @param subset the attributes of the subset
+   * @param repetition the number of the repetition for this subset,
+   *          starting at 0
+   * @param random the random number generator to lay out the folds with
+   * @param eval the evaluation to add the predictions to
+   * @return false if the repetition was left to the caller
+   * @throws Exception if the cross-validation fails
+   */
+  public synchronized boolean crossValidate(Classifier classifier,
+    Instances data, BitSet subset, int repetition, Random random,
+    Evaluation eval) throws Exception {
+
+    if (data.numInstances() != m_Data.numInstances()) {
+      throw new IllegalArgumentException("The data has "
+        + data.numInstances() + " instances instead of "
+        + m_Data.numInstances() + "!");
+    }
+    while (m_Repetitions.size() <= repetition) {
+      if (!reserve()) {
+        return false;
+      }
+      m_Repetitions.add(null);
+    }
+
+    Fold[] folds = split(random);
+    Fold[] cached = m_Repetitions.get(repetition);
+    if (cached != null && sameLayout(cached, folds)) {
+      folds = cached;
+    } else {
+      m_Repetitions.set(repetition, null);
+      for (Fold fold : folds) {
+        prepare(fold);
+      }
+      m_Repetitions.set(repetition, folds);
+    }
+
+    IBk ibk = (IBk) AbstractClassifier.makeCopy(classifier);
+    ibk.m_NumClasses = m_Data.numClasses();
+    ibk.m_ClassType = m_Data.classAttribute().type();
+    ibk.m_NumAttributesUsed = 0.0;
+    for (int i = 0; i < m_Data.numAttributes(); i++) {
+      if (i != m_Data.classIndex() && subset.get(i)
+        && (m_Data.attribute(i).isNominal() || m_Data.attribute(i).isNumeric())) {
+        ibk.m_NumAttributesUsed += 1.0;
+      }
+    }
+    m_Search.setSkipIdentical(((LinearNNSearch) ibk
+      .getNearestNeighbourSearchAlgorithm()).getSkipIdentical());
+
+    boolean[] used = new boolean[m_Attributes.length];
+    int count = 0;
+    for (int k = 0; k < used.length; k++) {
+      used[k] = subset.get(m_Attributes[k]);
+      if (used[k]) {
+        count++;
+      }
+    }
+    int[] usedList = new int[count];
+    for (int k = 0, j = 0; k < used.length; k++) {
+      if (used[k]) {
+        usedList[j++] = k;
+      }
+    }
+
+    for (Fold fold : folds) {
+      update(fold, used);
+      ibk.m_Train = fold.m_Train;
+      eval.setPriors(fold.m_Train);
+      for (int t = 0; t < fold.m_TestRows.length; t++) {
+        int[] neighbours = m_Search.kNearestNeighbours(
+          rowDistance(fold, usedList, t), fold.m_TrainRows.length,
+          ibk.getKNN());
+        double[] dist = ibk.makeDistribution(fold.m_Train, neighbours,
+          m_Search.getDistances());
+        eval.evaluationForSingleInstance(dist,
+          data.instance(fold.m_TestRows[t]), true);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lays out the folds of a repetition the way
+   * Evaluation.crossValidateModel does, drawing the same random numbers.
+   *
+   * @param random the random number generator
+   * @return the folds, with their rows and training tags only
+   */
+  protected Fold[] split(Random random) {
+    Instances tags = new Instances(m_Tags);
+    tags.randomize(random);
+    if (tags.classAttribute().isNominal()) {
+      tags.stratify(m_NumFolds);
+    }
+
+    Fold[] folds = new Fold[m_NumFolds];
+    for (int f = 0; f < m_NumFolds; f++) {
+      folds[f] = new Fold();
+      folds[f].m_Train = tags.trainCV(m_NumFolds, f, random);
+      folds[f].m_TrainRows = rows(folds[f].m_Train);
+      folds[f].m_TestRows = rows(tags.testCV(m_NumFolds, f));
+    }
+    return folds;
+  }
+
+  /**
+   * Returns the rows tags stand for.
+   *
+   * @param tags the tags
+   * @return the rows
+   */
+  protected static int[] rows(Instances tags) {
+    int[] result = new int[tags.numInstances()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (int) tags.instance(i).value(0);
+    }
+    return result;
+  }
+
+  /**
+   * Checks whether two layouts have the same folds.
+   *
+   * @param a the first layout
+   * @param b the second layout
+   * @return true if the folds have the same rows in the same order
+   */
+  protected static boolean sameLayout(Fold[] a, Fold[] b) {
+    for (int f = 0; f < a.length; f++) {
+      if (!Arrays.equals(a[f].m_TrainRows, b[f].m_TrainRows)
+        || !Arrays.equals(a[f].m_TestRows, b[f].m_TestRows)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Normalizes the values of a fold, following the ranges of the distance
+   * function of IBk as the test instances are added to them one by one.
+   *
+   * @param fold the fold
+   * @throws Exception if the values could not be normalized
+   */
+  protected void prepare(Fold fold) throws Exception {
+    int numTrain = fold.m_TrainRows.length;
+    int numTest = fold.m_TestRows.length;
+    int m = m_Attributes.length;
+
+    Instances train = new Instances(m_Data, numTrain);
+    for (int row : fold.m_TrainRows) {
+      train.add(m_Data.instance(row));
+    }
+    EuclideanDistance distance = new EuclideanDistance();
+    LinearNNSearch search = new LinearNNSearch();
+    search.setDistanceFunction(distance);
+    search.setInstances(train);
+
+    List<List<double[]>> columns = new ArrayList<List<double[]>>(m);
+    List<List<Integer>> starts = new ArrayList<List<Integer>>(m);
+    for (int k = 0; k < m; k++) {
+      columns.add(new ArrayList<double[]>());
+      starts.add(new ArrayList<Integer>());
+    }
+    double[] ranges = new double[3 * m];
+    boolean[] changed = new boolean[m];
+    fold.m_Queries = new double[numTest][];
+    fold.m_Versions = new int[numTest * m];
+
+    for (int t = 0; t < numTest; t++) {
+      Instance inst = (Instance) m_Data.instance(fold.m_TestRows[t]).copy();
+      inst.setClassMissing();
+      search.addInstanceInfo(inst);
+      fold.m_Queries[t] = distance.batchQuery(inst);
+
+      double[][] current = distance.getRanges();
+      boolean any = false;
+      for (int k = 0; k < m; k++) {
+        double[] range = current[m_Attributes[k]];
+        changed[k] = (t == 0)
+          || (!m_Data.attribute(m_Attributes[k]).isNominal()
+          && (Double.compare(range[0], ranges[3 * k]) != 0
+            || Double.compare(range[1], ranges[3 * k + 1]) != 0
+            || Double.compare(range[2], ranges[3 * k + 2]) != 0));
+        if (changed[k]) {
+          System.arraycopy(range, 0, ranges, 3 * k, 3);
+          columns.get(k).add(new double[numTrain]);
+          starts.get(k).add(t);
+          any = true;
+        }
+      }
+      if (any) {
+        for (int r = 0; r < numTrain; r++) {
+          double[] values = distance.batchQuery(train.instance(r));
+          for (int k = 0; k < m; k++) {
+            if (changed[k]) {
+              List<double[]> versions = columns.get(k);
+              versions.get(versions.size() - 1)[r] = values[k];
+            }
+          }
+        }
+      }
+      for (int k = 0; k < m; k++) {
+        fold.m_Versions[t * m + k] = columns.get(k).size() - 1;
+      }
+    }
+
+    fold.m_Columns = new double[m][][];
+    fold.m_Starts = new int[m][];
+    for (int k = 0; k < m; k++) {
+      fold.m_Columns[k] = columns.get(k).toArray(new double[0][]);
+      fold.m_Starts[k] = new int[starts.get(k).size()];
+      for (int v = 0; v < fold.m_Starts[k].length; v++) {
+        fold.m_Starts[k][v] = starts.get(k).get(v);
+      }
+    }
+    fold.m_Sums = new double[numTest * numTrain];
+    fold.m_Used = new boolean[m];
+    fold.m_Updates = 0;
+    fold.m_MaxContribution = 0;
+  }
+
+  /**
+   * Brings the sums of a fold to a new set of attributes, by adding and
+   * subtracting the attributes that changed or, if that would be more work
+   * or has been done often, by summing the attributes anew in ascending
+   * order.
+   *
+   * @param fold the fold
+   * @param used the attributes to sum
+   */
+  protected void update(Fold fold, boolean[] used) {
+    int m = used.length;
+    int changes = 0, size = 0;
+    for (int k = 0; k < m; k++) {
+      if (used[k] != fold.m_Used[k]) {
+        changes++;
+      }
+      if (used[k]) {
+        size++;
+      }
+    }
+    if (changes == 0) {
+      return;
+    }
+
+    if (changes > size || fold.m_Updates + changes > m) {
+      Arrays.fill(fold.m_Sums, 0);
+      fold.m_MaxContribution = 0;
+      for (int k = 0; k < m; k++) {
+        if (used[k]) {
+          add(fold, k, true);
+        }
+      }
+      fold.m_Updates = 0;
+    } else {
+      for (int k = 0; k < m; k++) {
+        if (used[k] != fold.m_Used[k]) {
+          add(fold, k, used[k]);
+        }
+      }
+      fold.m_Updates += changes;
+    }
+    fold.m_Used = used.clone();
+  }
+
+  /**
+   * Adds the contributions of an attribute to the sums of a fold, or
+   * subtracts them.
+   *
+   * @param fold the fold
+   * @param k the attribute
+   * @param plus true to add, false to subtract
+   */
+  protected void add(Fold fold, int k, boolean plus) {
+    int numTrain = fold.m_TrainRows.length;
+    int numTest = fold.m_TestRows.length;
+    double[] sums = fold.m_Sums;
+    double max = fold.m_MaxContribution;
+    double[][] columns = fold.m_Columns[k];
+    int[] starts = fold.m_Starts[k];
+
+    for (int v = 0; v < columns.length; v++) {
+      double[] column = columns[v];
+      int end = (v + 1 < columns.length) ? starts[v + 1] : numTest;
+      for (int t = starts[v]; t < end; t++) {
+        double q = fold.m_Queries[t][k];
+        int base = t * numTrain;
+        for (int r = 0; r < numTrain; r++) {
+          double d = m_Distance.batchDifference(k, q, column[r]);
+          double c = d * d;
+          if (plus) {
+            sums[base + r] += c;
+            if (!(c <= max)) {
+              max = (c != c) ? Double.POSITIVE_INFINITY : c;
+            }
+          } else {
+            sums[base + r] -= c;
+          }
+        }
+      }
+    }
+    fold.m_MaxContribution = max;
+  }
+
+  /**
+   * Returns the squared distances of a test instance, from the sums where
+   * they show that a training instance is beyond the cut off and summed in
+   * attribute order like the distance function does otherwise.
+   *
+   * @param fold the fold
+   * @param usedList the attributes of the subset, ascending
+   * @param t the test instance
+   * @return the distances of the training instances
+   */
+  protected LinearNNSearch.RowDistance rowDistance(final Fold fold,
+    final int[] usedList, final int t) {
+
+    final int m = m_Attributes.length;
+    final int base = t * fold.m_TrainRows.length;
+    // each rounding of the sums and of the exact distance errs by at most
+    // half an ulp of a value no larger than m times the largest contribution
+    final double error = (fold.m_Updates + 2.0 * m + 2) * m
+      * fold.m_MaxContribution * 0x1p-52;
+    final double[] query = fold.m_Queries[t];
+
+    return new LinearNNSearch.RowDistance() {
+      @Override
+      public double distance(int row, double cutOff) {
+        if (fold.m_Sums[base + row] - error > cutOff) {
+          return Double.POSITIVE_INFINITY;
+        }
+        double sum = 0;
+        for (int k : usedList) {
+          double d = m_Distance.batchDifference(k, query[k],
+            fold.m_Columns[k][fold.m_Versions[t * m + k]][row]);
+          sum += d * d;
+        }
+        return sum;
+      }
+    };
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 10141 $");
+  }
+}
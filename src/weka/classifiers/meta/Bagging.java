@@ -188,9 +188,27 @@ public class Bagging
   /** Random number generator */
   protected Random m_random;
 
-  /** Used to indicate whether an instance is in a bag or not */
+  /**
+   * Used to indicate whether an instance is in a bag or not, for the
+   * iterations whose out-of-bag votes have not been counted yet
+   */
   protected boolean[][] m_inBag;
 
+  /** The summed out-of-bag votes for each training instance */
+  protected double[][] m_OutOfBagVotes;
+
+  /** The number of out-of-bag votes for each training instance */
+  protected int[] m_OutOfBagVoteCounts;
+
+  /**
+   * The votes of the iterations finished before all earlier ones, waiting to
+   * be added to the out-of-bag votes
+   */
+  protected double[][][] m_PendingOutOfBagVotes;
+
+  /** The first iteration whose votes have not been added yet */
+  protected int m_NextOutOfBagIteration;
+
   /** Reference to the training data */
   protected Instances m_data;
 
@@ -682,6 +700,103 @@ public class Bagging
     return bagData;
   }
 
+  /**
+   * Returns the bag of a particular iteration as a weight for each training
+   * instance: how often it was drawn. The instances are drawn as for
+   * getTrainingSet() when copies are represented using weights, but a bag
+   * smaller than the data is drawn directly instead of being cut from a full
+   * sized one.
+   * 
+   * @param iteration the number of the iteration for the requested bag.
+   * @return the weight of each training instance in the bag
+   * @throws Exception if something goes wrong when drawing the bag.
+   */
+  protected double[] getBagWeights(int iteration) throws Exception {
+    int bagSize = (int) (m_data.numInstances() * (m_BagSizePercent / 100.0));
+    Random r = new Random(m_Seed + iteration);
+    double[] weights = new double[m_data.numInstances()];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = m_data.instance(i).weight();
+    }
+    boolean[] inBag = null;
+    if (m_CalcOutOfBag) {
+      inBag = new boolean[m_data.numInstances()];
+      m_inBag[iteration] = inBag;
+    }
+    int[] counts = m_data.resampleCounts(r, weights, inBag, bagSize);
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = counts[i];
+    }
+    return weights;
+  }
+
+  /**
+   * Builds the classifier of a particular iteration and, if the out-of-bag
+   * error is calculated, counts its votes for the instances not in its bag.
+   * 
+   * @param iteration the number of the iteration to build
+   * @throws Exception if the classifier can't be built successfully
+   */
+  @Override
+  protected void buildIteration(int iteration) throws Exception {
+
+    super.buildIteration(iteration);
+    if (m_CalcOutOfBag) {
+      addOutOfBagVotes(iteration);
+    }
+  }
+
+  /**
+   * Adds the votes of the classifier of a particular iteration for the
+   * instances that are not in its bag to the out-of-bag votes, and releases
+   * its bag. The predictions are made first, so that the classifiers of
+   * iterations built concurrently make them in parallel. They are added
+   * while holding the lock of the votes, in the order of the iterations: the
+   * votes of an iteration that finishes before an earlier one wait until
+   * that one has been added. The sums are therefore the same for any number
+   * of execution slots.
+   * 
+   * @param iteration the number of the iteration
+   * @throws Exception if the classifier can't make predictions
+   */
+  protected void addOutOfBagVotes(int iteration) throws Exception {
+
+    boolean[] inBag = m_inBag[iteration];
+    m_inBag[iteration] = null;
+    Classifier classifier = m_Classifiers[iteration];
+    double[][] votes = new double[m_data.numInstances()][];
+    for (int i = 0; i < votes.length; i++) {
+      if (inBag[i]) {
+        continue;
+      }
+      if (m_Numeric) {
+        double pred = classifier.classifyInstance(m_data.instance(i));
+        if (!Utils.isMissingValue(pred)) {
+          votes[i] = new double[] { pred };
+        }
+      } else {
+        votes[i] = classifier.distributionForInstance(m_data.instance(i));
+      }
+    }
+
+    synchronized (m_OutOfBagVotes) {
+      m_PendingOutOfBagVotes[iteration] = votes;
+      while ((m_NextOutOfBagIteration < m_PendingOutOfBagVotes.length)
+        && (m_PendingOutOfBagVotes[m_NextOutOfBagIteration] != null)) {
+        votes = m_PendingOutOfBagVotes[m_NextOutOfBagIteration];
+        m_PendingOutOfBagVotes[m_NextOutOfBagIteration++] = null;
+        for (int i = 0; i < votes.length; i++) {
+          if (votes[i] != null) {
+            for (int k = 0; k < votes[i].length; k++) {
+              m_OutOfBagVotes[i][k] += votes[i][k];
+            }
+            m_OutOfBagVoteCounts[i]++;
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Returns the out-of-bag evaluation object.
    *
@@ -724,9 +839,20 @@ public class Bagging
 
     m_random = new Random(m_Seed);
 
+    m_Numeric = m_data.classAttribute().isNumeric();
+
     m_inBag = null;
-    if (m_CalcOutOfBag)
+    m_OutOfBagVotes = null;
+    m_OutOfBagVoteCounts = null;
+    m_PendingOutOfBagVotes = null;
+    if (m_CalcOutOfBag) {
       m_inBag = new boolean[m_Classifiers.length][];
+      m_OutOfBagVotes = new double[m_data.numInstances()][m_Numeric ? 1
+        : m_data.numClasses()];
+      m_OutOfBagVoteCounts = new int[m_data.numInstances()];
+      m_PendingOutOfBagVotes = new double[m_Classifiers.length][][];
+      m_NextOutOfBagIteration = 0;
+    }
 
     for (int j = 0; j < m_Classifiers.length; j++) {
       if (m_Classifier instanceof Randomizable) {
@@ -734,42 +860,15 @@ public class Bagging
       }
     }
 
-    m_Numeric = m_data.classAttribute().isNumeric();
-
     buildClassifiers();
 
-    // calc OOB error?
+    // calc OOB error from the votes counted as the classifiers were built
     if (getCalcOutOfBag()) {
       m_OutOfBagEvaluationObject = new Evaluation(m_data);
 
       for (int i = 0; i < m_data.numInstances(); i++) {
-        double[] votes;
-        if (m_Numeric)
-          votes = new double[1];
-        else
-          votes = new double[m_data.numClasses()];
-
-        // determine predictions for instance
-        int voteCount = 0;
-        for (int j = 0; j < m_Classifiers.length; j++) {
-          if (m_inBag[j][i])
-            continue;
-
-          if (m_Numeric) {
-            double pred = m_Classifiers[j].classifyInstance(m_data.instance(i));
-            if (!Utils.isMissingValue(pred)) {
-              votes[0] += pred;
-              voteCount++;
-            }
-          } else {
-            voteCount++;
-            double[] newProbs = m_Classifiers[j].distributionForInstance(m_data.instance(i));
-            // sum the probability estimates
-            for (int k = 0; k < newProbs.length; k++) {
-              votes[k] += newProbs[k];
-            }
-          }
-        }
+        double[] votes = m_OutOfBagVotes[i];
+        int voteCount = m_OutOfBagVoteCounts[i];
 
         // "vote"
         if (m_Numeric) {
@@ -791,6 +890,9 @@ public class Bagging
 
     // save memory
     m_inBag = null;
+    m_OutOfBagVotes = null;
+    m_OutOfBagVoteCounts = null;
+    m_PendingOutOfBagVotes = null;
     m_data = new Instances(m_data, 0);
   }
 
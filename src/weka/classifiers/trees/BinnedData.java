@@ -0,0 +1,697 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    BinnedData.java
+ *    Copyright (C) 2026 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import weka.core.ContingencyTables;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * The training data of a tree in binned form, for finding splits from
+ * histograms instead of sorted values. Each numeric attribute is quantized
+ * once, when it is first used, into at most a given number of bins of about
+ * equal weight, and each nominal attribute uses its values as bins. The bin of
+ * every instance is stored as a one- or two-byte code, with one extra code for
+ * missing values. A node holds the indices of its instances and their weights
+ * (fractions of the original weight for instances with missing values), and
+ * the histogram of an attribute at a node holds, for every bin, the class
+ * counts (nominal class) or the sum, sum of squares and weight of the target
+ * (numeric class).<br>
+ * <br>
+ * Each bin remembers the smallest and largest value in it, and split points
+ * are placed half way between the bins on either side, so with at least as
+ * many bins as distinct values the splits are the same as the ones found from
+ * sorted values. The histogram of one child can be computed by subtracting the
+ * histograms of its siblings from the one of the parent, as the pieces of
+ * instances with missing values add up to the parent.
+ *
+ * @version $Revision: 13865 $
+ */
+public class BinnedData implements RevisionHandler {
+
+  /** The largest number of bins. */
+  public static final int MAX_BINS = 65535;
+
+  /** The data. */
+  protected Instances m_Data;
+
+  /** The number of bins per attribute. */
+  protected int m_MaxBins;
+
+  /** Whether the class is nominal. */
+  protected boolean m_NominalClass;
+
+  /** The number of entries per bin in a histogram. */
+  protected int m_Width;
+
+  /** The class index of each instance (nominal class). */
+  protected int[] m_Classes;
+
+  /** The class value of each instance (numeric class). */
+  protected double[] m_Targets;
+
+  /** The number of bins of each attribute, 0 if not binned yet. */
+  protected int[] m_NumBins;
+
+  /** The bin codes of attributes with at most 255 bins. */
+  protected byte[][] m_ByteCodes;
+
+  /** The bin codes of attributes with more bins. */
+  protected char[][] m_CharCodes;
+
+  /** The smallest value in each bin of the numeric attributes. */
+  protected double[][] m_Lowest;
+
+  /** The largest value in each bin of the numeric attributes. */
+  protected double[][] m_Highest;
+
+  /**
+   * Prepares the given data for binning. Instances with a missing class must
+   * not be used to build trees.
+   *
+   * @param data the training data
+   * @param maxBins the largest number of bins per numeric attribute
+   */
+  public BinnedData(Instances data, int maxBins) {
+
+    m_Data = data;
+    m_MaxBins = Math.max(2, Math.min(maxBins, MAX_BINS));
+    m_NominalClass = data.classAttribute().isNominal();
+    m_Width = m_NominalClass ? data.numClasses() : 3;
+    int n = data.numInstances();
+    if (m_NominalClass) {
+      m_Classes = new int[n];
+      for (int i = 0; i < n; i++) {
+        m_Classes[i] = (int) data.instance(i).classValue();
+      }
+    } else {
+      m_Targets = data.attributeToDoubleArray(data.classIndex());
+    }
+    int numAttributes = data.numAttributes();
+    m_NumBins = new int[numAttributes];
+    m_ByteCodes = new byte[numAttributes][];
+    m_CharCodes = new char[numAttributes][];
+    m_Lowest = new double[numAttributes][];
+    m_Highest = new double[numAttributes][];
+  }
+
+  /**
+   * Returns the training data.
+   *
+   * @return the data
+   */
+  public Instances getData() {
+    return m_Data;
+  }
+
+  /**
+   * Returns the indices of all instances.
+   *
+   * @return the indices
+   */
+  public int[] allRows() {
+
+    int[] rows = new int[m_Data.numInstances()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = i;
+    }
+    return rows;
+  }
+
+  /**
+   * Returns the weights of all instances.
+   *
+   * @return the weights
+   */
+  public double[] allWeights() {
+
+    double[] weights = new double[m_Data.numInstances()];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = m_Data.instance(i).weight();
+    }
+    return weights;
+  }
+
+  /**
+   * Bins all attributes but the class, so that the data can be shared by
+   * trees built concurrently.
+   */
+  public void binAll() {
+
+    for (int i = 0; i < m_Data.numAttributes(); i++) {
+      if (i != m_Data.classIndex()) {
+        bin(i);
+      }
+    }
+  }
+
+  /**
+   * Bins an attribute if that has not been done yet.
+   *
+   * @param att the attribute index
+   */
+  protected void bin(int att) {
+
+    if (m_NumBins[att] > 0) {
+      return;
+    }
+    int n = m_Data.numInstances();
+    double[] values = m_Data.attributeToDoubleArray(att);
+    int[] codes = new int[n];
+    int numBins;
+    if (m_Data.attribute(att).isNominal()) {
+      numBins = Math.max(1, m_Data.attribute(att).numValues());
+      for (int i = 0; i < n; i++) {
+        codes[i] = Utils.isMissingValue(values[i]) ? numBins : (int) values[i];
+      }
+    } else {
+      numBins = quantize(att, values, codes);
+    }
+    if (numBins >= 255) {
+      if (numBins > MAX_BINS) {
+        throw new IllegalArgumentException("Attribute "
+          + m_Data.attribute(att).name() + " has too many values to be binned.");
+      }
+      m_CharCodes[att] = new char[n];
+      for (int i = 0; i < n; i++) {
+        m_CharCodes[att][i] = (char) codes[i];
+      }
+    } else {
+      m_ByteCodes[att] = new byte[n];
+      for (int i = 0; i < n; i++) {
+        m_ByteCodes[att][i] = (byte) codes[i];
+      }
+    }
+    m_NumBins[att] = numBins;
+  }
+
+  /**
+   * Quantizes a numeric attribute into bins of about equal weight, each
+   * holding one or more distinct values, and records the smallest and the
+   * largest value of each bin.
+   *
+   * @param att the attribute index
+   * @param values the values of the attribute
+   * @param codes the array for the bin of each instance, missing values get
+   *          the number of bins
+   * @return the number of bins
+   */
+  protected int quantize(int att, double[] values, int[] codes) {
+
+    int n = values.length;
+    int[] present = new int[n];
+    int count = 0;
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        present[count++] = i;
+        total += m_Data.instance(i).weight();
+      }
+    }
+    double[] sorted = new double[count];
+    for (int i = 0; i < count; i++) {
+      sorted[i] = values[present[i]];
+    }
+    int[] order = Utils.sort(sorted);
+
+    // count the distinct values, they all get a bin if there are few enough
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || sorted[order[i]] > sorted[order[i - 1]]) {
+        distinct++;
+      }
+    }
+    double[] lowest = new double[Math.max(1, Math.min(distinct, m_MaxBins))];
+    double[] highest = new double[lowest.length];
+    int bin = -1;
+    double cumulative = 0;
+    for (int i = 0; i < count; i++) {
+      double value = sorted[order[i]];
+      if (i == 0 || value > sorted[order[i - 1]]) {
+
+        // a new distinct value starts a new bin if the current one has its
+        // share of the weight
+        if (bin < 0
+          || (bin < lowest.length - 1 && (distinct <= m_MaxBins || cumulative
+            * m_MaxBins >= (bin + 1) * total))) {
+          bin++;
+          lowest[bin] = value;
+        }
+      }
+      highest[bin] = value;
+      codes[present[order[i]]] = bin;
+      cumulative += m_Data.instance(present[order[i]]).weight();
+    }
+    int numBins = bin + 1;
+    if (numBins == 0) {
+      numBins = 1;
+    }
+    for (int i = 0; i < n; i++) {
+      if (Utils.isMissingValue(values[i])) {
+        codes[i] = numBins;
+      }
+    }
+    m_Lowest[att] = new double[numBins];
+    m_Highest[att] = new double[numBins];
+    System.arraycopy(lowest, 0, m_Lowest[att], 0, numBins);
+    System.arraycopy(highest, 0, m_Highest[att], 0, numBins);
+    return numBins;
+  }
+
+  /**
+   * Returns the number of bins of an attribute, without the one for missing
+   * values.
+   *
+   * @param att the attribute index
+   * @return the number of bins
+   */
+  public int numBins(int att) {
+
+    bin(att);
+    return m_NumBins[att];
+  }
+
+  /**
+   * Returns the bin of an instance, the number of bins for a missing value.
+   *
+   * @param att the attribute index
+   * @param row the instance index
+   * @return the bin
+   */
+  public final int code(int att, int row) {
+
+    return m_ByteCodes[att] != null ? m_ByteCodes[att][row] & 0xFF
+      : m_CharCodes[att][row];
+  }
+
+  /**
+   * Computes the sum, the sum of squares and the weight of the target of the
+   * given instances (numeric class).
+   *
+   * @param rows the instance indices
+   * @param weights the weights of the instances
+   * @return the sum, sum of squares and weight
+   */
+  public double[] targetSums(int[] rows, double[] weights) {
+
+    double[] sums = new double[3];
+    for (int i = 0; i < rows.length; i++) {
+      double y = m_Targets[rows[i]];
+      sums[0] += y * weights[i];
+      sums[1] += y * y * weights[i];
+      sums[2] += weights[i];
+    }
+    return sums;
+  }
+
+  /**
+   * Computes the histogram of an attribute over the given instances.
+   *
+   * @param att the attribute index
+   * @param rows the instance indices
+   * @param weights the weights of the instances
+   * @return the histogram, with the bin for missing values last
+   */
+  public double[] histogram(int att, int[] rows, double[] weights) {
+
+    bin(att);
+    int width = m_Width;
+    double[] hist = new double[(m_NumBins[att] + 1) * width];
+    byte[] bytes = m_ByteCodes[att];
+    char[] chars = m_CharCodes[att];
+    for (int i = 0; i < rows.length; i++) {
+      int row = rows[i];
+      int base = (bytes != null ? bytes[row] & 0xFF : chars[row]) * width;
+      double w = weights[i];
+      if (m_NominalClass) {
+        hist[base + m_Classes[row]] += w;
+      } else {
+        double yw = m_Targets[row] * w;
+        hist[base] += yw;
+        hist[base + 1] += yw * m_Targets[row];
+        hist[base + 2] += w;
+      }
+    }
+    return hist;
+  }
+
+  /**
+   * Computes the histogram of an attribute for a node, either directly or, if
+   * the parent has it, as the parent's histogram minus the one of the
+   * node's siblings.
+   *
+   * @param att the attribute index
+   * @param rows the instance indices of the node
+   * @param weights the weights of the instances of the node
+   * @param parentHists the parent's histograms by attribute, or null
+   * @param otherRows the instance indices of the siblings, or null
+   * @param otherWeights the weights of the siblings' instances
+   * @return the histogram
+   */
+  public double[] histogram(int att, int[] rows, double[] weights,
+    double[][] parentHists, int[] otherRows, double[] otherWeights) {
+
+    if (parentHists == null || parentHists[att] == null || otherRows == null
+      || otherRows.length >= rows.length) {
+      return histogram(att, rows, weights);
+    }
+    double[] parent = parentHists[att];
+    double[] hist = histogram(att, otherRows, otherWeights);
+    int width = m_Width;
+    for (int base = 0; base < hist.length; base += width) {
+      if (m_NominalClass) {
+        for (int j = 0; j < width; j++) {
+          double value = parent[base + j] - hist[base + j];
+
+          // the rounding errors of empty bins must not look like weight
+          hist[base + j] = value > 1e-9 * Math.abs(parent[base + j]) ? value
+            : 0;
+        }
+      } else {
+        double weight = parent[base + 2] - hist[base + 2];
+        if (weight > 1e-9 * parent[base + 2]) {
+          hist[base] = parent[base] - hist[base];
+          hist[base + 1] = parent[base + 1] - hist[base + 1];
+          hist[base + 2] = weight;
+        } else {
+          hist[base] = hist[base + 1] = hist[base + 2] = 0;
+        }
+      }
+    }
+    return hist;
+  }
+
+  /**
+   * Returns the weight in a bin of a histogram.
+   *
+   * @param hist the histogram
+   * @param bin the bin
+   * @return the weight
+   */
+  protected double binWeight(double[] hist, int bin) {
+
+    if (!m_NominalClass) {
+      return hist[bin * 3 + 2];
+    }
+    double weight = 0;
+    for (int j = bin * m_Width; j < (bin + 1) * m_Width; j++) {
+      weight += hist[j];
+    }
+    return weight;
+  }
+
+  /**
+   * Finds the best split on an attribute from its histogram at a node, with
+   * the same criteria as the trees use on sorted values: information gain for
+   * a nominal class and variance reduction for a numeric one. The weight of
+   * instances with missing values is distributed over the branches in
+   * proportion to their weights.
+   *
+   * @param att the attribute index
+   * @param hist the histogram of the attribute at the node
+   * @param props gets the proportions of the branches at index att
+   * @param dists gets the class distribution (nominal class) or mean (numeric
+   *          class) of each branch at index att
+   * @param subsetWeights gets the weight of each branch at index att
+   * @param vals gets the gain of the split at index att
+   * @return the split point for a numeric attribute, NaN if there is none or
+   *         the attribute is nominal
+   */
+  public double split(int att, double[] hist, double[][] props,
+    double[][][] dists, double[][] subsetWeights, double[] vals) {
+
+    int numBins = m_NumBins[att];
+    boolean nominal = m_Data.attribute(att).isNominal();
+    int numBranches = nominal ? numBins : 2;
+    int width = m_Width;
+    double splitPoint = Double.NaN;
+
+    // per branch: class counts, or sum, sum of squares and weight
+    double[][] dist = new double[numBranches][width];
+    if (nominal) {
+      for (int b = 0; b < numBins; b++) {
+        System.arraycopy(hist, b * width, dist[b], 0, width);
+      }
+    } else {
+      double[][] curr = new double[2][width];
+      for (int b = 0; b < numBins; b++) {
+        for (int j = 0; j < width; j++) {
+          curr[1][j] += hist[b * width + j];
+        }
+      }
+      System.arraycopy(curr[1], 0, dist[1], 0, width);
+      double priorVal = m_NominalClass ? ContingencyTables
+        .entropyOverColumns(curr) : 0;
+      double bestVal = m_NominalClass ? -Double.MAX_VALUE : Double.MAX_VALUE;
+      int previous = -1;
+      for (int b = 0; b < numBins; b++) {
+        if (!(binWeight(hist, b) > 0)) {
+          continue;
+        }
+        if (previous >= 0) {
+          boolean better;
+          if (m_NominalClass) {
+            double currVal = priorVal
+              - ContingencyTables.entropyConditionedOnRows(curr);
+            better = currVal > bestVal;
+            if (better) {
+              bestVal = currVal;
+            }
+          } else {
+            double currVal = variance(curr);
+            better = currVal < bestVal;
+            if (better) {
+              bestVal = currVal;
+            }
+          }
+          if (better) {
+            splitPoint = (m_Highest[att][previous] + m_Lowest[att][b]) / 2.0;
+
+            // Check for numeric precision problems
+            if (splitPoint <= m_Highest[att][previous]) {
+              splitPoint = m_Lowest[att][b];
+            }
+            for (int k = 0; k < 2; k++) {
+              System.arraycopy(curr[k], 0, dist[k], 0, width);
+            }
+          }
+        }
+        for (int j = 0; j < width; j++) {
+          curr[0][j] += hist[b * width + j];
+          curr[1][j] -= hist[b * width + j];
+        }
+        previous = b;
+      }
+    }
+
+    // Compute weights
+    double[] prop = new double[numBranches];
+    for (int k = 0; k < numBranches; k++) {
+      prop[k] = m_NominalClass ? Utils.sum(dist[k]) : dist[k][2];
+    }
+    if (!(Utils.sum(prop) > 0)) {
+      for (int k = 0; k < numBranches; k++) {
+        prop[k] = 1.0 / numBranches;
+      }
+    } else {
+      Utils.normalize(prop);
+    }
+
+    // Distribute the weight of missing values
+    int missing = numBins * width;
+    for (int k = 0; k < numBranches; k++) {
+      for (int j = 0; j < width; j++) {
+        dist[k][j] += prop[k] * hist[missing + j];
+      }
+    }
+
+    double[] weights = new double[numBranches];
+    for (int k = 0; k < numBranches; k++) {
+      weights[k] = m_NominalClass ? Utils.sum(dist[k]) : dist[k][2];
+    }
+    if (m_NominalClass) {
+      vals[att] = ContingencyTables.entropyOverColumns(dist)
+        - ContingencyTables.entropyConditionedOnRows(dist);
+      dists[att] = dist;
+    } else {
+      double totalSum = 0, totalSumSquared = 0, totalSumOfWeights = 0;
+      for (int k = 0; k < numBranches; k++) {
+        totalSum += dist[k][0];
+        totalSumSquared += dist[k][1];
+        totalSumOfWeights += dist[k][2];
+      }
+      vals[att] = RandomTree.singleVariance(totalSum, totalSumSquared,
+        totalSumOfWeights) - variance(dist);
+      double[][] means = new double[numBranches][1];
+      for (int k = 0; k < numBranches; k++) {
+        if (dist[k][2] > 0) {
+          means[k][0] = dist[k][0] / dist[k][2];
+        } else {
+          means[k][0] = totalSum / totalSumOfWeights;
+        }
+      }
+      dists[att] = means;
+    }
+    props[att] = prop;
+    subsetWeights[att] = weights;
+    return splitPoint;
+  }
+
+  /**
+   * Computes the variance of the branches of a numeric class split.
+   *
+   * @param dist sum, sum of squares and weight per branch
+   * @return the summed variance
+   */
+  protected static double variance(double[][] dist) {
+
+    double var = 0;
+    for (double[] branch : dist) {
+      if (branch[2] > 0) {
+        var += RandomTree.singleVariance(branch[0], branch[1], branch[2]);
+      }
+    }
+    return var;
+  }
+
+  /**
+   * Splits the instances of a node into the branches of a split. Instances
+   * with a missing value go into every branch with a positive proportion,
+   * with their weight multiplied by it.
+   *
+   * @param att the attribute index
+   * @param splitPoint the split point, for a numeric attribute
+   * @param prop the proportions of the branches
+   * @param rows the instance indices of the node
+   * @param weights the weights of the instances of the node
+   * @param subsetRows gets the instance indices of each branch
+   * @param subsetWeights gets the weights of the instances of each branch
+   */
+  public void partition(int att, double splitPoint, double[] prop, int[] rows,
+    double[] weights, int[][] subsetRows, double[][] subsetWeights) {
+
+    int numBranches = prop.length;
+    int missing = m_NumBins[att];
+    boolean nominal = m_Data.attribute(att).isNominal();
+
+    // the bins going left are the ones whose values are below the split point
+    int[] branch = new int[missing + 1];
+    for (int b = 0; b < missing; b++) {
+      branch[b] = nominal ? b : m_Highest[att][b] < splitPoint ? 0 : 1;
+    }
+    branch[missing] = -1;
+    int[] num = new int[numBranches];
+    for (int row : rows) {
+      int b = branch[code(att, row)];
+      if (b >= 0) {
+        num[b]++;
+      } else {
+        for (int k = 0; k < numBranches; k++) {
+          if (prop[k] > 0) {
+            num[k]++;
+          }
+        }
+      }
+    }
+    for (int k = 0; k < numBranches; k++) {
+      subsetRows[k] = new int[num[k]];
+      subsetWeights[k] = new double[num[k]];
+      num[k] = 0;
+    }
+    for (int i = 0; i < rows.length; i++) {
+      int b = branch[code(att, rows[i])];
+      if (b >= 0) {
+        subsetRows[b][num[b]] = rows[i];
+        subsetWeights[b][num[b]++] = weights[i];
+      } else {
+        for (int k = 0; k < numBranches; k++) {
+          if (prop[k] > 0) {
+            subsetRows[k][num[k]] = rows[i];
+            subsetWeights[k][num[k]++] = prop[k] * weights[i];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the branch with the most instances.
+   *
+   * @param subsetRows the instance indices of the branches
+   * @return the branch index
+   */
+  public static int largest(int[][] subsetRows) {
+
+    int largest = 0;
+    for (int k = 1; k < subsetRows.length; k++) {
+      if (subsetRows[k].length > subsetRows[largest].length) {
+        largest = k;
+      }
+    }
+    return largest;
+  }
+
+  /**
+   * Concatenates the instances of all branches but one, for computing the
+   * histograms of that branch by subtraction.
+   *
+   * @param subsetRows the instance indices of the branches
+   * @param subsetWeights the weights of the instances of the branches
+   * @param except the branch to leave out
+   * @param otherRows gets the instance indices at index 0
+   * @param otherWeights gets the weights at index 0
+   */
+  public static void others(int[][] subsetRows, double[][] subsetWeights,
+    int except, int[][] otherRows, double[][] otherWeights) {
+
+    int count = 0;
+    for (int k = 0; k < subsetRows.length; k++) {
+      if (k != except) {
+        count += subsetRows[k].length;
+      }
+    }
+    otherRows[0] = new int[count];
+    otherWeights[0] = new double[count];
+    count = 0;
+    for (int k = 0; k < subsetRows.length; k++) {
+      if (k != except) {
+        System.arraycopy(subsetRows[k], 0, otherRows[0], count,
+          subsetRows[k].length);
+        System.arraycopy(subsetWeights[k], 0, otherWeights[0], count,
+          subsetRows[k].length);
+        count += subsetRows[k].length;
+      }
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13865 $");
+  }
+}
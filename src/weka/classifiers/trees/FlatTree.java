@@ -0,0 +1,350 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FlatTree.java
+ *    Copyright (C) 2026 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * A built RandomTree compiled into parallel arrays for prediction. The nodes
+ * are numbered breadth first, so that the successors of a node are
+ * consecutive, and each node holds its split attribute (-1 for a leaf), its
+ * split point, the number of its first successor, the proportion of training
+ * instances that went down to it from its parent, and the offset of its
+ * (normalized) class distribution in one shared array. Predictions add the
+ * distribution reached by an instance, times a weight, to a given array, so
+ * that the distributions of many trees can be summed without allocating
+ * anything, unless the instance has missing values. The result is the same
+ * as the one of the tree it was made from, bit for bit: below a node whose
+ * attribute is missing, the distributions are combined node by node as
+ * RandomTree.Tree.distributionForInstance does. Safe for concurrent use.
+ *
+ * @version $Revision: 13865 $
+ */
+public class FlatTree implements RevisionHandler {
+
+  /** The split attribute of each node, -1 for leaves. */
+  protected int[] m_Attribute;
+
+  /** The split point of each node with a numeric attribute. */
+  protected double[] m_SplitPoint;
+
+  /** The number of the first successor of each node. */
+  protected int[] m_FirstSuccessor;
+
+  /** The proportion of the parent's training instances of each node. */
+  protected double[] m_Prop;
+
+  /** The offset of each node's distribution, -1 if it has none. */
+  protected int[] m_Offset;
+
+  /** The class distributions of the nodes, one after the other. */
+  protected double[] m_Distributions;
+
+  /** Whether each attribute is nominal. */
+  protected boolean[] m_Nominal;
+
+  /** The number of successors of a split on each attribute. */
+  protected int[] m_NumSuccessors;
+
+  /** The number of classes. */
+  protected int m_NumClasses;
+
+  /** Whether the class is numeric. */
+  protected boolean m_NumericClass;
+
+  /** Whether instances that reach an empty leaf get an empty distribution. */
+  protected boolean m_AllowUnclassified;
+
+  /**
+   * Compiles a built tree.
+   *
+   * @param tree the tree, built and not a ZeroR model
+   */
+  public FlatTree(RandomTree tree) {
+
+    Instances info = tree.m_Info;
+    m_NumClasses = info.numClasses();
+    m_NumericClass = info.classAttribute().isNumeric();
+    m_AllowUnclassified = tree.getAllowUnclassifiedInstances();
+    m_Nominal = new boolean[info.numAttributes()];
+    m_NumSuccessors = new int[info.numAttributes()];
+    for (int i = 0; i < info.numAttributes(); i++) {
+      m_Nominal[i] = info.attribute(i).isNominal();
+      m_NumSuccessors[i] = m_Nominal[i] ? info.attribute(i).numValues() : 2;
+    }
+
+    // number the nodes breadth first
+    ArrayList<RandomTree.Tree> nodes = new ArrayList<RandomTree.Tree>();
+    nodes.add(tree.m_Tree);
+    int numValues = 0;
+    for (int i = 0; i < nodes.size(); i++) {
+      RandomTree.Tree node = nodes.get(i);
+      if (node.m_Attribute > -1) {
+        for (RandomTree.Tree successor : node.m_Successors) {
+          nodes.add(successor);
+        }
+      }
+      if (node.m_ClassDistribution != null) {
+        numValues += node.m_ClassDistribution.length;
+      }
+    }
+
+    int numNodes = nodes.size();
+    m_Attribute = new int[numNodes];
+    m_SplitPoint = new double[numNodes];
+    m_FirstSuccessor = new int[numNodes];
+    m_Prop = new double[numNodes];
+    m_Offset = new int[numNodes];
+    m_Distributions = new double[numValues];
+    int next = 1;
+    int offset = 0;
+    for (int i = 0; i < numNodes; i++) {
+      RandomTree.Tree node = nodes.get(i);
+      m_Attribute[i] = node.m_Attribute;
+      m_SplitPoint[i] = node.m_SplitPoint;
+      if (node.m_Attribute > -1) {
+        m_FirstSuccessor[i] = next;
+        for (int j = 0; j < node.m_Successors.length; j++) {
+          m_Prop[next++] = node.m_Prop[j];
+        }
+      }
+      if (node.m_ClassDistribution == null) {
+        m_Offset[i] = -1;
+      } else {
+        double[] dist = node.m_ClassDistribution.clone();
+        if (!m_NumericClass) {
+          Utils.normalize(dist);
+        }
+        System.arraycopy(dist, 0, m_Distributions, offset, dist.length);
+        m_Offset[i] = offset;
+        offset += dist.length;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of nodes.
+   *
+   * @return the number of nodes
+   */
+  public int numNodes() {
+
+    return m_Attribute.length;
+  }
+
+  /**
+   * Returns which attributes the tree splits on.
+   *
+   * @return true for each attribute used at some node
+   */
+  public boolean[] usedAttributes() {
+
+    boolean[] used = new boolean[m_Nominal.length];
+    for (int att : m_Attribute) {
+      if (att > -1) {
+        used[att] = true;
+      }
+    }
+    return used;
+  }
+
+  /**
+   * Returns whether the class is numeric.
+   *
+   * @return true if the tree predicts a numeric class
+   */
+  public boolean isNumericClass() {
+
+    return m_NumericClass;
+  }
+
+  /**
+   * Adds the distribution the tree predicts for an instance, times a weight,
+   * to the given array.
+   *
+   * @param instance the instance
+   * @param weight the weight
+   * @param dist the array to add the distribution to
+   * @return false if the instance only reached empty nodes and nothing was
+   *         added, in which case the tree predicts no distribution
+   */
+  public boolean addDistribution(Instance instance, double weight,
+    double[] dist) {
+
+    return add(0, instance, weight, dist);
+  }
+
+  /**
+   * Returns the distribution the tree predicts for an instance.
+   *
+   * @param instance the instance
+   * @return the distribution, null if there is none
+   */
+  public double[] distributionForInstance(Instance instance) {
+
+    double[] dist = new double[m_NumClasses];
+    return add(0, instance, 1, dist) ? dist : null;
+  }
+
+  /**
+   * Adds the distribution predicted by the subtree at a node. Follows the
+   * branch of the instance's value down to a leaf, and if that leaf is empty
+   * uses the distribution of the deepest node on the way that has one. At a
+   * node whose attribute is missing, the distribution of the split is added
+   * instead.
+   *
+   * @param node the node
+   * @param instance the instance
+   * @param weight the weight
+   * @param dist the array to add the distribution to
+   * @return false if nothing was added
+   */
+  protected boolean add(int node, Instance instance, double weight,
+    double[] dist) {
+
+    int fallback = -1;
+    int att;
+    while ((att = m_Attribute[node]) > -1) {
+      if (m_Offset[node] > -1) {
+        fallback = node;
+      }
+      double value = instance.value(att);
+      int first = m_FirstSuccessor[node];
+      if (Utils.isMissingValue(value)) {
+        double[] split = split(node, instance);
+        for (int j = 0; j < m_NumClasses; j++) {
+          dist[j] += weight * split[j];
+        }
+        return true;
+      }
+      if (m_Nominal[att]) {
+        node = first + (int) value;
+      } else {
+        node = value < m_SplitPoint[node] ? first : first + 1;
+      }
+    }
+
+    if (m_Offset[node] < 0) {
+      if (m_AllowUnclassified) {
+        if (m_NumericClass) {
+          dist[0] += weight * Utils.missingValue();
+        }
+        return true;
+      }
+      if (fallback < 0) {
+        return false;
+      }
+      node = fallback;
+    }
+    int offset = m_Offset[node];
+    for (int j = 0; j < m_NumClasses; j++) {
+      dist[j] += weight * m_Distributions[offset + j];
+    }
+    return true;
+  }
+
+  /**
+   * Returns the distribution predicted by the subtree at a node, as
+   * RandomTree.Tree.distributionForInstance computes it for the node.
+   *
+   * @param node the node
+   * @param instance the instance
+   * @return the distribution, null if the instance only reached empty nodes
+   */
+  protected double[] distribution(int node, Instance instance) {
+
+    int fallback = -1;
+    int att;
+    while ((att = m_Attribute[node]) > -1) {
+      if (m_Offset[node] > -1) {
+        fallback = node;
+      }
+      double value = instance.value(att);
+      int first = m_FirstSuccessor[node];
+      if (Utils.isMissingValue(value)) {
+        return split(node, instance);
+      }
+      if (m_Nominal[att]) {
+        node = first + (int) value;
+      } else {
+        node = value < m_SplitPoint[node] ? first : first + 1;
+      }
+    }
+
+    if (m_Offset[node] < 0) {
+      if (m_AllowUnclassified) {
+        double[] result = new double[m_NumClasses];
+        if (m_NumericClass) {
+          result[0] = Utils.missingValue();
+        }
+        return result;
+      }
+      if (fallback < 0) {
+        return null;
+      }
+      node = fallback;
+    }
+    return Arrays.copyOfRange(m_Distributions, m_Offset[node], m_Offset[node]
+      + m_NumClasses);
+  }
+
+  /**
+   * Returns the distribution of an instance whose value of a node's
+   * attribute is missing: the sum of the distributions of the successors,
+   * each times its proportion.
+   *
+   * @param node the node
+   * @param instance the instance
+   * @return the distribution
+   */
+  protected double[] split(int node, Instance instance) {
+
+    double[] result = new double[m_NumClasses];
+    int first = m_FirstSuccessor[node];
+    for (int i = first; i < first + m_NumSuccessors[m_Attribute[node]]; i++) {
+      double[] successor = distribution(i, instance);
+      if (successor != null) {
+        for (int j = 0; j < m_NumClasses; j++) {
+          result[j] += m_Prop[i] * successor[j];
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13865 $");
+  }
+}
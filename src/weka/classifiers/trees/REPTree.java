@@ -92,6 +92,12 @@ import weka.core.WeightedInstancesHandler;
  *  Maximum tree depth (default -1, no maximum)
  * </pre>
  * 
+ * <pre>
+ * -bins &lt;num&gt;
+ *  Number of bins for numeric attributes, 0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -717,6 +723,173 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       }
     }
 
+    /**
+     * Recursively generates a tree from binned data, finding the splits from
+     * histograms.
+     * 
+     * @param binned the binned training data
+     * @param rows the indices of the instances at this node
+     * @param weights the weights of the instances at this node
+     * @param totalWeight
+     * @param classProbs the class probabilities
+     * @param header the header of the data
+     * @param minNum the minimum number of instances in a leaf
+     * @param minVariance
+     * @param depth the current depth of the tree
+     * @param maxDepth the maximum allowed depth of the tree
+     * @param parentHists the histograms of the parent by attribute, or null
+     * @param otherRows the instances of the siblings, if the histograms are to
+     *          be computed by subtraction
+     * @param otherWeights the weights of the siblings' instances
+     * @throws Exception if generation fails
+     */
+    protected void buildTree(BinnedData binned, int[] rows, double[] weights,
+      double totalWeight, double[] classProbs, Instances header,
+      double minNum, double minVariance, int depth, int maxDepth,
+      double[][] parentHists, int[] otherRows, double[] otherWeights)
+      throws Exception {
+
+      // Store structure of dataset, set minimum number of instances
+      // and make space for potential info from pruning data
+      m_Info = header;
+      boolean nominalClass = header.classAttribute().isNominal();
+      if (!nominalClass) {
+        m_HoldOutDist = new double[2];
+      } else {
+        m_HoldOutDist = new double[header.numClasses()];
+      }
+
+      // Make leaf if there are no training instances
+      if (rows.length == 0) {
+        if (!nominalClass) {
+          m_Distribution = new double[2];
+        } else {
+          m_Distribution = new double[header.numClasses()];
+        }
+        m_ClassProbs = null;
+        return;
+      }
+
+      double priorVar = 0;
+      if (!nominalClass) {
+        double[] sums = binned.targetSums(rows, weights);
+        priorVar = singleVariance(sums[0], sums[1], sums[2]);
+      }
+
+      // Check if node doesn't contain enough instances, is pure
+      // or the maximum tree depth is reached
+      m_ClassProbs = new double[classProbs.length];
+      System.arraycopy(classProbs, 0, m_ClassProbs, 0, classProbs.length);
+      boolean leaf = (totalWeight < (2 * minNum))
+        || (nominalClass && Utils.eq(m_ClassProbs[Utils.maxIndex(m_ClassProbs)],
+          Utils.sum(m_ClassProbs)))
+        || (!nominalClass && ((priorVar / totalWeight) < minVariance))
+        || ((m_MaxDepth >= 0) && (depth >= maxDepth));
+
+      m_Attribute = -1;
+      if (!leaf) {
+
+        // Compute the histograms and the value of the splitting criterion
+        // for each attribute
+        int numAttributes = header.numAttributes();
+        double[] vals = new double[numAttributes];
+        double[][][] dists = new double[numAttributes][0][0];
+        double[][] props = new double[numAttributes][0];
+        double[][] totalSubsetWeights = new double[numAttributes][0];
+        double[] splits = new double[numAttributes];
+        double[][] hists = new double[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+          if (i != header.classIndex()) {
+            hists[i] = binned.histogram(i, rows, weights, parentHists,
+              otherRows, otherWeights);
+            splits[i] = binned.split(i, hists[i], props, dists,
+              totalSubsetWeights, vals);
+          }
+        }
+        parentHists = null;
+
+        // Find best attribute
+        int best = Utils.maxIndex(vals);
+        int numAttVals = dists[best].length;
+
+        // Check if there are at least two subsets with
+        // required minimum number of instances
+        int count = 0;
+        for (int i = 0; i < numAttVals; i++) {
+          if (totalSubsetWeights[best][i] >= minNum) {
+            count++;
+          }
+          if (count > 1) {
+            break;
+          }
+        }
+
+        // Any useful split found?
+        if (Utils.gr(vals[best], 0) && (count > 1)) {
+
+          // Set split point, proportions, and temp arrays
+          m_Attribute = best;
+          m_SplitPoint = splits[m_Attribute];
+          m_Prop = props[m_Attribute];
+          double[][] attSubsetDists = dists[m_Attribute];
+          double[] attTotalSubsetWeights = totalSubsetWeights[m_Attribute];
+
+          // Split data, the successor with the most instances gets its
+          // histograms from the ones of this node minus the ones of the others
+          int[][] subsetRows = new int[numAttVals][];
+          double[][] subsetWeights = new double[numAttVals][];
+          binned.partition(m_Attribute, m_SplitPoint, m_Prop, rows, weights,
+            subsetRows, subsetWeights);
+          rows = null;
+          weights = null;
+          int largest = BinnedData.largest(subsetRows);
+          int[][] others = new int[1][];
+          double[][] othersWeights = new double[1][];
+          BinnedData.others(subsetRows, subsetWeights, largest, others,
+            othersWeights);
+
+          // Build successors
+          m_Successors = new Tree[numAttVals];
+          for (int i = 0; i < numAttVals; i++) {
+            m_Successors[i] = new Tree();
+            if (i == largest) {
+              m_Successors[i].buildTree(binned, subsetRows[i],
+                subsetWeights[i], attTotalSubsetWeights[i], attSubsetDists[i],
+                header, minNum, minVariance, depth + 1, maxDepth, hists,
+                others[0], othersWeights[0]);
+              hists = null;
+              others = null;
+              othersWeights = null;
+            } else {
+              m_Successors[i].buildTree(binned, subsetRows[i],
+                subsetWeights[i], attTotalSubsetWeights[i], attSubsetDists[i],
+                header, minNum, minVariance, depth + 1, maxDepth, null, null,
+                null);
+            }
+
+            // Release as much memory as we can
+            subsetRows[i] = null;
+            subsetWeights[i] = null;
+            attSubsetDists[i] = null;
+          }
+        }
+      }
+
+      // Normalize class counts
+      if (nominalClass) {
+        m_Distribution = new double[m_ClassProbs.length];
+        for (int i = 0; i < m_ClassProbs.length; i++) {
+          m_Distribution[i] = m_ClassProbs[i];
+        }
+        doSmoothing();
+        Utils.normalize(m_ClassProbs);
+      } else {
+        m_Distribution = new double[2];
+        m_Distribution[0] = priorVar;
+        m_Distribution[1] = totalWeight;
+      }
+    }
+
     /**
      * Smoothes class probabilities stored at node.
      */
@@ -1388,6 +1561,9 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
   /** Whether to spread initial count across all values */
   protected boolean m_SpreadInitialCount = false;
 
+  /** The number of bins for numeric attributes (0 = exact split points) */
+  protected int m_NumBins = 0;
+
   /**
    * Returns the tip text for this property
    * 
@@ -1633,6 +1809,38 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     m_SpreadInitialCount = newSpreadInitialCount;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return "The number of bins each numeric attribute is quantized into "
+      + "before building the tree, so that splits are found from histograms "
+      + "rather than by sorting (0 = exact split points).";
+  }
+
+  /**
+   * Get the value of NumBins.
+   * 
+   * @return Value of NumBins.
+   */
+  public int getNumBins() {
+
+    return m_NumBins;
+  }
+
+  /**
+   * Set the value of NumBins.
+   * 
+   * @param newNumBins Value to assign to NumBins.
+   */
+  public void setNumBins(int newNumBins) {
+
+    m_NumBins = newNumBins;
+  }
+
   /**
    * Lists the command-line options for this classifier.
    * 
@@ -1641,7 +1849,7 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
   @Override
   public Enumeration<Option> listOptions() {
 
-    Vector<Option> newVector = new Vector<Option>(8);
+    Vector<Option> newVector = new Vector<Option>(9);
 
     newVector.addElement(new Option(
       "\tSet minimum number of instances per leaf " + "(default 2).", "M", 1,
@@ -1663,6 +1871,9 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     newVector.addElement(new Option(
       "\tSpread initial count over all class values (i.e."
         + " don't use 1 per value)", "R", 0, "-R"));
+    newVector.addElement(new Option(
+      "\tNumber of bins for numeric attributes, 0 for exact split points.\n"
+        + "\t(default 0)", "bins", 1, "-bins <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -1696,6 +1907,10 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     if (getSpreadInitialCount()) {
       options.add("-R");
     }
+    if (getNumBins() > 0) {
+      options.add("-bins");
+      options.add("" + getNumBins());
+    }
 
     Collections.addAll(options, super.getOptions());
 
@@ -1740,6 +1955,12 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
    *  Maximum tree depth (default -1, no maximum)
    * </pre>
    * 
+   * <pre>
+   * -bins &lt;num&gt;
+   *  Number of bins for numeric attributes, 0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -1786,6 +2007,12 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       m_InitialCount = 0;
     }
     m_SpreadInitialCount = Utils.getFlag('R', options);
+    String numBinsString = Utils.getOption("bins", options);
+    if (numBinsString.length() != 0) {
+      m_NumBins = Integer.parseInt(numBinsString);
+    } else {
+      m_NumBins = 0;
+    }
 
     super.setOptions(options);
     Utils.checkForRemainingOptions(options);
@@ -1898,11 +2125,16 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       train = data;
     }
 
-    // Create array of sorted indices and weights
+    // Create array of sorted indices and weights, unless the splits are
+    // found from histograms
+    BinnedData binned = null;
     int[][][] sortedIndices = new int[1][train.numAttributes()][0];
     double[][][] weights = new double[1][train.numAttributes()][0];
     double[] vals = new double[train.numInstances()];
-    for (int j = 0; j < train.numAttributes(); j++) {
+    if (m_NumBins > 0) {
+      binned = new BinnedData(train, m_NumBins);
+    }
+    for (int j = 0; binned == null && j < train.numAttributes(); j++) {
       if (j != train.classIndex()) {
         weights[0][j] = new double[train.numInstances()];
         if (train.attribute(j).isNominal()) {
@@ -1966,9 +2198,15 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     }
 
     // Build tree
-    m_Tree.buildTree(sortedIndices, weights, train, totalWeight, classProbs,
-      new Instances(train, 0), m_MinNum, m_MinVarianceProp * trainVariance, 0,
-      m_MaxDepth);
+    if (binned != null) {
+      m_Tree.buildTree(binned, binned.allRows(), binned.allWeights(),
+        totalWeight, classProbs, new Instances(train, 0), m_MinNum,
+        m_MinVarianceProp * trainVariance, 0, m_MaxDepth, null, null, null);
+    } else {
+      m_Tree.buildTree(sortedIndices, weights, train, totalWeight, classProbs,
+        new Instances(train, 0), m_MinNum, m_MinVarianceProp * trainVariance,
+        0, m_MaxDepth);
+    }
 
     // Insert pruning data and perform reduced error pruning
     if (!m_NoPruning) {
@@ -25,6 +25,9 @@ import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.meta.Bagging;
 import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
@@ -38,6 +41,7 @@ import weka.gui.ProgrammaticProperty;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Random;
 import java.util.Vector;
 
 /**
@@ -102,6 +106,18 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -permutation-importance
+ *  Compute and output attribute importance (out-of-bag permutation
+ *  method, needs -O)
+ * </pre>
+ * 
+ * <pre>
+ * -shared-index
+ *  Bin the data once for all trees and pass each tree its bag
+ *  as weights (needs -bins &gt; 0)
+ * </pre>
+ * 
+ * <pre>
  * -I &lt;num&gt;
  *  Number of iterations.
  *  (current value 100)
@@ -160,6 +176,12 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -bins &lt;num&gt;
+ *  Number of bins for numeric attributes, 0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
+ * <pre>
  * -output-debug-info
  *  If set, classifier is run in debug mode and
  *  may output additional info to the console
@@ -191,9 +213,27 @@ public class RandomForest extends Bagging {
   /** for serialization */
   static final long serialVersionUID = 1116839470751428698L;
 
+  /** The number of instances sent through each tree in turn in batches */
+  protected static final int BLOCK_SIZE = 256;
+
   /** True to compute attribute importance */
   protected boolean m_computeAttributeImportance;
 
+  /** True to compute attribute importance by out-of-bag permutation */
+  protected boolean m_computePermutationImportance;
+
+  /** The summed out-of-bag permutation importance of each attribute */
+  protected double[] m_PermutationImportance;
+
+  /** The permutation importance of each tree, while the trees are built */
+  protected double[][] m_TreePermutationImportance;
+
+  /** True to bin the data once and share it between the trees */
+  protected boolean m_SharedIndex;
+
+  /** The binned data shared by the trees while they are built */
+  protected transient BinnedData m_SharedData;
+
   /**
    * The default number of iterations to perform.
    */
@@ -378,6 +418,70 @@ public class RandomForest extends Bagging {
     return m_computeAttributeImportance;
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String computePermutationImportanceTipText() {
+    return "Compute attribute importance via out-of-bag permutation: the "
+      + "increase in each tree's out-of-bag error when the values of an "
+      + "attribute are shuffled, averaged over the trees (needs the "
+      + "out-of-bag error to be calculated)";
+  }
+
+  /**
+   * Set whether to compute and output permutation importance scores
+   *
+   * @param computePermutationImportance true to compute permutation
+   *          importance scores
+   */
+  public void setComputePermutationImportance(
+    boolean computePermutationImportance) {
+    m_computePermutationImportance = computePermutationImportance;
+  }
+
+  /**
+   * Get whether to compute and output permutation importance scores
+   *
+   * @return true if computing permutation importance scores
+   */
+  public boolean getComputePermutationImportance() {
+    return m_computePermutationImportance;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String sharedIndexTipText() {
+    return "Sort and bin each attribute once for all trees and pass each tree "
+      + "its bag as instance weights over the shared data, instead of a copy "
+      + "of the bag that the tree sorts again (only when the trees use bins "
+      + "and no backfitting)";
+  }
+
+  /**
+   * Set whether to bin the data once and share it between the trees
+   *
+   * @param sharedIndex true to share the binned data
+   */
+  public void setSharedIndex(boolean sharedIndex) {
+    m_SharedIndex = sharedIndex;
+  }
+
+  /**
+   * Get whether to bin the data once and share it between the trees
+   *
+   * @return true if the binned data is shared
+   */
+  public boolean getSharedIndex() {
+    return m_SharedIndex;
+  }
+
   /**
    * Returns the tip text for this property
    *
@@ -436,6 +540,34 @@ public class RandomForest extends Bagging {
     ((RandomTree) getClassifier()).setBreakTiesRandomly(newBreakTiesRandomly);
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return ((RandomTree) getClassifier()).numBinsTipText();
+  }
+
+  /**
+   * Get the number of bins for numeric attributes, 0 for exact split points.
+   *
+   * @return the number of bins.
+   */
+  public int getNumBins() {
+    return ((RandomTree) getClassifier()).getNumBins();
+  }
+
+  /**
+   * Set the number of bins for numeric attributes, 0 for exact split points.
+   *
+   * @param value the number of bins.
+   */
+  public void setNumBins(int value) {
+    ((RandomTree) getClassifier()).setNumBins(value);
+  }
+
   /**
    * Set debugging mode.
    *
@@ -519,9 +651,362 @@ public class RandomForest extends Bagging {
       }
     }
 
+    if (m_PermutationImportance != null) {
+      try {
+        double[] importance = computeAveragePermutationImportance();
+        int[] sortedIndices = Utils.sort(importance);
+        buffer.append("\n\nAttribute importance based on average increase "
+          + "of out-of-bag error when permuted\n\n");
+        for (int i = sortedIndices.length - 1; i >= 0; i--) {
+          int index = sortedIndices[i];
+          if (index != m_data.classIndex()) {
+            buffer
+              .append(
+                Utils.doubleToString(importance[index], 10,
+                  getNumDecimalPlaces() + 2)).append("  ")
+              .append(m_data.attribute(index).name()).append("\n");
+          }
+        }
+      } catch (WekaException ex) {
+        // ignore
+      }
+    }
+
     return buffer.toString();
   }
 
+  /**
+   * Builds the trees. With a shared index, every attribute is sorted and
+   * binned once, and each tree is built from the shared binned data with its
+   * bag given as weights. Also sums the permutation importance of the trees
+   * in their order, if that is computed, so that it does not depend on the
+   * order the trees finish in.
+   *
+   * @throws Exception if the trees can't be built successfully
+   */
+  @Override
+  protected void buildClassifiers() throws Exception {
+
+    m_PermutationImportance = null;
+    if (m_computePermutationImportance) {
+      if (!getCalcOutOfBag()) {
+        throw new IllegalArgumentException("Out-of-bag error needs to be "
+          + "calculated if permutation importance is to be computed!");
+      }
+      m_TreePermutationImportance = new double[m_Classifiers.length][];
+    }
+
+    RandomTree tree = (RandomTree) getClassifier();
+    if (m_SharedIndex && tree.getNumBins() > 0 && tree.getNumFolds() <= 0) {
+      m_SharedData = new BinnedData(m_data, tree.getNumBins());
+      m_SharedData.binAll();
+    }
+    try {
+      super.buildClassifiers();
+      if (m_computePermutationImportance) {
+        m_PermutationImportance = new double[m_data.numAttributes()];
+        for (double[] importance : m_TreePermutationImportance) {
+          if (importance != null) {
+            for (int j = 0; j < importance.length; j++) {
+              m_PermutationImportance[j] += importance[j];
+            }
+          }
+        }
+      }
+    } finally {
+      m_SharedData = null;
+      m_TreePermutationImportance = null;
+    }
+  }
+
+  /**
+   * Builds the tree of a particular iteration, from the shared binned data if
+   * there is one.
+   *
+   * @param iteration the number of the iteration to build
+   * @throws Exception if the tree can't be built successfully
+   */
+  @Override
+  protected void buildIteration(int iteration) throws Exception {
+
+    if (m_SharedData == null) {
+      super.buildIteration(iteration);
+    } else {
+      ((RandomTree) m_Classifiers[iteration]).buildClassifier(m_SharedData,
+        getBagWeights(iteration));
+      if (getCalcOutOfBag()) {
+        addOutOfBagVotes(iteration);
+      }
+    }
+  }
+
+  /**
+   * Adds the out-of-bag votes of the tree of a particular iteration, after
+   * adding its permutation importance if that is computed, while the tree's
+   * bag is still known.
+   *
+   * @param iteration the number of the iteration
+   * @throws Exception if the tree can't make predictions
+   */
+  @Override
+  protected void addOutOfBagVotes(int iteration) throws Exception {
+
+    if (m_computePermutationImportance) {
+      addPermutationImportance(iteration, m_inBag[iteration]);
+    }
+    super.addOutOfBagVotes(iteration);
+  }
+
+  /**
+   * Adds the permutation importance of the attributes for the tree of a
+   * particular iteration. Each attribute the tree splits on has its values
+   * shuffled among the instances not in the tree's bag, and its importance is
+   * the resulting increase of the tree's error on those instances: the
+   * weighted misclassification rate for a nominal class, the mean squared
+   * error for a numeric one. The trees of iterations built concurrently do
+   * this in parallel; the importance is kept per tree and summed once all
+   * trees are built.
+   *
+   * @param iteration the number of the iteration
+   * @param inBag which instances are in the tree's bag
+   * @throws Exception if the tree can't make predictions
+   */
+  protected void addPermutationImportance(int iteration, boolean[] inBag)
+    throws Exception {
+
+    FlatTree tree = ((RandomTree) m_Classifiers[iteration]).getFlatTree();
+    if (tree == null) {
+      return;
+    }
+
+    // Copy the out-of-bag instances with a class value, sharing their values
+    int numRows = 0;
+    for (int i = 0; i < inBag.length; i++) {
+      if (!inBag[i] && !m_data.instance(i).classIsMissing()) {
+        numRows++;
+      }
+    }
+    double[][] values = new double[numRows][];
+    Instance[] rows = new Instance[numRows];
+    numRows = 0;
+    for (int i = 0; i < inBag.length; i++) {
+      Instance inst = m_data.instance(i);
+      if (!inBag[i] && !inst.classIsMissing()) {
+        values[numRows] = inst.toDoubleArray();
+        rows[numRows] = new DenseInstance(inst.weight(), values[numRows]);
+        numRows++;
+      }
+    }
+    int classIndex = m_data.classIndex();
+    double error = outOfBagError(tree, rows, classIndex);
+
+    double[] importance = new double[m_data.numAttributes()];
+    boolean[] used = tree.usedAttributes();
+    Random random = new Random(getSeed() + iteration);
+    int[] permutation = new int[numRows];
+    double[] column = new double[numRows];
+    for (int j = 0; j < used.length; j++) {
+      if (!used[j]) {
+        continue;
+      }
+      for (int k = 0; k < numRows; k++) {
+        permutation[k] = k;
+        column[k] = values[k][j];
+      }
+      for (int k = numRows - 1; k > 0; k--) {
+        int other = random.nextInt(k + 1);
+        int swap = permutation[k];
+        permutation[k] = permutation[other];
+        permutation[other] = swap;
+      }
+      for (int k = 0; k < numRows; k++) {
+        values[k][j] = column[permutation[k]];
+      }
+      importance[j] = outOfBagError(tree, rows, classIndex) - error;
+      for (int k = 0; k < numRows; k++) {
+        values[k][j] = column[k];
+      }
+    }
+
+    m_TreePermutationImportance[iteration] = importance;
+  }
+
+  /**
+   * Computes the error of a tree on instances, over those it predicts for.
+   *
+   * @param tree the tree
+   * @param rows the instances
+   * @param classIndex the index of the class in the instances' values
+   * @return the weighted misclassification rate for a nominal class, the
+   *         weighted mean squared error for a numeric one
+   */
+  protected double outOfBagError(FlatTree tree, Instance[] rows,
+    int classIndex) {
+
+    double sumErrors = 0;
+    double sumWeights = 0;
+    for (Instance row : rows) {
+      double[] dist = tree.distributionForInstance(row);
+      if (dist == null) {
+        continue;
+      }
+      double actual = row.value(classIndex);
+      if (tree.isNumericClass()) {
+        if (Utils.isMissingValue(dist[0])) {
+          continue;
+        }
+        sumErrors += row.weight() * (dist[0] - actual) * (dist[0] - actual);
+      } else if (Utils.maxIndex(dist) != (int) actual) {
+        sumErrors += row.weight();
+      }
+      sumWeights += row.weight();
+    }
+    return sumWeights > 0 ? sumErrors / sumWeights : 0;
+  }
+
+  /**
+   * Returns the trees compiled for prediction.
+   *
+   * @return the compiled trees, null if a tree uses a ZeroR model instead
+   */
+  protected FlatTree[] flatTrees() {
+
+    FlatTree[] trees = new FlatTree[m_Classifiers.length];
+    for (int i = 0; i < trees.length; i++) {
+      trees[i] = ((RandomTree) m_Classifiers[i]).getFlatTree();
+      if (trees[i] == null) {
+        return null;
+      }
+    }
+    return trees;
+  }
+
+  /**
+   * Calculates the class membership probabilities for the given test instance
+   * from the compiled trees.
+   *
+   * @param instance the instance to be classified
+   * @return predicted class probability distribution
+   * @throws Exception if distribution can't be computed successfully
+   */
+  @Override
+  public double[] distributionForInstance(Instance instance) throws Exception {
+
+    FlatTree[] trees = flatTrees();
+    if (trees == null) {
+      return super.distributionForInstance(instance);
+    }
+    double[] sums = new double[instance.numClasses()];
+    double numPreds = 0;
+    double[] pred = trees[0].isNumericClass() ? new double[1] : null;
+    for (FlatTree tree : trees) {
+      numPreds += addPrediction(tree, instance, sums, pred);
+    }
+    finishDistribution(sums, numPreds, pred != null);
+    return sums;
+  }
+
+  /**
+   * Returns true, as batches of instances are classified tree by tree from the
+   * compiled trees.
+   *
+   * @return true
+   */
+  @Override
+  public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  /**
+   * Calculates the class membership probabilities for a batch of instances.
+   * The instances are taken in blocks, and each block is sent through one
+   * compiled tree after another, so that a tree's arrays stay in the cache
+   * while they are used for all instances of the block.
+   *
+   * @param batch the instances to be classified
+   * @return the predicted class probability distributions
+   * @throws Exception if the distributions can't be computed successfully
+   */
+  @Override
+  public double[][] distributionsForInstances(Instances batch)
+    throws Exception {
+
+    FlatTree[] trees = flatTrees();
+    if (trees == null) {
+      return super.distributionsForInstances(batch);
+    }
+    int numInstances = batch.numInstances();
+    double[][] dists = new double[numInstances][batch.numClasses()];
+    double[] numPreds = new double[numInstances];
+    double[] pred = trees[0].isNumericClass() ? new double[1] : null;
+    for (int start = 0; start < numInstances; start += BLOCK_SIZE) {
+      int end = Math.min(start + BLOCK_SIZE, numInstances);
+      for (FlatTree tree : trees) {
+        for (int i = start; i < end; i++) {
+          numPreds[i] += addPrediction(tree, batch.instance(i), dists[i], pred);
+        }
+      }
+      for (int i = start; i < end; i++) {
+        finishDistribution(dists[i], numPreds[i], pred != null);
+      }
+    }
+    return dists;
+  }
+
+  /**
+   * Adds the prediction of one tree for an instance, as Bagging combines
+   * them: the distribution for a nominal class, the predicted value for a
+   * numeric class unless it is missing.
+   *
+   * @param tree the compiled tree
+   * @param instance the instance
+   * @param sums the sums of the predictions of the instance
+   * @param pred an array for one predicted value, null for a nominal class
+   * @return the number of predictions added
+   * @throws Exception if the tree predicts no distribution
+   */
+  protected double addPrediction(FlatTree tree, Instance instance,
+    double[] sums, double[] pred) throws Exception {
+
+    if (pred == null) {
+      if (!tree.addDistribution(instance, 1, sums)) {
+        throw new Exception("Null distribution predicted");
+      }
+      return 1;
+    }
+    pred[0] = 0;
+    if (!tree.addDistribution(instance, 1, pred)) {
+      throw new Exception("Null distribution predicted");
+    }
+    if (Utils.isMissingValue(pred[0])) {
+      return 0;
+    }
+    sums[0] += pred[0];
+    return 1;
+  }
+
+  /**
+   * Turns the sums of the predictions of the trees into the prediction of the
+   * forest.
+   *
+   * @param sums the sums, replaced by the prediction
+   * @param numPreds the number of predictions for a numeric class
+   * @param numeric whether the class is numeric
+   */
+  protected void finishDistribution(double[] sums, double numPreds,
+    boolean numeric) {
+
+    if (numeric) {
+      if (numPreds == 0) {
+        sums[0] = Utils.missingValue();
+      } else {
+        sums[0] /= numPreds;
+      }
+    } else if (!Utils.eq(Utils.sum(sums), 0)) {
+      Utils.normalize(sums);
+    }
+  }
+
   /**
    * Computes the average impurity decrease per attribute over the trees
    *
@@ -562,6 +1047,33 @@ public class RandomForest extends Bagging {
     return impurityDecreases;
   }
 
+  /**
+   * Computes the out-of-bag permutation importance per attribute, averaged
+   * over the trees
+   *
+   * @return the average increase of the trees' out-of-bag error when the
+   *         values of each attribute are shuffled
+   * @throws WekaException if the importance has not been computed
+   */
+  public double[] computeAveragePermutationImportance() throws WekaException {
+
+    if (m_Classifiers == null) {
+      throw new WekaException("Classifier has not been built yet!");
+    }
+
+    if (m_PermutationImportance == null) {
+      throw new WekaException("Permutation importance has not been "
+        + "computed!");
+    }
+
+    double[] importance = m_PermutationImportance.clone();
+    for (int i = 0; i < importance.length; i++) {
+      importance[i] /= m_Classifiers.length;
+    }
+
+    return importance;
+  }
+
   /**
    * Returns an enumeration describing the available options.
    * 
@@ -599,6 +1111,15 @@ public class RandomForest extends Bagging {
       "\tCompute and output attribute importance (mean impurity decrease "
         + "method)", "attribute-importance", 0, "-attribute-importance"));
 
+    newVector.addElement(new Option(
+      "\tCompute and output attribute importance (out-of-bag permutation\n"
+        + "\tmethod, needs -O)", "permutation-importance", 0,
+      "-permutation-importance"));
+
+    newVector.addElement(new Option(
+      "\tBin the data once for all trees and pass each tree its bag\n"
+        + "\tas weights (needs -bins > 0)", "shared-index", 0, "-shared-index"));
+
     newVector.addElement(new Option("\tNumber of iterations.\n"
       + "\t(current value " + getNumIterations() + ")", "I", 1, "-I <num>"));
 
@@ -647,6 +1168,14 @@ public class RandomForest extends Bagging {
       result.add("-attribute-importance");
     }
 
+    if (getComputePermutationImportance()) {
+      result.add("-permutation-importance");
+    }
+
+    if (getSharedIndex()) {
+      result.add("-shared-index");
+    }
+
     result.add("-I");
     result.add("" + getNumIterations());
 
@@ -706,6 +1235,18 @@ public class RandomForest extends Bagging {
    * </pre>
    * 
    * <pre>
+   * -permutation-importance
+   *  Compute and output attribute importance (out-of-bag permutation
+   *  method, needs -O)
+   * </pre>
+   * 
+   * <pre>
+   * -shared-index
+   *  Bin the data once for all trees and pass each tree its bag
+   *  as weights (needs -bins &gt; 0)
+   * </pre>
+   * 
+   * <pre>
    * -I &lt;num&gt;
    *  Number of iterations.
    *  (current value 100)
@@ -764,6 +1305,12 @@ public class RandomForest extends Bagging {
    * </pre>
    * 
    * <pre>
+   * -bins &lt;num&gt;
+   *  Number of bins for numeric attributes, 0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
+   * <pre>
    * -output-debug-info
    *  If set, classifier is run in debug mode and
    *  may output additional info to the console
@@ -813,6 +1360,11 @@ public class RandomForest extends Bagging {
     setComputeAttributeImportance(Utils
       .getFlag("attribute-importance", options));
 
+    setComputePermutationImportance(Utils.getFlag("permutation-importance",
+      options));
+
+    setSharedIndex(Utils.getFlag("shared-index", options));
+
     String iterations = Utils.getOption('I', options);
     if (iterations.length() != 0) {
       setNumIterations(Integer.parseInt(iterations));
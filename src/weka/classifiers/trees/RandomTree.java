@@ -104,6 +104,12 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -bins &lt;num&gt;
+ *  Number of bins for numeric attributes, 0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
+ * <pre>
  * -output-debug-info
  *  If set, classifier is run in debug mode and
  *  may output additional info to the console
@@ -159,9 +165,15 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
   /** Whether to break ties randomly. */
   protected boolean m_BreakTiesRandomly = false;
 
+  /** The number of bins for numeric attributes (0 = exact split points) */
+  protected int m_NumBins = 0;
+
   /** a ZeroR model in case no model can be built from the data */
   protected Classifier m_zeroR;
 
+  /** The tree compiled for prediction, made when first needed */
+  protected transient volatile FlatTree m_FlatTree;
+
   /**
    * The minimum proportion of the total variance (over all the data) required
    * for split.
@@ -468,6 +480,38 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     m_BreakTiesRandomly = newBreakTiesRandomly;
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return "The number of bins each numeric attribute is quantized into "
+      + "before building the tree, so that splits are found from histograms "
+      + "rather than by sorting (0 = exact split points).";
+  }
+
+  /**
+   * Get the number of bins for numeric attributes.
+   *
+   * @return the number of bins, 0 for exact split points
+   */
+  public int getNumBins() {
+
+    return m_NumBins;
+  }
+
+  /**
+   * Set the number of bins for numeric attributes.
+   *
+   * @param value the number of bins, 0 for exact split points
+   */
+  public void setNumBins(int value) {
+
+    m_NumBins = value;
+  }
+
   /**
    * Lists the command-line options for this classifier.
    * 
@@ -505,6 +549,9 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       "-U"));
     newVector.addElement(new Option("\t" + breakTiesRandomlyTipText(), "B", 0,
       "-B"));
+    newVector.addElement(new Option(
+      "\tNumber of bins for numeric attributes, 0 for exact split points.\n"
+        + "\t(default 0)", "bins", 1, "-bins <num>"));
     newVector.addAll(Collections.list(super.listOptions()));
 
     return newVector.elements();
@@ -549,6 +596,11 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       result.add("-B");
     }
 
+    if (getNumBins() > 0) {
+      result.add("-bins");
+      result.add("" + getNumBins());
+    }
+
     Collections.addAll(result, super.getOptions());
 
     return result.toArray(new String[result.size()]);
@@ -607,6 +659,12 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
    * </pre>
    * 
    * <pre>
+   * -bins &lt;num&gt;
+   *  Number of bins for numeric attributes, 0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
+   * <pre>
    * -output-debug-info
    *  If set, classifier is run in debug mode and
    *  may output additional info to the console
@@ -677,6 +735,13 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
     setBreakTiesRandomly(Utils.getFlag('B', options));
 
+    tmpStr = Utils.getOption("bins", options);
+    if (tmpStr.length() != 0) {
+      setNumBins(Integer.parseInt(tmpStr));
+    } else {
+      setNumBins(0);
+    }
+
     super.setOptions(options);
 
     Utils.checkForRemainingOptions(options);
@@ -733,6 +798,7 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     // remove instances with missing class
     data = new Instances(data);
     data.deleteWithMissingClass();
+    m_FlatTree = null;
 
     // only class? -> build ZeroR model
     if (data.numAttributes() == 1) {
@@ -760,14 +826,7 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     }
 
     // Create the attribute indices window
-    int[] attIndicesWindow = new int[data.numAttributes() - 1];
-    int j = 0;
-    for (int i = 0; i < attIndicesWindow.length; i++) {
-      if (j == data.classIndex()) {
-        j++; // do not include the class
-      }
-      attIndicesWindow[i] = j++;
-    }
+    int[] attIndicesWindow = attIndicesWindow(data);
 
     double totalWeight = 0;
     double totalSumSquared = 0;
@@ -798,8 +857,15 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     // Build tree
     m_Tree = new Tree();
     m_Info = new Instances(data, 0);
-    m_Tree.buildTree(train, classProbs, attIndicesWindow, totalWeight, rand, 0,
-      m_MinVarianceProp * trainVariance);
+    if (m_NumBins > 0) {
+      BinnedData binned = new BinnedData(train, m_NumBins);
+      m_Tree.buildTree(binned, binned.allRows(), binned.allWeights(),
+        classProbs, attIndicesWindow, totalWeight, rand, 0, m_MinVarianceProp
+          * trainVariance, null, null, null);
+    } else {
+      m_Tree.buildTree(train, classProbs, attIndicesWindow, totalWeight, rand,
+        0, m_MinVarianceProp * trainVariance);
+    }
 
     // Backfit if required
     if (backfit != null) {
@@ -807,6 +873,118 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     }
   }
 
+  /**
+   * Builds the tree from binned data that is shared with other trees, such as
+   * the other members of a forest, with the given weights in place of the
+   * weights of the instances. Only the instances with a positive weight are
+   * used, so that a bootstrap sample can be given by how often each instance
+   * was drawn, without copying the data. Falls back to building from a copy
+   * of the weighted instances if the tree does not use bins or backfits.
+   * 
+   * @param binned the binned data, with all attributes binned
+   * @param weights the weight of each instance of the data
+   * @throws Exception if the classifier can't be built successfully
+   */
+  public void buildClassifier(BinnedData binned, double[] weights)
+    throws Exception {
+
+    Instances data = binned.getData();
+    if (m_NumBins <= 0 || m_NumFolds > 0 || data.numAttributes() == 1) {
+      Instances bag = new Instances(data, 0);
+      for (int i = 0; i < weights.length; i++) {
+        if (weights[i] > 0) {
+          bag.add(data.instance(i));
+          bag.lastInstance().setWeight(weights[i]);
+        }
+      }
+      buildClassifier(bag);
+      return;
+    }
+
+    if (m_computeImpurityDecreases) {
+      m_impurityDecreasees = new double[data.numAttributes()][2];
+    }
+
+    // Make sure K value is in range
+    if (m_KValue > data.numAttributes() - 1) {
+      m_KValue = data.numAttributes() - 1;
+    }
+    if (m_KValue < 1) {
+      m_KValue = (int) Utils.log2(data.numAttributes() - 1) + 1;
+    }
+    m_FlatTree = null;
+    m_zeroR = null;
+
+    // Pick the instances, without the ones with a missing class
+    int numRows = 0;
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] > 0 && !data.instance(i).classIsMissing()) {
+        numRows++;
+      }
+    }
+    int[] rows = new int[numRows];
+    double[] rowWeights = new double[numRows];
+    numRows = 0;
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] > 0 && !data.instance(i).classIsMissing()) {
+        rows[numRows] = i;
+        rowWeights[numRows++] = weights[i];
+      }
+    }
+
+    // Compute initial class counts
+    double totalWeight = 0;
+    double totalSumSquared = 0;
+    double[] classProbs = new double[data.numClasses()];
+    for (int i = 0; i < rows.length; i++) {
+      Instance inst = data.instance(rows[i]);
+      if (data.classAttribute().isNominal()) {
+        classProbs[(int) inst.classValue()] += rowWeights[i];
+      } else {
+        classProbs[0] += inst.classValue() * rowWeights[i];
+        totalSumSquared +=
+          inst.classValue() * inst.classValue() * rowWeights[i];
+      }
+      totalWeight += rowWeights[i];
+    }
+
+    double trainVariance = 0;
+    if (data.classAttribute().isNumeric() && totalWeight > 0) {
+      trainVariance =
+        RandomTree.singleVariance(classProbs[0], totalSumSquared, totalWeight)
+          / totalWeight;
+      classProbs[0] /= totalWeight;
+    }
+
+    // Build tree
+    m_Tree = new Tree();
+    m_Info = new Instances(data, 0);
+    m_Tree.buildTree(binned, rows, rowWeights, classProbs,
+      attIndicesWindow(data), totalWeight,
+      data.getRandomNumberGenerator(m_randomSeed), 0, m_MinVarianceProp
+        * trainVariance, null, null, null);
+  }
+
+  /**
+   * Creates the window of attribute indices to choose attributes from, all
+   * attributes but the class.
+   * 
+   * @param data the data
+   * @return the attribute indices
+   */
+  protected int[] attIndicesWindow(Instances data) {
+
+    int[] attIndicesWindow = new int[data.numAttributes() - 1];
+    int j = 0;
+    for (int i = 0; i < attIndicesWindow.length; i++) {
+      if (j == data.classIndex()) {
+        j++; // do not include the class
+      }
+      attIndicesWindow[i] = j++;
+    }
+    return attIndicesWindow;
+  }
+
   /**
    * Computes class distribution of an instance using the tree.
    * 
@@ -820,8 +998,28 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     if (m_zeroR != null) {
       return m_zeroR.distributionForInstance(instance);
     } else {
-      return m_Tree.distributionForInstance(instance);
+      return getFlatTree().distributionForInstance(instance);
+    }
+  }
+
+  /**
+   * Returns the tree compiled into arrays for prediction, compiling it the
+   * first time.
+   * 
+   * @return the compiled tree, null if no tree has been built or a ZeroR
+   *         model is used instead
+   */
+  public FlatTree getFlatTree() {
+
+    if (m_zeroR != null || m_Tree == null) {
+      return null;
+    }
+    FlatTree flatTree = m_FlatTree;
+    if (flatTree == null) {
+      flatTree = new FlatTree(this);
+      m_FlatTree = flatTree;
     }
+    return flatTree;
   }
 
   /**
@@ -1558,6 +1756,189 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       }
     }
 
+    /**
+     * Recursively generates a tree from binned data, finding the splits from
+     * histograms. Mirrors buildTree(Instances, ...).
+     * 
+     * @param binned the binned training data
+     * @param rows the indices of the instances at this node
+     * @param weights the weights of the instances at this node
+     * @param classProbs the class distribution
+     * @param attIndicesWindow the attribute window to choose attributes from
+     * @param totalWeight the weight of the instances (numeric class)
+     * @param random random number generator for choosing random attributes
+     * @param depth the current depth
+     * @param minVariance the minimum variance for a split
+     * @param parentHists the histograms of the parent by attribute, or null
+     * @param otherRows the instances of the siblings, if the histograms are to
+     *          be computed by subtraction
+     * @param otherWeights the weights of the siblings' instances
+     * @throws Exception if generation fails
+     */
+    protected void buildTree(BinnedData binned, int[] rows, double[] weights,
+      double[] classProbs, int[] attIndicesWindow, double totalWeight,
+      Random random, int depth, double minVariance, double[][] parentHists,
+      int[] otherRows, double[] otherWeights) throws Exception {
+
+      boolean nominalClass = m_Info.classAttribute().isNominal();
+
+      // Make leaf if there are no training instances
+      if (rows.length == 0) {
+        m_Attribute = -1;
+        m_ClassDistribution = null;
+        m_Prop = null;
+
+        if (!nominalClass) {
+          m_Distribution = new double[2];
+        }
+        return;
+      }
+
+      double priorVar = 0;
+      if (!nominalClass) {
+        double[] sums = binned.targetSums(rows, weights);
+        priorVar = RandomTree.singleVariance(sums[0], sums[1], sums[2]);
+      }
+
+      // Check if node doesn't contain enough instances or is pure
+      // or maximum depth reached
+      if (nominalClass) {
+        totalWeight = Utils.sum(classProbs);
+      }
+      if (totalWeight < 2 * m_MinNum
+        || (nominalClass && Utils.eq(classProbs[Utils.maxIndex(classProbs)],
+          Utils.sum(classProbs)))
+        || (!nominalClass && priorVar / totalWeight < minVariance)
+        || ((getMaxDepth() > 0) && (depth >= getMaxDepth()))) {
+
+        // Make leaf
+        m_Attribute = -1;
+        m_ClassDistribution = classProbs.clone();
+        if (!nominalClass) {
+          m_Distribution = new double[2];
+          m_Distribution[0] = priorVar;
+          m_Distribution[1] = totalWeight;
+        }
+
+        m_Prop = null;
+        return;
+      }
+
+      // Compute the histograms and the value of the splitting criterion for
+      // K random attributes
+      int numAttributes = m_Info.numAttributes();
+      double val = -Double.MAX_VALUE;
+      double split = -Double.MAX_VALUE;
+      int bestIndex = 0;
+      double[][] hists = new double[numAttributes][];
+      double[][] props = new double[numAttributes][];
+      double[][][] dists = new double[numAttributes][][];
+      double[][] totalSubsetWeights = new double[numAttributes][];
+      double[] vals = new double[numAttributes];
+
+      int windowSize = attIndicesWindow.length;
+      int k = m_KValue;
+      boolean gainFound = false;
+      while ((windowSize > 0) && (k-- > 0 || !gainFound)) {
+
+        int chosenIndex = random.nextInt(windowSize);
+        int attIndex = attIndicesWindow[chosenIndex];
+
+        // shift chosen attIndex out of window
+        attIndicesWindow[chosenIndex] = attIndicesWindow[windowSize - 1];
+        attIndicesWindow[windowSize - 1] = attIndex;
+        windowSize--;
+
+        hists[attIndex] = binned.histogram(attIndex, rows, weights,
+          parentHists, otherRows, otherWeights);
+        double currSplit = binned.split(attIndex, hists[attIndex], props,
+          dists, totalSubsetWeights, vals);
+        double currVal = vals[attIndex];
+
+        if (Utils.gr(currVal, 0)) {
+          gainFound = true;
+        }
+
+        if ((currVal > val)
+          || ((!getBreakTiesRandomly()) && (currVal == val) && (attIndex < bestIndex))) {
+          val = currVal;
+          bestIndex = attIndex;
+          split = currSplit;
+        }
+      }
+
+      // Find best attribute
+      m_Attribute = bestIndex;
+
+      // Any useful split found?
+      if (Utils.gr(val, 0)) {
+        if (m_computeImpurityDecreases) {
+          m_impurityDecreasees[m_Attribute][0] += val;
+          m_impurityDecreasees[m_Attribute][1]++;
+        }
+
+        // Build subtrees, the one with the most instances from the histograms
+        // of this node minus the ones of the others
+        m_SplitPoint = split;
+        m_Prop = props[bestIndex];
+        double[][] bestDists = dists[bestIndex];
+        double[] attTotalSubsetWeights = totalSubsetWeights[bestIndex];
+        int[][] subsetRows = new int[m_Prop.length][];
+        double[][] subsetWeights = new double[m_Prop.length][];
+        binned.partition(m_Attribute, m_SplitPoint, m_Prop, rows, weights,
+          subsetRows, subsetWeights);
+        int largest = BinnedData.largest(subsetRows);
+        int[][] others = new int[1][];
+        double[][] othersWeights = new double[1][];
+        BinnedData.others(subsetRows, subsetWeights, largest, others,
+          othersWeights);
+        m_Successors = new Tree[bestDists.length];
+
+        for (int i = 0; i < bestDists.length; i++) {
+          m_Successors[i] = new Tree();
+          if (i == largest) {
+            m_Successors[i].buildTree(binned, subsetRows[i], subsetWeights[i],
+              bestDists[i], attIndicesWindow, nominalClass ? 0
+                : attTotalSubsetWeights[i], random, depth + 1, minVariance,
+              hists, others[0], othersWeights[0]);
+            others = null;
+            othersWeights = null;
+            hists = null;
+          } else {
+            m_Successors[i].buildTree(binned, subsetRows[i], subsetWeights[i],
+              bestDists[i], attIndicesWindow, nominalClass ? 0
+                : attTotalSubsetWeights[i], random, depth + 1, minVariance,
+              null, null, null);
+          }
+          subsetRows[i] = null;
+          subsetWeights[i] = null;
+        }
+
+        // If all successors are non-empty, we don't need to store the class
+        // distribution
+        boolean emptySuccessor = false;
+        for (int i = 0; i < m_Successors.length; i++) {
+          if (m_Successors[i].m_ClassDistribution == null) {
+            emptySuccessor = true;
+            break;
+          }
+        }
+        if (emptySuccessor) {
+          m_ClassDistribution = classProbs.clone();
+        }
+      } else {
+
+        // Make leaf
+        m_Attribute = -1;
+        m_ClassDistribution = classProbs.clone();
+        if (!nominalClass) {
+          m_Distribution = new double[2];
+          m_Distribution[0] = priorVar;
+          m_Distribution[1] = totalWeight;
+        }
+      }
+    }
+
     /**
      * Computes size of the tree.
      * 
@@ -572,7 +572,7 @@ public abstract class AbstractInstance implements Instance, Serializable,
    * @param weight the weight
    */
   @Override
-  public final void setWeight(double weight) {
+  public void setWeight(double weight) {
 
     m_Weight = weight;
   }
@@ -691,8 +691,8 @@ public abstract class AbstractInstance implements Instance, Serializable,
   public final String toStringMaxDecimalDigits(int afterDecimalPoint) {
     StringBuffer text = new StringBuffer(toStringNoWeight(afterDecimalPoint));
 
-    if (m_Weight != 1.0) {
-      text.append(",{" + Utils.doubleToString(m_Weight, afterDecimalPoint)
+    if (weight() != 1.0) {
+      text.append(",{" + Utils.doubleToString(weight(), afterDecimalPoint)
         + "}");
     }
 
@@ -835,7 +835,7 @@ public abstract class AbstractInstance implements Instance, Serializable,
    * @return the instance's weight as a double
    */
   @Override
-  public final/* @pure@ */double weight() {
+  public/* @pure@ */double weight() {
 
     return m_Weight;
   }
@@ -26,7 +26,6 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Properties;
 
@@ -592,12 +591,7 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
           + " searching uncompressed.");
       }
     }
-    Integer val = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
-    if (val == null) {
-      return -1;
-    } else {
-      return val.intValue();
-    }
+    return ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
   }
 
   /**
@@ -908,13 +902,13 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
           + " storing uncompressed.");
       }
     }
-    Integer index = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
-    if (index != null) {
-      return index.intValue();
+    int index = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
+    if (index >= 0) {
+      return index;
     } else {
       int intIndex = ((NominalAttributeInfo)m_AttributeInfo).m_Values.size();
       ((NominalAttributeInfo)m_AttributeInfo).m_Values.add(store);
-      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, new Integer(intIndex));
+      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, intIndex);
       return intIndex;
     }
   }
@@ -959,13 +953,13 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
       return -1;
     }
     Object store = ((NominalAttributeInfo)src.m_AttributeInfo).m_Values.get(index);
-    Integer oldIndex = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
-    if (oldIndex != null) {
-      return oldIndex.intValue();
+    int oldIndex = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(store);
+    if (oldIndex >= 0) {
+      return oldIndex;
     } else {
       int intIndex = ((NominalAttributeInfo)m_AttributeInfo).m_Values.size();
       ((NominalAttributeInfo)m_AttributeInfo).m_Values.add(store);
-      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, new Integer(intIndex));
+      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, intIndex);
       return intIndex;
     }
   }
@@ -986,13 +980,13 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
       throw new IllegalArgumentException("Incompatible value for "
         + "relation-valued attribute.\n" + ((RelationalAttributeInfo)m_AttributeInfo).m_Header.equalHeadersMsg(value));
     }
-    Integer index = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(value);
-    if (index != null) {
-      return index.intValue();
+    int index = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(value);
+    if (index >= 0) {
+      return index;
     } else {
       int intIndex = ((NominalAttributeInfo)m_AttributeInfo).m_Values.size();
       ((NominalAttributeInfo)m_AttributeInfo).m_Values.add(value);
-      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(value, new Integer(intIndex));
+      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(value, intIndex);
       return intIndex;
     }
   }
@@ -1008,7 +1002,7 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
     ((NominalAttributeInfo)m_AttributeInfo).m_Values = 
       Utils.cast(((NominalAttributeInfo)m_AttributeInfo).m_Values.clone());
     ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable = 
-      Utils.cast(((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.clone());
+      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.copy();
     forceAddValue(value);
   }
 
@@ -1054,18 +1048,10 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
         Utils.cast(((NominalAttributeInfo)m_AttributeInfo).m_Values.clone());
       ((NominalAttributeInfo)m_AttributeInfo).m_Values.remove(index);
       if (!isRelationValued()) {
-        Hashtable<Object, Integer> hash = new Hashtable<Object, Integer>(
-          ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.size());
-        Enumeration<Object> enu = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.keys();
-        while (enu.hasMoreElements()) {
-          Object string = enu.nextElement();
-          Integer valIndexObject = ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.get(string);
-          int valIndex = valIndexObject.intValue();
-          if (valIndex > index) {
-            hash.put(string, new Integer(valIndex - 1));
-          } else if (valIndex < index) {
-            hash.put(string, valIndexObject);
-          }
+        ArrayList<Object> values = ((NominalAttributeInfo)m_AttributeInfo).m_Values;
+        ValueIndexMap hash = new ValueIndexMap(values.size());
+        for (int i = 0; i < values.size(); i++) {
+          hash.put(values.get(i), i);
         }
         ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable = hash;
       }
@@ -1092,7 +1078,7 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
     }
     ((NominalAttributeInfo)m_AttributeInfo).m_Values.add(store);
     ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.
-      put(store, new Integer(((NominalAttributeInfo)m_AttributeInfo).m_Values.size() - 1));
+      put(store, ((NominalAttributeInfo)m_AttributeInfo).m_Values.size() - 1);
   }
 
   /**
@@ -1127,7 +1113,7 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
       ((NominalAttributeInfo)m_AttributeInfo).m_Values = 
         Utils.cast(((NominalAttributeInfo)m_AttributeInfo).m_Values.clone());
       ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable = 
-        Utils.cast(((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.clone());
+        ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.copy();
       Object store = string;
       if (string.length() > STRING_COMPRESS_THRESHOLD) {
         try {
@@ -1140,7 +1126,7 @@ public class Attribute implements Copyable, Serializable, RevisionHandler {
       ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.
         remove(((NominalAttributeInfo)m_AttributeInfo).m_Values.get(index));
       ((NominalAttributeInfo)m_AttributeInfo).m_Values.set(index, store);
-      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, new Integer(index));
+      ((NominalAttributeInfo)m_AttributeInfo).m_Hashtable.put(store, index);
       break;
     default:
       throw new IllegalArgumentException("Can only set values for nominal"
@@ -0,0 +1,738 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnStore.java
+ *
+ */
+
+package weka.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column-major storage for the values of a dataset: one contiguous primitive
+ * array per attribute and one for the weights. Values are kept either as
+ * doubles or, to halve the memory, as floats. Missing values are stored as
+ * NaN in both cases, and nominal, string and relational indices are exact in
+ * both cases (floats represent integers up to 2^24 exactly).
+ * <p>
+ * In compact mode a column with few distinct values, such as a nominal
+ * attribute or a count, keeps a dictionary of its values and one byte per
+ * row, or two once it has more than 256 distinct values. Coded values are
+ * exact. A column whose number of distinct values grows past 65536, or past
+ * a quarter (with floats) or half (with doubles) of the rows, is decoded into
+ * a float or double array for good. value(int, int) decodes on each call.
+ * <p>
+ * Rows are only ever appended; a row is never moved or reused, so the row
+ * index of a ColumnarInstance stays valid when the dataset is sorted or
+ * instances are removed.
+ *
+ * @see Instances#toColumnar(boolean)
+ * @see ColumnarInstance
+ */
+public class ColumnStore implements Serializable {
+
+  /** for serialization */
+  private static final long serialVersionUID = -3820462149721530961L;
+
+  /** The columns if values are stored as doubles, null otherwise. */
+  protected double[][] m_Doubles;
+
+  /** The columns if values are stored as floats, null otherwise. */
+  protected float[][] m_Floats;
+
+  /** The weight of each row. */
+  protected double[] m_Weights;
+
+  /** The number of rows in use. */
+  protected int m_NumRows;
+
+  /** Rows are stored as one of these. */
+  public static final int STORAGE_ROWS = 0;
+  public static final int STORAGE_DOUBLE = 1;
+  public static final int STORAGE_FLOAT = 2;
+  public static final int STORAGE_COMPACT = 3;
+  public static final int STORAGE_COMPACT_FLOAT = 4;
+
+  /** The storage modes, for loader options. */
+  public static final Tag[] TAGS_STORAGE = {
+    new Tag(STORAGE_ROWS, "rows", "One instance per row"),
+    new Tag(STORAGE_DOUBLE, "double", "Columns of doubles"),
+    new Tag(STORAGE_FLOAT, "float", "Columns of floats"),
+    new Tag(STORAGE_COMPACT, "compact",
+      "Dictionary codes, doubles for many distinct values"),
+    new Tag(STORAGE_COMPACT_FLOAT, "compact-float",
+      "Dictionary codes, floats for many distinct values") };
+
+  /** The largest number of codes of a column with byte codes. */
+  protected static final int MAX_BYTE_CODES = 256;
+
+  /** The largest number of codes of a column with char codes. */
+  protected static final int MAX_CHAR_CODES = 65536;
+
+  /** Whether columns with few distinct values are stored as codes. */
+  protected boolean m_Compact;
+
+  /**
+   * In compact mode the one-byte codes of each column, null for columns with
+   * two-byte codes or decoded values.
+   */
+  protected byte[][] m_ByteCodes;
+
+  /**
+   * In compact mode the two-byte codes of each column, null for columns with
+   * one-byte codes or decoded values.
+   */
+  protected char[][] m_CharCodes;
+
+  /**
+   * In compact mode the values of the codes of each column, null for
+   * decoded columns.
+   */
+  protected Dictionary[] m_Dictionaries;
+
+  /**
+   * The distinct values of a coded column. Values are told apart by their
+   * bits, so the codes are exact; NaN gets a code like any other value.
+   */
+  protected static class Dictionary implements Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = 6519287342650938175L;
+
+    /** The value of each code. */
+    protected double[] m_Values = new double[16];
+
+    /** The number of codes. */
+    protected int m_Size;
+
+    /**
+     * Open addressing table of code + 1 by the hash of the value bits, 0 for
+     * free slots. Built on demand, dropped by trim().
+     */
+    protected transient int[] m_Slots;
+
+    /**
+     * Returns the number of codes.
+     *
+     * @return the number of codes
+     */
+    public int size() {
+
+      return m_Size;
+    }
+
+    /**
+     * Returns the value of a code.
+     *
+     * @param code the code
+     * @return the value
+     */
+    public final double value(int code) {
+
+      return m_Values[code];
+    }
+
+    /**
+     * Returns the code of a value, adding the value if it has none.
+     *
+     * @param value the value
+     * @return the code
+     */
+    public int code(double value) {
+
+      if (m_Slots == null) {
+        rehash(Math.max(32, Integer.highestOneBit(m_Size) * 4));
+      }
+      long bits = Double.doubleToLongBits(value);
+      int mask = m_Slots.length - 1;
+      int slot = hash(bits) & mask;
+      while (m_Slots[slot] != 0) {
+        int code = m_Slots[slot] - 1;
+        if (Double.doubleToLongBits(m_Values[code]) == bits) {
+          return code;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      if (m_Size == m_Values.length) {
+        m_Values = Arrays.copyOf(m_Values, 2 * m_Size);
+      }
+      int code = m_Size++;
+      m_Values[code] = value;
+      m_Slots[slot] = code + 1;
+      if (2 * m_Size > m_Slots.length) {
+        rehash(2 * m_Slots.length);
+      }
+      return code;
+    }
+
+    /**
+     * Builds the table anew.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    protected void rehash(int capacity) {
+
+      m_Slots = new int[capacity];
+      int mask = capacity - 1;
+      for (int code = 0; code < m_Size; code++) {
+        int slot = hash(Double.doubleToLongBits(m_Values[code])) & mask;
+        while (m_Slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        m_Slots[slot] = code + 1;
+      }
+    }
+
+    /**
+     * Spreads the bits of a value.
+     *
+     * @param bits the bits of the value
+     * @return the hash
+     */
+    protected static int hash(long bits) {
+
+      long h = bits * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Shrinks the values to the number of codes and drops the table.
+     */
+    public void trim() {
+
+      m_Values = Arrays.copyOf(m_Values, Math.max(m_Size, 1));
+      m_Slots = null;
+    }
+
+    /**
+     * Returns the number of bytes taken by the values and the table.
+     *
+     * @return the size in bytes
+     */
+    public long sizeInBytes() {
+
+      return 8L * m_Values.length + (m_Slots != null ? 4L * m_Slots.length : 0);
+    }
+  }
+
+  /**
+   * Creates an empty store.
+   *
+   * @param numColumns the number of attributes
+   * @param capacity the number of rows to reserve
+   * @param floatValues true to store values as floats
+   */
+  public ColumnStore(int numColumns, int capacity, boolean floatValues) {
+
+    this(numColumns, capacity, floatValues, false);
+  }
+
+  /**
+   * Creates an empty store, optionally in compact mode, where every column
+   * starts out with one-byte codes.
+   *
+   * @param numColumns the number of attributes
+   * @param capacity the number of rows to reserve
+   * @param floatValues true to store values as floats (in compact mode:
+   *          those of columns with many distinct values)
+   * @param compact true to store columns with few distinct values as codes
+   */
+  public ColumnStore(int numColumns, int capacity, boolean floatValues,
+    boolean compact) {
+
+    capacity = Math.max(capacity, 1);
+    if (floatValues) {
+      m_Floats = new float[numColumns][];
+      for (int j = 0; j < numColumns; j++) {
+        m_Floats[j] = compact ? null : new float[capacity];
+      }
+    } else {
+      m_Doubles = new double[numColumns][];
+      for (int j = 0; j < numColumns; j++) {
+        m_Doubles[j] = compact ? null : new double[capacity];
+      }
+    }
+    if (compact) {
+      m_Compact = true;
+      m_ByteCodes = new byte[numColumns][capacity];
+      m_CharCodes = new char[numColumns][];
+      m_Dictionaries = new Dictionary[numColumns];
+      for (int j = 0; j < numColumns; j++) {
+        m_Dictionaries[j] = new Dictionary();
+      }
+    }
+    m_Weights = new double[capacity];
+  }
+
+  /**
+   * Creates a store holding the given columns, e.g. read from a file. The
+   * arrays are used, not copied.
+   *
+   * @param columns the values of each attribute, all as long as weights
+   * @param weights the weight of each row
+   */
+  public ColumnStore(double[][] columns, double[] weights) {
+
+    m_Doubles = columns;
+    m_Weights = weights;
+    m_NumRows = weights.length;
+  }
+
+  /**
+   * Creates a store holding the given columns as floats, e.g. read from a
+   * file. The arrays are used, not copied.
+   *
+   * @param columns the values of each attribute, all as long as weights
+   * @param weights the weight of each row
+   */
+  public ColumnStore(float[][] columns, double[] weights) {
+
+    m_Floats = columns;
+    m_Weights = weights;
+    m_NumRows = weights.length;
+  }
+
+  /**
+   * Returns true if values are stored as floats.
+   *
+   * @return true if values are stored as floats
+   */
+  public boolean isFloat() {
+
+    return m_Floats != null;
+  }
+
+  /**
+   * Returns true if columns with few distinct values are stored as codes.
+   *
+   * @return true if in compact mode
+   */
+  public boolean isCompact() {
+
+    return m_Compact;
+  }
+
+  /**
+   * Returns true if a column is stored as codes.
+   *
+   * @param column the attribute's index
+   * @return true if the column is coded
+   */
+  public boolean isCoded(int column) {
+
+    return m_Compact && m_Dictionaries[column] != null;
+  }
+
+  /**
+   * Returns the number of columns.
+   *
+   * @return the number of attributes
+   */
+  public int numColumns() {
+
+    return m_Floats != null ? m_Floats.length : m_Doubles.length;
+  }
+
+  /**
+   * Returns the number of rows appended so far, including rows of instances
+   * that have since been removed from the dataset.
+   *
+   * @return the number of rows
+   */
+  public int numRows() {
+
+    return m_NumRows;
+  }
+
+  /**
+   * Appends the values and the weight of an instance.
+   *
+   * @param instance the instance, with numColumns() attributes
+   * @return the index of the new row
+   */
+  public int addRow(Instance instance) {
+
+    if (m_NumRows == m_Weights.length) {
+      grow();
+    }
+    int row = m_NumRows++;
+    if (m_Compact) {
+      for (int j = 0; j < m_Dictionaries.length; j++) {
+        setValue(row, j, instance.value(j));
+      }
+    } else if (m_Floats != null) {
+      for (int j = 0; j < m_Floats.length; j++) {
+        m_Floats[j][row] = (float) instance.value(j);
+      }
+    } else {
+      for (int j = 0; j < m_Doubles.length; j++) {
+        m_Doubles[j][row] = instance.value(j);
+      }
+    }
+    m_Weights[row] = instance.weight();
+    return row;
+  }
+
+  /**
+   * Doubles the capacity of all columns.
+   */
+  protected void grow() {
+
+    int capacity = Math.max(m_Weights.length * 2, 16);
+    if (m_Compact) {
+      resize(capacity);
+    } else if (m_Floats != null) {
+      for (int j = 0; j < m_Floats.length; j++) {
+        m_Floats[j] = Arrays.copyOf(m_Floats[j], capacity);
+      }
+    } else {
+      for (int j = 0; j < m_Doubles.length; j++) {
+        m_Doubles[j] = Arrays.copyOf(m_Doubles[j], capacity);
+      }
+    }
+    m_Weights = Arrays.copyOf(m_Weights, capacity);
+  }
+
+  /**
+   * Shrinks all columns to the number of rows in use.
+   */
+  public void compactify() {
+
+    if (m_Compact) {
+      for (Dictionary dictionary : m_Dictionaries) {
+        if (dictionary != null) {
+          dictionary.trim();
+        }
+      }
+    }
+    if (m_NumRows == m_Weights.length || m_NumRows == 0) {
+      return;
+    }
+    if (m_Compact) {
+      resize(m_NumRows);
+    } else if (m_Floats != null) {
+      for (int j = 0; j < m_Floats.length; j++) {
+        m_Floats[j] = Arrays.copyOf(m_Floats[j], m_NumRows);
+      }
+    } else {
+      for (int j = 0; j < m_Doubles.length; j++) {
+        m_Doubles[j] = Arrays.copyOf(m_Doubles[j], m_NumRows);
+      }
+    }
+    m_Weights = Arrays.copyOf(m_Weights, m_NumRows);
+  }
+
+  /**
+   * Resizes all columns of a compact store, whatever their encoding.
+   *
+   * @param capacity the new number of rows
+   */
+  protected void resize(int capacity) {
+
+    for (int j = 0; j < m_Dictionaries.length; j++) {
+      if (m_ByteCodes[j] != null) {
+        m_ByteCodes[j] = Arrays.copyOf(m_ByteCodes[j], capacity);
+      } else if (m_CharCodes[j] != null) {
+        m_CharCodes[j] = Arrays.copyOf(m_CharCodes[j], capacity);
+      } else if (m_Floats != null) {
+        m_Floats[j] = Arrays.copyOf(m_Floats[j], capacity);
+      } else {
+        m_Doubles[j] = Arrays.copyOf(m_Doubles[j], capacity);
+      }
+    }
+  }
+
+  /**
+   * Stores a value of a coded column, widening the codes to two bytes or
+   * decoding the column if the value is new and there are too many.
+   *
+   * @param row the row
+   * @param column the attribute's index
+   * @param value the value in internal format
+   */
+  protected void setCode(int row, int column, double value) {
+
+    Dictionary dictionary = m_Dictionaries[column];
+    int size = dictionary.size();
+    int code = dictionary.code(value);
+    if (dictionary.size() > size && code >= MAX_BYTE_CODES) {
+      // a code per row only pays off while values repeat
+      int limit = m_Floats != null ? m_NumRows / 4 : m_NumRows / 2;
+      if (code >= MAX_CHAR_CODES || code > limit) {
+        decode(column);
+        setValue(row, column, value);
+        return;
+      }
+      if (m_ByteCodes[column] != null) {
+        byte[] bytes = m_ByteCodes[column];
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+          chars[i] = (char) (bytes[i] & 0xFF);
+        }
+        m_CharCodes[column] = chars;
+        m_ByteCodes[column] = null;
+      }
+    }
+    if (m_ByteCodes[column] != null) {
+      m_ByteCodes[column][row] = (byte) code;
+    } else {
+      m_CharCodes[column][row] = (char) code;
+    }
+  }
+
+  /**
+   * Replaces the codes of a column by its values.
+   *
+   * @param column the attribute's index
+   */
+  protected void decode(int column) {
+
+    int capacity = m_Weights.length;
+    if (m_Floats != null) {
+      float[] values = new float[capacity];
+      for (int i = 0; i < m_NumRows; i++) {
+        values[i] = (float) value(i, column);
+      }
+      m_Floats[column] = values;
+    } else {
+      double[] values = new double[capacity];
+      for (int i = 0; i < m_NumRows; i++) {
+        values[i] = value(i, column);
+      }
+      m_Doubles[column] = values;
+    }
+    m_ByteCodes[column] = null;
+    m_CharCodes[column] = null;
+    m_Dictionaries[column] = null;
+  }
+
+  /**
+   * Returns a value.
+   *
+   * @param row the row
+   * @param column the attribute's index
+   * @return the value in internal format
+   */
+  public final double value(int row, int column) {
+
+    if (m_Compact) {
+      byte[] bytes = m_ByteCodes[column];
+      if (bytes != null) {
+        return m_Dictionaries[column].value(bytes[row] & 0xFF);
+      }
+      char[] chars = m_CharCodes[column];
+      if (chars != null) {
+        return m_Dictionaries[column].value(chars[row]);
+      }
+    }
+    return m_Floats != null ? m_Floats[column][row] : m_Doubles[column][row];
+  }
+
+  /**
+   * Sets a value.
+   *
+   * @param row the row
+   * @param column the attribute's index
+   * @param value the value in internal format
+   */
+  public final void setValue(int row, int column, double value) {
+
+    if (m_Compact && m_Dictionaries[column] != null) {
+      setCode(row, column, value);
+    } else if (m_Floats != null) {
+      m_Floats[column][row] = (float) value;
+    } else {
+      m_Doubles[column][row] = value;
+    }
+  }
+
+  /**
+   * Returns the weight of a row.
+   *
+   * @param row the row
+   * @return the weight
+   */
+  public final double weight(int row) {
+
+    return m_Weights[row];
+  }
+
+  /**
+   * Sets the weight of a row.
+   *
+   * @param row the row
+   * @param weight the weight
+   */
+  public final void setWeight(int row, double weight) {
+
+    m_Weights[row] = weight;
+  }
+
+  /**
+   * Returns the values of a row.
+   *
+   * @param row the row
+   * @return a new array with the values
+   */
+  public double[] row(int row) {
+
+    int numColumns = numColumns();
+    double[] values = new double[numColumns];
+    if (m_Compact) {
+      for (int j = 0; j < numColumns; j++) {
+        values[j] = value(row, j);
+      }
+    } else if (m_Floats != null) {
+      for (int j = 0; j < numColumns; j++) {
+        values[j] = m_Floats[j][row];
+      }
+    } else {
+      for (int j = 0; j < numColumns; j++) {
+        values[j] = m_Doubles[j][row];
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Copies the first rows of a column.
+   *
+   * @param column the attribute's index
+   * @param result the array to fill, its length is the number of rows copied
+   * @return result
+   */
+  public double[] column(int column, double[] result) {
+
+    if (isCoded(column)) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] = value(i, column);
+      }
+    } else if (m_Floats != null) {
+      float[] values = m_Floats[column];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = values[i];
+      }
+    } else {
+      System.arraycopy(m_Doubles[column], 0, result, 0, result.length);
+    }
+    return result;
+  }
+
+  /**
+   * Copies the first rows of the weights.
+   *
+   * @param result the array to fill, its length is the number of rows copied
+   * @return result
+   */
+  public double[] weights(double[] result) {
+
+    System.arraycopy(m_Weights, 0, result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Gathers the values of a column for a list of instances.
+   *
+   * @param column the attribute's index
+   * @param instances views of this store, in the order wanted
+   * @param result the array to fill, with at least instances.size() elements
+   * @return result
+   */
+  public double[] column(int column, List<Instance> instances, double[] result) {
+
+    int n = instances.size();
+    if (isCoded(column)) {
+      for (int i = 0; i < n; i++) {
+        result[i] = value(((ColumnarInstance) instances.get(i)).m_Row, column);
+      }
+    } else if (m_Floats != null) {
+      float[] values = m_Floats[column];
+      for (int i = 0; i < n; i++) {
+        result[i] = values[((ColumnarInstance) instances.get(i)).m_Row];
+      }
+    } else {
+      double[] values = m_Doubles[column];
+      for (int i = 0; i < n; i++) {
+        result[i] = values[((ColumnarInstance) instances.get(i)).m_Row];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gathers the weights of a list of instances.
+   *
+   * @param instances views of this store, in the order wanted
+   * @param result the array to fill, with at least instances.size() elements
+   * @return result
+   */
+  public double[] weights(List<Instance> instances, double[] result) {
+
+    int n = instances.size();
+    for (int i = 0; i < n; i++) {
+      result[i] = m_Weights[((ColumnarInstance) instances.get(i)).m_Row];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of bytes taken by the columns, including reserved
+   * but unused rows.
+   *
+   * @return the size of the columns in bytes
+   */
+  public long sizeInBytes() {
+
+    long perValue = m_Floats != null ? 4 : 8;
+    if (!m_Compact) {
+      return (long) numColumns() * m_Weights.length * perValue
+        + (long) m_Weights.length * 8;
+    }
+    long result = (long) m_Weights.length * 8;
+    for (int j = 0; j < m_Dictionaries.length; j++) {
+      if (m_ByteCodes[j] != null) {
+        result += m_ByteCodes[j].length + m_Dictionaries[j].sizeInBytes();
+      } else if (m_CharCodes[j] != null) {
+        result += 2L * m_CharCodes[j].length + m_Dictionaries[j].sizeInBytes();
+      } else {
+        result += perValue * m_Weights.length;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Prepares an empty dataset for loading in the given storage mode. A
+   * columnar dataset stores the values of instances added to it in its
+   * columns right away, so a loader filling it never holds all rows as
+   * instances.
+   *
+   * @param data the dataset
+   * @param storage one of the STORAGE_ constants
+   */
+  public static void prepare(Instances data, int storage) {
+
+    if (storage != STORAGE_ROWS) {
+      data.toColumnar(storage == STORAGE_FLOAT
+        || storage == STORAGE_COMPACT_FLOAT, storage == STORAGE_COMPACT
+        || storage == STORAGE_COMPACT_FLOAT);
+    }
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarInstance.java
+ *
+ */
+
+package weka.core;
+
+/**
+ * An instance whose values and weight are a row of a ColumnStore. Each row
+ * belongs to exactly one view, so changes of values or the weight are written
+ * to the store in place. copy() returns a DenseInstance holding a snapshot of
+ * the row, so copies never share values with the store.
+ * <p>
+ *
+ * If the number of attributes changes, the instance takes its values out of
+ * the store and behaves like a DenseInstance from then on.
+ *
+ * @see Instances#toColumnar(boolean)
+ */
+public class ColumnarInstance extends AbstractInstance {
+
+  /** for serialization */
+  private static final long serialVersionUID = -6158934401027363485L;
+
+  /**
+   * The store holding the values. Null once this instance has its own values
+   * in m_AttValues.
+   */
+  protected ColumnStore m_Store;
+
+  /** The row of this instance in the store. */
+  protected int m_Row;
+
+  /**
+   * Creates a view of a row. Reference to the dataset is set to null.
+   *
+   * @param store the store
+   * @param row the row
+   */
+  public ColumnarInstance(ColumnStore store, int row) {
+
+    m_Store = store;
+    m_Row = row;
+    m_Dataset = null;
+  }
+
+  /**
+   * Produces a copy of this instance as a DenseInstance. The copy does not
+   * share values with the store and has access to the same dataset.
+   *
+   * @return the copy
+   */
+  @Override
+  public Object copy() {
+
+    return copy(toDoubleArray());
+  }
+
+  /**
+   * Copies the instance but fills up its values based on the given array of
+   * doubles. The copy has access to the same dataset.
+   *
+   * @param values the array with new values
+   * @return the new instance
+   */
+  @Override
+  public Instance copy(double[] values) {
+
+    DenseInstance result = new DenseInstance(weight(), values);
+    result.m_Dataset = m_Dataset;
+    return result;
+  }
+
+  /**
+   * Returns the index of the attribute stored at the given position. Just
+   * returns the given value.
+   *
+   * @param position the position
+   * @return the index of the attribute stored at the given position
+   */
+  @Override
+  public int index(int position) {
+
+    return position;
+  }
+
+  /**
+   * Merges this instance with the given instance and returns the result.
+   * Dataset is set to null.
+   *
+   * @param inst the instance to be merged with this one
+   * @return the merged instances
+   */
+  @Override
+  public Instance mergeInstance(Instance inst) {
+
+    int m = 0;
+    double[] newVals = new double[numAttributes() + inst.numAttributes()];
+    for (int j = 0; j < numAttributes(); j++, m++) {
+      newVals[m] = value(j);
+    }
+    for (int j = 0; j < inst.numAttributes(); j++, m++) {
+      newVals[m] = inst.value(j);
+    }
+    return new DenseInstance(1.0, newVals);
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return the number of attributes as an integer
+   */
+  @Override
+  public int numAttributes() {
+
+    return m_Store != null ? m_Store.numColumns() : m_AttValues.length;
+  }
+
+  /**
+   * Returns the number of values present. Always the same as numAttributes().
+   *
+   * @return the number of values
+   */
+  @Override
+  public int numValues() {
+
+    return numAttributes();
+  }
+
+  /**
+   * Replaces all missing values in the instance with the values contained in
+   * the given array.
+   *
+   * @param array containing the means and modes
+   * @throws IllegalArgumentException if numbers of attributes are unequal
+   */
+  @Override
+  public void replaceMissingValues(double[] array) {
+
+    if ((array == null) || (array.length != numAttributes())) {
+      throw new IllegalArgumentException("Unequal number of attributes!");
+    }
+    for (int i = 0; i < array.length; i++) {
+      if (isMissing(i)) {
+        setValue(i, array[i]);
+      }
+    }
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format).
+   *
+   * @param attIndex the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValue(int attIndex, double value) {
+
+    if (m_Store != null) {
+      m_Store.setValue(m_Row, attIndex, value);
+    } else {
+      m_AttValues[attIndex] = value;
+    }
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format), given an index in the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValueSparse(int indexOfIndex, double value) {
+
+    setValue(indexOfIndex, value);
+  }
+
+  /**
+   * Sets the weight of an instance.
+   *
+   * @param weight the weight
+   */
+  @Override
+  public void setWeight(double weight) {
+
+    if (m_Store != null) {
+      m_Store.setWeight(m_Row, weight);
+    } else {
+      m_Weight = weight;
+    }
+  }
+
+  /**
+   * Returns the instance's weight.
+   *
+   * @return the instance's weight as a double
+   */
+  @Override
+  public double weight() {
+
+    return m_Store != null ? m_Store.weight(m_Row) : m_Weight;
+  }
+
+  /**
+   * Returns the values of each attribute as an array of doubles.
+   *
+   * @return an array containing all the instance attribute values
+   */
+  @Override
+  public double[] toDoubleArray() {
+
+    return m_Store != null ? m_Store.row(m_Row) : m_AttValues.clone();
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended).
+   *
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight() {
+    return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended).
+   *
+   * @param afterDecimalPoint maximum number of digits after the decimal point
+   *          for numeric values
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight(int afterDecimalPoint) {
+    StringBuffer text = new StringBuffer();
+
+    for (int i = 0; i < numAttributes(); i++) {
+      if (i > 0) {
+        text.append(",");
+      }
+      text.append(toString(i, afterDecimalPoint));
+    }
+
+    return text.toString();
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format.
+   *
+   * @param attIndex the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double value(int attIndex) {
+
+    return m_Store != null ? m_Store.value(m_Row, attIndex)
+      : m_AttValues[attIndex];
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format, given an index
+   * in the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double valueSparse(int indexOfIndex) {
+
+    return value(indexOfIndex);
+  }
+
+  /**
+   * Deletes an attribute at the given position (0 to numAttributes() - 1).
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceDeleteAttributeAt(int position) {
+
+    detach();
+    double[] newValues = new double[m_AttValues.length - 1];
+
+    System.arraycopy(m_AttValues, 0, newValues, 0, position);
+    if (position < m_AttValues.length - 1) {
+      System.arraycopy(m_AttValues, position + 1, newValues, position,
+        m_AttValues.length - (position + 1));
+    }
+    m_AttValues = newValues;
+  }
+
+  /**
+   * Inserts an attribute at the given position (0 to numAttributes()) and sets
+   * its value to be missing.
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceInsertAttributeAt(int position) {
+
+    detach();
+    double[] newValues = new double[m_AttValues.length + 1];
+
+    System.arraycopy(m_AttValues, 0, newValues, 0, position);
+    newValues[position] = Utils.missingValue();
+    System.arraycopy(m_AttValues, position, newValues, position + 1,
+      m_AttValues.length - position);
+    m_AttValues = newValues;
+  }
+
+  /**
+   * Returns true if the values of this instance are in a store.
+   *
+   * @return true if this instance is a view of a row
+   */
+  public boolean isAttached() {
+
+    return m_Store != null;
+  }
+
+  /**
+   * Takes the values and the weight out of the store. Further changes no
+   * longer affect the store.
+   */
+  public void detach() {
+
+    if (m_Store != null) {
+      m_AttValues = m_Store.row(m_Row);
+      m_Weight = m_Store.weight(m_Row);
+      m_Store = null;
+    }
+  }
+}
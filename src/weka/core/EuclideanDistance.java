@@ -183,6 +183,16 @@ public class EuclideanDistance
     return result;
   }
   
+  /**
+   * Returns the batch kernel, which sums the squared differences like
+   * updateDistance(double, double).
+   * 
+   * @return		KERNEL_SQUARED
+   */
+  protected int batchKernel() {
+    return KERNEL_SQUARED;
+  }
+  
   /**
    * Does post processing of the distances (if necessary) returned by
    * distance(distance(Instance first, Instance second, double cutOffValue). It
@@ -38,8 +38,6 @@ import java.util.Vector;
 
 import weka.core.converters.ArffLoader.ArffReader;
 import weka.core.converters.ConverterUtils.DataSource;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.Remove;
 
 /**
  * Class for handling an ordered set of weighted instances.
@@ -114,6 +112,21 @@ RevisionHandler {
   /** The instances. */
   protected/* @spec_public non_null@ */ArrayList<Instance> m_Instances;
 
+  /**
+   * The values and weights of the instances in columnar mode, null otherwise.
+   * In columnar mode every instance is a ColumnarInstance view of this store.
+   * 
+   * @see #toColumnar(boolean)
+   */
+  protected ColumnStore m_Columns;
+
+  /**
+   * True if instance i is row i of m_Columns, so columns can be copied
+   * without looking at the instances. Reordering or replacing instances
+   * clears it.
+   */
+  protected boolean m_ColumnsInOrder;
+
   /** The class attribute's index */
   protected int m_ClassIndex;
   // @ protected invariant classIndex() == m_ClassIndex;
@@ -217,6 +230,11 @@ RevisionHandler {
     m_Attributes = dataset.m_Attributes;
     m_NamesToAttributeIndices = dataset.m_NamesToAttributeIndices;
     m_Instances = new ArrayList<Instance>(capacity);
+    if (dataset.m_Columns != null) {
+      m_Columns = new ColumnStore(numAttributes(), capacity,
+        dataset.m_Columns.isFloat(), dataset.m_Columns.isCompact());
+      m_ColumnsInOrder = true;
+    }
   }
 
   /**
@@ -281,6 +299,33 @@ RevisionHandler {
     m_Instances = new ArrayList<Instance>(capacity);
   }
 
+  /**
+   * Creates a columnar dataset holding the rows of a store, in order. Copies
+   * references to the header information from the given set of instances.
+   * 
+   * @param dataset the instances from which the header information is to be
+   *          taken
+   * @param store the values, with one column per attribute of the header
+   * @throws IllegalArgumentException if the number of columns doesn't match
+   * @see #toColumnar(boolean)
+   */
+  public Instances(/* @non_null@ */Instances dataset,
+    /* @non_null@ */ColumnStore store) {
+
+    initialize(dataset, store.numRows());
+    if (store.numColumns() != numAttributes()) {
+      throw new IllegalArgumentException("Store has " + store.numColumns()
+        + " columns, expected " + numAttributes());
+    }
+    for (int i = 0; i < store.numRows(); i++) {
+      ColumnarInstance view = new ColumnarInstance(store, i);
+      view.setDataset(this);
+      m_Instances.add(view);
+    }
+    m_Columns = store;
+    m_ColumnsInOrder = true;
+  }
+
   /**
    * Create a copy of the structure. If the data has string or relational
    * attributes, theses are replaced by empty copies. Other attributes are left
@@ -322,9 +367,7 @@ RevisionHandler {
    */
   	@Override
   	public boolean add(/* @non_null@ */Instance instance) {
-  		Instance newInstance = (Instance) instance.copy();
-  		newInstance.setDataset(this);
-  		m_Instances.add(newInstance);
+  		m_Instances.add(newInstance(instance));
   		return true;
   	}
 
@@ -342,11 +385,34 @@ RevisionHandler {
   	// @ requires index < m_Instances.size();
   	@Override
   	public void add(int index, /* @non_null@ */Instance instance) {
-  		Instance newInstance = (Instance) instance.copy();
-  		newInstance.setDataset(this);
-  		m_Instances.add(index, newInstance);
+  		if (index != m_Instances.size()) {
+  			m_ColumnsInOrder = false;
+  		}
+  		m_Instances.add(index, newInstance(instance));
   	}
   	
+  	/**
+  	 * Shallow copies an instance for this dataset. In columnar mode the
+  	 * values and weight are appended to the columns instead; an instance
+  	 * with a different number of attributes ends columnar mode.
+  	 * 
+  	 * @param instance the instance to be added
+  	 * @return the instance to store in this dataset
+  	 */
+  	protected Instance newInstance(Instance instance) {
+  		Instance newInstance;
+  		if (m_Columns != null
+  				&& instance.numAttributes() == m_Columns.numColumns()) {
+  			newInstance = new ColumnarInstance(m_Columns,
+  					m_Columns.addRow(instance));
+  		} else {
+  			dropColumns();
+  			newInstance = (Instance) instance.copy();
+  		}
+  		newInstance.setDataset(this);
+  		return newInstance;
+  	}
+
   	public void add(Instances insts){
   		for(int i=0;i<insts.size();++i)
   			add(insts.instance(i));
@@ -474,6 +540,9 @@ RevisionHandler {
   public void compactify() {
 
     m_Instances.trimToSize();
+    if (m_Columns != null) {
+      m_Columns.compactify();
+    }
   }
 
   /**
@@ -482,6 +551,12 @@ RevisionHandler {
   public void delete() {
 
     m_Instances = new ArrayList<Instance>();
+    if (m_Columns != null) {
+      // removed instances may still be in use, so their rows are kept
+      m_Columns = new ColumnStore(numAttributes(), 0, m_Columns.isFloat(),
+        m_Columns.isCompact());
+      m_ColumnsInOrder = true;
+    }
   }
 
   /**
@@ -493,6 +568,7 @@ RevisionHandler {
   public void delete(int index) {
 
     m_Instances.remove(index);
+    m_ColumnsInOrder = false;
   }
 
   /**
@@ -514,6 +590,7 @@ RevisionHandler {
     if (position == m_ClassIndex) {
       throw new IllegalArgumentException("Can't delete class attribute");
     }
+    dropColumns();
 
     ArrayList<Attribute> newList = new ArrayList<Attribute>(m_Attributes.size() - 1);
     HashMap<String, Integer> newMap = new HashMap<String, Integer>((int) ((m_Attributes.size() - 1) / 0.75));
@@ -590,6 +667,7 @@ RevisionHandler {
       }
     }
     m_Instances = newInstances;
+    m_ColumnsInOrder = false;
   }
 
   /**
@@ -730,6 +808,7 @@ RevisionHandler {
     }
     att = (Attribute) att.copy();
     att.setIndex(position);
+    dropColumns();
 
     ArrayList<Attribute> newList = new ArrayList<Attribute>(m_Attributes.size() + 1);
     HashMap<String, Integer> newMap = new HashMap<String, Integer>((int) ((m_Attributes.size() + 1) / 0.75));
@@ -819,13 +898,10 @@ RevisionHandler {
         "Instances: value for k for computing kth-smallest value too large.");
     }
 
-    double[] vals = new double[numInstances()];
+    double[] vals = attributeToDoubleArray(attIndex);
     for (int i = 0; i < vals.length; i++) {
-      double val = instance(i).value(attIndex);
-      if (Utils.isMissingValue(val)) {
+      if (Utils.isMissingValue(vals[i])) {
         vals[i] = Double.MAX_VALUE;
-      } else {
-        vals[i] = val;
       }
     }
     return Utils.kthSmallestValue(vals, k);
@@ -1102,6 +1178,7 @@ RevisionHandler {
   @Override
   public Instance remove(int index) {
 
+    m_ColumnsInOrder = false;
     return m_Instances.remove(index);
   }
 
@@ -1341,6 +1418,90 @@ RevisionHandler {
       return newData;
     }
 
+    // Do we need to keep track of how many copies to use?
+    int[] counts = null;
+    if (representUsingWeights) {
+      counts = new int[numInstances()];
+    }
+
+    int[] drawn = drawWithWeights(random, weights, numInstances());
+    for (int ALRV : drawn) {
+      if (representUsingWeights) {
+        counts[ALRV]++;
+      } else {
+        newData.add(instance(ALRV));
+      }
+      if (sampled != null) {
+        sampled[ALRV] = true;
+      }
+      if (!representUsingWeights) {
+        newData.instance(newData.numInstances() - 1).setWeight(1);
+      }
+    }
+
+    // Add data based on counts if weights should represent numbers of copies.
+    if (representUsingWeights) {
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          newData.add(instance(i));
+          newData.instance(newData.numInstances() - 1).setWeight(counts[i]);
+        }
+      }
+    }
+
+    return newData;
+  }
+
+  /**
+   * Draws a sample with replacement according to the given weight vector, as
+   * resampleWithWeights does, but only counts how often each instance is
+   * drawn instead of copying the instances. With a sample size of
+   * numInstances() the counts are the weights of the instances that
+   * resampleWithWeights returns when copies are represented using weights
+   * and the same random number generator is used.
+   * 
+   * @param random a random number generator
+   * @param weights the weight vector
+   * @param sampled an array indicating what has been sampled, can be null
+   * @param sampleSize the number of instances to draw
+   * @return how often each instance has been drawn
+   * @throws IllegalArgumentException if the weights array is of the wrong
+   *           length or contains negative weights.
+   */
+  public int[] resampleCounts(Random random, double[] weights,
+    boolean[] sampled, int sampleSize) {
+
+    if (weights.length != numInstances()) {
+      throw new IllegalArgumentException("weights.length != numInstances.");
+    }
+
+    int[] counts = new int[numInstances()];
+    if (numInstances() == 0) {
+      return counts;
+    }
+    for (int index : drawWithWeights(random, weights, sampleSize)) {
+      counts[index]++;
+      if (sampled != null) {
+        sampled[index] = true;
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Draws instance indices with replacement according to the given weight
+   * vector. Uses Walker's method, see pp. 232 of "Stochastic Simulation" by
+   * B.D. Ripley (1987).
+   * 
+   * @param random a random number generator
+   * @param weights the weight vector, not empty
+   * @param sampleSize the number of indices to draw
+   * @return the drawn indices, in the order they were drawn
+   * @throws IllegalArgumentException if the weights are negative
+   */
+  protected static int[] drawWithWeights(Random random, double[] weights,
+    int sampleSize) {
+
     // Walker's method, see pp. 232 of "Stochastic Simulation" by B.D. Ripley
     double[] P = new double[weights.length];
     System.arraycopy(weights, 0, P, 0, weights.length);
@@ -1382,13 +1543,8 @@ RevisionHandler {
       Q[I] += I;
     }
 
-    // Do we need to keep track of how many copies to use?
-    int[] counts = null;
-    if (representUsingWeights) {
-      counts = new int[M];
-    }
-
-    for (int i = 0; i < numInstances(); i++) {
+    int[] drawn = new int[sampleSize];
+    for (int i = 0; i < sampleSize; i++) {
       int ALRV;
       double U = M * random.nextDouble();
       int I = (int) U;
@@ -1397,30 +1553,9 @@ RevisionHandler {
       } else {
         ALRV = A[I];
       }
-      if (representUsingWeights) {
-        counts[ALRV]++;
-      } else {
-        newData.add(instance(ALRV));
-      }
-      if (sampled != null) {
-        sampled[ALRV] = true;
-      }
-      if (!representUsingWeights) {
-        newData.instance(newData.numInstances() - 1).setWeight(1);
-      }
+      drawn[i] = ALRV;
     }
-
-    // Add data based on counts if weights should represent numbers of copies.
-    if (representUsingWeights) {
-      for (int i = 0; i < counts.length; i++) {
-        if (counts[i] > 0) {
-          newData.add(instance(i));
-          newData.instance(newData.numInstances() - 1).setWeight(counts[i]);
-        }
-      }
-    }
-
-    return newData;
+    return drawn;
   }
 
   /**
@@ -1437,10 +1572,10 @@ RevisionHandler {
   @Override
   public Instance set(int index, /* @non_null@ */Instance instance) {
 
-    Instance newInstance = (Instance) instance.copy();
+    Instance newInstance = newInstance(instance);
     Instance oldInstance = m_Instances.get(index);
+    m_ColumnsInOrder = false;
 
-    newInstance.setDataset(this);
     m_Instances.set(index, newInstance);
 
     return oldInstance;
@@ -1503,6 +1638,7 @@ RevisionHandler {
     }
 
     // Indices to figure out where to add instances
+    m_ColumnsInOrder = false;
     int[] indices = new int[counts.length];
     int start = 0;
     for (int i = 0; i < counts.length; i++) {
@@ -1532,20 +1668,16 @@ RevisionHandler {
     if (!attribute(attIndex).isNominal()) {
 
       // Use quicksort from Utils class for sorting
-      double[] vals = new double[numInstances()];
-      Instance[] backup = new Instance[vals.length];
+      double[] vals = attributeToDoubleArray(attIndex);
+      Instance[] backup = m_Instances.toArray(new Instance[vals.length]);
       for (int i = 0; i < vals.length; i++) {
-        Instance inst = instance(i);
-        backup[i] = inst;
-        double val = inst.value(attIndex);
-        if (Utils.isMissingValue(val)) {
+        if (Utils.isMissingValue(vals[i])) {
           vals[i] = Double.MAX_VALUE;
-        } else {
-          vals[i] = val;
         }
       }
 
       int[] sortOrder = Utils.sortWithNoMissingValues(vals);
+      m_ColumnsInOrder = false;
       for (int i = 0; i < vals.length; i++) {
         m_Instances.set(i, backup[sortOrder[i]]);
       }
@@ -1582,15 +1714,11 @@ RevisionHandler {
     if (!attribute(attIndex).isNominal()) {
 
       // Use quicksort from Utils class for sorting
-      double[] vals = new double[numInstances()];
-      Instance[] backup = new Instance[vals.length];
-      for (int i = 0; i < vals.length; i++) {
-        Instance inst = instance(i);
-        backup[i] = inst;
-        vals[i] = inst.value(attIndex);
-      }
+      double[] vals = attributeToDoubleArray(attIndex);
+      Instance[] backup = m_Instances.toArray(new Instance[vals.length]);
 
       int[] sortOrder = Utils.stableSort(vals);
+      m_ColumnsInOrder = false;
       for (int i = 0; i < vals.length; i++) {
         m_Instances.set(i, backup[sortOrder[i]]);
       }
@@ -1659,6 +1787,12 @@ RevisionHandler {
 
     double sum = 0;
 
+    if (m_Columns != null) {
+      for (double weight : weightsToDoubleArray()) {
+        sum += weight;
+      }
+      return sum;
+    }
     for (int i = 0; i < numInstances(); i++) {
       sum += instance(i).weight();
     }
@@ -1878,13 +2012,15 @@ RevisionHandler {
         "Can't compute variance because attribute is " + "not numeric!");
     }
 
+    double[] values = attributeToDoubleArray(attIndex);
+    double[] weights = weightsToDoubleArray();
     double mean = 0;
     double var = Double.NaN;
     double sumWeights = 0;
-    for (int i = 0; i < numInstances(); i++) {
-      if (!instance(i).isMissing(attIndex)) {
-        double weight = instance(i).weight();
-        double value = instance(i).value(attIndex);
+    for (int i = 0; i < values.length; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        double weight = weights[i];
+        double value = values[i];
 
         if (Double.isNaN(var)) {
           // For the first value the mean can suffer from loss of precision
@@ -1948,9 +2084,11 @@ RevisionHandler {
     }
     result.totalCount = numInstances();
 
+    double[] keys = attributeToDoubleArray(index);
+    double[] weights = weightsToDoubleArray();
     HashMap<Double,double[]> map = new HashMap<Double,double[]>(2 * result.totalCount);
-    for (Instance current : this) {
-      double key = current.value(index);
+    for (int i = 0; i < keys.length; i++) {
+      double key = keys[i];
       if (Utils.isMissingValue(key)) {
         result.missingCount++;
       } else {
@@ -1958,11 +2096,11 @@ RevisionHandler {
         if (values == null) {
           values = new double[2];
           values[0] = 1.0;
-          values[1] = current.weight();
+          values[1] = weights[i];
           map.put(key, values);
         } else {
           values[0]++;
-          values[1] += current.weight();
+          values[1] += weights[i];
         }
       }
     }
@@ -1986,12 +2124,143 @@ RevisionHandler {
   public/* @pure@ */double[] attributeToDoubleArray(int index) {
 
     double[] result = new double[numInstances()];
+    if (m_Columns != null) {
+      return m_ColumnsInOrder ? m_Columns.column(index, result)
+        : m_Columns.column(index, m_Instances, result);
+    }
     for (int i = 0; i < result.length; i++) {
       result[i] = instance(i).value(index);
     }
     return result;
   }
 
+  /**
+   * Gets the weights of all instances in this dataset.
+   * 
+   * @return an array containing the weight of each instance in the dataset
+   */
+  public/* @pure@ */double[] weightsToDoubleArray() {
+
+    double[] result = new double[numInstances()];
+    if (m_Columns != null) {
+      return m_ColumnsInOrder ? m_Columns.weights(result)
+        : m_Columns.weights(m_Instances, result);
+    }
+    for (int i = 0; i < result.length; i++) {
+      result[i] = instance(i).weight();
+    }
+    return result;
+  }
+
+  /**
+   * Switches the dataset to columnar mode: the values of each attribute and
+   * the weights are moved into contiguous primitive arrays, and every
+   * instance is replaced by a lightweight view of its row. Column scans such
+   * as attributeToDoubleArray(), attributeStats(), sort() and variance() then
+   * read the arrays directly, and storing values as floats halves the memory
+   * they take. Numeric values lose precision in that case; nominal, string
+   * and relational values don't.
+   * <p>
+   * Datasets created from a columnar dataset with the copy constructors are
+   * columnar as well. Adding an instance appends a row; inserting or deleting
+   * an attribute ends columnar mode. Once the instances are reordered (e.g.
+   * sorted or randomized) scans gather values row by row; calling this method
+   * again lays the rows out in the current order of the instances.
+   * Instances obtained from the dataset before the call are no longer part
+   * of it.
+   * 
+   * @param floatValues true to store values as floats
+   */
+  public void toColumnar(boolean floatValues) {
+
+    toColumnar(floatValues, false);
+  }
+
+  /**
+   * Switches the dataset to columnar mode, see toColumnar(boolean). In
+   * compact mode columns with few distinct values, such as nominal
+   * attributes and small counts, are stored exactly as one- or two-byte
+   * codes into a dictionary of their values; only the other columns are
+   * stored as floats if floatValues is true.
+   * 
+   * @param floatValues true to store values as floats
+   * @param compact true to store columns with few distinct values as codes
+   * @see ColumnStore
+   */
+  public void toColumnar(boolean floatValues, boolean compact) {
+
+    ColumnStore store = new ColumnStore(numAttributes(), numInstances(),
+      floatValues, compact);
+    for (int i = 0; i < numInstances(); i++) {
+      Instance inst = instance(i);
+      if (inst.numAttributes() != numAttributes()) {
+        throw new IllegalArgumentException("Instance " + i + " has "
+          + inst.numAttributes() + " attributes, expected "
+          + numAttributes());
+      }
+      ColumnarInstance view = new ColumnarInstance(store, store.addRow(inst));
+      view.setDataset(this);
+      m_Instances.set(i, view);
+    }
+    store.compactify();
+    m_Columns = store;
+    m_ColumnsInOrder = true;
+  }
+
+  /**
+   * Ends columnar mode, replacing each view by a DenseInstance.
+   * 
+   * @see #toColumnar(boolean)
+   */
+  public void toRows() {
+
+    if (m_Columns == null) {
+      return;
+    }
+    for (int i = 0; i < numInstances(); i++) {
+      Instance inst = (Instance) instance(i).copy();
+      inst.setDataset(this);
+      m_Instances.set(i, inst);
+    }
+    m_Columns = null;
+  }
+
+  /**
+   * Returns true if the dataset is in columnar mode.
+   * 
+   * @return true if the values are kept in a ColumnStore
+   * @see #toColumnar(boolean)
+   */
+  public boolean isColumnar() {
+
+    return m_Columns != null;
+  }
+
+  /**
+   * Returns the store of the values in columnar mode.
+   * 
+   * @return the store, or null if the dataset is not columnar
+   */
+  public ColumnStore columnStore() {
+
+    return m_Columns;
+  }
+
+  /**
+   * Ends columnar mode without replacing the instances: each view takes its
+   * values out of the store.
+   */
+  protected void dropColumns() {
+
+    if (m_Columns == null) {
+      return;
+    }
+    for (Instance inst : m_Instances) {
+      ((ColumnarInstance) inst).detach();
+    }
+    m_Columns = null;
+  }
+
   /**
    * Generates a string summarizing the set of instances. Gives a breakdown for
    * each attribute indicating the number of missing/discrete/unique values and
@@ -2140,6 +2409,7 @@ RevisionHandler {
       start++;
     }
     m_Instances = newVec;
+    m_ColumnsInOrder = false;
   }
 
   /**
@@ -2153,6 +2423,7 @@ RevisionHandler {
   public void swap(int i, int j) {
 
     Instance in = m_Instances.get(i);
+    m_ColumnsInOrder = false;
     m_Instances.set(i, m_Instances.get(j));
     m_Instances.set(j, in);
   }
@@ -2546,19 +2817,69 @@ RevisionHandler {
     	return RevisionUtils.extract("$Revision: 12446 $");
     }
 
+  /**
+   * Returns a view of this dataset restricted to the given attributes. The
+   * view has its own header (copies of the selected attributes, in their
+   * original order) but its instances are ProjectedInstance objects that
+   * share the attribute values of the instances of this dataset, so no value
+   * is copied. Changing a value of the view gives that instance its own copy
+   * and does not affect this dataset. If the class attribute is selected it
+   * stays the class attribute of the view.
+   * 
+   * @param features the indices of the attributes to keep
+   * @return the view
+   * @throws IllegalArgumentException if an index is out of range
+   */
+  public Instances attributeView(int[] features) {
+
+    boolean[] keep = new boolean[numAttributes()];
+    for (int index : features) {
+      if (index < 0 || index >= numAttributes()) {
+        throw new IllegalArgumentException("Attribute index out of range: "
+          + index);
+      }
+      keep[index] = true;
+    }
+
+    int count = 0;
+    for (boolean k : keep) {
+      if (k) {
+        count++;
+      }
+    }
+    int[] map = new int[count];
+    ArrayList<Attribute> atts = new ArrayList<Attribute>(count);
+    int newClassIndex = -1;
+    for (int i = 0, j = 0; i < keep.length; i++) {
+      if (keep[i]) {
+        if (i == classIndex()) {
+          newClassIndex = j;
+        }
+        map[j++] = i;
+        atts.add((Attribute) attribute(i).copy());
+      }
+    }
+
+    Instances view = new Instances(relationName(), atts, numInstances());
+    view.setClassIndex(newClassIndex);
+    for (Instance inst : m_Instances) {
+      ProjectedInstance p = new ProjectedInstance(inst, map);
+      p.setDataset(view);
+      view.m_Instances.add(p);
+    }
+    return view;
+  }
+
+  /**
+   * Returns this dataset restricted to the given attributes.
+   * 
+   * @param features the indices of the attributes to keep
+   * @return a view sharing the attribute values of this dataset
+   * @throws Exception if an index is out of range
+   * @see #attributeView(int[])
+   */
     public Instances attributeFilter(int[] features) throws Exception{
-    	Remove delTransform = new Remove();
-    	Instances trainCopy = new Instances(this);
-    	delTransform.setInvertSelection(true);
-    	delTransform.setAttributeIndicesArray(features);
-    	delTransform.setInputFormat(trainCopy);
-    	trainCopy = Filter.useFilter(trainCopy, delTransform);
-    	for(int i:features)
-    		if (i==classIndex()) {
-    			trainCopy.setClassIndex(classAttribute().name());
-    			break;
-			}
-    	return trainCopy;
+    	return attributeView(features);
     }
     
     public Instances attributeFilter(BitSet bitFeatures) throws Exception{
@@ -142,6 +142,16 @@ public class ManhattanDistance
     return result;
   }
   
+  /**
+   * Returns the batch kernel, which sums the absolute differences like
+   * updateDistance(double, double).
+   * 
+   * @return		KERNEL_ABSOLUTE
+   */
+  protected int batchKernel() {
+    return KERNEL_ABSOLUTE;
+  }
+  
   /**
    * Returns the revision string.
    * 
@@ -20,20 +20,52 @@
  */
 package weka.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Stores information for nominal and string attributes.
  */
 public class NominalAttributeInfo implements AttributeInfo {
 
+  /** for serialization, the value computed for the class before it was set */
+  private static final long serialVersionUID = -4143961687839418499L;
+
+  /**
+   * The serialized fields. The mapping is written as the Hashtable it used to
+   * be, so that headers and models saved by other versions can be read and
+   * the other way round.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("m_Values", ArrayList.class),
+    new ObjectStreamField("m_Hashtable", Hashtable.class) };
+
+  /**
+   * Whether nominal attributes with the same labels share their values and
+   * the mapping, e.g. the headers of datasets loaded from files with the
+   * same structure. The initial value comes from the system property
+   * weka.core.internNominalValues.
+   */
+  protected static volatile boolean m_Intern = Boolean
+    .getBoolean("weka.core.internNominalValues");
+
+  /** The attributes whose values can be shared, by their values. */
+  protected static final Map<List<Object>, WeakReference<NominalAttributeInfo>> m_Pool =
+    new WeakHashMap<List<Object>, WeakReference<NominalAttributeInfo>>();
+
   /** The attribute's values. */
   protected/* @ spec_public @ */ArrayList<Object> m_Values;
 
   /** Mapping of values to indices. */
-  protected Hashtable<Object, Integer> m_Hashtable;
+  protected ValueIndexMap m_Hashtable;
 
   /**
    * Constructs the info based on argument.
@@ -42,10 +74,13 @@ public class NominalAttributeInfo implements AttributeInfo {
 
     if (attributeValues == null) {
       m_Values = new ArrayList<Object>();
-      m_Hashtable = new Hashtable<Object, Integer>();
+      m_Hashtable = new ValueIndexMap();
     } else {
+      if (m_Intern && intern(attributeValues)) {
+        return;
+      }
       m_Values = new ArrayList<Object>(attributeValues.size());
-      m_Hashtable = new Hashtable<Object, Integer>(attributeValues.size());
+      m_Hashtable = new ValueIndexMap(attributeValues.size());
       for (int i = 0; i < attributeValues.size(); i++) {
         Object store = attributeValues.get(i);
         if (((String) store).length() > Attribute.STRING_COMPRESS_THRESHOLD) {
@@ -62,8 +97,116 @@ public class NominalAttributeInfo implements AttributeInfo {
             + ").");
         }
         m_Values.add(store);
-        m_Hashtable.put(store, new Integer(i));
+        m_Hashtable.put(store, i);
+      }
+      if (m_Intern) {
+        share();
+      }
+    }
+  }
+
+  /**
+   * Takes the values and the mapping of a nominal attribute with the same
+   * labels, if there is one in the pool. Nominal attributes copy both before
+   * they change them, so they can be shared.
+   *
+   * @param attributeValues the labels
+   * @return true if the values and the mapping were found
+   */
+  protected boolean intern(List<String> attributeValues) {
+
+    // long labels are stored compressed and compare unequal to the strings
+    for (String value : attributeValues) {
+      if (value.length() > Attribute.STRING_COMPRESS_THRESHOLD) {
+        return false;
+      }
+    }
+    synchronized (m_Pool) {
+      WeakReference<NominalAttributeInfo> ref = m_Pool.get(attributeValues);
+      NominalAttributeInfo shared = ref == null ? null : ref.get();
+      // the pooled attribute may have got other values since
+      if (shared == null || !shared.m_Values.equals(attributeValues)) {
+        return false;
+      }
+      m_Values = shared.m_Values;
+      m_Hashtable = shared.m_Hashtable;
+      return true;
+    }
+  }
+
+  /**
+   * Puts this attribute into the pool, in place of one that is gone or has
+   * changed.
+   */
+  protected void share() {
+
+    synchronized (m_Pool) {
+      WeakReference<NominalAttributeInfo> ref = m_Pool.get(m_Values);
+      NominalAttributeInfo shared = ref == null ? null : ref.get();
+      if (shared == null || !shared.m_Values.equals(m_Values)) {
+        m_Pool.put(m_Values, new WeakReference<NominalAttributeInfo>(this));
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Sets whether nominal attributes with the same labels that are created
+   * from now on share their values and the mapping.
+   *
+   * @param intern true if the labels are to be shared
+   */
+  public static void setInternNominalValues(boolean intern) {
+    m_Intern = intern;
+  }
+
+  /**
+   * Gets whether nominal attributes with the same labels share their values
+   * and the mapping.
+   *
+   * @return true if the labels are shared
+   */
+  public static boolean getInternNominalValues() {
+    return m_Intern;
+  }
+
+  /**
+   * Writes the values and the mapping, as a Hashtable.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+
+    Hashtable<Object, Integer> table =
+      new Hashtable<Object, Integer>(Math.max(2 * m_Values.size(), 11));
+    for (int i = 0; i < m_Values.size(); i++) {
+      table.put(m_Values.get(i), i);
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("m_Values", m_Values);
+    fields.put("m_Hashtable", table);
+    out.writeFields();
+  }
+
+  /**
+   * Reads the values and the mapping, turning the Hashtable back into a
+   * ValueIndexMap.
+   *
+   * @param in the stream to read from
+   * @throws IOException if reading fails
+   * @throws ClassNotFoundException if a class of the values is not found
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+
+    ObjectInputStream.GetField fields = in.readFields();
+    m_Values = (ArrayList<Object>) fields.get("m_Values", null);
+    Hashtable<Object, Integer> table =
+      (Hashtable<Object, Integer>) fields.get("m_Hashtable", null);
+    m_Hashtable = new ValueIndexMap(table.size());
+    for (Map.Entry<Object, Integer> entry : table.entrySet()) {
+      m_Hashtable.put(entry.getKey(), entry.getValue());
+    }
+  }
+}
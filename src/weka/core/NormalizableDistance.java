@@ -22,6 +22,7 @@
 package weka.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Vector;
 
@@ -54,6 +55,15 @@ public abstract class NormalizableDistance implements DistanceFunction,
   /** Index in ranges for WIDTH. */
   public static final int R_WIDTH = 2;
 
+  /** Batch kernel that calls updateDistance for every attribute. */
+  public static final int KERNEL_GENERIC = 0;
+
+  /** Batch kernel that sums the squared differences. */
+  public static final int KERNEL_SQUARED = 1;
+
+  /** Batch kernel that sums the absolute differences. */
+  public static final int KERNEL_ABSOLUTE = 2;
+
   /** the instances used internally. */
   protected Instances m_Data = null;
 
@@ -72,6 +82,24 @@ public abstract class NormalizableDistance implements DistanceFunction,
   /** Whether all the necessary preparations have been done. */
   protected boolean m_Validated;
 
+  /** The normalized values of the instances for the batch distances. */
+  protected transient double[] m_Normalized;
+
+  /** The instances the normalized matrix was built from. */
+  protected transient Instances m_BatchData;
+
+  /** The number of rows in the normalized matrix. */
+  protected transient int m_BatchRows;
+
+  /** The attributes in the normalized matrix. */
+  protected transient int[] m_BatchAttributes;
+
+  /** Whether the attributes in the normalized matrix are nominal. */
+  protected transient boolean[] m_BatchNominal;
+
+  /** The min, max and width the normalized matrix was built with. */
+  protected transient double[] m_BatchRanges;
+
   /**
    * Invalidates the distance function, Instances must be still set.
    */
@@ -273,6 +301,7 @@ public abstract class NormalizableDistance implements DistanceFunction,
    */
   protected void invalidate() {
     m_Validated = false;
+    m_Normalized = null;
   }
 
   /**
@@ -558,6 +587,332 @@ public abstract class NormalizableDistance implements DistanceFunction,
     }
   }
 
+  /**
+   * Returns the kernel the batch distances use: KERNEL_SQUARED and
+   * KERNEL_ABSOLUTE sum squared or absolute differences without calling
+   * updateDistance(double, double), KERNEL_GENERIC calls it for every
+   * attribute. Derived classes whose updateDistance is one of the sums
+   * override this.
+   * 
+   * @return the kernel for distances(Instance, int, int, double, double[])
+   */
+  protected int batchKernel() {
+    return KERNEL_GENERIC;
+  }
+
+  /**
+   * Computes the distances between an instance and a block of rows of the
+   * instances, giving for each row the same value as
+   * distance(Instance, Instance, double). The rows are normalized once into a
+   * contiguous matrix, which is rebuilt when the instances, their number or
+   * the ranges change; the Euclidean and Manhattan kernels work through four
+   * rows at a time. Meant for dense data, sparse rows take the same space as
+   * dense ones. The distances may need postProcessDistances(double[]).
+   * 
+   * @param target the instance to compute the distances from
+   * @param from the first row
+   * @param to the row after the last one
+   * @param cutOffValue rows whose distance becomes larger than this get
+   *          Double.POSITIVE_INFINITY
+   * @param result receives the distance of row from + i at index i
+   */
+  public void distances(Instance target, int from, int to,
+    double cutOffValue, double[] result) {
+
+    distances(batchQuery(target), from, to, cutOffValue, result);
+  }
+
+  /**
+   * Returns an instance the way distances(double[], int, int, double,
+   * double[]) expects it, (re)building the normalized matrix if necessary.
+   * 
+   * @param target the instance to compute distances from
+   * @return the normalized values of the instance
+   */
+  public double[] batchQuery(Instance target) {
+    validate();
+    prepareBatch();
+
+    double[] query = new double[m_BatchAttributes.length];
+    for (int k = 0; k < query.length; k++) {
+      query[k] = batchValue(k, target.value(m_BatchAttributes[k]));
+    }
+    return query;
+  }
+
+  /**
+   * Computes the distances between a query returned by batchQuery(Instance)
+   * and a block of rows, see distances(Instance, int, int, double, double[]).
+   * As long as neither the instances nor the ranges change, this can be
+   * called from several threads at once.
+   * 
+   * @param query the normalized values of the instance
+   * @param from the first row
+   * @param to the row after the last one
+   * @param cutOffValue rows whose distance becomes larger than this get
+   *          Double.POSITIVE_INFINITY
+   * @param result receives the distance of row from + i at index i
+   */
+  public void distances(double[] query, int from, int to, double cutOffValue,
+    double[] result) {
+
+    int kernel = batchKernel();
+    int row = from;
+    if (kernel != KERNEL_GENERIC) {
+      for (; row + 4 <= to; row += 4) {
+        batchDistances4(query, row, kernel == KERNEL_SQUARED, cutOffValue,
+          result, row - from);
+      }
+    }
+    for (; row < to; row++) {
+      result[row - from] = batchDistance(query, row, kernel, cutOffValue);
+    }
+  }
+
+  /**
+   * Returns the attributes the values returned by batchQuery(Instance)
+   * belong to, i.e., the active nominal and numeric attributes other than the
+   * class, in ascending order.
+   * 
+   * @return the attribute indices
+   */
+  public int[] batchAttributes() {
+    validate();
+    prepareBatch();
+
+    return m_BatchAttributes.clone();
+  }
+
+  /**
+   * (Re)builds the normalized matrix if it does not match the instances or
+   * the ranges anymore.
+   */
+  protected void prepareBatch() {
+    if (m_Normalized != null && m_BatchData == m_Data
+      && m_BatchRows == m_Data.numInstances() && batchRangesCurrent()) {
+      return;
+    }
+
+    int classIndex = m_Data.classIndex();
+    int count = 0;
+    int[] attributes = new int[m_Data.numAttributes()];
+    for (int i = 0; i < attributes.length; i++) {
+      if (i != classIndex && m_ActiveIndices[i]
+        && (m_Data.attribute(i).type() == Attribute.NOMINAL
+        || m_Data.attribute(i).type() == Attribute.NUMERIC)) {
+        attributes[count++] = i;
+      }
+    }
+    m_BatchAttributes = Arrays.copyOf(attributes, count);
+    m_BatchNominal = new boolean[count];
+    m_BatchRanges = new double[count * 3];
+    for (int k = 0; k < count; k++) {
+      int index = m_BatchAttributes[k];
+      m_BatchNominal[k] = m_Data.attribute(index).isNominal();
+      m_BatchRanges[3 * k + R_MIN] = m_Ranges[index][R_MIN];
+      m_BatchRanges[3 * k + R_MAX] = m_Ranges[index][R_MAX];
+      m_BatchRanges[3 * k + R_WIDTH] = m_Ranges[index][R_WIDTH];
+    }
+
+    int rows = m_Data.numInstances();
+    m_Normalized = new double[rows * count];
+    for (int r = 0; r < rows; r++) {
+      Instance inst = m_Data.instance(r);
+      for (int k = 0; k < count; k++) {
+        m_Normalized[r * count + k] = batchValue(k,
+          inst.value(m_BatchAttributes[k]));
+      }
+    }
+    m_BatchData = m_Data;
+    m_BatchRows = rows;
+  }
+
+  /**
+   * Checks whether the ranges of the numeric attributes are still the ones
+   * the normalized matrix was built with.
+   * 
+   * @return true if none of the ranges changed
+   */
+  protected boolean batchRangesCurrent() {
+    for (int k = 0; k < m_BatchAttributes.length; k++) {
+      if (m_BatchNominal[k]) {
+        continue;
+      }
+      double[] range = m_Ranges[m_BatchAttributes[k]];
+      if (Double.compare(range[R_MIN], m_BatchRanges[3 * k + R_MIN]) != 0
+        || Double.compare(range[R_MAX], m_BatchRanges[3 * k + R_MAX]) != 0
+        || Double.compare(range[R_WIDTH], m_BatchRanges[3 * k + R_WIDTH]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the value as stored in the normalized matrix: numeric values
+   * normalized (unless normalization is turned off), nominal and missing
+   * values as they are.
+   * 
+   * @param k the position of the attribute in the matrix
+   * @param x the value
+   * @return the stored value
+   */
+  protected double batchValue(int k, double x) {
+    if (m_BatchNominal[k] || m_DontNormalize || Utils.isMissingValue(x)) {
+      return x;
+    }
+    return norm(x, m_BatchAttributes[k]);
+  }
+
+  /**
+   * Computes the difference of two values as stored in the normalized
+   * matrix, like difference(int, double, double) does for the raw values.
+   * 
+   * @param k the position of the attribute in the matrix
+   * @param val1 the first stored value
+   * @param val2 the second stored value
+   * @return the difference
+   */
+  public final double batchDifference(int k, double val1, double val2) {
+    double diff = val1 - val2;
+    if (m_BatchNominal[k]) {
+      return (diff != 0) ? 1 : 0;
+    }
+    if (diff != diff) {
+      return missingDifference(k, val1, val2);
+    }
+    return diff;
+  }
+
+  /**
+   * The difference of two stored numeric values of which at least one is
+   * missing, see difference(int, double, double).
+   * 
+   * @param k the position of the attribute in the matrix
+   * @param val1 the first stored value
+   * @param val2 the second stored value
+   * @return the difference
+   */
+  protected double missingDifference(int k, double val1, double val2) {
+    double min = m_BatchRanges[3 * k + R_MIN];
+    double max = m_BatchRanges[3 * k + R_MAX];
+    if (Utils.isMissingValue(val1) && Utils.isMissingValue(val2)) {
+      return (!m_DontNormalize) ? 1 : max - min;
+    }
+    if (!Utils.isMissingValue(val1) && !Utils.isMissingValue(val2)) {
+      return val1 - val2;
+    }
+    double diff = Utils.isMissingValue(val2) ? val1 : val2;
+    if (!m_DontNormalize && diff < 0.5) {
+      diff = 1.0 - diff;
+    } else if (m_DontNormalize) {
+      if ((max - diff) > (diff - min)) {
+        return max - diff;
+      } else {
+        return diff - min;
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Computes the distance between a query and one row of the normalized
+   * matrix.
+   * 
+   * @param query the stored values of the query
+   * @param row the row
+   * @param kernel the kernel, see batchKernel()
+   * @param cutOffValue the cut off value
+   * @return the distance or Double.POSITIVE_INFINITY if it is larger than
+   *         cutOffValue
+   */
+  protected double batchDistance(double[] query, int row, int kernel,
+    double cutOffValue) {
+    double[] matrix = m_Normalized;
+    int offset = row * query.length;
+    double distance = 0;
+
+    for (int k = 0; k < query.length; k++) {
+      double diff = batchDifference(k, query[k], matrix[offset + k]);
+      if (kernel == KERNEL_SQUARED) {
+        distance += diff * diff;
+      } else if (kernel == KERNEL_ABSOLUTE) {
+        distance += Math.abs(diff);
+      } else {
+        distance = updateDistance(distance, diff);
+      }
+      if (distance > cutOffValue) {
+        return Double.POSITIVE_INFINITY;
+      }
+    }
+
+    return distance;
+  }
+
+  /**
+   * Computes the distances between a query and four consecutive rows of the
+   * normalized matrix at once. Every row is summed in attribute order, so the
+   * distances are the same as one row at a time. As the sums only grow, the
+   * cut off is checked every 16 attributes and once more at the end.
+   * 
+   * @param query the stored values of the query
+   * @param row the first of the four rows
+   * @param squared whether to sum squared instead of absolute differences
+   * @param cutOffValue the cut off value
+   * @param result receives the distances
+   * @param pos the index in result for the first row
+   */
+  protected void batchDistances4(double[] query, int row, boolean squared,
+    double cutOffValue, double[] result, int pos) {
+    double[] matrix = m_Normalized;
+    boolean[] nominal = m_BatchNominal;
+    int numAttributes = query.length;
+    int o0 = row * numAttributes;
+    int o1 = o0 + numAttributes;
+    int o2 = o1 + numAttributes;
+    int o3 = o2 + numAttributes;
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+    for (int k = 0; k < numAttributes; k++) {
+      double q = query[k];
+      double d0 = q - matrix[o0 + k];
+      double d1 = q - matrix[o1 + k];
+      double d2 = q - matrix[o2 + k];
+      double d3 = q - matrix[o3 + k];
+      if (nominal[k]) {
+        d0 = (d0 != 0) ? 1 : 0;
+        d1 = (d1 != 0) ? 1 : 0;
+        d2 = (d2 != 0) ? 1 : 0;
+        d3 = (d3 != 0) ? 1 : 0;
+      } else if (Double.isNaN(d0 + d1 + d2 + d3)) {
+        d0 = batchDifference(k, q, matrix[o0 + k]);
+        d1 = batchDifference(k, q, matrix[o1 + k]);
+        d2 = batchDifference(k, q, matrix[o2 + k]);
+        d3 = batchDifference(k, q, matrix[o3 + k]);
+      }
+      if (squared) {
+        s0 += d0 * d0;
+        s1 += d1 * d1;
+        s2 += d2 * d2;
+        s3 += d3 * d3;
+      } else {
+        s0 += Math.abs(d0);
+        s1 += Math.abs(d1);
+        s2 += Math.abs(d2);
+        s3 += Math.abs(d3);
+      }
+      if ((k & 15) == 15 && s0 > cutOffValue && s1 > cutOffValue
+        && s2 > cutOffValue && s3 > cutOffValue) {
+        break;
+      }
+    }
+
+    result[pos] = (s0 > cutOffValue) ? Double.POSITIVE_INFINITY : s0;
+    result[pos + 1] = (s1 > cutOffValue) ? Double.POSITIVE_INFINITY : s1;
+    result[pos + 2] = (s2 > cutOffValue) ? Double.POSITIVE_INFINITY : s2;
+    result[pos + 3] = (s3 > cutOffValue) ? Double.POSITIVE_INFINITY : s3;
+  }
+
   /**
    * Initializes the ranges using all instances of the dataset. Sets m_Ranges.
    * 
@@ -0,0 +1,357 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ProjectedInstance.java
+ *
+ */
+
+package weka.core;
+
+/**
+ * An instance that shows a subset of the attributes of another instance
+ * without copying its values. Attribute i of the projection is attribute
+ * map[i] of the source. The value vector of a DenseInstance is never changed
+ * in place (it is cloned before every change), so the projection can safely
+ * share it.
+ * <p>
+ *
+ * Like DenseInstance, all methods that change attribute values first give the
+ * instance its own value vector, so changes never affect the source or other
+ * projections of it.
+ *
+ * @see Instances#attributeView(int[])
+ */
+public class ProjectedInstance extends AbstractInstance {
+
+  /** for serialization */
+  private static final long serialVersionUID = 2849263175720471025L;
+
+  /**
+   * The value vector of the source instance. Null once this instance has its
+   * own values in m_AttValues.
+   */
+  protected double[] m_Source;
+
+  /** The source index of each attribute. */
+  protected int[] m_Map;
+
+  /**
+   * Creates a projection of an instance. Reference to the dataset is set to
+   * null.
+   *
+   * @param source the instance to project
+   * @param map the source index of each attribute of the projection
+   */
+  public ProjectedInstance(Instance source, int[] map) {
+
+    if (source instanceof ProjectedInstance
+      && ((ProjectedInstance) source).m_Source != null) {
+      // project the underlying vector directly
+      ProjectedInstance p = (ProjectedInstance) source;
+      int[] composed = new int[map.length];
+      for (int i = 0; i < map.length; i++) {
+        composed[i] = p.m_Map[map[i]];
+      }
+      m_Source = p.m_Source;
+      m_Map = composed;
+    } else if (source instanceof DenseInstance) {
+      m_Source = ((DenseInstance) source).m_AttValues;
+      m_Map = map;
+    } else {
+      m_Source = source.toDoubleArray();
+      m_Map = map;
+    }
+    m_Weight = source.weight();
+    m_Dataset = null;
+  }
+
+  /**
+   * Copy constructor, shares the values of the given instance.
+   *
+   * @param instance the instance to copy
+   */
+  protected ProjectedInstance(ProjectedInstance instance) {
+
+    m_Source = instance.m_Source;
+    m_Map = instance.m_Map;
+    m_AttValues = instance.m_AttValues;
+    m_Weight = instance.m_Weight;
+    m_Dataset = instance.m_Dataset;
+  }
+
+  /**
+   * Produces a shallow copy of this instance. The copy shares the value
+   * vector and has access to the same dataset.
+   *
+   * @return the shallow copy
+   */
+  @Override
+  public Object copy() {
+
+    return new ProjectedInstance(this);
+  }
+
+  /**
+   * Copies the instance but fills up its values based on the given array of
+   * doubles. The copy has access to the same dataset.
+   *
+   * @param values the array with new values
+   * @return the new instance
+   */
+  @Override
+  public Instance copy(double[] values) {
+
+    DenseInstance result = new DenseInstance(m_Weight, values);
+    result.m_Dataset = m_Dataset;
+    return result;
+  }
+
+  /**
+   * Returns the index of the attribute stored at the given position. Just
+   * returns the given value.
+   *
+   * @param position the position
+   * @return the index of the attribute stored at the given position
+   */
+  @Override
+  public int index(int position) {
+
+    return position;
+  }
+
+  /**
+   * Merges this instance with the given instance and returns the result.
+   * Dataset is set to null.
+   *
+   * @param inst the instance to be merged with this one
+   * @return the merged instances
+   */
+  @Override
+  public Instance mergeInstance(Instance inst) {
+
+    int m = 0;
+    double[] newVals = new double[numAttributes() + inst.numAttributes()];
+    for (int j = 0; j < numAttributes(); j++, m++) {
+      newVals[m] = value(j);
+    }
+    for (int j = 0; j < inst.numAttributes(); j++, m++) {
+      newVals[m] = inst.value(j);
+    }
+    return new DenseInstance(1.0, newVals);
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return the number of attributes as an integer
+   */
+  @Override
+  public int numAttributes() {
+
+    return m_Source != null ? m_Map.length : m_AttValues.length;
+  }
+
+  /**
+   * Returns the number of values present. Always the same as numAttributes().
+   *
+   * @return the number of values
+   */
+  @Override
+  public int numValues() {
+
+    return numAttributes();
+  }
+
+  /**
+   * Replaces all missing values in the instance with the values contained in
+   * the given array.
+   *
+   * @param array containing the means and modes
+   * @throws IllegalArgumentException if numbers of attributes are unequal
+   */
+  @Override
+  public void replaceMissingValues(double[] array) {
+
+    if ((array == null) || (array.length != numAttributes())) {
+      throw new IllegalArgumentException("Unequal number of attributes!");
+    }
+    freshAttributeVector();
+    for (int i = 0; i < m_AttValues.length; i++) {
+      if (isMissing(i)) {
+        m_AttValues[i] = array[i];
+      }
+    }
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format).
+   *
+   * @param attIndex the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValue(int attIndex, double value) {
+
+    freshAttributeVector();
+    m_AttValues[attIndex] = value;
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format), given an index in the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValueSparse(int indexOfIndex, double value) {
+
+    setValue(indexOfIndex, value);
+  }
+
+  /**
+   * Returns the values of each attribute as an array of doubles.
+   *
+   * @return an array containing all the instance attribute values
+   */
+  @Override
+  public double[] toDoubleArray() {
+
+    if (m_Source == null) {
+      return m_AttValues.clone();
+    }
+    double[] newValues = new double[m_Map.length];
+    for (int i = 0; i < m_Map.length; i++) {
+      newValues[i] = m_Source[m_Map[i]];
+    }
+    return newValues;
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended).
+   *
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight() {
+    return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended).
+   *
+   * @param afterDecimalPoint maximum number of digits after the decimal point
+   *          for numeric values
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight(int afterDecimalPoint) {
+    StringBuffer text = new StringBuffer();
+
+    for (int i = 0; i < numAttributes(); i++) {
+      if (i > 0) {
+        text.append(",");
+      }
+      text.append(toString(i, afterDecimalPoint));
+    }
+
+    return text.toString();
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format.
+   *
+   * @param attIndex the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double value(int attIndex) {
+
+    return m_Source != null ? m_Source[m_Map[attIndex]] : m_AttValues[attIndex];
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format, given an index
+   * in the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double valueSparse(int indexOfIndex) {
+
+    return value(indexOfIndex);
+  }
+
+  /**
+   * Deletes an attribute at the given position (0 to numAttributes() - 1).
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceDeleteAttributeAt(int position) {
+
+    double[] values = toDoubleArray();
+    double[] newValues = new double[values.length - 1];
+
+    System.arraycopy(values, 0, newValues, 0, position);
+    if (position < values.length - 1) {
+      System.arraycopy(values, position + 1, newValues, position,
+        values.length - (position + 1));
+    }
+    own(newValues);
+  }
+
+  /**
+   * Inserts an attribute at the given position (0 to numAttributes()) and sets
+   * its value to be missing.
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceInsertAttributeAt(int position) {
+
+    double[] values = toDoubleArray();
+    double[] newValues = new double[values.length + 1];
+
+    System.arraycopy(values, 0, newValues, 0, position);
+    newValues[position] = Utils.missingValue();
+    System.arraycopy(values, position, newValues, position + 1, values.length
+      - position);
+    own(newValues);
+  }
+
+  /**
+   * Gives the instance its own copy of the attribute values.
+   */
+  private void freshAttributeVector() {
+
+    own(toDoubleArray());
+  }
+
+  /**
+   * Drops the reference to the source and uses the given values.
+   *
+   * @param values the new value vector
+   */
+  private void own(double[] values) {
+
+    m_AttValues = values;
+    m_Source = null;
+    m_Map = null;
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ValueIndexMap.java
+ *    Copyright (C) 2026 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Maps the values of a nominal, string or relation-valued attribute to their
+ * indices. An unsynchronized open addressing table with linear probing that
+ * keeps the indices as plain ints, so that looking up a value neither locks
+ * nor unboxes, and a value costs a key and two int slots instead of a table
+ * entry and an Integer. Like the other parts of the attribute information, it
+ * is not safe for concurrent modification.
+ *
+ * @version $Revision: 47640 $
+ */
+public class ValueIndexMap implements Serializable, RevisionHandler {
+
+  /** for serialization */
+  private static final long serialVersionUID = -2719427095154634826L;
+
+  /** The keys, null for free slots. */
+  protected transient Object[] m_Keys;
+
+  /** The mixed hash code of the key in each slot, compared before equals. */
+  protected transient int[] m_Hashes;
+
+  /** The index of the key in each slot. */
+  protected transient int[] m_Indices;
+
+  /** The number of keys. */
+  protected transient int m_Size;
+
+  /**
+   * Creates an empty map.
+   */
+  public ValueIndexMap() {
+    this(8);
+  }
+
+  /**
+   * Creates an empty map with room for the given number of keys.
+   *
+   * @param capacity the expected number of keys
+   */
+  public ValueIndexMap(int capacity) {
+    allocate(capacity);
+  }
+
+  /**
+   * Allocates a table for the given number of keys, at most half full.
+   *
+   * @param capacity the number of keys
+   */
+  protected void allocate(int capacity) {
+
+    int slots = 16;
+    while (slots < capacity * 2) {
+      slots <<= 1;
+    }
+    m_Keys = new Object[slots];
+    m_Hashes = new int[slots];
+    m_Indices = new int[slots];
+    m_Size = 0;
+  }
+
+  /**
+   * Spreads the hash code of a key over the slots.
+   *
+   * @param key the key
+   * @return the mixed hash code
+   */
+  protected static int hash(Object key) {
+
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the slot holding a key, or the free slot it would go into.
+   *
+   * @param key the key
+   * @param hash the mixed hash code of the key
+   * @return the slot
+   */
+  protected int slot(Object key, int hash) {
+
+    int mask = m_Keys.length - 1;
+    int slot = hash & mask;
+    Object current;
+    while ((current = m_Keys[slot]) != null) {
+      if (current == key || (m_Hashes[slot] == hash && current.equals(key))) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the number of keys.
+   *
+   * @return the number of keys
+   */
+  public int size() {
+
+    return m_Size;
+  }
+
+  /**
+   * Returns the index of a key.
+   *
+   * @param key the key
+   * @return the index, or -1 if the key is not in the map
+   */
+  public int get(Object key) {
+
+    int slot = slot(key, hash(key));
+    return m_Keys[slot] == null ? -1 : m_Indices[slot];
+  }
+
+  /**
+   * Checks whether a key is in the map.
+   *
+   * @param key the key
+   * @return true if the key is in the map
+   */
+  public boolean containsKey(Object key) {
+
+    return m_Keys[slot(key, hash(key))] != null;
+  }
+
+  /**
+   * Sets the index of a key.
+   *
+   * @param key the key, not null
+   * @param index the index, not negative
+   */
+  public void put(Object key, int index) {
+
+    int hash = hash(key);
+    int slot = slot(key, hash);
+    if (m_Keys[slot] == null) {
+      if ((m_Size + 1) * 2 > m_Keys.length) {
+        rehash(m_Size + 1);
+        slot = slot(key, hash);
+      }
+      m_Keys[slot] = key;
+      m_Hashes[slot] = hash;
+      m_Size++;
+    }
+    m_Indices[slot] = index;
+  }
+
+  /**
+   * Removes a key. The keys after it in its run of occupied slots are moved
+   * back, so that no deletion markers are needed.
+   *
+   * @param key the key
+   */
+  public void remove(Object key) {
+
+    int slot = slot(key, hash(key));
+    if (m_Keys[slot] == null) {
+      return;
+    }
+    int mask = m_Keys.length - 1;
+    int free = slot;
+    for (int next = (free + 1) & mask; m_Keys[next] != null; next = (next + 1) & mask) {
+      // a key may fill the gap if its home slot is not in (free, next]
+      int home = m_Hashes[next] & mask;
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        m_Keys[free] = m_Keys[next];
+        m_Hashes[free] = m_Hashes[next];
+        m_Indices[free] = m_Indices[next];
+        free = next;
+      }
+    }
+    m_Keys[free] = null;
+    m_Size--;
+  }
+
+  /**
+   * Removes all keys.
+   */
+  public void clear() {
+
+    allocate(0);
+  }
+
+  /**
+   * Moves the keys to a table for the given number of keys.
+   *
+   * @param capacity the number of keys
+   */
+  protected void rehash(int capacity) {
+
+    Object[] keys = m_Keys;
+    int[] hashes = m_Hashes;
+    int[] indices = m_Indices;
+    allocate(capacity);
+    int mask = m_Keys.length - 1;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        int slot = hashes[i] & mask;
+        while (m_Keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        m_Keys[slot] = keys[i];
+        m_Hashes[slot] = hashes[i];
+        m_Indices[slot] = indices[i];
+        m_Size++;
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the map that shares the keys.
+   *
+   * @return the copy
+   */
+  public ValueIndexMap copy() {
+
+    ValueIndexMap copy = new ValueIndexMap(0);
+    copy.m_Keys = m_Keys.clone();
+    copy.m_Hashes = m_Hashes.clone();
+    copy.m_Indices = m_Indices.clone();
+    copy.m_Size = m_Size;
+    return copy;
+  }
+
+  /**
+   * Writes the keys and their indices. The table is rebuilt when read, as
+   * the hash codes of some keys (relations) are not the same in another
+   * virtual machine.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+
+    out.defaultWriteObject();
+    out.writeInt(m_Size);
+    for (int i = 0; i < m_Keys.length; i++) {
+      if (m_Keys[i] != null) {
+        out.writeObject(m_Keys[i]);
+        out.writeInt(m_Indices[i]);
+      }
+    }
+  }
+
+  /**
+   * Reads the keys and their indices and rebuilds the table.
+   *
+   * @param in the stream to read from
+   * @throws IOException if reading fails
+   * @throws ClassNotFoundException if a key's class is not found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+
+    in.defaultReadObject();
+    int size = in.readInt();
+    allocate(size);
+    for (int i = 0; i < size; i++) {
+      Object key = in.readObject();
+      put(key, in.readInt());
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 47640 $");
+  }
+}
@@ -35,11 +35,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import weka.core.Attribute;
+import weka.core.ColumnStore;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.SelectedTag;
 import weka.core.SparseInstance;
 import weka.core.Utils;
 
@@ -79,6 +81,21 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
    */
   protected boolean m_retainStringVals;
 
+  /** Whether to parse the data with FastDataParser */
+  protected boolean m_fastParsing;
+
+  /**
+   * The number of threads FastDataParser uses in batch mode (0 = one per
+   * available processor)
+   */
+  protected int m_numThreads = 1;
+
+  /** The parser for the data if parsing fast */
+  protected transient FastDataParser m_FastParser = null;
+
+  /** How the instances are stored in batch mode (see ColumnStore) */
+  protected int m_storage = ColumnStore.STORAGE_ROWS;
+
   /**
    * Reads data from an ARFF file, either in incremental or batch mode.
    * <p/>
@@ -1054,6 +1071,101 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     return m_retainStringVals;
   }
 
+  /**
+   * Tool tip text for this property
+   * 
+   * @return the tool tip for this property
+   */
+  public String fastParsingTipText() {
+    return "If true then the whole source is read into memory and the data "
+      + "is parsed from there without a StreamTokenizer, which is several "
+      + "times faster for large files.";
+  }
+
+  /**
+   * Set whether to read the whole source into memory and parse the data with
+   * a FastDataParser.
+   * 
+   * @param fast true to parse fast
+   */
+  public void setFastParsing(boolean fast) {
+    m_fastParsing = fast;
+  }
+
+  /**
+   * Get whether the whole source is read into memory and the data parsed with
+   * a FastDataParser.
+   * 
+   * @return true if parsing fast
+   */
+  public boolean getFastParsing() {
+    return m_fastParsing;
+  }
+
+  /**
+   * Tool tip text for this property
+   * 
+   * @return the tool tip for this property
+   */
+  public String numThreadsTipText() {
+    return "The number of threads used to parse the data when parsing fast "
+      + "in batch mode (0 = one per available processor). Data with string, "
+      + "date or relational attributes is parsed by one thread.";
+  }
+
+  /**
+   * Set the number of threads used to parse the data when parsing fast in
+   * batch mode.
+   * 
+   * @param numThreads the number of threads, 0 for one per available processor
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Get the number of threads used to parse the data when parsing fast in
+   * batch mode.
+   * 
+   * @return the number of threads, 0 for one per available processor
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Tool tip text for this property
+   * 
+   * @return the tool tip for this property
+   */
+  public String storageTipText() {
+    return "How the instances are stored in batch mode: one instance per "
+      + "row, or columns of doubles or floats. Compact storage keeps columns "
+      + "with few distinct values, such as nominal attributes and counts, "
+      + "exactly as one- or two-byte codes, and the others as doubles or "
+      + "floats. Columnar data is filled while reading.";
+  }
+
+  /**
+   * Set how the instances are stored in batch mode.
+   * 
+   * @param storage one of ColumnStore.TAGS_STORAGE
+   */
+  public void setStorage(SelectedTag storage) {
+    if (storage.getTags() == ColumnStore.TAGS_STORAGE) {
+      m_storage = storage.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get how the instances are stored in batch mode.
+   * 
+   * @return the storage
+   */
+  public SelectedTag getStorage() {
+    return new SelectedTag(m_storage, ColumnStore.TAGS_STORAGE);
+  }
+
   /**
    * Get the file extension used for arff files
    * 
@@ -1093,6 +1205,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
   public void reset() throws IOException {
     m_structure = null;
     m_ArffReader = null;
+    m_FastParser = null;
     setRetrieval(NONE);
 
     if (m_File != null && !(new File(m_File).isDirectory())) {
@@ -1196,10 +1309,27 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       }
 
       try {
-        m_ArffReader =
-          new ArffReader(m_sourceReader, 1, (getRetrieval() == BATCH));
-        m_ArffReader.setRetainStringValues(getRetainStringVals());
-        m_structure = m_ArffReader.getStructure();
+        m_FastParser = null;
+        if (m_fastParsing) {
+          // read everything, let ArffReader parse the header and find out
+          // where it stopped
+          char[] chars = FastDataParser.read(m_sourceReader);
+          FastDataParser.CharReader header =
+            new FastDataParser.CharReader(chars);
+          m_ArffReader = new ArffReader(header, 1, (getRetrieval() == BATCH));
+          m_ArffReader.setRetainStringValues(getRetainStringVals());
+          m_structure = m_ArffReader.getStructure();
+          m_FastParser =
+            new FastDataParser(chars, header.tokenizerPosition(), chars.length,
+              m_structure, true);
+          m_FastParser.setBatchMode(getRetrieval() == BATCH);
+          m_FastParser.setRetainStringValues(getRetainStringVals());
+        } else {
+          m_ArffReader =
+            new ArffReader(m_sourceReader, 1, (getRetrieval() == BATCH));
+          m_ArffReader.setRetainStringValues(getRetainStringVals());
+          m_structure = m_ArffReader.getStructure();
+        }
       } catch (Exception ex) {
         throw new IOException("Unable to determine structure as arff (Reason: "
           + ex.toString() + ").");
@@ -1236,9 +1366,17 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       // Read all instances
       insts = new Instances(m_structure, 0);
-      Instance inst;
-      while ((inst = m_ArffReader.readInstance(m_structure)) != null) {
-        insts.add(inst);
+      ColumnStore.prepare(insts, m_storage);
+      if (m_FastParser != null) {
+        m_FastParser.readAll(m_structure, m_numThreads, insts);
+      } else {
+        Instance inst;
+        while ((inst = m_ArffReader.readInstance(m_structure)) != null) {
+          insts.add(inst);
+        }
+      }
+      if (m_storage != ColumnStore.STORAGE_ROWS) {
+        insts.compactify();
       }
 
       // Instances readIn = new Instances(m_structure);
@@ -1278,7 +1416,11 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
     Instance current = null;
     if (m_sourceReader != null) {
-      current = m_ArffReader.readInstance(m_structure);
+      if (m_FastParser != null) {
+        current = m_FastParser.readInstance(m_structure);
+      } else {
+        current = m_ArffReader.readInstance(m_structure);
+      }
     }
 
     if ((m_sourceReader != null) && (current == null)) {
@@ -37,6 +37,7 @@ import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -45,12 +46,14 @@ import java.util.Map;
 import java.util.Vector;
 
 import weka.core.Attribute;
+import weka.core.ColumnStore;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.Range;
+import weka.core.SelectedTag;
 import weka.core.Utils;
 import weka.core.converters.ArffLoader.ArffReader;
 
@@ -124,6 +127,19 @@ import weka.core.converters.ArffLoader.ArffReader;
  *  The size of the in memory buffer (in rows).
  *  (default: 100)</pre>
  * 
+ * <pre> -fast
+ *  Reads the whole source into memory and parses it
+ *  without a StreamTokenizer and temporary file.</pre>
+ * 
+ * <pre> -threads &lt;num&gt;
+ *  The number of threads to parse with in fast batch mode
+ *  (0 = one per available processor).
+ *  (default: 1)</pre>
+ * 
+ * <pre> -storage &lt;rows|double|float|compact|compact-float&gt;
+ *  How the instances are stored in batch mode.
+ *  (default: rows)</pre>
+ * 
  <!-- options-end -->
  * 
  * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
@@ -203,6 +219,30 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
   protected TYPE[] m_types;
   private int m_numBufferedRows;
 
+  /** whether to read the whole source into memory and parse it from there */
+  protected boolean m_fastParsing = false;
+
+  /** the number of threads to parse with in fast batch mode */
+  protected int m_numThreads = 1;
+
+  /** how the instances are stored in batch mode (see ColumnStore) */
+  protected int m_storage = ColumnStore.STORAGE_ROWS;
+
+  /** the whole source if parsing fast */
+  protected transient char[] m_chars;
+
+  /** the start of the data in m_chars */
+  protected transient int m_dataStart;
+
+  /**
+   * for attributes that turned from numeric into string: the first row that
+   * was not a number
+   */
+  protected transient int[] m_trimBefore;
+
+  /** the parser for reading fast incrementally */
+  protected transient FastDataParser m_fastParser;
+
   /**
    * default constructor.
    */
@@ -560,6 +600,103 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     return "The number of rows to process in memory at any one time.";
   }
 
+  /**
+   * Get whether the whole source is read into memory and parsed from there.
+   *
+   * @return true if parsing fast
+   */
+  public boolean getFastParsing() {
+    return m_fastParsing;
+  }
+
+  /**
+   * Set whether to read the whole source into memory and parse it from there.
+   * The structure is then determined from all rows, in batch and incremental
+   * mode, and no temporary file is used.
+   *
+   * @param fast true to parse fast
+   */
+  public void setFastParsing(boolean fast) {
+    m_fastParsing = fast;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String fastParsingTipText() {
+    return "If true then the whole source is read into memory and parsed "
+      + "from there without a StreamTokenizer and temporary file; the "
+      + "structure is determined from all rows, also in incremental mode.";
+  }
+
+  /**
+   * Get the number of threads to parse with in fast batch mode.
+   *
+   * @return the number of threads, 0 for one per available processor
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Set the number of threads to parse with in fast batch mode.
+   *
+   * @param numThreads the number of threads, 0 for one per available
+   *          processor
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to parse with in fast batch mode "
+      + "(0 = one per available processor). Data with string or date "
+      + "attributes is parsed by one thread.";
+  }
+
+  /**
+   * Get how the instances are stored in batch mode.
+   *
+   * @return the storage
+   */
+  public SelectedTag getStorage() {
+    return new SelectedTag(m_storage, ColumnStore.TAGS_STORAGE);
+  }
+
+  /**
+   * Set how the instances are stored in batch mode.
+   *
+   * @param storage one of ColumnStore.TAGS_STORAGE
+   */
+  public void setStorage(SelectedTag storage) {
+    if (storage.getTags() == ColumnStore.TAGS_STORAGE) {
+      m_storage = storage.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String storageTipText() {
+    return "How the instances are stored in batch mode: one instance per "
+      + "row, or columns of doubles or floats. Compact storage keeps columns "
+      + "with few distinct values, such as nominal attributes and counts, "
+      + "exactly as one- or two-byte codes, and the others as doubles or "
+      + "floats. Columnar data is filled while reading.";
+  }
+
   /**
    * Get label specifications for nominal attributes.
    *
@@ -666,6 +803,18 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add(new Option("\tThe size of the in memory buffer (in rows).\n"
       + "\t(default: 100)", "B", 1, "-B <num>"));
 
+    result.add(new Option("\tReads the whole source into memory and parses it\n"
+      + "\twithout a StreamTokenizer and temporary file.", "fast", 0, "-fast"));
+
+    result.add(new Option(
+      "\tThe number of threads to parse with in fast batch mode\n"
+        + "\t(0 = one per available processor).\n" + "\t(default: 1)",
+      "threads", 1, "-threads <num>"));
+
+    result.add(new Option("\tHow the instances are stored in batch mode.\n"
+      + "\t(default: rows)", "storage", 1,
+      "-storage <rows|double|float|compact|compact-float>"));
+
     return result.elements();
   }
 
@@ -707,6 +856,18 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add("-F");
     result.add(getFieldSeparator());
 
+    if (getFastParsing()) {
+      result.add("-fast");
+    }
+
+    result.add("-threads");
+    result.add("" + getNumThreads());
+
+    if (m_storage != ColumnStore.STORAGE_ROWS) {
+      result.add("-storage");
+      result.add(getStorage().getSelectedTag().getIDStr());
+    }
+
     for (String spec : m_nominalLabelSpecs) {
       result.add("-L");
       result.add(spec);
@@ -777,6 +938,23 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       setEnclosureCharacters(tmpStr);
     }
 
+    setFastParsing(Utils.getFlag("fast", options));
+
+    tmpStr = Utils.getOption("threads", options);
+    if (tmpStr.length() > 0) {
+      setNumThreads(Integer.parseInt(tmpStr));
+    } else {
+      setNumThreads(1);
+    }
+
+    tmpStr = Utils.getOption("storage", options);
+    if (tmpStr.length() > 0) {
+      setStorage(new SelectedTag(tmpStr, ColumnStore.TAGS_STORAGE));
+    } else {
+      setStorage(new SelectedTag(ColumnStore.STORAGE_ROWS,
+        ColumnStore.TAGS_STORAGE));
+    }
+
     while (true) {
       tmpStr = Utils.getOption('L', options);
       if (tmpStr.length() == 0) {
@@ -796,6 +974,20 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     }
     setRetrieval(INCREMENTAL);
 
+    if (m_chars != null) {
+      if (m_fastParser == null) {
+        m_fastParser = newFastParser();
+        m_fastParser.setBatchMode(false);
+        m_fastParser.setRetainStringValues(false);
+      }
+      Instance current = m_fastParser.readInstance(m_structure);
+      if (current == null && m_sourceReader != null) {
+        m_sourceReader.close();
+        m_sourceReader = null;
+      }
+      return current;
+    }
+
     if (m_dataDumper != null) {
       // close the uneeded temp files (if necessary)
       m_dataDumper.close();
@@ -877,6 +1069,17 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       getStructure();
     }
 
+    Instances data = new Instances(m_structure, 0);
+    ColumnStore.prepare(data, m_storage);
+    if (m_chars != null) {
+      newFastParser().readAll(m_structure, m_numThreads, data);
+      m_chars = null;
+      if (m_storage != ColumnStore.STORAGE_ROWS) {
+        data.compactify();
+      }
+      return data;
+    }
+
     while (readData(true)) {
       ;
     }
@@ -889,13 +1092,18 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
 
     Reader sr = new BufferedReader(new FileReader(m_tempFile));
     ArffReader initialArff =
-      new ArffReader(sr, m_structure, 0, m_fieldSeparatorAndEnclosures);
+      new ArffReader(sr, m_structure, 0, 100, true,
+        m_fieldSeparatorAndEnclosures);
 
-    Instances initialInsts = initialArff.getData();
+    Instance inst;
+    while ((inst = initialArff.readInstance(m_structure)) != null) {
+      data.add(inst);
+    }
+    data.compactify();
     sr.close();
     initialArff = null;
 
-    return initialInsts;
+    return data;
   }
 
   private boolean readData(boolean dump) throws IOException {
@@ -965,7 +1173,11 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     m_fieldSeparatorAndEnclosures = separatorAndEnclosuresToArray();
 
     if (m_structure == null) {
-      readHeader();
+      if (m_fastParsing) {
+        readHeaderFast();
+      } else {
+        readHeader();
+      }
     }
 
     return m_structure;
@@ -1123,6 +1335,180 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       }
       first = false;
     }
+    initStructure(attribNames);
+
+    // Prevents the first row from getting lost in the
+    // case where there is no header row and we're
+    // running in batch mode
+    if (m_noHeaderRow && getRetrieval() == BATCH) {
+      StreamTokenizer tempT = new StreamTokenizer(new StringReader(firstRow));
+      initTokenizer(tempT);
+      tempT.ordinaryChar(m_FieldSeparator.charAt(0));
+      String checked = getInstance(tempT);
+      dumpRow(checked);
+    }
+
+    m_st = new StreamTokenizer(m_sourceReader);
+    initTokenizer(m_st);
+    m_st.ordinaryChar(m_FieldSeparator.charAt(0));
+
+    // try and determine a more accurate structure from the first batch
+    readData(false || getRetrieval() == BATCH);
+    makeStructure();
+  }
+
+  /**
+   * Reads the whole source into memory, determines the attribute names from
+   * the first row and the types from all rows, as readHeader() followed by
+   * reading all rows in batch mode does.
+   *
+   * @throws IOException if the source cannot be read or parsed
+   */
+  private void readHeaderFast() throws IOException {
+    m_rowCount = 1;
+    m_incrementalReader = null;
+    m_fastParser = null;
+    m_rowBuffer = new ArrayList<String>();
+    m_current = new ArrayList<Object>();
+
+    m_chars = FastDataParser.read(m_sourceReader);
+    if (m_chars.length == 0) {
+      throw new IOException("No data in the file!");
+    }
+
+    // the first line, as BufferedReader.readLine() ends it
+    int eol = 0;
+    while (eol < m_chars.length && m_chars[eol] != '\n'
+      && m_chars[eol] != '\r') {
+      eol++;
+    }
+    m_dataStart = eol;
+    if (m_dataStart < m_chars.length && m_chars[m_dataStart] == '\r') {
+      m_dataStart++;
+    }
+    if (m_dataStart < m_chars.length && m_chars[m_dataStart] == '\n') {
+      m_dataStart++;
+    }
+
+    ArrayList<Attribute> attribNames = new ArrayList<Attribute>();
+    FastDataParser.Tokenizer tokenizer =
+      new FastDataParser(m_chars, 0, eol, null, false,
+        m_fieldSeparatorAndEnclosures).getTokenizer();
+    int attNum = 1;
+    if (tokenizer.next() == FastDataParser.Tokenizer.TT_EOF) {
+      throw new IOException("premature end of file, read " + tokenizer);
+    }
+    boolean first = true;
+    while (tokenizer.m_Type != FastDataParser.Tokenizer.TT_EOL
+      && tokenizer.m_Type != FastDataParser.Tokenizer.TT_EOF) {
+      if (!first) {
+        tokenizer.next();
+      }
+      first = false;
+      if (tokenizer.m_Type == m_FieldSeparator.charAt(0)
+        || tokenizer.m_Type == FastDataParser.Tokenizer.TT_EOL
+        || tokenizer.m_Type == FastDataParser.Tokenizer.TT_EOF) {
+        continue;
+      }
+      String attName;
+      if (m_noHeaderRow) {
+        attName = "att" + attNum;
+        attNum++;
+      } else {
+        attName = tokenizer.text();
+      }
+      attribNames.add(new Attribute(attName, (java.util.List<String>) null));
+      tokenizer.next();
+    }
+    initStructure(attribNames);
+    if (m_noHeaderRow) {
+      m_dataStart = 0;
+    }
+
+    // determine the types from all rows, with the rules of getInstance()
+    int numAttributes = m_structure.numAttributes();
+    FastDataParser parser =
+      new FastDataParser(m_chars, m_dataStart, m_chars.length, null, false,
+        m_fieldSeparatorAndEnclosures);
+    parser.setMissingValue(m_MissingValue);
+    FastDataParser.LabelTable[] labels =
+      new FastDataParser.LabelTable[numAttributes];
+    for (int i = 0; i < numAttributes; i++) {
+      if (m_types[i] == TYPE.NOMINAL) {
+        labels[i] = new FastDataParser.LabelTable();
+        for (String label : m_nominalVals.get(i)) {
+          labels[i].add(label);
+        }
+      }
+    }
+    m_trimBefore = new int[numAttributes];
+    Arrays.fill(m_trimBefore, -1);
+    int n;
+    while ((n = parser.readFields()) >= 0) {
+      if (n != numAttributes) {
+        throw new IOException("wrong number of values. Read " + n
+          + ", expected " + numAttributes + ", read " + parser.getTokenizer());
+      }
+      for (int i = 0; i < n; i++) {
+        if (parser.isFieldMissing(i)) {
+          continue;
+        }
+        char[] text = parser.fieldText(i);
+        int from = parser.fieldFrom(i);
+        int to = parser.fieldTo(i);
+        if (m_types[i] == TYPE.NUMERIC || m_types[i] == TYPE.UNDETERMINED) {
+          try {
+            FastDataParser.parseDouble(text, from, to);
+            m_types[i] = TYPE.NUMERIC;
+          } catch (NumberFormatException e) {
+            if (m_types[i] == TYPE.UNDETERMINED) {
+              m_types[i] = TYPE.NOMINAL;
+              labels[i] = new FastDataParser.LabelTable();
+              labels[i].add(text, from, to);
+            } else {
+              m_types[i] = TYPE.STRING;
+              m_trimBefore[i] = m_rowCount - 1;
+            }
+          }
+        } else if (m_types[i] == TYPE.NOMINAL) {
+          labels[i].add(text, from, to);
+        }
+      }
+      m_rowCount++;
+    }
+    for (int i = 0; i < numAttributes; i++) {
+      if (m_types[i] == TYPE.NOMINAL) {
+        LinkedHashSet<String> ts = new LinkedHashSet<String>();
+        for (int k = 0; k < labels[i].size(); k++) {
+          ts.add(labels[i].label(k));
+        }
+        m_nominalVals.put(i, ts);
+      }
+    }
+    makeStructure();
+  }
+
+  /**
+   * Creates a parser for the data in m_chars, for the current structure.
+   *
+   * @return the parser
+   */
+  protected FastDataParser newFastParser() {
+    FastDataParser parser =
+      new FastDataParser(m_chars, m_dataStart, m_chars.length, m_structure,
+        false, m_fieldSeparatorAndEnclosures);
+    parser.setMissingValue(m_MissingValue);
+    parser.setTrimBefore(m_trimBefore);
+    return parser;
+  }
+
+  /**
+   * Creates the structure with string attributes of the given names and
+   * determines the initial types from the user's settings.
+   *
+   * @param attribNames the attributes
+   */
+  private void initStructure(ArrayList<Attribute> attribNames) {
     String relationName;
     if (m_sourceFile != null) {
       relationName =
@@ -1193,25 +1579,6 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
         }
       }
     }
-
-    // Prevents the first row from getting lost in the
-    // case where there is no header row and we're
-    // running in batch mode
-    if (m_noHeaderRow && getRetrieval() == BATCH) {
-      StreamTokenizer tempT = new StreamTokenizer(new StringReader(firstRow));
-      initTokenizer(tempT);
-      tempT.ordinaryChar(m_FieldSeparator.charAt(0));
-      String checked = getInstance(tempT);
-      dumpRow(checked);
-    }
-
-    m_st = new StreamTokenizer(m_sourceReader);
-    initTokenizer(m_st);
-    m_st.ordinaryChar(m_FieldSeparator.charAt(0));
-
-    // try and determine a more accurate structure from the first batch
-    readData(false || getRetrieval() == BATCH);
-    makeStructure();
   }
 
   protected void openTempFiles() throws IOException {
@@ -1387,6 +1754,8 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
   public void reset() throws IOException {
     m_structure = null;
     m_rowBuffer = null;
+    m_chars = null;
+    m_fastParser = null;
 
     if (m_dataDumper != null) {
       // close the unneeded temp files (if necessary)
@@ -0,0 +1,470 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarBinaryLoader.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import weka.core.ColumnStore;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+
+/**
+ <!-- globalinfo-start -->
+ * Reads a source that is in the columnar binary format written by
+ * ColumnarBinarySaver. The header is stored once, followed by one
+ * little-endian block of values per attribute and a block of weights. Files
+ * are memory-mapped: the structure is available after reading the header
+ * only, and columns are paged in when they are accessed.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ * The layout of a file is:
+ * <ul>
+ * <li>magic (int), version (int), number of instances (int), number of
+ * attributes (int), class index (int), bytes per value (int, 4 or 8), length
+ * of the header (int), reserved (int), offset of the string table (long, 0
+ * if there is none)</li>
+ * <li>the ARFF header, UTF-8 encoded, padded to a multiple of 8 bytes</li>
+ * <li>for each attribute, its values as floats or doubles</li>
+ * <li>the weights as doubles</li>
+ * <li>for each string attribute, the number of values followed by each
+ * value (int length, UTF-8 bytes)</li>
+ * </ul>
+ * All numbers are little-endian. A column is limited to 2GB.
+ *
+ * @version $Revision: 13477 $
+ * @see ColumnarBinarySaver
+ */
+public class ColumnarBinaryLoader extends AbstractFileLoader implements
+  BatchConverter, IncrementalConverter {
+
+  /** for serialization */
+  private static final long serialVersionUID = 6410846247386395236L;
+
+  /** the file extension */
+  public static String FILE_EXTENSION = ".cbin";
+
+  /** identifies a file in this format ("WCOL") */
+  protected static final int MAGIC = 0x4C4F4357;
+
+  /** the version of the format */
+  protected static final int VERSION = 1;
+
+  /** the size of the fixed part of the header */
+  protected static final int PREAMBLE = 40;
+
+  /** the encoding of the header and of string values */
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** the channel of a file source, null otherwise */
+  protected transient FileChannel m_Channel;
+
+  /** the content of a source that is not a file, null otherwise */
+  protected transient ByteBuffer m_Bytes;
+
+  /** the number of instances in the source */
+  protected int m_NumInstances;
+
+  /** the number of bytes per value, 4 or 8 */
+  protected int m_ValueBytes;
+
+  /** the offset of the first column */
+  protected long m_DataOffset;
+
+  /** the columns for incremental reading, mapped on first use */
+  protected transient ByteBuffer[] m_Columns;
+
+  /** the weights for incremental reading */
+  protected transient ByteBuffer m_Weights;
+
+  /** The current index position for incremental reading */
+  protected int m_IncrementalIndex = 0;
+
+  /**
+   * Returns a string describing this object
+   *
+   * @return a description of the classifier suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Reads a source that is in the columnar binary format written by "
+      + "ColumnarBinarySaver. The header is stored once, followed by one "
+      + "little-endian block of values per attribute and a block of weights. "
+      + "Files are memory-mapped: the structure is available after reading "
+      + "the header only, and columns are paged in when they are accessed.";
+  }
+
+  /**
+   * Get the file extension used for columnar binary files
+   *
+   * @return the file extension
+   */
+  @Override
+  public String getFileExtension() {
+    return FILE_EXTENSION;
+  }
+
+  /**
+   * Gets all the file extensions used for this type of file
+   *
+   * @return the file extensions
+   */
+  @Override
+  public String[] getFileExtensions() {
+    return new String[] { getFileExtension() };
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  @Override
+  public String getFileDescription() {
+    return "Memory-mapped columnar instances";
+  }
+
+  /**
+   * Resets the Loader ready to read a new data set or the same data set again.
+   *
+   * @throws IOException if something goes wrong
+   */
+  @Override
+  public void reset() throws IOException {
+    close();
+    m_structure = null;
+    setRetrieval(NONE);
+
+    if (m_File != null && new File(m_File).isFile()) {
+      setFile(new File(m_File));
+    }
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied InputStream. A FileInputStream is mapped; any other stream is
+   * read into memory.
+   *
+   * @param in the source InputStream.
+   * @throws IOException if there is a problem with IO
+   */
+  @Override
+  public void setSource(InputStream in) throws IOException {
+    close();
+    m_structure = null;
+    setRetrieval(NONE);
+
+    if (in instanceof FileInputStream) {
+      m_Channel = ((FileInputStream) in).getChannel();
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1 << 16];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
+      }
+      in.close();
+      m_Bytes = ByteBuffer.wrap(bytes.toByteArray());
+    }
+  }
+
+  /**
+   * Returns a little-endian buffer for a part of the source.
+   *
+   * @param offset the offset of the part
+   * @param length the length of the part
+   * @return the buffer
+   * @throws IOException if the part can't be mapped
+   */
+  protected ByteBuffer region(long offset, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Block of " + length + " bytes is too large");
+    }
+    ByteBuffer result;
+    if (m_Channel != null) {
+      if (offset + length > m_Channel.size()) {
+        throw new IOException("File is truncated");
+      }
+      result = m_Channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    } else {
+      if (offset + length > m_Bytes.capacity()) {
+        throw new IOException("Source is truncated");
+      }
+      result = m_Bytes.duplicate();
+      result.position((int) offset);
+      result.limit((int) (offset + length));
+      result = result.slice();
+    }
+    return result.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Closes the source.
+   */
+  protected void close() {
+    if (m_Channel != null) {
+      try {
+        m_Channel.close();
+      } catch (IOException e) {
+        // nothing left to read from it anyway
+      }
+    }
+    m_Channel = null;
+    m_Bytes = null;
+    m_Columns = null;
+    m_Weights = null;
+    m_IncrementalIndex = 0;
+  }
+
+  /**
+   * Determines and returns (if possible) the structure (internally the header)
+   * of the data set as an empty set of instances. Only the header and the
+   * values of string attributes are read.
+   *
+   * @return the structure of the data set as an empty set of Instances
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public Instances getStructure() throws IOException {
+
+    if (m_structure == null) {
+      if (m_Channel == null && m_Bytes == null) {
+        throw new IOException("No source has been specified");
+      }
+
+      ByteBuffer preamble = region(0, PREAMBLE);
+      if (preamble.getInt() != MAGIC) {
+        throw new IOException("Not a columnar binary file");
+      }
+      int version = preamble.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported columnar binary version "
+          + version);
+      }
+      m_NumInstances = preamble.getInt();
+      int numAttributes = preamble.getInt();
+      int classIndex = preamble.getInt();
+      m_ValueBytes = preamble.getInt();
+      int headerLength = preamble.getInt();
+      preamble.getInt();
+      long stringTable = preamble.getLong();
+      if (m_ValueBytes != 4 && m_ValueBytes != 8) {
+        throw new IOException("Invalid value size " + m_ValueBytes);
+      }
+
+      ByteBuffer header = region(PREAMBLE, headerLength);
+      byte[] text = new byte[headerLength];
+      header.get(text);
+      Instances structure;
+      try {
+        structure = new Instances(new StringReader(new String(text, UTF8)));
+      } catch (Exception ex) {
+        throw new IOException("Unable to read header (Reason: "
+          + ex.toString() + ").");
+      }
+      if (structure.numAttributes() != numAttributes) {
+        throw new IOException("Header has " + structure.numAttributes()
+          + " attributes, expected " + numAttributes);
+      }
+      structure.setClassIndex(classIndex);
+      m_DataOffset = ColumnarBinarySaver.align(PREAMBLE + headerLength);
+
+      if (stringTable != 0) {
+        readStringValues(structure, stringTable);
+      }
+      m_structure = structure;
+    }
+
+    return new Instances(m_structure, 0);
+  }
+
+  /**
+   * Adds the values of the string attributes to the structure, in the order
+   * of their indices.
+   *
+   * @param structure the structure
+   * @param offset the offset of the string table
+   * @throws IOException if the table can't be read
+   */
+  protected void readStringValues(Instances structure, long offset)
+    throws IOException {
+    long size = m_Channel != null ? m_Channel.size() : m_Bytes.capacity();
+    ByteBuffer table = region(offset, size - offset);
+    for (int j = 0; j < structure.numAttributes(); j++) {
+      if (!structure.attribute(j).isString()) {
+        continue;
+      }
+      int count = table.getInt();
+      for (int k = 0; k < count; k++) {
+        byte[] value = new byte[table.getInt()];
+        table.get(value);
+        structure.attribute(j).addStringValue(new String(value, UTF8));
+      }
+    }
+  }
+
+  /**
+   * Returns the offset of a column.
+   *
+   * @param index the attribute's index, numAttributes() for the weights
+   * @return the offset in the source
+   */
+  protected long columnOffset(int index) {
+    return m_DataOffset + (long) index * m_NumInstances * m_ValueBytes;
+  }
+
+  /**
+   * Return the full data set. The columns are copied from the source in bulk
+   * into a columnar dataset.
+   *
+   * @return the data set
+   * @throws IOException if there is no source or reading fails
+   * @see Instances#toColumnar(boolean)
+   */
+  @Override
+  public Instances getDataSet() throws IOException {
+
+    if (m_Channel == null && m_Bytes == null) {
+      throw new IOException("No source has been specified");
+    }
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException(
+        "Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(BATCH);
+    if (m_structure == null) {
+      getStructure();
+    }
+
+    try {
+      int numAttributes = m_structure.numAttributes();
+      int n = m_NumInstances;
+      double[] weights = new double[n];
+      region(columnOffset(numAttributes), (long) n * 8).asDoubleBuffer().get(
+        weights);
+      ColumnStore store;
+      if (m_ValueBytes == 4) {
+        float[][] columns = new float[numAttributes][n];
+        for (int j = 0; j < numAttributes; j++) {
+          region(columnOffset(j), (long) n * 4).asFloatBuffer().get(
+            columns[j]);
+        }
+        store = new ColumnStore(columns, weights);
+      } else {
+        double[][] columns = new double[numAttributes][n];
+        for (int j = 0; j < numAttributes; j++) {
+          region(columnOffset(j), (long) n * 8).asDoubleBuffer().get(
+            columns[j]);
+        }
+        store = new ColumnStore(columns, weights);
+      }
+      return new Instances(m_structure, store);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Read the data set incrementally---get the next instance in the data set or
+   * returns null if there are no more instances to get. Values are read from
+   * the mapped columns, so only the pages that are touched are loaded.
+   *
+   * @param structure the dataset header information
+   * @return the next instance in the data set as an Instance object or null if
+   *         there are no more instances to be read
+   * @throws IOException if there is an error during reading
+   */
+  @Override
+  public Instance getNextInstance(Instances structure) throws IOException {
+
+    if (getRetrieval() == BATCH) {
+      throw new IOException(
+        "Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(INCREMENTAL);
+    if (m_Channel == null && m_Bytes == null) {
+      return null;
+    }
+    if (m_structure == null) {
+      getStructure();
+    }
+
+    int numAttributes = m_structure.numAttributes();
+    if (m_Columns == null) {
+      m_Columns = new ByteBuffer[numAttributes];
+      for (int j = 0; j < numAttributes; j++) {
+        m_Columns[j] = region(columnOffset(j), (long) m_NumInstances
+          * m_ValueBytes);
+      }
+      m_Weights = region(columnOffset(numAttributes),
+        (long) m_NumInstances * 8);
+    }
+    if (m_IncrementalIndex == m_NumInstances) {
+      close();
+      return null;
+    }
+
+    int i = m_IncrementalIndex++;
+    double[] values = new double[numAttributes];
+    if (m_ValueBytes == 4) {
+      for (int j = 0; j < numAttributes; j++) {
+        values[j] = m_Columns[j].getFloat(i * 4);
+      }
+    } else {
+      for (int j = 0; j < numAttributes; j++) {
+        values[j] = m_Columns[j].getDouble(i * 8);
+      }
+    }
+    Instance current = new DenseInstance(m_Weights.getDouble(i * 8), values);
+    current.setDataset(structure);
+    return current;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13477 $");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the name of an input file.
+   */
+  public static void main(String[] args) {
+    runFileLoader(new ColumnarBinaryLoader(), args);
+  }
+}
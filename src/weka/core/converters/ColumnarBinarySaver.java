@@ -0,0 +1,422 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarBinarySaver.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Writes the instances in a columnar binary format that
+ * ColumnarBinaryLoader memory-maps: the header once, then one little-endian
+ * block of values per attribute and a block of weights.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -float
+ *  Stores values as floats instead of doubles
+ *  (halves the size, numeric values lose precision)</pre>
+ *
+ * <pre> -i &lt;the input file&gt;
+ * The input file</pre>
+ *
+ * <pre> -o &lt;the output file&gt;
+ * The output file</pre>
+ *
+ <!-- options-end -->
+ *
+ * @version $Revision: 13477 $
+ * @see ColumnarBinaryLoader
+ */
+public class ColumnarBinarySaver extends AbstractFileSaver implements
+  BatchConverter {
+
+  /** for serialization */
+  private static final long serialVersionUID = -2207513904326591044L;
+
+  /** the size of the blocks written at once */
+  protected static final int BLOCK = 1 << 16;
+
+  /** whether to store values as floats */
+  protected boolean m_FloatValues = false;
+
+  /** the output stream */
+  protected transient OutputStream m_Output;
+
+  /** Constructor */
+  public ColumnarBinarySaver() {
+    resetOptions();
+  }
+
+  /**
+   * Returns a string describing this Saver.
+   *
+   * @return a description of the Saver suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Writes the instances in a columnar binary format that "
+      + "ColumnarBinaryLoader memory-maps: the header once, then one "
+      + "little-endian block of values per attribute and a block of weights.";
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  @Override
+  public String getFileDescription() {
+    return "Memory-mapped columnar instances";
+  }
+
+  /**
+   * Resets the Saver.
+   */
+  @Override
+  public void resetOptions() {
+
+    super.resetOptions();
+    setFileExtension(ColumnarBinaryLoader.FILE_EXTENSION);
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+    Vector<Option> result = new Vector<Option>();
+
+    result.addElement(new Option(
+      "\tStores values as floats instead of doubles\n"
+        + "\t(halves the size, numeric values lose precision)", "float", 0,
+      "-float"));
+
+    result.addAll(Collections.list(super.listOptions()));
+
+    return result.elements();
+  }
+
+  /**
+   * returns the options of the current setup
+   *
+   * @return the current options
+   */
+  @Override
+  public String[] getOptions() {
+
+    Vector<String> result = new Vector<String>();
+
+    if (getFloatValues()) {
+      result.add("-float");
+    }
+
+    Collections.addAll(result, super.getOptions());
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Parses the options for this object.
+   * <p/>
+   *
+   <!-- options-start -->
+   * Valid options are: <p/>
+   *
+   * <pre> -float
+   *  Stores values as floats instead of doubles
+   *  (halves the size, numeric values lose precision)</pre>
+   *
+   * <pre> -i &lt;the input file&gt;
+   * The input file</pre>
+   *
+   * <pre> -o &lt;the output file&gt;
+   * The output file</pre>
+   *
+   <!-- options-end -->
+   *
+   * @param options the options to use
+   * @throws Exception if setting of options fails
+   */
+  @Override
+  public void setOptions(String[] options) throws Exception {
+
+    setFloatValues(Utils.getFlag("float", options));
+
+    super.setOptions(options);
+
+    Utils.checkForRemainingOptions(options);
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String floatValuesTipText() {
+    return "Stores values as floats, which halves the size of the file; "
+      + "numeric values lose precision.";
+  }
+
+  /**
+   * Gets whether values are stored as floats.
+   *
+   * @return true if values are stored as floats
+   */
+  public boolean getFloatValues() {
+    return m_FloatValues;
+  }
+
+  /**
+   * Sets whether to store values as floats.
+   *
+   * @param value true to store values as floats
+   */
+  public void setFloatValues(boolean value) {
+    m_FloatValues = value;
+  }
+
+  /**
+   * Returns the Capabilities of this saver.
+   *
+   * @return the capabilities of this object
+   * @see Capabilities
+   */
+  @Override
+  public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+
+    // attributes
+    result.enable(Capability.NOMINAL_ATTRIBUTES);
+    result.enable(Capability.NUMERIC_ATTRIBUTES);
+    result.enable(Capability.DATE_ATTRIBUTES);
+    result.enable(Capability.STRING_ATTRIBUTES);
+    result.enable(Capability.MISSING_VALUES);
+
+    // class
+    result.enable(Capability.NOMINAL_CLASS);
+    result.enable(Capability.NUMERIC_CLASS);
+    result.enable(Capability.DATE_CLASS);
+    result.enable(Capability.STRING_CLASS);
+    result.enable(Capability.MISSING_CLASS_VALUES);
+    result.enable(Capability.NO_CLASS);
+
+    return result;
+  }
+
+  /**
+   * Resets the writer, setting the output stream to null.
+   */
+  @Override
+  public void resetWriter() {
+    super.resetWriter();
+
+    m_Output = null;
+  }
+
+  /**
+   * Sets the destination output stream.
+   *
+   * @param output the output stream.
+   * @throws IOException throws an IOException if destination cannot be set
+   */
+  @Override
+  public void setDestination(OutputStream output) throws IOException {
+    super.setDestination(output);
+
+    m_Output = output;
+  }
+
+  /**
+   * Rounds an offset up to a multiple of 8, so columns are aligned.
+   *
+   * @param offset the offset
+   * @return the aligned offset
+   */
+  protected static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  /**
+   * Writes a Batch of instances.
+   *
+   * @throws IOException throws IOException if saving in batch mode is not
+   *           possible
+   */
+  @Override
+  public void writeBatch() throws IOException {
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+    }
+
+    Instances data = getInstances();
+    if (data == null) {
+      throw new IOException("No instances to save");
+    }
+    if (data.checkForAttributeType(Attribute.RELATIONAL)) {
+      throw new IOException("Relational attributes are not supported");
+    }
+
+    setRetrieval(BATCH);
+
+    if (m_Output == null) {
+      throw new IOException("No output for columnar binary data.");
+    }
+
+    setWriteMode(WRITE);
+    int n = data.numInstances();
+    int numAttributes = data.numAttributes();
+    int valueBytes = m_FloatValues ? 4 : 8;
+    byte[] header = new Instances(data, 0).toString().getBytes(
+      ColumnarBinaryLoader.UTF8);
+    long dataOffset = align(ColumnarBinaryLoader.PREAMBLE + header.length);
+    long stringTable = 0;
+    if (data.checkForAttributeType(Attribute.STRING)) {
+      stringTable = dataOffset + (long) numAttributes * n * valueBytes
+        + (long) n * 8;
+    }
+
+    WritableByteChannel out = Channels.newChannel(m_Output);
+    ByteBuffer buffer = ByteBuffer.allocate(BLOCK).order(
+      ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(ColumnarBinaryLoader.MAGIC);
+    buffer.putInt(ColumnarBinaryLoader.VERSION);
+    buffer.putInt(n);
+    buffer.putInt(numAttributes);
+    buffer.putInt(data.classIndex());
+    buffer.putInt(valueBytes);
+    buffer.putInt(header.length);
+    buffer.putInt(0);
+    buffer.putLong(stringTable);
+    flush(out, buffer);
+    out.write(ByteBuffer.wrap(header));
+    buffer.put(new byte[(int) (dataOffset - ColumnarBinaryLoader.PREAMBLE
+      - header.length)]);
+
+    for (int j = 0; j < numAttributes; j++) {
+      double[] column = data.attributeToDoubleArray(j);
+      for (double value : column) {
+        if (buffer.remaining() < 8) {
+          flush(out, buffer);
+        }
+        if (m_FloatValues) {
+          buffer.putFloat((float) value);
+        } else {
+          buffer.putDouble(value);
+        }
+      }
+    }
+    for (double weight : data.weightsToDoubleArray()) {
+      if (buffer.remaining() < 8) {
+        flush(out, buffer);
+      }
+      buffer.putDouble(weight);
+    }
+    flush(out, buffer);
+
+    if (stringTable != 0) {
+      for (int j = 0; j < numAttributes; j++) {
+        Attribute att = data.attribute(j);
+        if (!att.isString()) {
+          continue;
+        }
+        buffer.putInt(att.numValues());
+        for (int k = 0; k < att.numValues(); k++) {
+          byte[] value = att.value(k).getBytes(ColumnarBinaryLoader.UTF8);
+          if (buffer.remaining() < 4 + value.length) {
+            flush(out, buffer);
+          }
+          if (buffer.remaining() < 4 + value.length) {
+            ByteBuffer large = ByteBuffer.allocate(4 + value.length).order(
+              ByteOrder.LITTLE_ENDIAN);
+            large.putInt(value.length).put(value);
+            flush(out, large);
+          } else {
+            buffer.putInt(value.length).put(value);
+          }
+        }
+        flush(out, buffer);
+      }
+    }
+
+    m_Output.flush();
+    m_Output.close();
+    setWriteMode(WAIT);
+    resetWriter();
+    setWriteMode(CANCEL);
+  }
+
+  /**
+   * Writes the content of a buffer and clears it.
+   *
+   * @param out the channel to write to
+   * @param buffer the buffer
+   * @throws IOException if writing fails
+   */
+  private static void flush(WritableByteChannel out, ByteBuffer buffer)
+    throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13477 $");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the options of a Saver.
+   */
+  public static void main(String[] args) {
+    runFileSaver(new ColumnarBinarySaver(), args);
+  }
+}
@@ -682,6 +682,8 @@ public class ConverterUtils implements Serializable, RevisionHandler {
   public final static String CORE_FILE_LOADERS = weka.core.converters.ArffLoader.class
     .getName()
     + ","
+    + weka.core.converters.ColumnarBinaryLoader.class.getName()
+    + ","
     // + weka.core.converters.C45Loader.class.getName() + ","
     + weka.core.converters.CSVLoader.class.getName()
     + ","
@@ -703,6 +705,8 @@ public class ConverterUtils implements Serializable, RevisionHandler {
   public final static String CORE_FILE_SAVERS = weka.core.converters.ArffSaver.class
     .getName()
     + ","
+    + weka.core.converters.ColumnarBinarySaver.class.getName()
+    + ","
     // + weka.core.converters.C45Saver.class.getName() + ","
     + weka.core.converters.CSVSaver.class.getName()
     + ","
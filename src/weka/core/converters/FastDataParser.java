@@ -0,0 +1,1624 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FastDataParser.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader.ArffReader;
+
+/**
+ * Parses the data section of an ARFF file, or the rows of a CSV file, held in
+ * a character buffer. It accepts the grammar of ArffLoader.ArffReader and
+ * CSVLoader and produces the same instances, but without a StreamTokenizer:
+ * tokens are ranges of the buffer, nominal values are looked up in a table
+ * keyed by characters and numbers are converted by
+ * parseDouble(char[], int, int), so no String is created for numeric or
+ * nominal values. String, date and relational values still go through the
+ * attribute.
+ * <p>
+ * A row never spans lines, so the buffer can be split at line ends and the
+ * pieces parsed on several threads, provided that parsing does not change the
+ * header (no string, date or relational attributes).
+ *
+ * @version $Revision: 13477 $
+ * @see ArffLoader#setFastParsing(boolean)
+ * @see CSVLoader#setFastParsing(boolean)
+ */
+public class FastDataParser implements RevisionHandler {
+
+  /**
+   * Splits a character buffer into tokens the way ArffReader or CSVLoader
+   * configure their StreamTokenizer. A token is a range of a character array:
+   * the buffer itself, or a copy if a quoted value contains escapes.
+   */
+  public static class Tokenizer {
+
+    /** token type at the end of the buffer */
+    public static final int TT_EOF = -1;
+
+    /** token type at the end of a line */
+    public static final int TT_EOL = '\n';
+
+    /** token type of a value, quoted or not */
+    public static final int TT_WORD = -3;
+
+    /** character class of characters returned as tokens of their own */
+    protected static final byte ORDINARY = 0;
+
+    /** character class of characters separating tokens */
+    protected static final byte WHITESPACE = 1;
+
+    /** character class of the characters of values */
+    protected static final byte WORD = 2;
+
+    /** character class of quotes */
+    protected static final byte QUOTE = 3;
+
+    /** character class of characters starting a comment */
+    protected static final byte COMMENT = 4;
+
+    /** the buffer */
+    protected final char[] m_Chars;
+
+    /** the position of the next character to read */
+    protected int m_Pos;
+
+    /** the end of the range to read */
+    protected final int m_End;
+
+    /** the class of the characters below 256; the others are word characters */
+    protected final byte[] m_Classes = new byte[256];
+
+    /** a copy of the last quoted value if it contained escapes */
+    protected char[] m_Copy = new char[64];
+
+    /** the type of the last token */
+    public int m_Type;
+
+    /** whether the last token was quoted */
+    public boolean m_Quoted;
+
+    /** the array holding the text of the last token */
+    public char[] m_Text;
+
+    /** the start of the text of the last token */
+    public int m_From;
+
+    /** the end (exclusive) of the text of the last token */
+    public int m_To;
+
+    /** the position of the last token in the buffer */
+    protected int m_TokenStart;
+
+    /**
+     * Creates a tokenizer for a range of a buffer.
+     *
+     * @param chars the buffer
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @param arff true for the syntax of ARFF data, false for CSV rows
+     * @param separator the field separator
+     * @param enclosures the quote characters
+     */
+    public Tokenizer(char[] chars, int from, int to, boolean arff,
+      char separator, char[] enclosures) {
+
+      m_Chars = chars;
+      m_Pos = from;
+      m_End = to;
+      m_TokenStart = from;
+
+      // same order as ArffReader.initTokenizer() or CSVLoader.initTokenizer()
+      // followed by ordinaryChar(separator), later settings win
+      if (arff) {
+        Arrays.fill(m_Classes, 0, ' ' + 1, WHITESPACE);
+        Arrays.fill(m_Classes, ' ' + 1, 256, WORD);
+        setClass(separator, WHITESPACE);
+        m_Classes['%'] = COMMENT;
+        for (char e : enclosures) {
+          setClass(e, QUOTE);
+        }
+        m_Classes['{'] = ORDINARY;
+        m_Classes['}'] = ORDINARY;
+      } else {
+        Arrays.fill(m_Classes, 0, ' ', WHITESPACE);
+        Arrays.fill(m_Classes, ' ', 256, WORD);
+        for (char e : enclosures) {
+          setClass(e, QUOTE);
+        }
+        setClass(separator, ORDINARY);
+      }
+    }
+
+    /**
+     * Sets the class of a character, ignored above 255 like StreamTokenizer
+     * does.
+     *
+     * @param c the character
+     * @param type the class
+     */
+    protected void setClass(char c, byte type) {
+      if (c < 256) {
+        m_Classes[c] = type;
+      }
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return the type of the token: TT_WORD, TT_EOL, TT_EOF or the character
+     *         of an ordinary token
+     */
+    public int next() {
+      char[] chars = m_Chars;
+      byte[] classes = m_Classes;
+      int end = m_End;
+      int pos = m_Pos;
+
+      m_Quoted = false;
+      while (pos < end) {
+        char c = chars[pos];
+        byte type = c < 256 ? classes[c] : WORD;
+        if (type == WHITESPACE) {
+          pos++;
+          if (c == '\n' || c == '\r') {
+            if (c == '\r' && pos < end && chars[pos] == '\n') {
+              pos++;
+            }
+            m_TokenStart = pos;
+            m_Pos = pos;
+            return m_Type = TT_EOL;
+          }
+          continue;
+        }
+        m_TokenStart = pos;
+        if (type == COMMENT) {
+          while (pos < end && chars[pos] != '\n' && chars[pos] != '\r') {
+            pos++;
+          }
+          continue;
+        }
+        if (type == WORD) {
+          int start = pos;
+          do {
+            pos++;
+          } while (pos < end
+            && ((c = chars[pos]) >= 256 || classes[c] == WORD));
+          m_Text = chars;
+          m_From = start;
+          m_To = pos;
+          m_Pos = pos;
+          return m_Type = TT_WORD;
+        }
+        if (type == QUOTE) {
+          return quoted(pos + 1, c);
+        }
+        m_Text = chars;
+        m_From = pos;
+        m_To = pos + 1;
+        m_Pos = pos + 1;
+        return m_Type = c;
+      }
+      m_TokenStart = pos;
+      m_Pos = pos;
+      return m_Type = TT_EOF;
+    }
+
+    /**
+     * Reads a quoted value, which ends at the closing quote or at the end of
+     * the line. Escapes are resolved as by StreamTokenizer.
+     *
+     * @param pos the position after the opening quote
+     * @param quote the quote character
+     * @return TT_WORD
+     */
+    protected int quoted(int pos, char quote) {
+      char[] chars = m_Chars;
+      int end = m_End;
+      int start = pos;
+
+      m_Quoted = true;
+      while (pos < end) {
+        char d = chars[pos];
+        if (d == quote || d == '\n' || d == '\r' || d == '\\') {
+          break;
+        }
+        pos++;
+      }
+      if (pos == end || chars[pos] != '\\') {
+        m_Text = chars;
+        m_From = start;
+        m_To = pos;
+        m_Pos = (pos < end && chars[pos] == quote) ? pos + 1 : pos;
+        return m_Type = TT_WORD;
+      }
+
+      // the value contains escapes, resolve them in a copy
+      int length = pos - start;
+      if (m_Copy.length < end - start) {
+        m_Copy = new char[end - start];
+      }
+      System.arraycopy(chars, start, m_Copy, 0, length);
+      while (pos < end) {
+        char d = chars[pos];
+        if (d == quote || d == '\n' || d == '\r') {
+          break;
+        }
+        pos++;
+        if (d != '\\') {
+          m_Copy[length++] = d;
+          continue;
+        }
+        if (pos == end) {
+          m_Copy[length++] = (char) -1;
+          break;
+        }
+        int c = chars[pos++];
+        if (c >= '0' && c <= '7') {
+          int first = c;
+          c -= '0';
+          if (pos < end && chars[pos] >= '0' && chars[pos] <= '7') {
+            c = (c << 3) + (chars[pos++] - '0');
+            if (pos < end && chars[pos] >= '0' && chars[pos] <= '7'
+              && first <= '3') {
+              c = (c << 3) + (chars[pos++] - '0');
+            }
+          }
+        } else {
+          switch (c) {
+          case 'a':
+            c = 0x7;
+            break;
+          case 'b':
+            c = '\b';
+            break;
+          case 'f':
+            c = 0xC;
+            break;
+          case 'n':
+            c = '\n';
+            break;
+          case 'r':
+            c = '\r';
+            break;
+          case 't':
+            c = '\t';
+            break;
+          case 'v':
+            c = 0xB;
+            break;
+          default:
+            break;
+          }
+        }
+        m_Copy[length++] = (char) c;
+      }
+      m_Text = m_Copy;
+      m_From = 0;
+      m_To = length;
+      m_Pos = (pos < end && chars[pos] == quote) ? pos + 1 : pos;
+      return m_Type = TT_WORD;
+    }
+
+    /**
+     * Returns true if the last token is the missing value, an unquoted "?".
+     *
+     * @return true if the token is ?
+     */
+    public boolean isMissing() {
+      return m_Type == TT_WORD && !m_Quoted && m_To - m_From == 1
+        && m_Text[m_From] == '?';
+    }
+
+    /**
+     * Returns true if the text of the last token equals a string.
+     *
+     * @param s the string
+     * @return true if the text equals s
+     */
+    public boolean textEquals(String s) {
+      return FastDataParser.equals(m_Text, m_From, m_To, s);
+    }
+
+    /**
+     * Returns the text of the last token.
+     *
+     * @return the text as a new String
+     */
+    public String text() {
+      return new String(m_Text, m_From, m_To - m_From);
+    }
+
+    /**
+     * Returns the line number of the last token, counted from the start of
+     * the buffer.
+     *
+     * @return the line number, starting at 1
+     */
+    public int lineNo() {
+      return FastDataParser.lineNo(m_Chars, m_TokenStart);
+    }
+
+    /**
+     * Describes the last token the way StreamTokenizer does.
+     *
+     * @return the description
+     */
+    @Override
+    public String toString() {
+      String token;
+      switch (m_Type) {
+      case TT_EOF:
+        token = "EOF";
+        break;
+      case TT_EOL:
+        token = "EOL";
+        break;
+      case TT_WORD:
+        token = text();
+        break;
+      default:
+        token = "'" + (char) m_Type + "'";
+      }
+      return "Token[" + token + "], line " + lineNo();
+    }
+  }
+
+  /**
+   * The values of a nominal attribute, looked up by a range of characters.
+   * Open addressing with linear probing; indices are assigned in the order
+   * the labels are added.
+   */
+  public static class LabelTable {
+
+    /** the labels in index order */
+    protected String[] m_Labels = new String[8];
+
+    /** the characters of the labels */
+    protected char[][] m_Keys = new char[8][];
+
+    /** the slots: index of a label plus one, 0 if empty */
+    protected int[] m_Slots = new int[16];
+
+    /** the number of labels */
+    protected int m_Size;
+
+    /**
+     * Creates an empty table.
+     */
+    public LabelTable() {
+    }
+
+    /**
+     * Creates a table holding the values of a nominal attribute, with the
+     * same indices.
+     *
+     * @param att the attribute
+     */
+    public LabelTable(Attribute att) {
+      for (int i = 0; i < att.numValues(); i++) {
+        add(att.value(i));
+      }
+    }
+
+    /**
+     * Returns the number of labels.
+     *
+     * @return the number of labels
+     */
+    public int size() {
+      return m_Size;
+    }
+
+    /**
+     * Returns a label.
+     *
+     * @param index the index of the label
+     * @return the label
+     */
+    public String label(int index) {
+      return m_Labels[index];
+    }
+
+    /**
+     * Computes the hash of a range of characters, consistent with
+     * String.hashCode().
+     *
+     * @param chars the characters
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the hash code
+     */
+    protected static int hash(char[] chars, int from, int to) {
+      int h = 0;
+      for (int i = from; i < to; i++) {
+        h = 31 * h + chars[i];
+      }
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the index of a label.
+     *
+     * @param chars the characters of the label
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the index, or -1 if the label is not in the table
+     */
+    public int indexOf(char[] chars, int from, int to) {
+      int mask = m_Slots.length - 1;
+      int length = to - from;
+      for (int slot = hash(chars, from, to) & mask;; slot = (slot + 1) & mask) {
+        int entry = m_Slots[slot];
+        if (entry == 0) {
+          return -1;
+        }
+        char[] key = m_Keys[entry - 1];
+        if (key.length == length) {
+          int i = 0;
+          while (i < length && key[i] == chars[from + i]) {
+            i++;
+          }
+          if (i == length) {
+            return entry - 1;
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds a label unless already present.
+     *
+     * @param chars the characters of the label
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the index of the label
+     */
+    public int add(char[] chars, int from, int to) {
+      int index = indexOf(chars, from, to);
+      if (index >= 0) {
+        return index;
+      }
+      return insert(Arrays.copyOfRange(chars, from, to), null);
+    }
+
+    /**
+     * Adds a label unless already present.
+     *
+     * @param label the label
+     * @return the index of the label
+     */
+    public int add(String label) {
+      char[] key = label.toCharArray();
+      int index = indexOf(key, 0, key.length);
+      if (index >= 0) {
+        return index;
+      }
+      return insert(key, label);
+    }
+
+    /**
+     * Inserts a new label.
+     *
+     * @param key the characters of the label
+     * @param label the label, or null to create it from key
+     * @return the index of the label
+     */
+    protected int insert(char[] key, String label) {
+      if (m_Size == m_Labels.length) {
+        m_Labels = Arrays.copyOf(m_Labels, m_Size * 2);
+        m_Keys = Arrays.copyOf(m_Keys, m_Size * 2);
+      }
+      m_Labels[m_Size] = label != null ? label : new String(key);
+      m_Keys[m_Size] = key;
+      m_Size++;
+      if (m_Size * 2 > m_Slots.length) {
+        m_Slots = new int[m_Slots.length * 2];
+        for (int i = 0; i < m_Size; i++) {
+          place(i);
+        }
+      } else {
+        place(m_Size - 1);
+      }
+      return m_Size - 1;
+    }
+
+    /**
+     * Puts a label into the first free slot of its probe sequence.
+     *
+     * @param index the index of the label
+     */
+    protected void place(int index) {
+      int mask = m_Slots.length - 1;
+      char[] key = m_Keys[index];
+      int slot = hash(key, 0, key.length) & mask;
+      while (m_Slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      m_Slots[slot] = index + 1;
+    }
+  }
+
+  /**
+   * A reader over a character array that tells how far it has been read;
+   * used to find where the data starts after ArffReader has read the header.
+   */
+  public static class CharReader extends Reader {
+
+    /** the characters */
+    protected final char[] m_Chars;
+
+    /** the position of the next character */
+    protected int m_Pos;
+
+    /** whether the end has been reached */
+    protected boolean m_EOF;
+
+    /**
+     * Creates the reader.
+     *
+     * @param chars the characters to read
+     */
+    public CharReader(char[] chars) {
+      m_Chars = chars;
+    }
+
+    @Override
+    public int read() {
+      if (m_Pos == m_Chars.length) {
+        m_EOF = true;
+        return -1;
+      }
+      return m_Chars[m_Pos++];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (m_Pos == m_Chars.length) {
+        m_EOF = true;
+        return -1;
+      }
+      int n = Math.min(len, m_Chars.length - m_Pos);
+      System.arraycopy(m_Chars, m_Pos, cbuf, off, n);
+      m_Pos += n;
+      return n;
+    }
+
+    /**
+     * Returns the position of the first character a StreamTokenizer reading
+     * from this reader has not used yet: it always reads one character beyond
+     * the last token.
+     *
+     * @return the position in the array
+     */
+    public int tokenizerPosition() {
+      return m_EOF ? m_Pos : m_Pos - 1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** powers of ten that are exact as doubles */
+  protected static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+    1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+    1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /** the largest mantissa that is exact as a double */
+  protected static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /** the buffer */
+  protected final char[] m_Chars;
+
+  /** the start of the range to parse */
+  protected final int m_From;
+
+  /** the end of the range to parse (exclusive) */
+  protected final int m_To;
+
+  /** true for ARFF data, false for CSV rows */
+  protected final boolean m_Arff;
+
+  /** the field separator */
+  protected final char m_Separator;
+
+  /** the quote characters */
+  protected final char[] m_Enclosures;
+
+  /** the tokenizer */
+  protected Tokenizer m_Tokenizer;
+
+  /** the header the instances are parsed for */
+  protected Instances m_Data;
+
+  /** the lookup tables of nominal attributes, null for other attributes */
+  protected LabelTable[] m_Labels;
+
+  /** the values of a sparse instance */
+  protected double[] m_ValueBuffer;
+
+  /** the indices of a sparse instance */
+  protected int[] m_IndicesBuffer;
+
+  /** whether string values are added to the header (batch mode) */
+  protected boolean m_BatchMode = true;
+
+  /** whether string values are retained when reading incrementally */
+  protected boolean m_RetainStringValues = true;
+
+  /** the string representing a missing value in CSV rows */
+  protected String m_MissingValue = "?";
+
+  /**
+   * For string attributes of CSV data that were numeric up to some row: the
+   * first row whose value is taken as it is; earlier values are trimmed.
+   */
+  protected int[] m_TrimBefore;
+
+  /** the number of CSV rows read */
+  protected int m_Row;
+
+  /** the number of fields of the last CSV row */
+  protected int m_NumFields;
+
+  /** whether the fields of the last CSV row are empty or missing */
+  protected boolean[] m_FieldMissing = new boolean[16];
+
+  /** the arrays holding the text of the fields of the last CSV row */
+  protected char[][] m_FieldText = new char[16][];
+
+  /** the start of the text of the fields of the last CSV row */
+  protected int[] m_FieldFrom = new int[16];
+
+  /** the end of the text of the fields of the last CSV row */
+  protected int[] m_FieldTo = new int[16];
+
+  /**
+   * Creates a parser for a range of a buffer.
+   *
+   * @param chars the buffer
+   * @param from the start of the range, at the start of a line
+   * @param to the end of the range (exclusive)
+   * @param structure the header, may be null for CSV rows read with
+   *          readFields() only
+   * @param arff true for ARFF data, false for CSV rows
+   * @param fieldSepAndEnclosures optional field separator and enclosures, as
+   *          for ArffReader; defaults are ',' and both quotes
+   */
+  public FastDataParser(char[] chars, int from, int to, Instances structure,
+    boolean arff, String... fieldSepAndEnclosures) {
+
+    char separator = ',';
+    char[] enclosures = { '"', '\'' };
+    if (fieldSepAndEnclosures != null && fieldSepAndEnclosures.length > 0) {
+      if (fieldSepAndEnclosures[0] != null
+        && fieldSepAndEnclosures[0].length() > 0) {
+        separator = fieldSepAndEnclosures[0].charAt(0);
+      }
+      StringBuilder quotes = new StringBuilder();
+      for (int i = 1; i < fieldSepAndEnclosures.length; i++) {
+        if (fieldSepAndEnclosures[i] != null
+          && fieldSepAndEnclosures[i].length() > 0) {
+          quotes.append(fieldSepAndEnclosures[i].charAt(0));
+        }
+      }
+      if (quotes.length() > 0) {
+        enclosures = quotes.toString().toCharArray();
+      }
+    }
+
+    m_Chars = chars;
+    m_From = from;
+    m_To = to;
+    m_Arff = arff;
+    m_Separator = separator;
+    m_Enclosures = enclosures;
+    m_Tokenizer = new Tokenizer(chars, from, to, arff, separator, enclosures);
+    if (structure != null) {
+      setStructure(structure);
+    }
+  }
+
+  /**
+   * Creates a parser for a piece of the range of another one, sharing its
+   * settings and lookup tables.
+   *
+   * @param parent the parser to copy the settings from
+   * @param from the start of the piece, at the start of a line
+   * @param to the end of the piece (exclusive)
+   */
+  protected FastDataParser(FastDataParser parent, int from, int to) {
+    m_Chars = parent.m_Chars;
+    m_From = from;
+    m_To = to;
+    m_Arff = parent.m_Arff;
+    m_Separator = parent.m_Separator;
+    m_Enclosures = parent.m_Enclosures;
+    m_Tokenizer = new Tokenizer(m_Chars, from, to, m_Arff, m_Separator,
+      m_Enclosures);
+    m_Data = parent.m_Data;
+    m_Labels = parent.m_Labels;
+    m_ValueBuffer = new double[m_Data.numAttributes()];
+    m_IndicesBuffer = new int[m_Data.numAttributes()];
+    m_BatchMode = parent.m_BatchMode;
+    m_RetainStringValues = parent.m_RetainStringValues;
+    m_MissingValue = parent.m_MissingValue;
+    m_TrimBefore = parent.m_TrimBefore;
+  }
+
+  /**
+   * Reads all characters of a reader, which is not closed.
+   *
+   * @param reader the reader
+   * @return the characters, in an array of exactly their number
+   * @throws IOException if reading fails
+   */
+  public static char[] read(Reader reader) throws IOException {
+    char[] chars = new char[1 << 16];
+    int length = 0;
+    int n;
+    while ((n = reader.read(chars, length, chars.length - length)) >= 0) {
+      length += n;
+      if (length == chars.length) {
+        chars = Arrays.copyOf(chars, chars.length * 2);
+      }
+    }
+    return Arrays.copyOf(chars, length);
+  }
+
+  /**
+   * Converts a range of characters to a double, with the same result as
+   * Double.parseDouble() on the same characters. Plain decimal numbers whose
+   * digits form an integer of at most 2^53 and whose decimal exponent is at
+   * most 22 in magnitude are converted by a single multiplication or
+   * division; everything else is passed on to Double.parseDouble().
+   *
+   * @param chars the characters
+   * @param from the start of the range
+   * @param to the end of the range (exclusive)
+   * @return the number
+   * @throws NumberFormatException if the characters are not a number
+   */
+  public static double parseDouble(char[] chars, int from, int to) {
+    int i = from;
+    int end = to;
+    while (i < end && chars[i] <= ' ') {
+      i++;
+    }
+    while (end > i && chars[end - 1] <= ' ') {
+      end--;
+    }
+
+    boolean negative = false;
+    if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+      negative = chars[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int significant = 0;
+    int exponent = 0;
+    boolean digits = false;
+    char c;
+    while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+      digits = true;
+      if (mantissa != 0 || c != '0') {
+        if (++significant > 18) {
+          return slowParseDouble(chars, from, to);
+        }
+        mantissa = mantissa * 10 + (c - '0');
+      }
+      i++;
+    }
+    if (i < end && chars[i] == '.') {
+      i++;
+      while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+        digits = true;
+        if (mantissa != 0 || c != '0') {
+          if (++significant > 18) {
+            return slowParseDouble(chars, from, to);
+          }
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        exponent--;
+        i++;
+      }
+    }
+    if (!digits) {
+      return slowParseDouble(chars, from, to);
+    }
+    if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+        negativeExponent = chars[i] == '-';
+        i++;
+      }
+      int value = 0;
+      boolean exponentDigits = false;
+      while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+        exponentDigits = true;
+        if (value < 100000) {
+          value = value * 10 + (c - '0');
+        }
+        i++;
+      }
+      if (!exponentDigits) {
+        return slowParseDouble(chars, from, to);
+      }
+      exponent += negativeExponent ? -value : value;
+    }
+    if (i != end) {
+      return slowParseDouble(chars, from, to);
+    }
+
+    // the conversion of the mantissa and the power of ten are exact, so
+    // the result is rounded once, correctly
+    double result;
+    if (mantissa == 0) {
+      result = 0.0;
+    } else if (exponent == 0) {
+      result = mantissa;
+    } else if (mantissa > MAX_EXACT_MANTISSA) {
+      return slowParseDouble(chars, from, to);
+    } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+      result = mantissa * POWERS_OF_TEN[exponent];
+    } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+      result = mantissa / POWERS_OF_TEN[-exponent];
+    } else {
+      return slowParseDouble(chars, from, to);
+    }
+    return negative ? -result : result;
+  }
+
+  /**
+   * Converts a range of characters with Double.parseDouble().
+   *
+   * @param chars the characters
+   * @param from the start of the range
+   * @param to the end of the range (exclusive)
+   * @return the number
+   * @throws NumberFormatException if the characters are not a number
+   */
+  protected static double slowParseDouble(char[] chars, int from, int to) {
+    return Double.parseDouble(new String(chars, from, to - from));
+  }
+
+  /**
+   * Converts a range of characters to an int, with the same result as
+   * Integer.parseInt().
+   *
+   * @param chars the characters
+   * @param from the start of the range
+   * @param to the end of the range (exclusive)
+   * @return the number
+   * @throws NumberFormatException if the characters are not an integer
+   */
+  public static int parseInt(char[] chars, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (chars[i] == '-' || chars[i] == '+')) {
+      negative = chars[i] == '-';
+      i++;
+    }
+    if (i == to || to - i > 9) {
+      return Integer.parseInt(new String(chars, from, to - from));
+    }
+    int result = 0;
+    for (; i < to; i++) {
+      char c = chars[i];
+      if (c < '0' || c > '9') {
+        return Integer.parseInt(new String(chars, from, to - from));
+      }
+      result = result * 10 + (c - '0');
+    }
+    return negative ? -result : result;
+  }
+
+  /**
+   * Returns true if a range of characters equals a string.
+   *
+   * @param chars the characters
+   * @param from the start of the range
+   * @param to the end of the range (exclusive)
+   * @param s the string
+   * @return true if the characters equal s
+   */
+  public static boolean equals(char[] chars, int from, int to, String s) {
+    if (to - from != s.length()) {
+      return false;
+    }
+    for (int i = from; i < to; i++) {
+      if (chars[i] != s.charAt(i - from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of the line a position is in.
+   *
+   * @param chars the characters
+   * @param pos the position
+   * @return the line number, starting at 1
+   */
+  public static int lineNo(char[] chars, int pos) {
+    int line = 1;
+    for (int i = 0; i < pos && i < chars.length; i++) {
+      if (chars[i] == '\n' || (chars[i] == '\r'
+        && (i + 1 == chars.length || chars[i + 1] != '\n'))) {
+        line++;
+      }
+    }
+    return line;
+  }
+
+  /**
+   * Sets the header the instances are parsed for and builds the lookup
+   * tables of its nominal attributes.
+   *
+   * @param structure the header
+   */
+  public void setStructure(Instances structure) {
+    m_Data = structure;
+    m_Labels = new LabelTable[structure.numAttributes()];
+    for (int i = 0; i < structure.numAttributes(); i++) {
+      if (structure.attribute(i).isNominal()) {
+        m_Labels[i] = new LabelTable(structure.attribute(i));
+      }
+    }
+    m_ValueBuffer = new double[structure.numAttributes()];
+    m_IndicesBuffer = new int[structure.numAttributes()];
+  }
+
+  /**
+   * Sets whether the data is read in batch mode, in which case string values
+   * are added to the header.
+   *
+   * @param batch true for batch mode
+   */
+  public void setBatchMode(boolean batch) {
+    m_BatchMode = batch;
+  }
+
+  /**
+   * Sets whether to retain string values in the header when reading
+   * incrementally.
+   *
+   * @param retain true if string values are to be retained
+   */
+  public void setRetainStringValues(boolean retain) {
+    m_RetainStringValues = retain;
+  }
+
+  /**
+   * Sets the string representing a missing value in CSV rows.
+   *
+   * @param value the missing value
+   */
+  public void setMissingValue(String value) {
+    m_MissingValue = value;
+  }
+
+  /**
+   * Sets, for CSV string attributes that were numeric up to some row, the
+   * first row whose value is taken as it is. Values of earlier rows are
+   * trimmed, as CSVLoader does.
+   *
+   * @param rows the row per attribute, -1 for attributes that never were
+   *          numeric
+   */
+  public void setTrimBefore(int[] rows) {
+    m_TrimBefore = rows;
+  }
+
+  /**
+   * Returns the tokenizer.
+   *
+   * @return the tokenizer
+   */
+  public Tokenizer getTokenizer() {
+    return m_Tokenizer;
+  }
+
+  /**
+   * Returns the position in the buffer where parsing continues.
+   *
+   * @return the position
+   */
+  public int getPosition() {
+    return m_Tokenizer.m_Pos;
+  }
+
+  /**
+   * Throws an error message with the line number and the last token read.
+   *
+   * @param msg the error message
+   * @throws IOException containing the error message
+   */
+  protected void errorMessage(String msg) throws IOException {
+    throw new IOException(msg + ", read " + m_Tokenizer.toString());
+  }
+
+  /**
+   * Reads the next instance.
+   *
+   * @param structure the header, will get updated in case of string or
+   *          relational attributes
+   * @return the instance, or null at the end of the range
+   * @throws IOException if the data cannot be parsed
+   */
+  public Instance readInstance(Instances structure) throws IOException {
+    if (structure != m_Data) {
+      setStructure(structure);
+    }
+    if (m_Data.numAttributes() == 0) {
+      errorMessage("no header information available");
+    }
+    if (!m_Arff) {
+      return readCSVInstance();
+    }
+
+    Tokenizer tokenizer = m_Tokenizer;
+    while (tokenizer.next() == Tokenizer.TT_EOL) {
+    }
+    if (tokenizer.m_Type == Tokenizer.TT_EOF) {
+      return null;
+    }
+    if (tokenizer.m_Type == '{') {
+      return readSparseInstance();
+    } else {
+      return readFullInstance();
+    }
+  }
+
+  /**
+   * Reads the rest of the range.
+   *
+   * @param structure the header, will get updated in case of string or
+   *          relational attributes
+   * @param numThreads the number of threads to parse with, 0 for one per
+   *          available processor; ignored if the header has string, date or
+   *          relational attributes
+   * @return the instances
+   * @throws IOException if the data cannot be parsed
+   */
+  public Instances readAll(final Instances structure, int numThreads)
+    throws IOException {
+    return readAll(structure, numThreads, new Instances(structure, 0));
+  }
+
+  /**
+   * Reads the rest of the range into the given dataset, e.g. one prepared
+   * for columnar storage. The instances parsed by each thread are released
+   * once they have been added.
+   *
+   * @param structure the header, will get updated in case of string or
+   *          relational attributes
+   * @param numThreads the number of threads to parse with, 0 for one per
+   *          available processor; ignored if the header has string, date or
+   *          relational attributes
+   * @param result the dataset to add the instances to, with the header's
+   *          attributes
+   * @return result
+   * @throws IOException if the data cannot be parsed
+   */
+  public Instances readAll(final Instances structure, int numThreads,
+    Instances result) throws IOException {
+    if (structure != m_Data) {
+      setStructure(structure);
+    }
+    if (numThreads == 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    if (numThreads < 2 || structure.checkForAttributeType(Attribute.STRING)
+      || structure.checkForAttributeType(Attribute.DATE)
+      || structure.checkForAttributeType(Attribute.RELATIONAL)) {
+      Instance inst;
+      while ((inst = readInstance(structure)) != null) {
+        result.add(inst);
+      }
+      return result;
+    }
+
+    int[] bounds = split(numThreads);
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<List<Instance>>> pieces =
+        new ArrayList<Future<List<Instance>>>();
+      for (int k = 0; k < numThreads; k++) {
+        final FastDataParser piece =
+          new FastDataParser(this, bounds[k], bounds[k + 1]);
+        pieces.add(pool.submit(new Callable<List<Instance>>() {
+          @Override
+          public List<Instance> call() throws IOException {
+            List<Instance> instances = new ArrayList<Instance>();
+            Instance inst;
+            while ((inst = piece.readInstance(structure)) != null) {
+              instances.add(inst);
+            }
+            return instances;
+          }
+        }));
+      }
+      for (int k = 0; k < pieces.size(); k++) {
+        for (Instance inst : pieces.get(k).get()) {
+          result.add(inst);
+        }
+        pieces.set(k, null);
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    m_Tokenizer.m_Pos = m_To;
+
+    return result;
+  }
+
+  /**
+   * Splits the rest of the range into pieces of about the same size, each
+   * starting at the start of a line. A line end preceded by a backslash is
+   * skipped, as it may be escaped inside a quoted value.
+   *
+   * @param numPieces the number of pieces
+   * @return the bounds of the pieces, numPieces + 1 positions
+   */
+  protected int[] split(int numPieces) {
+    int start = m_Tokenizer.m_Pos;
+    int[] bounds = new int[numPieces + 1];
+    bounds[0] = start;
+    for (int k = 1; k < numPieces; k++) {
+      int pos = (int) (start + (long) (m_To - start) * k / numPieces);
+      pos = Math.max(pos, bounds[k - 1]);
+      while (pos < m_To) {
+        if (m_Chars[pos] == '\n') {
+          int last = pos - 1;
+          if (last >= 0 && m_Chars[last] == '\r') {
+            last--;
+          }
+          if (last < 0 || m_Chars[last] != '\\') {
+            pos++;
+            break;
+          }
+        }
+        pos++;
+      }
+      bounds[k] = pos;
+    }
+    bounds[numPieces] = m_To;
+    return bounds;
+  }
+
+  /**
+   * Gets the next token of a value, checking for a premature end of line.
+   *
+   * @throws IOException if it finds a premature end of line or file
+   */
+  protected void nextValue() throws IOException {
+    if (m_Tokenizer.next() == Tokenizer.TT_EOL) {
+      errorMessage("premature end of line");
+    }
+    if (m_Tokenizer.m_Type == Tokenizer.TT_EOF) {
+      errorMessage("premature end of file");
+    }
+  }
+
+  /**
+   * Converts the last token to the internal value of an attribute.
+   *
+   * @param index the index of the attribute
+   * @param sparse true if the value is part of a sparse instance
+   * @return the value
+   * @throws IOException if the token is not a valid value
+   */
+  protected double value(int index, boolean sparse) throws IOException {
+    Tokenizer tokenizer = m_Tokenizer;
+    if (tokenizer.isMissing()) {
+      return Utils.missingValue();
+    }
+    if (tokenizer.m_Type != Tokenizer.TT_WORD) {
+      errorMessage("not a valid value");
+    }
+
+    Attribute att = m_Data.attribute(index);
+    switch (att.type()) {
+    case Attribute.NOMINAL:
+      int valIndex =
+        m_Labels[index].indexOf(tokenizer.m_Text, tokenizer.m_From,
+          tokenizer.m_To);
+      if (valIndex == -1) {
+        errorMessage("nominal value not declared in header");
+      }
+      return valIndex;
+    case Attribute.NUMERIC:
+      try {
+        return parseDouble(tokenizer.m_Text, tokenizer.m_From, tokenizer.m_To);
+      } catch (NumberFormatException e) {
+        errorMessage("number expected");
+      }
+      break;
+    case Attribute.STRING:
+      if (m_BatchMode || m_RetainStringValues) {
+        return att.addStringValue(tokenizer.text());
+      }
+      if (sparse) {
+        att.addStringValue(tokenizer.text());
+      } else {
+        att.setStringValue(tokenizer.text());
+      }
+      return 0;
+    case Attribute.DATE:
+      try {
+        return att.parseDate(tokenizer.text());
+      } catch (ParseException e) {
+        errorMessage("unparseable date: " + tokenizer.text());
+      }
+      break;
+    case Attribute.RELATIONAL:
+      try {
+        ArffReader arff =
+          new ArffReader(new StringReader(tokenizer.text()), att.relation(), 0);
+        return att.addRelation(arff.getData());
+      } catch (Exception e) {
+        throw new IOException(e.toString() + " of line " + tokenizer.lineNo());
+      }
+    default:
+      errorMessage("unknown attribute type in column " + index);
+    }
+    return Utils.missingValue();
+  }
+
+  /**
+   * Reads the weight following the values of an instance, if any, and the end
+   * of the line after it.
+   *
+   * @return the weight, 1 if none is given
+   * @throws IOException if the weight is malformed
+   */
+  protected double readWeight() throws IOException {
+    Tokenizer tokenizer = m_Tokenizer;
+    tokenizer.next();
+    if (tokenizer.m_Type != '{') {
+      return 1.0;
+    }
+    tokenizer.next();
+    if (tokenizer.m_Type != Tokenizer.TT_WORD) {
+      return 1.0;
+    }
+    double weight;
+    try {
+      weight =
+        parseDouble(tokenizer.m_Text, tokenizer.m_From, tokenizer.m_To);
+    } catch (NumberFormatException e) {
+      return 1.0;
+    }
+    if (tokenizer.next() != '}') {
+      errorMessage("Problem reading instance weight");
+    }
+    if (tokenizer.next() != Tokenizer.TT_EOL
+      && tokenizer.m_Type != Tokenizer.TT_EOF) {
+      errorMessage("end of line expected");
+    }
+    return weight;
+  }
+
+  /**
+   * Reads an instance in dense format; the first token has been read.
+   *
+   * @return the instance
+   * @throws IOException if the data cannot be parsed
+   */
+  protected Instance readFullInstance() throws IOException {
+    double[] instance = new double[m_Data.numAttributes()];
+    for (int i = 0; i < instance.length; i++) {
+      if (i > 0) {
+        nextValue();
+      }
+      instance[i] = value(i, false);
+    }
+
+    Instance inst = new DenseInstance(readWeight(), instance);
+    inst.setDataset(m_Data);
+    return inst;
+  }
+
+  /**
+   * Reads an instance in sparse format; the opening brace has been read.
+   *
+   * @return the instance
+   * @throws IOException if the data cannot be parsed
+   */
+  protected Instance readSparseInstance() throws IOException {
+    Tokenizer tokenizer = m_Tokenizer;
+    int numValues = 0, maxIndex = -1;
+
+    if (!m_BatchMode && !m_RetainStringValues) {
+      for (int i = 0; i < m_Data.numAttributes(); i++) {
+        if (m_Data.attribute(i).isString()) {
+          m_Data.attribute(i).setStringValue(null);
+        }
+      }
+    }
+
+    while (true) {
+      if (tokenizer.next() == Tokenizer.TT_EOL) {
+        errorMessage("premature end of line");
+      }
+      if (tokenizer.m_Type == Tokenizer.TT_EOF) {
+        errorMessage("premature end of file");
+      }
+      if (tokenizer.m_Type == '}') {
+        break;
+      }
+
+      int index = -1;
+      try {
+        if (tokenizer.m_Type != Tokenizer.TT_WORD) {
+          throw new NumberFormatException();
+        }
+        index = parseInt(tokenizer.m_Text, tokenizer.m_From, tokenizer.m_To);
+      } catch (NumberFormatException e) {
+        errorMessage("index number expected");
+      }
+      if (index <= maxIndex) {
+        errorMessage("indices have to be ordered");
+      }
+      if (index < 0 || index >= m_Data.numAttributes()) {
+        errorMessage("index out of bounds");
+      }
+      maxIndex = index;
+
+      nextValue();
+      m_ValueBuffer[numValues] = value(index, true);
+      m_IndicesBuffer[numValues] = index;
+      numValues++;
+    }
+
+    double weight = readWeight();
+    Instance inst =
+      new SparseInstance(weight, Arrays.copyOf(m_ValueBuffer, numValues),
+        Arrays.copyOf(m_IndicesBuffer, numValues), m_Data.numAttributes());
+    inst.setDataset(m_Data);
+    return inst;
+  }
+
+  /**
+   * Reads the fields of the next CSV row, skipping empty lines. A field is
+   * missing if it is empty, blank or the missing value; a field separator at
+   * the end of the line is followed by a missing field.
+   *
+   * @return the number of fields, or -1 at the end of the range
+   */
+  public int readFields() {
+    Tokenizer tokenizer = m_Tokenizer;
+    while (tokenizer.next() == Tokenizer.TT_EOL) {
+    }
+    if (tokenizer.m_Type == Tokenizer.TT_EOF) {
+      return -1;
+    }
+
+    int n = 0;
+    boolean first = true;
+    while (tokenizer.m_Type != Tokenizer.TT_EOL
+      && tokenizer.m_Type != Tokenizer.TT_EOF) {
+      if (!first) {
+        tokenizer.next();
+      }
+      first = false;
+      if (n == m_FieldMissing.length) {
+        m_FieldMissing = Arrays.copyOf(m_FieldMissing, n * 2);
+        m_FieldText = Arrays.copyOf(m_FieldText, n * 2);
+        m_FieldFrom = Arrays.copyOf(m_FieldFrom, n * 2);
+        m_FieldTo = Arrays.copyOf(m_FieldTo, n * 2);
+      }
+
+      if (tokenizer.m_Type == m_Separator
+        || tokenizer.m_Type == Tokenizer.TT_EOL
+        || tokenizer.m_Type == Tokenizer.TT_EOF) {
+        m_FieldMissing[n++] = true;
+        continue;
+      }
+
+      boolean blank = true;
+      for (int i = tokenizer.m_From; i < tokenizer.m_To && blank; i++) {
+        blank = tokenizer.m_Text[i] <= ' ';
+      }
+      m_FieldMissing[n] = blank || tokenizer.textEquals(m_MissingValue);
+      if (tokenizer.m_Text == m_Chars) {
+        m_FieldText[n] = m_Chars;
+        m_FieldFrom[n] = tokenizer.m_From;
+        m_FieldTo[n] = tokenizer.m_To;
+      } else {
+        m_FieldText[n] = Arrays.copyOfRange(tokenizer.m_Text,
+          tokenizer.m_From, tokenizer.m_To);
+        m_FieldFrom[n] = 0;
+        m_FieldTo[n] = m_FieldText[n].length;
+      }
+      n++;
+      tokenizer.next();
+    }
+    m_NumFields = n;
+    return n;
+  }
+
+  /**
+   * Returns true if a field of the last CSV row is empty, blank or the missing
+   * value.
+   *
+   * @param index the index of the field
+   * @return true if the field is missing
+   */
+  public boolean isFieldMissing(int index) {
+    return m_FieldMissing[index];
+  }
+
+  /**
+   * Returns the array holding the text of a field of the last CSV row.
+   *
+   * @param index the index of the field
+   * @return the array
+   */
+  public char[] fieldText(int index) {
+    return m_FieldText[index];
+  }
+
+  /**
+   * Returns the start of the text of a field of the last CSV row.
+   *
+   * @param index the index of the field
+   * @return the start of the range
+   */
+  public int fieldFrom(int index) {
+    return m_FieldFrom[index];
+  }
+
+  /**
+   * Returns the end of the text of a field of the last CSV row.
+   *
+   * @param index the index of the field
+   * @return the end of the range (exclusive)
+   */
+  public int fieldTo(int index) {
+    return m_FieldTo[index];
+  }
+
+  /**
+   * Returns the text of a field of the last CSV row.
+   *
+   * @param index the index of the field
+   * @return the text as a new String
+   */
+  public String fieldString(int index) {
+    return new String(m_FieldText[index], m_FieldFrom[index], m_FieldTo[index]
+      - m_FieldFrom[index]);
+  }
+
+  /**
+   * Reads the next CSV row as an instance.
+   *
+   * @return the instance, or null at the end of the range
+   * @throws IOException if the row cannot be parsed
+   */
+  protected Instance readCSVInstance() throws IOException {
+    int n = readFields();
+    if (n < 0) {
+      return null;
+    }
+    if (n != m_Data.numAttributes()) {
+      errorMessage("wrong number of values. Read " + n + ", expected "
+        + m_Data.numAttributes());
+    }
+
+    double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      char[] text = m_FieldText[i];
+      int from = m_FieldFrom[i];
+      int to = m_FieldTo[i];
+      if (m_FieldMissing[i]) {
+        values[i] = Utils.missingValue();
+        continue;
+      }
+
+      Attribute att = m_Data.attribute(i);
+      switch (att.type()) {
+      case Attribute.NUMERIC:
+        try {
+          values[i] = parseDouble(text, from, to);
+        } catch (NumberFormatException e) {
+          errorMessage("number expected for attribute " + att.name());
+        }
+        break;
+      case Attribute.NOMINAL:
+        values[i] = m_Labels[i].indexOf(text, from, to);
+        if (values[i] < 0) {
+          errorMessage("nominal value " + fieldString(i)
+            + " not declared in header for attribute " + att.name());
+        }
+        break;
+      case Attribute.STRING:
+        String value = fieldString(i);
+        if (m_TrimBefore != null && m_Row < m_TrimBefore[i]) {
+          value = value.trim();
+        }
+        if (m_BatchMode || m_RetainStringValues) {
+          values[i] = att.addStringValue(value);
+        } else {
+          att.setStringValue(value);
+        }
+        break;
+      case Attribute.DATE:
+        try {
+          values[i] = att.parseDate(fieldString(i));
+        } catch (ParseException e) {
+          errorMessage("unparseable date: " + fieldString(i));
+        }
+        break;
+      default:
+        errorMessage("unsupported attribute type in column " + i);
+      }
+    }
+    m_Row++;
+
+    Instance inst = new DenseInstance(1.0, values);
+    inst.setDataset(m_Data);
+    return inst;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 13477 $");
+  }
+}
@@ -225,6 +225,45 @@ public class BallTree
     
     m_Root = m_TreeConstructor.buildTree();
   }
+
+  /**
+   * Returns true unless performance statistics are collected, as the search 
+   * of a target only reads the tree.
+   * 
+   * @return		true if the targets can be searched concurrently
+   */
+  public boolean supportsConcurrentQueries() {
+    return m_Stats == null;
+  }
+
+  /**
+   * Searches the neighbours of one target, keeping the heap and the 
+   * distances in the call.
+   * 
+   * @param target 	The instance to find the neighbours for.
+   * @param k		The number of neighbours to find.
+   * @param indices	Receives the indices of the neighbours at index pos.
+   * @param distances	Receives their distances at index pos.
+   * @param pos		The index to store the neighbours at.
+   * @throws Exception 	If the neighbours could not be found.
+   */
+  protected void searchTarget(Instance target, int k, int[][] indices,
+      double[][] distances, int pos) throws Exception {
+    MyHeap heap = new MyHeap(k);
+
+    if(m_Stats!=null)
+      m_Stats.searchStart();
+
+    nearestNeighbours(heap, m_Root, target, k);
+
+    if(m_Stats!=null)
+      m_Stats.searchFinish();
+
+    indices[pos] = new int[heap.totalSize()];
+    distances[pos] = new double[heap.totalSize()];
+    drain(heap, indices[pos], distances[pos]);
+    m_DistanceFunction.postProcessDistances(distances[pos]);
+  }
    
   /**
    * Returns k nearest instances in the current neighbourhood to the supplied
@@ -26,6 +26,7 @@ import java.io.FileReader;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Vector;
 
@@ -245,6 +246,12 @@ public class CoverTree extends NearestNeighbourSearch implements
   /** Tree Stats variables. */
   protected TreePerformanceStats m_TreeStats = null;
 
+  /**
+   * The indices of the training instances, for mapping the neighbours found
+   * by searchTarget(Instance, int, int[][], double[][], int) back to rows.
+   */
+  protected transient IdentityHashMap<Instance, Integer> m_InstanceIndices;
+
   /**
    * The base of our expansion constant. In other words the 2 in 2^i used in
    * covering tree and separation invariants of a cover tree. P.S.: In paper
@@ -1646,6 +1653,75 @@ public class CoverTree extends NearestNeighbourSearch implements
 
   /********************************* NNSearch related stuff above. ********************/
 
+  /**
+   * Returns true unless performance statistics are collected, as the search of
+   * a target builds its own query tree and only reads this one.
+   * 
+   * @return true if the targets can be searched concurrently
+   */
+  @Override
+  public boolean supportsConcurrentQueries() {
+    return m_Stats == null;
+  }
+
+  /**
+   * Returns the indices of the training instances by identity, creating them
+   * on first use.
+   * 
+   * @return the map from training instance to its index
+   */
+  protected synchronized IdentityHashMap<Instance, Integer> instanceIndices() {
+    if (m_InstanceIndices == null) {
+      IdentityHashMap<Instance, Integer> indices = new IdentityHashMap<Instance, Integer>(
+        m_Instances.numInstances());
+      for (int i = 0; i < m_Instances.numInstances(); i++) {
+        indices.put(m_Instances.instance(i), i);
+      }
+      m_InstanceIndices = indices;
+    }
+    return m_InstanceIndices;
+  }
+
+  /**
+   * Searches the neighbours of one target with its own query tree, keeping the
+   * results in the call.
+   * 
+   * @param target The instance for which k-NNs are required.
+   * @param k The number of k-NNs to find.
+   * @param indices Receives the indices of the neighbours at index pos.
+   * @param distances Receives their distances at index pos.
+   * @param pos The index to store the neighbours at.
+   * @throws Exception If there is some problem find the k-NNs.
+   */
+  @Override
+  protected void searchTarget(Instance target, int k, int[][] indices,
+    double[][] distances, int pos) throws Exception {
+    IdentityHashMap<Instance, Integer> instanceIndices = instanceIndices();
+    if (m_Stats != null) {
+      m_Stats.searchStart();
+    }
+    CoverTree querytree = new CoverTree();
+    Instances insts = new Instances(m_Instances, 0);
+    insts.add(target);
+    querytree.setInstances(insts);
+    Stack<NeighborList> result = new Stack<NeighborList>();
+    batch_nearest_neighbor(k, this.m_Root, querytree.m_Root, result);
+    if (m_Stats != null) {
+      m_Stats.searchFinish();
+    }
+
+    NeighborNode node = result.element(0).getFirst();
+    indices[pos] = new int[result.element(0).currentLength()];
+    distances[pos] = new double[indices[pos].length];
+    int i = 0;
+    while (node != null) {
+      indices[pos][i] = instanceIndices.get(node.m_Instance);
+      distances[pos][i] = node.m_Distance;
+      i++;
+      node = node.m_Next;
+    }
+  }
+
   /**
    * Returns k-NNs of a given target instance, from among the previously
    * supplied training instances (supplied through setInstances method) P.S.:
@@ -1748,6 +1824,7 @@ public class CoverTree extends NearestNeighbourSearch implements
   @Override
   public void setInstances(Instances instances) throws Exception {
     super.setInstances(instances);
+    m_InstanceIndices = null;
     buildCoverTree(instances);
   }
 
@@ -0,0 +1,983 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    HNSWSearch.java
+ *
+ */
+
+package weka.core.neighboursearch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Class implementing approximate nearest neighbour search with a hierarchical navigable small world graph (HNSW). Every instance is linked to some of its near neighbours on layer 0 and, with exponentially decreasing probability, on sparser layers above. A search descends greedily from the top layer and then explores layer 0 with a beam, computing the distances of a small part of the instances only. Larger beam widths and more links per instance give a higher recall at the cost of speed. Unlike the KDTree and the BallTree it does not degrade to a linear scan on high-dimensional data such as word vectors. The neighbours found are not always the exact ones, and there are never more than k of them, even if several instances lie at the distance of the k-th.<br/>
+ * <br/>
+ * For more information see:<br/>
+ * <br/>
+ * Yu. A. Malkov, D. A. Yashunin (2020). Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs. IEEE Transactions on Pattern Analysis and Machine Intelligence. 42(4):824-836.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- technical-bibtex-start -->
+ * BibTeX:
+ * <pre>
+ * &#64;article{Malkov2020,
+ *    author = {Yu. A. Malkov and D. A. Yashunin},
+ *    journal = {IEEE Transactions on Pattern Analysis and Machine Intelligence},
+ *    number = {4},
+ *    pages = {824-836},
+ *    title = {Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs},
+ *    volume = {42},
+ *    year = {2020}
+ * }
+ * </pre>
+ * <p/>
+ <!-- technical-bibtex-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -M &lt;num&gt;
+ *  Number of links per instance on the upper layers, twice that on layer 0.
+ *  (default 16)</pre>
+ *
+ * <pre> -C &lt;num&gt;
+ *  Beam width while inserting instances.
+ *  (default 100)</pre>
+ *
+ * <pre> -E &lt;num&gt;
+ *  Beam width while searching, at least k.
+ *  (default 50)</pre>
+ *
+ * <pre> -S &lt;num&gt;
+ *  Random number seed for the layers of the instances.
+ *  (default 1)</pre>
+ *
+ * <pre> -A &lt;classname and options&gt;
+ *  Distance function to use.
+ *  (default: weka.core.EuclideanDistance)</pre>
+ *
+ * <pre> -P
+ *  Calculate performance statistics.</pre>
+ *
+ <!-- options-end -->
+ *
+ * @version $Revision: 12479 $
+ */
+public class HNSWSearch
+  extends NearestNeighbourSearch
+  implements TechnicalInformationHandler {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -2719573096341251845L;
+
+  /**
+   * A binary heap of rows by distance, the nearest or the furthest on top.
+   */
+  protected static class Candidates
+    implements RevisionHandler {
+
+    /** the distances. */
+    protected double[] m_Distances;
+
+    /** the rows. */
+    protected int[] m_Rows;
+
+    /** the number of rows in the heap. */
+    protected int m_Size;
+
+    /** whether the furthest row is on top. */
+    protected boolean m_Furthest;
+
+    /**
+     * Creates an empty heap.
+     *
+     * @param capacity	the initial capacity
+     * @param furthest	whether the furthest row is on top
+     */
+    public Candidates(int capacity, boolean furthest) {
+      m_Distances = new double[Math.max(capacity, 1)];
+      m_Rows = new int[m_Distances.length];
+      m_Furthest = furthest;
+    }
+
+    /**
+     * Returns the number of rows in the heap.
+     *
+     * @return		the number of rows
+     */
+    public int size() {
+      return m_Size;
+    }
+
+    /**
+     * Returns the distance of the row on top.
+     *
+     * @return		the distance
+     */
+    public double topDistance() {
+      return m_Distances[0];
+    }
+
+    /**
+     * Returns the row on top.
+     *
+     * @return		the row
+     */
+    public int topRow() {
+      return m_Rows[0];
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param distance	the distance of the row
+     * @param row	the row
+     */
+    public void push(double distance, int row) {
+      if (m_Size == m_Rows.length) {
+	m_Distances = Arrays.copyOf(m_Distances, 2 * m_Size);
+	m_Rows = Arrays.copyOf(m_Rows, 2 * m_Size);
+      }
+      int i = m_Size++;
+      while (i > 0) {
+	int parent = (i - 1) / 2;
+	if (!before(distance, m_Distances[parent]))
+	  break;
+	m_Distances[i] = m_Distances[parent];
+	m_Rows[i] = m_Rows[parent];
+	i = parent;
+      }
+      m_Distances[i] = distance;
+      m_Rows[i] = row;
+    }
+
+    /**
+     * Removes the row on top.
+     */
+    public void pop() {
+      m_Size--;
+      double distance = m_Distances[m_Size];
+      int row = m_Rows[m_Size];
+      int i = 0;
+      while (2 * i + 1 < m_Size) {
+	int child = 2 * i + 1;
+	if (child + 1 < m_Size && before(m_Distances[child + 1], m_Distances[child]))
+	  child++;
+	if (!before(m_Distances[child], distance))
+	  break;
+	m_Distances[i] = m_Distances[child];
+	m_Rows[i] = m_Rows[child];
+	i = child;
+      }
+      m_Distances[i] = distance;
+      m_Rows[i] = row;
+    }
+
+    /**
+     * Returns whether a distance belongs above another one.
+     *
+     * @param a		the first distance
+     * @param b		the second distance
+     * @return		true if a belongs above b
+     */
+    protected boolean before(double a, double b) {
+      return m_Furthest ? a > b : a < b;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return		the revision
+     */
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision: 12479 $");
+    }
+  }
+
+  /** the distances of the neighbours found by the last search. */
+  protected double[] m_Distances;
+
+  /** the number of links per instance on the upper layers. */
+  protected int m_MaxConnections = 16;
+
+  /** the beam width while inserting instances. */
+  protected int m_ConstructionBeamWidth = 100;
+
+  /** the beam width while searching. */
+  protected int m_SearchBeamWidth = 50;
+
+  /** the seed for the layers of the instances. */
+  protected int m_Seed = 1;
+
+  /** draws the layers of the instances. */
+  protected Random m_Random;
+
+  /**
+   * the links of the instances: m_Links[row][layer][0] is the number of
+   * links of the row on the layer, followed by the linked rows.
+   */
+  protected int[][][] m_Links;
+
+  /** the number of rows inserted into the graph. */
+  protected int m_NumIndexed;
+
+  /** the row the searches start from, -1 for an empty graph. */
+  protected int m_EntryPoint = -1;
+
+  /** the top layer of the graph. */
+  protected int m_MaxLayer = -1;
+
+  /**
+   * Constructor. Needs setInstances(Instances)
+   * to be called before the class is usable.
+   */
+  public HNSWSearch() {
+    super();
+  }
+
+  /**
+   * Constructor that builds the graph on the supplied
+   * set of instances.
+   *
+   * @param insts	the instances to use
+   * @throws Exception	if the graph could not be built
+   */
+  public HNSWSearch(Instances insts) throws Exception {
+    super();
+    setInstances(insts);
+  }
+
+  /**
+   * Returns a string describing this nearest neighbour search algorithm.
+   *
+   * @return 		a description of the algorithm for displaying in the
+   * 			explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return
+        "Class implementing approximate nearest neighbour search with a "
+      + "hierarchical navigable small world graph (HNSW). Every instance is "
+      + "linked to some of its near neighbours on layer 0 and, with "
+      + "exponentially decreasing probability, on sparser layers above. A "
+      + "search descends greedily from the top layer and then explores "
+      + "layer 0 with a beam, computing the distances of a small part of "
+      + "the instances only. Larger beam widths and more links per instance "
+      + "give a higher recall at the cost of speed. Unlike the KDTree and "
+      + "the BallTree it does not degrade to a linear scan on "
+      + "high-dimensional data such as word vectors. The neighbours found "
+      + "are not always the exact ones, and there are never more than k of "
+      + "them, even if several instances lie at the distance of the k-th.\n\n"
+      + "For more information see:\n\n"
+      + getTechnicalInformation().toString();
+  }
+
+  /**
+   * Returns an instance of a TechnicalInformation object, containing
+   * detailed information about the technical background of this class,
+   * e.g., paper reference or book this class is based on.
+   *
+   * @return 		the technical information about this class
+   */
+  public TechnicalInformation getTechnicalInformation() {
+    TechnicalInformation result;
+
+    result = new TechnicalInformation(Type.ARTICLE);
+    result.setValue(Field.AUTHOR, "Yu. A. Malkov and D. A. Yashunin");
+    result.setValue(Field.YEAR, "2020");
+    result.setValue(Field.TITLE, "Efficient and robust approximate nearest "
+      + "neighbor search using Hierarchical Navigable Small World graphs");
+    result.setValue(Field.JOURNAL,
+      "IEEE Transactions on Pattern Analysis and Machine Intelligence");
+    result.setValue(Field.VOLUME, "42");
+    result.setValue(Field.NUMBER, "4");
+    result.setValue(Field.PAGES, "824-836");
+
+    return result;
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return 		an enumeration of all the available options.
+   */
+  public Enumeration<Option> listOptions() {
+    Vector<Option> result = new Vector<Option>();
+
+    result.add(new Option(
+	"\tNumber of links per instance on the upper layers, twice that on layer 0.\n"
+	+ "\t(default 16)",
+	"M", 1, "-M <num>"));
+
+    result.add(new Option(
+	"\tBeam width while inserting instances.\n"
+	+ "\t(default 100)",
+	"C", 1, "-C <num>"));
+
+    result.add(new Option(
+	"\tBeam width while searching, at least k.\n"
+	+ "\t(default 50)",
+	"E", 1, "-E <num>"));
+
+    result.add(new Option(
+	"\tRandom number seed for the layers of the instances.\n"
+	+ "\t(default 1)",
+	"S", 1, "-S <num>"));
+
+    result.addAll(Collections.list(super.listOptions()));
+
+    return result.elements();
+  }
+
+  /**
+   * Parses a given list of options. <p/>
+   *
+   <!-- options-start -->
+   * Valid options are: <p/>
+   *
+   * <pre> -M &lt;num&gt;
+   *  Number of links per instance on the upper layers, twice that on layer 0.
+   *  (default 16)</pre>
+   *
+   * <pre> -C &lt;num&gt;
+   *  Beam width while inserting instances.
+   *  (default 100)</pre>
+   *
+   * <pre> -E &lt;num&gt;
+   *  Beam width while searching, at least k.
+   *  (default 50)</pre>
+   *
+   * <pre> -S &lt;num&gt;
+   *  Random number seed for the layers of the instances.
+   *  (default 1)</pre>
+   *
+   * <pre> -A &lt;classname and options&gt;
+   *  Distance function to use.
+   *  (default: weka.core.EuclideanDistance)</pre>
+   *
+   * <pre> -P
+   *  Calculate performance statistics.</pre>
+   *
+   <!-- options-end -->
+   *
+   * @param options 	the list of options as an array of strings
+   * @throws Exception 	if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+    String	tmpStr;
+
+    super.setOptions(options);
+
+    tmpStr = Utils.getOption('M', options);
+    if (tmpStr.length() != 0)
+      setMaxConnections(Integer.parseInt(tmpStr));
+    else
+      setMaxConnections(16);
+
+    tmpStr = Utils.getOption('C', options);
+    if (tmpStr.length() != 0)
+      setConstructionBeamWidth(Integer.parseInt(tmpStr));
+    else
+      setConstructionBeamWidth(100);
+
+    tmpStr = Utils.getOption('E', options);
+    if (tmpStr.length() != 0)
+      setSearchBeamWidth(Integer.parseInt(tmpStr));
+    else
+      setSearchBeamWidth(50);
+
+    tmpStr = Utils.getOption('S', options);
+    if (tmpStr.length() != 0)
+      setSeed(Integer.parseInt(tmpStr));
+    else
+      setSeed(1);
+
+    Utils.checkForRemainingOptions(options);
+  }
+
+  /**
+   * Gets the current settings.
+   *
+   * @return 		an array of strings suitable for passing to setOptions()
+   */
+  public String[] getOptions() {
+    Vector<String>	result = new Vector<String>();
+
+    Collections.addAll(result, super.getOptions());
+
+    result.add("-M");
+    result.add("" + getMaxConnections());
+
+    result.add("-C");
+    result.add("" + getConstructionBeamWidth());
+
+    result.add("-E");
+    result.add("" + getSearchBeamWidth());
+
+    result.add("-S");
+    result.add("" + getSeed());
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String maxConnectionsTipText() {
+    return "The number of links per instance on the upper layers, twice that "
+      + "on layer 0; more links give a higher recall, but take more memory "
+      + "and time.";
+  }
+
+  /**
+   * Sets the number of links per instance on the upper layers. Takes effect
+   * when the graph is built next.
+   *
+   * @param value	the number of links, at least 2
+   */
+  public void setMaxConnections(int value) {
+    if (value >= 2)
+      m_MaxConnections = value;
+    else
+      System.err.println("Number of links must be at least 2!");
+  }
+
+  /**
+   * Gets the number of links per instance on the upper layers.
+   *
+   * @return 		the number of links
+   */
+  public int getMaxConnections() {
+    return m_MaxConnections;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String constructionBeamWidthTipText() {
+    return "The number of candidates explored while inserting an instance; "
+      + "wider beams give a better graph, but take longer to build.";
+  }
+
+  /**
+   * Sets the beam width while inserting instances.
+   *
+   * @param value	the beam width, at least 1
+   */
+  public void setConstructionBeamWidth(int value) {
+    if (value >= 1)
+      m_ConstructionBeamWidth = value;
+    else
+      System.err.println("Beam width must be at least 1!");
+  }
+
+  /**
+   * Gets the beam width while inserting instances.
+   *
+   * @return 		the beam width
+   */
+  public int getConstructionBeamWidth() {
+    return m_ConstructionBeamWidth;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String searchBeamWidthTipText() {
+    return "The number of candidates explored while searching, at least k; "
+      + "wider beams give a higher recall at the cost of speed. Can be "
+      + "changed without rebuilding the graph.";
+  }
+
+  /**
+   * Sets the beam width while searching.
+   *
+   * @param value	the beam width, at least 1
+   */
+  public void setSearchBeamWidth(int value) {
+    if (value >= 1)
+      m_SearchBeamWidth = value;
+    else
+      System.err.println("Beam width must be at least 1!");
+  }
+
+  /**
+   * Gets the beam width while searching.
+   *
+   * @return 		the beam width
+   */
+  public int getSearchBeamWidth() {
+    return m_SearchBeamWidth;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String seedTipText() {
+    return "The random number seed for the layers of the instances.";
+  }
+
+  /**
+   * Sets the random number seed for the layers of the instances.
+   *
+   * @param value	the seed
+   */
+  public void setSeed(int value) {
+    m_Seed = value;
+  }
+
+  /**
+   * Gets the random number seed for the layers of the instances.
+   *
+   * @return 		the seed
+   */
+  public int getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns the number of links an instance can have on a layer.
+   *
+   * @param layer	the layer
+   * @return		the number of links
+   */
+  protected int maxLinks(int layer) {
+    return (layer == 0) ? 2 * m_MaxConnections : m_MaxConnections;
+  }
+
+  /**
+   * Returns the distance of a target from a row, before
+   * postProcessDistances(double[]) of the distance function.
+   *
+   * @param target	the target
+   * @param row		the row
+   * @param cutOff	the distance beyond which the exact value is not needed
+   * @return		the distance, or a larger value than cutOff
+   */
+  protected double distance(Instance target, int row, double cutOff) {
+    if (m_Stats != null)
+      m_Stats.incrPointCount();
+    return m_DistanceFunction.distance(target, m_Instances.instance(row),
+	cutOff, m_Stats);
+  }
+
+  /**
+   * Explores a layer from the given entry rows with a beam of the given
+   * width.
+   *
+   * @param target	the target
+   * @param entryRows	the rows to start from
+   * @param entryDistances	their distances from the target
+   * @param width	the beam width
+   * @param layer	the layer
+   * @return		the (at most width) nearest rows found, the furthest
+   * 			on top
+   */
+  protected Candidates searchLayer(Instance target, int[] entryRows,
+      double[] entryDistances, int width, int layer) {
+
+    BitSet visited = new BitSet(m_NumIndexed);
+    Candidates candidates = new Candidates(width, false);
+    Candidates nearest = new Candidates(width + 1, true);
+    for (int i = 0; i < entryRows.length; i++) {
+      visited.set(entryRows[i]);
+      candidates.push(entryDistances[i], entryRows[i]);
+      nearest.push(entryDistances[i], entryRows[i]);
+      if (nearest.size() > width)
+	nearest.pop();
+    }
+
+    while (candidates.size() > 0) {
+      if (candidates.topDistance() > nearest.topDistance())
+	break;
+      int row = candidates.topRow();
+      candidates.pop();
+
+      int[] links = m_Links[row][layer];
+      for (int n = 1; n <= links[0]; n++) {
+	int next = links[n];
+	if (visited.get(next))
+	  continue;
+	visited.set(next);
+	double cutOff = (nearest.size() < width) ? Double.POSITIVE_INFINITY
+	    : nearest.topDistance();
+	double distance = distance(target, next, cutOff);
+	if (distance < cutOff) {
+	  candidates.push(distance, next);
+	  nearest.push(distance, next);
+	  if (nearest.size() > width)
+	    nearest.pop();
+	}
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Descends greedily from the entry point to the given layer.
+   *
+   * @param target	the target
+   * @param layer	the layer to stop at
+   * @param row		receives the nearest row found at index 0
+   * @param distance	receives its distance at index 0
+   */
+  protected void descend(Instance target, int layer, int[] row,
+      double[] distance) {
+
+    row[0] = m_EntryPoint;
+    distance[0] = distance(target, m_EntryPoint, Double.POSITIVE_INFINITY);
+    for (int l = m_MaxLayer; l > layer; l--) {
+      Candidates nearest = searchLayer(target, row, distance, 1, l);
+      row[0] = nearest.topRow();
+      distance[0] = nearest.topDistance();
+    }
+  }
+
+  /**
+   * Empties a heap returned by searchLayer into arrays, nearest first.
+   *
+   * @param nearest	the heap
+   * @param rows	receives the rows
+   * @param distances	receives their distances
+   */
+  protected void drain(Candidates nearest, int[] rows, double[] distances) {
+    for (int i = nearest.size() - 1; i >= 0; i--) {
+      rows[i] = nearest.topRow();
+      distances[i] = nearest.topDistance();
+      nearest.pop();
+    }
+  }
+
+  /**
+   * Selects the rows to link to, with the heuristic of the paper: a
+   * candidate is skipped if it is nearer to an already selected row than
+   * to the instance, which keeps links into several directions.
+   *
+   * @param rows	the candidates, nearest first
+   * @param distances	their distances from the instance
+   * @param count	the maximum number of rows to select
+   * @return		the selected rows
+   */
+  protected int[] selectLinks(int[] rows, double[] distances, int count) {
+    int[] selected = new int[Math.min(count, rows.length)];
+    int numSelected = 0;
+    for (int i = 0; i < rows.length && numSelected < selected.length; i++) {
+      Instance candidate = m_Instances.instance(rows[i]);
+      boolean keep = true;
+      for (int j = 0; j < numSelected && keep; j++)
+	keep = distance(candidate, selected[j], distances[i]) >= distances[i];
+      if (keep)
+	selected[numSelected++] = rows[i];
+    }
+    return Arrays.copyOf(selected, numSelected);
+  }
+
+  /**
+   * Links a row to another one on a layer. If the row has no free link
+   * left, its links are selected anew from the old ones and the new one.
+   *
+   * @param from	the row to link from
+   * @param to		the row to link to
+   * @param layer	the layer
+   */
+  protected void link(int from, int to, int layer) {
+    int[] links = m_Links[from][layer];
+    if (links[0] < links.length - 1) {
+      links[++links[0]] = to;
+      return;
+    }
+
+    Instance inst = m_Instances.instance(from);
+    int[] rows = new int[links[0] + 1];
+    double[] distances = new double[rows.length];
+    System.arraycopy(links, 1, rows, 0, links[0]);
+    rows[links[0]] = to;
+    for (int i = 0; i < rows.length; i++)
+      distances[i] = distance(inst, rows[i], Double.POSITIVE_INFINITY);
+    int[] order = Utils.sort(distances);
+    int[] sortedRows = new int[rows.length];
+    double[] sortedDistances = new double[rows.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedRows[i] = rows[order[i]];
+      sortedDistances[i] = distances[order[i]];
+    }
+
+    int[] selected = selectLinks(sortedRows, sortedDistances, links.length - 1);
+    links[0] = selected.length;
+    System.arraycopy(selected, 0, links, 1, selected.length);
+  }
+
+  /**
+   * Inserts the next row of the instances into the graph.
+   */
+  protected void insertNext() {
+    int row = m_NumIndexed;
+    Instance inst = m_Instances.instance(row);
+    int layer = (int) (-Math.log(1.0 - m_Random.nextDouble())
+	/ Math.log(m_MaxConnections));
+
+    if (row >= m_Links.length)
+      m_Links = Arrays.copyOf(m_Links, Math.max(2 * m_Links.length, row + 1));
+    m_Links[row] = new int[layer + 1][];
+    for (int l = 0; l <= layer; l++)
+      m_Links[row][l] = new int[maxLinks(l) + 1];
+
+    if (m_EntryPoint < 0) {
+      m_EntryPoint = row;
+      m_MaxLayer = layer;
+      m_NumIndexed++;
+      return;
+    }
+
+    int[] entryRows = new int[1];
+    double[] entryDistances = new double[1];
+    descend(inst, layer, entryRows, entryDistances);
+    for (int l = Math.min(layer, m_MaxLayer); l >= 0; l--) {
+      Candidates nearest = searchLayer(inst, entryRows, entryDistances,
+	  m_ConstructionBeamWidth, l);
+      entryRows = new int[nearest.size()];
+      entryDistances = new double[nearest.size()];
+      drain(nearest, entryRows, entryDistances);
+
+      int[] selected = selectLinks(entryRows, entryDistances, m_MaxConnections);
+      for (int i = 0; i < selected.length; i++) {
+	link(row, selected[i], l);
+	link(selected[i], row, l);
+      }
+    }
+
+    if (layer > m_MaxLayer) {
+      m_MaxLayer = layer;
+      m_EntryPoint = row;
+    }
+    m_NumIndexed++;
+  }
+
+  /**
+   * Returns true unless performance statistics are collected, as the search
+   * of a target only reads the graph.
+   *
+   * @return		true if the targets can be searched concurrently
+   */
+  public boolean supportsConcurrentQueries() {
+    return m_Stats == null;
+  }
+
+  /**
+   * Searches the neighbours of one target, keeping the state in the call.
+   * The target itself is skipped if it is one of the instances.
+   *
+   * @param target 	the instance to find the neighbours for
+   * @param kNN		the number of neighbours to find
+   * @param indices	receives the indices of the neighbours at index pos
+   * @param distances	receives their distances at index pos
+   * @param pos		the index to store the neighbours at
+   * @throws Exception 	if the neighbours could not be found
+   */
+  protected void searchTarget(Instance target, int kNN, int[][] indices,
+      double[][] distances, int pos) throws Exception {
+
+    if (m_Instances == null)
+      throw new Exception("No instances supplied yet. Have to call "
+	  + "setInstances(instances) with a set of Instances first.");
+
+    if (m_Stats != null)
+      m_Stats.searchStart();
+
+    int[] rows = new int[0];
+    double[] rowDistances = new double[0];
+    if (m_EntryPoint >= 0) {
+      int[] entryRows = new int[1];
+      double[] entryDistances = new double[1];
+      descend(target, 0, entryRows, entryDistances);
+      // one more, in case the target is one of the instances
+      Candidates nearest = searchLayer(target, entryRows, entryDistances,
+	  Math.max(m_SearchBeamWidth, kNN + 1), 0);
+      rows = new int[nearest.size()];
+      rowDistances = new double[nearest.size()];
+      drain(nearest, rows, rowDistances);
+    }
+
+    if (m_Stats != null)
+      m_Stats.searchFinish();
+
+    int count = 0;
+    indices[pos] = new int[Math.min(kNN, rows.length)];
+    distances[pos] = new double[indices[pos].length];
+    for (int i = 0; i < rows.length && count < indices[pos].length; i++) {
+      if (m_Instances.instance(rows[i]) == target) // for hold-one-out cross-validation
+	continue;
+      indices[pos][count] = rows[i];
+      distances[pos][count] = rowDistances[i];
+      count++;
+    }
+    if (count < indices[pos].length) {
+      indices[pos] = Arrays.copyOf(indices[pos], count);
+      distances[pos] = Arrays.copyOf(distances[pos], count);
+    }
+    m_DistanceFunction.postProcessDistances(distances[pos]);
+  }
+
+  /**
+   * Returns the nearest instance in the current neighbourhood to the supplied
+   * instance.
+   *
+   * @param target 	The instance to find the nearest neighbour for.
+   * @return		the nearest instance
+   * @throws Exception 	if the nearest neighbour could not be found.
+   */
+  public Instance nearestNeighbour(Instance target) throws Exception {
+    return (kNearestNeighbours(target, 1)).instance(0);
+  }
+
+  /**
+   * Returns (approximately) the k nearest instances in the current
+   * neighbourhood to the supplied instance, nearest first.
+   *
+   * @param target 	The instance to find the k nearest neighbours for.
+   * @param kNN		The number of nearest neighbours to find.
+   * @return		the k nearest neighbors
+   * @throws Exception  if the neighbours could not be found.
+   */
+  public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+    int[][] indices = new int[1][];
+    double[][] distances = new double[1][];
+    searchTarget(target, kNN, indices, distances, 0);
+
+    m_Distances = distances[0];
+    Instances neighbours = new Instances(m_Instances, indices[0].length);
+    for (int i = 0; i < indices[0].length; i++)
+      neighbours.add(m_Instances.instance(indices[0][i]));
+
+    return neighbours;
+  }
+
+  /**
+   * Returns the distances of the k nearest neighbours. The kNearestNeighbours
+   * or nearestNeighbour must always be called before calling this function.
+   *
+   * @return 		array containing the distances of the
+   * 			nearestNeighbours. The length and ordering of the
+   * 			array is the same as that of the instances returned
+   * 			by nearestNeighbour functions.
+   * @throws Exception 	if called before calling kNearestNeighbours
+   *            	or nearestNeighbours.
+   */
+  public double[] getDistances() throws Exception {
+    if (m_Distances == null)
+      throw new Exception("No distances available. Please call either "
+	  + "kNearestNeighbours or nearestNeighbours first.");
+    return m_Distances;
+  }
+
+  /**
+   * Sets the instances comprising the current neighbourhood and builds the
+   * graph on them.
+   *
+   * @param insts 	The set of instances on which the nearest neighbour
+   * 			search is carried out. Usually this set is the
+   * 			training set.
+   * @throws Exception	if setting of instances fails
+   */
+  public void setInstances(Instances insts) throws Exception {
+    super.setInstances(insts);
+    m_DistanceFunction.setInstances(insts);
+
+    m_Random = new Random(m_Seed);
+    m_Links = new int[insts.numInstances()][][];
+    m_NumIndexed = 0;
+    m_EntryPoint = -1;
+    m_MaxLayer = -1;
+    while (m_NumIndexed < insts.numInstances())
+      insertNext();
+  }
+
+  /**
+   * Updates the graph for the new added instance, which is expected to be
+   * the last one of the instances already. If instances have been deleted
+   * in the meantime, the graph is built anew.
+   *
+   * @param ins 	The instance to add. Usually this is the instance that
+   * 			is added to our neighbourhood i.e. the training
+   * 			instances.
+   * @throws Exception	if the given instances are null
+   */
+  public void update(Instance ins) throws Exception {
+    if (m_Instances == null)
+      throw new Exception("No instances supplied yet. Cannot update without"
+	  + "supplying a set of instances first.");
+
+    if (m_Instances.numInstances() < m_NumIndexed) {
+      setInstances(m_Instances);
+      return;
+    }
+    m_DistanceFunction.update(ins);
+    while (m_NumIndexed < m_Instances.numInstances())
+      insertNext();
+  }
+
+  /**
+   * Adds the given instance info. This implementation updates the range
+   * datastructures of the DistanceFunction class, the graph stays as it is.
+   *
+   * @param ins 	The instance to add the information of. Usually this is
+   * 			the test instance supplied to update the range of
+   * 			attributes in the  distance function.
+   */
+  public void addInstanceInfo(Instance ins) {
+    if (m_Instances != null)
+      m_DistanceFunction.update(ins);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 12479 $");
+  }
+}
@@ -24,6 +24,8 @@ package weka.core.neighboursearch;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
@@ -101,6 +103,11 @@ import weka.core.neighboursearch.kdtrees.SlidingMidPointOfWidestSide;
  *  Normalizing will be done
  *  (Select dimension for split, with normalising to universe).</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for building the tree.
+ *  (default 1 - i.e. no parallelism)
+ *  (use 0 to auto-detect number of cores)</pre>
+ * 
  <!-- options-end --> 
  * 
  * @author Gabi Schmidberger (gabi[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -150,6 +157,65 @@ public class KDTree
   /** The index of WIDTH (MAX-MIN) value in attributes' range array. */
   public static final int WIDTH = EuclideanDistance.R_WIDTH;
 
+  /** The smallest node whose two subtrees are split on separate tasks. */
+  protected static final int MIN_PARALLEL_NODE = 2048;
+
+  /**
+   * Splits a node and its subtrees for a parallel build. The subtrees of
+   * nodes with at least MIN_PARALLEL_NODE instances are forked, as they
+   * work on disjoint parts of the index list. The nodes are numbered and
+   * counted afterwards by numberNodes(KDTreeNode, int).
+   */
+  protected class SplitTask extends RecursiveAction {
+
+    /** For serialization. */
+    private static final long serialVersionUID = -4470985612458323707L;
+
+    /** The node to split. */
+    protected KDTreeNode m_Node;
+
+    /** The attribute ranges of the whole dataset. */
+    protected double[][] m_Universe;
+
+    /**
+     * Creates a task splitting the given node.
+     * 
+     * @param node The node to split.
+     * @param universe The attribute ranges of the whole dataset.
+     */
+    public SplitTask(KDTreeNode node, double[][] universe) {
+      m_Node = node;
+      m_Universe = universe;
+    }
+
+    /**
+     * Splits the node like splitNodes(KDTreeNode, double[][], int) does,
+     * without counting the nodes.
+     */
+    protected void compute() {
+      try {
+        double[][] nodeRanges = m_EuclideanDistance.initializeRanges(
+            m_InstList, m_Node.m_Start, m_Node.m_End);
+        if (m_Node.numInstances() <= m_MaxInstInLeaf
+            || getMaxRelativeNodeWidth(nodeRanges, m_Universe) <= m_MinBoxRelWidth)
+          return;
+
+        m_Splitter.splitNode(m_Node, 0, nodeRanges, m_Universe);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+
+      SplitTask left = new SplitTask(m_Node.m_Left, m_Universe);
+      SplitTask right = new SplitTask(m_Node.m_Right, m_Universe);
+      if (m_Node.numInstances() >= MIN_PARALLEL_NODE) {
+        invokeAll(left, right);
+      } else {
+        left.compute();
+        right.compute();
+      }
+    }
+  }
+
   /**
    * Returns an instance of a TechnicalInformation object, containing detailed
    * information about the technical background of this class, e.g., paper
@@ -247,7 +313,51 @@ public class KDTree
     m_Root = new KDTreeNode(m_NumNodes, 0, m_Instances.numInstances() - 1,
         universe);
 
-    splitNodes(m_Root, universe, m_MaxDepth + 1);
+    int numSlots = (m_NumExecutionSlots == 0)
+      ? Runtime.getRuntime().availableProcessors() : m_NumExecutionSlots;
+    if (numSlots > 1 && numInst >= MIN_PARALLEL_NODE) {
+      ForkJoinPool pool = new ForkJoinPool(numSlots);
+      try {
+        pool.invoke(new SplitTask(m_Root, universe));
+      } catch (RuntimeException e) {
+        Throwable cause = e;
+        while (cause instanceof RuntimeException && cause.getCause() != null)
+          cause = cause.getCause();
+        if (cause instanceof Exception)
+          throw (Exception) cause;
+        throw e;
+      } finally {
+        pool.shutdown();
+      }
+      m_NumLeaves = 0;
+      numberNodes(m_Root, m_MaxDepth + 1);
+    } else {
+      splitNodes(m_Root, universe, m_MaxDepth + 1);
+    }
+  }
+
+  /**
+   * Numbers and counts the nodes of a tree built by SplitTask the way
+   * splitNodes(KDTreeNode, double[][], int) does while splitting, so that
+   * the tree does not depend on the number of execution slots.
+   * 
+   * @param node The node whose subtree to number.
+   * @param depth The depth of the node.
+   */
+  protected void numberNodes(KDTreeNode node, int depth) {
+    if (node.isALeaf()) {
+      m_NumLeaves++;
+      return;
+    }
+    if (depth > m_MaxDepth)
+      m_MaxDepth = depth;
+
+    node.m_Left.m_NodeNumber = m_NumNodes + 1;
+    node.m_Right.m_NodeNumber = m_NumNodes + 2;
+    m_NumNodes += 2;
+
+    numberNodes(node.m_Left, depth + 1);
+    numberNodes(node.m_Right, depth + 1);
   }
 
   /** 
@@ -396,20 +506,7 @@ public class KDTree
         .noOfKthNearest()));
     m_DistanceList = new double[heap.size() + heap.noOfKthNearest()];
     int[] indices = new int[heap.size() + heap.noOfKthNearest()];
-    int i = indices.length - 1;
-    MyHeapElement h;
-    while (heap.noOfKthNearest() > 0) {
-      h = heap.getKthNearest();
-      indices[i] = h.index;
-      m_DistanceList[i] = h.distance;
-      i--;
-    }
-    while (heap.size() > 0) {
-      h = heap.get();
-      indices[i] = h.index;
-      m_DistanceList[i] = h.distance;
-      i--;
-    }
+    drain(heap, indices, m_DistanceList);
     m_DistanceFunction.postProcessDistances(m_DistanceList);
 
     for (int idx = 0; idx < indices.length; idx++) {
@@ -420,6 +517,46 @@ public class KDTree
   }
   
 
+  /**
+   * Returns true unless performance statistics are collected, as the search
+   * of a target only reads the tree and the ranges of the distance function.
+   * 
+   * @return true if the targets can be searched concurrently
+   */
+  public boolean supportsConcurrentQueries() {
+    return m_Stats == null;
+  }
+
+  /**
+   * Searches the neighbours of one target, keeping the heap and the
+   * distances in the call.
+   * 
+   * @param target The instance to find the neighbours for.
+   * @param k The number of neighbours to find.
+   * @param indices Receives the indices of the neighbours at index pos.
+   * @param distances Receives their distances at index pos.
+   * @param pos The index to store the neighbours at.
+   * @throws Exception if the neighbours could not be found.
+   */
+  protected void searchTarget(Instance target, int k, int[][] indices,
+      double[][] distances, int pos) throws Exception {
+    checkMissing(target);
+
+    if (m_Stats != null)
+      m_Stats.searchStart();
+
+    MyHeap heap = new MyHeap(k);
+    findNearestNeighbours(target, m_Root, k, heap, 0.0);
+
+    if (m_Stats != null)
+      m_Stats.searchFinish();
+
+    indices[pos] = new int[heap.size() + heap.noOfKthNearest()];
+    distances[pos] = new double[indices[pos].length];
+    drain(heap, indices[pos], distances[pos]);
+    m_DistanceFunction.postProcessDistances(distances[pos]);
+  }
+
   /**
    * Returns the nearest neighbour of the supplied target 
    * instance. 
@@ -1025,6 +1162,9 @@ public class KDTree
   /** maximal number of instances in a leaf. */
   protected int m_MaxInstInLeaf = 40;
 
+  /** number of execution slots for building the tree. */
+  protected int m_NumExecutionSlots = 1;
+
   /**
    * the GET and SET - functions ===============================================
    */
@@ -1086,6 +1226,35 @@ public class KDTree
     return m_MaxInstInLeaf;
   }
 
+  /**
+   * Tip text for this property.
+   * 
+   * @return 		the tip text for this property
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+        + "subtrees of large nodes (0 = one per core). The tree is the same "
+        + "for any number of slots.";
+  }
+
+  /**
+   * Sets the number of execution slots for building the tree.
+   * 
+   * @param numSlots	the number of slots, 0 for one per core
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_NumExecutionSlots = numSlots;
+  }
+
+  /**
+   * Gets the number of execution slots for building the tree.
+   * 
+   * @return 		the number of slots
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
   /**
    * Tip text for this property.
    * 
@@ -1223,6 +1392,12 @@ public class KDTree
         + "\t(Select dimension for split, with normalising to universe).",
         "N", 0, "-N"));
     
+    newVector.addElement(new Option(
+	"\tNumber of execution slots for building the tree.\n"
+        + "\t(default 1 - i.e. no parallelism)\n"
+        + "\t(use 0 to auto-detect number of cores)",
+        "num-slots", 1, "-num-slots <num>"));
+    
     newVector.addAll(Collections.list(super.listOptions()));
     
     return newVector.elements();
@@ -1250,6 +1425,11 @@ public class KDTree
    *  Normalizing will be done
    *  (Select dimension for split, with normalising to universe).</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for building the tree.
+   *  (default 1 - i.e. no parallelism)
+   *  (use 0 to auto-detect number of cores)</pre>
+   * 
    <!-- options-end -->
    * 
    * @param options	the list of options as an array of strings
@@ -1287,6 +1467,12 @@ public class KDTree
       setMaxInstInLeaf(40);
 
     setNormalizeNodeWidth(Utils.getFlag('N', options));
+
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    else
+      setNumExecutionSlots(1);
     
     Utils.checkForRemainingOptions(options);
   }
@@ -1321,6 +1507,11 @@ public class KDTree
     if (getNormalizeNodeWidth())
       result.add("-N");
 
+    if (getNumExecutionSlots() != 1) {
+      result.add("-num-slots");
+      result.add("" + getNumExecutionSlots());
+    }
+
     return result.toArray(new String[result.size()]);
   }
   
@@ -20,14 +20,21 @@
 
 package weka.core.neighboursearch;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
 import weka.core.Utils;
 
 /**
@@ -62,6 +69,32 @@ public class LinearNNSearch
   /** Whether to skip instances from the neighbours that are identical to the query instance. */
   protected boolean m_SkipIdentical = false;
 
+  /** The number of rows whose distances are computed at once. */
+  protected static final int BATCH_SIZE = 256;
+
+  /** The number of targets searched together by the batch search. */
+  protected static final int TILE_SIZE = 16;
+
+  /**
+   * Gives the distances of a target from rows that are not necessarily
+   * instances, see kNearestNeighbours(RowDistance, int, int).
+   */
+  public interface RowDistance {
+
+    /**
+     * Returns the distance of the target from a row, before
+     * postProcessDistances(double[]) of the distance function.
+     *
+     * @param row	the row
+     * @param cutOff	the distance beyond which the exact value is not
+     * 			needed
+     * @return		the distance, or any value larger than cutOff if
+     * 			the distance is larger
+     * @throws Exception	if the distance could not be computed
+     */
+    double distance(int row, double cutOff) throws Exception;
+  }
+
   /**
    * Constructor. Needs setInstances(Instances) 
    * to be called before the class is usable.
@@ -202,67 +235,44 @@ public class LinearNNSearch
    */
   public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
   
-    //debug
-    boolean print=false;
-
     if(m_Stats!=null)
       m_Stats.searchStart();
  
     MyHeap heap = new MyHeap(kNN);
     double distance; int firstkNN=0;
+    NormalizableDistance batch = batchDistance();
+    double[] query = (batch != null) ? batch.batchQuery(target) : null;
+    double[] block = (batch != null) ? new double[BATCH_SIZE] : null;
+    int blockStart = 0, blockEnd = 0;
     for(int i=0; i<m_Instances.numInstances(); i++) {
       if(target == m_Instances.instance(i)) //for hold-one-out cross-validation
         continue;
       if(m_Stats!=null) 
         m_Stats.incrPointCount();
-      if(firstkNN<kNN) {
-        if(print)
-          System.out.println("K(a): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), Double.POSITIVE_INFINITY, m_Stats);
-        if(distance == 0.0 && m_SkipIdentical)
-          if(i<m_Instances.numInstances()-1)
-            continue;
-          else
-            heap.put(i, distance);
-        heap.put(i, distance);
-        firstkNN++;
+      double cutOff = (firstkNN<kNN) ? Double.POSITIVE_INFINITY : heap.peek().distance;
+      if(batch != null) {
+        // the cut off only shrinks while the block is used, rows beyond it
+        // are rejected either way
+        if(i >= blockEnd) {
+          blockStart = i;
+          blockEnd = Math.min(i + BATCH_SIZE, m_Instances.numInstances());
+          batch.distances(query, blockStart, blockEnd, cutOff, block);
+        }
+        distance = block[i - blockStart];
       }
       else {
-        MyHeapElement temp = heap.peek();
-        if(print)
-          System.out.println("K(b): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), temp.distance, m_Stats);
-        if(distance == 0.0 && m_SkipIdentical)
-          continue;
-        if(distance < temp.distance) {
-          heap.putBySubstitute(i, distance);
-        }
-        else if(distance == temp.distance) {
-          heap.putKthNearest(i, distance);
-        }
-
+        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), cutOff, m_Stats);
       }
+      firstkNN = offer(heap, kNN, firstkNN, i, m_Instances.numInstances(), distance);
     }
     
-    Instances neighbours = new Instances(m_Instances, (heap.size()+heap.noOfKthNearest()));
-    m_Distances = new double[heap.size()+heap.noOfKthNearest()];
-    int [] indices = new int[heap.size()+heap.noOfKthNearest()];
-    int i=1; MyHeapElement h;
-    while(heap.noOfKthNearest()>0) {
-      h = heap.getKthNearest();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
-    while(heap.size()>0) {
-      h = heap.get();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
+    int[] indices = new int[heap.size()+heap.noOfKthNearest()];
+    m_Distances = new double[indices.length];
+    drain(heap, indices, m_Distances);
     
     m_DistanceFunction.postProcessDistances(m_Distances);
     
+    Instances neighbours = new Instances(m_Instances, indices.length);
     for(int k=0; k<indices.length; k++) {
       neighbours.add(m_Instances.instance(indices[k]));
     }
@@ -272,6 +282,222 @@ public class LinearNNSearch
     
     return neighbours;    
   }
+
+  /**
+   * Returns true, the search of several targets does not collect performance
+   * statistics and keeps its state in the call.
+   *
+   * @return		true
+   */
+  public boolean supportsConcurrentQueries() {
+    return true;
+  }
+
+  /**
+   * Finds the k nearest neighbours of several targets, giving for each the
+   * same neighbours and distances as kNearestNeighbours(Instance, int), but
+   * as row indices instead of copied instances. The targets are searched in
+   * tiles of TILE_SIZE, each tile going through the instances a block of
+   * BATCH_SIZE rows at a time so that a block is reused while it is in the
+   * cache. With a thread pool the tiles are searched in parallel. Does not
+   * change what getDistances() returns.
+   *
+   * @param targets	the instances to find the neighbours for
+   * @param from	the first target
+   * @param to		the target after the last one
+   * @param kNN		the number of nearest neighbours to find
+   * @param indices	receives the indices of the neighbours of target
+   * 			from + i at index i, nearest first
+   * @param distances	receives the distances of these neighbours
+   * @param pool	the pool to search the tiles on, null to search them
+   * 			in the calling thread
+   * @throws Exception	if the neighbours could not be found
+   */
+  public void kNearestNeighbours(final Instances targets, int from, int to,
+      final int kNN, final int[][] indices, final double[][] distances,
+      ExecutorService pool) throws Exception {
+
+    final NormalizableDistance batch = batchDistance();
+    if(batch == null) {
+      for(int t=from; t<to; t++) {
+        searchTile(null, targets, t, t + 1, null, kNN, indices, distances, from);
+      }
+      return;
+    }
+
+    // normalizing the queries may rebuild the matrix, so it is done here
+    final double[][] queries = new double[to - from][];
+    for(int t=from; t<to; t++)
+      queries[t - from] = batch.batchQuery(targets.instance(t));
+
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for(int start=from; start<to; start+=TILE_SIZE) {
+      final int tileStart = start;
+      final int tileEnd = Math.min(start + TILE_SIZE, to);
+      final int first = from;
+      Callable<Void> tile = new Callable<Void>() {
+        public Void call() throws Exception {
+          searchTile(batch, targets, tileStart, tileEnd, queries, kNN, indices, distances, first);
+          return null;
+        }
+      };
+      if(pool == null)
+        tile.call();
+      else
+        results.add(pool.submit(tile));
+    }
+    for(Future<Void> result : results)
+      result.get();
+  }
+
+  /**
+   * Searches the neighbours of a tile of targets, see
+   * kNearestNeighbours(Instances, int, int, int, int[][], double[][], ExecutorService).
+   *
+   * @param batch	the distance function to compute blocks of distances
+   * 			with, null to compute them one at a time
+   * @param targets	the targets
+   * @param tileStart	the first target of the tile
+   * @param tileEnd	the target after the last one
+   * @param queries	the normalized targets, null without batch
+   * @param kNN		the number of nearest neighbours to find
+   * @param indices	receives the indices of the neighbours
+   * @param distances	receives the distances of the neighbours
+   * @param first	the target stored at index 0
+   * @throws Exception	if the distances could not be computed
+   */
+  protected void searchTile(NormalizableDistance batch, Instances targets,
+      int tileStart, int tileEnd, double[][] queries, int kNN,
+      int[][] indices, double[][] distances, int first) throws Exception {
+
+    int numInstances = m_Instances.numInstances();
+    int tileSize = tileEnd - tileStart;
+    MyHeap[] heaps = new MyHeap[tileSize];
+    int[] firstkNN = new int[tileSize];
+    for(int t=0; t<tileSize; t++)
+      heaps[t] = new MyHeap(kNN);
+    double[] block = new double[BATCH_SIZE];
+
+    for(int blockStart=0; blockStart<numInstances; blockStart+=BATCH_SIZE) {
+      int blockEnd = Math.min(blockStart + BATCH_SIZE, numInstances);
+      for(int t=0; t<tileSize; t++) {
+        Instance target = targets.instance(tileStart + t);
+        double cutOff = (firstkNN[t]<kNN) ? Double.POSITIVE_INFINITY : heaps[t].peek().distance;
+        if(batch != null)
+          batch.distances(queries[tileStart + t - first], blockStart, blockEnd, cutOff, block);
+        for(int i=blockStart; i<blockEnd; i++) {
+          if(target == m_Instances.instance(i))
+            continue;
+          double distance;
+          if(batch != null) {
+            distance = block[i - blockStart];
+          }
+          else {
+            cutOff = (firstkNN[t]<kNN) ? Double.POSITIVE_INFINITY : heaps[t].peek().distance;
+            distance = m_DistanceFunction.distance(target, m_Instances.instance(i), cutOff);
+          }
+          firstkNN[t] = offer(heaps[t], kNN, firstkNN[t], i, numInstances, distance);
+        }
+      }
+    }
+
+    for(int t=0; t<tileSize; t++) {
+      int[] neighbours = new int[heaps[t].size()+heaps[t].noOfKthNearest()];
+      double[] neighbourDistances = new double[neighbours.length];
+      drain(heaps[t], neighbours, neighbourDistances);
+      m_DistanceFunction.postProcessDistances(neighbourDistances);
+      indices[tileStart + t - first] = neighbours;
+      distances[tileStart + t - first] = neighbourDistances;
+    }
+  }
+
+  /**
+   * Finds the k nearest of a number of rows whose distances from the target
+   * are given by a RowDistance instead of the distance function, keeping
+   * neighbours the same way kNearestNeighbours(Instance, int) does. The
+   * distances are post-processed by the distance function and can be
+   * obtained with getDistances() afterwards.
+   *
+   * @param rows	gives the distances of the rows
+   * @param numRows	the number of rows
+   * @param kNN		the number of nearest neighbours to find
+   * @return		the indices of the neighbours, nearest first
+   * @throws Exception	if the neighbours could not be found
+   */
+  public int[] kNearestNeighbours(RowDistance rows, int numRows, int kNN)
+    throws Exception {
+
+    MyHeap heap = new MyHeap(kNN);
+    int firstkNN=0;
+    for(int i=0; i<numRows; i++) {
+      double cutOff = (firstkNN<kNN) ? Double.POSITIVE_INFINITY : heap.peek().distance;
+      firstkNN = offer(heap, kNN, firstkNN, i, numRows, rows.distance(i, cutOff));
+    }
+
+    int[] indices = new int[heap.size()+heap.noOfKthNearest()];
+    m_Distances = new double[indices.length];
+    drain(heap, indices, m_Distances);
+    m_DistanceFunction.postProcessDistances(m_Distances);
+
+    return indices;
+  }
+
+  /**
+   * Puts a row into the heap of a target if it is one of the k nearest. The
+   * distance has to be computed with an infinite cut off while the heap is
+   * being filled, and with at most the distance of the heap's top after.
+   *
+   * @param heap	the heap of the target
+   * @param kNN		the number of nearest neighbours to find
+   * @param firstkNN	the number of rows put while filling the heap
+   * @param i		the row
+   * @param numRows	the number of rows searched
+   * @param distance	the distance of the row from the target
+   * @return		the new number of rows put while filling the heap
+   * @throws Exception	if the heap fails
+   */
+  protected int offer(MyHeap heap, int kNN, int firstkNN, int i, int numRows,
+      double distance) throws Exception {
+
+    if(firstkNN<kNN) {
+      if(distance == 0.0 && m_SkipIdentical)
+        if(i<numRows-1)
+          return firstkNN;
+        else
+          heap.put(i, distance);
+      heap.put(i, distance);
+      firstkNN++;
+    }
+    else {
+      MyHeapElement temp = heap.peek();
+      if(distance == 0.0 && m_SkipIdentical)
+        return firstkNN;
+      if(distance < temp.distance) {
+        heap.putBySubstitute(i, distance);
+      }
+      else if(distance == temp.distance) {
+        heap.putKthNearest(i, distance);
+      }
+    }
+    return firstkNN;
+  }
+
+  /**
+   * Returns the distance function if the distances can be computed a block
+   * of rows at a time, i.e., if it is a NormalizableDistance on the same
+   * dense instances and no performance statistics are collected.
+   *
+   * @return		the distance function or null
+   */
+  protected NormalizableDistance batchDistance() {
+    if(m_Stats != null || !(m_DistanceFunction instanceof NormalizableDistance))
+      return null;
+    NormalizableDistance result = (NormalizableDistance) m_DistanceFunction;
+    if(result.getInstances() != m_Instances || m_Instances.numInstances() == 0
+        || m_Instances.instance(0) instanceof SparseInstance)
+      return null;
+    return result;
+  }
   
   /** 
    * Returns the distances of the k nearest neighbours. The kNearestNeighbours
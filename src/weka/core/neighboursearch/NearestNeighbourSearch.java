@@ -21,9 +21,14 @@
 package weka.core.neighboursearch;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import weka.core.AdditionalMeasureProducer;
 import weka.core.DistanceFunction;
@@ -49,6 +54,9 @@ public abstract class NearestNeighbourSearch implements Serializable,
   /** ID to avoid warning */
   private static final long serialVersionUID = 7516898393890379876L;
 
+  /** The number of targets a task searches when searching on a pool. */
+  protected static final int QUERY_CHUNK = 16;
+
   /**
    * A class for a heap to store the nearest k neighbours to an instance. The
    * heap also takes care of cases where multiple neighbours are the same
@@ -738,6 +746,123 @@ public abstract class NearestNeighbourSearch implements Serializable,
    */
   public abstract double[] getDistances() throws Exception;
 
+  /**
+   * Returns whether kNearestNeighbours(Instances, int, int, int, int[][],
+   * double[][], ExecutorService) keeps all state of a search in the call, so
+   * that the targets can be searched from several threads at once.
+   * Performance statistics are not thread-safe, so searches that collect
+   * them return false. Searches that return true have to override
+   * searchTarget(Instance, int, int[][], double[][], int); callers such as
+   * IBk only use the batch search when this returns true.
+   * 
+   * @return true if the targets can be searched concurrently
+   */
+  public boolean supportsConcurrentQueries() {
+    return false;
+  }
+
+  /**
+   * Finds the k nearest neighbours of several targets, giving for each the
+   * same neighbours and distances as kNearestNeighbours(Instance, int), but
+   * as row indices into getInstances() instead of copied instances. With a
+   * thread pool and supportsConcurrentQueries() the targets are searched in
+   * chunks on the pool. Does not change what getDistances() returns. Only
+   * available for searches that override searchTarget(Instance, int,
+   * int[][], double[][], int); the others throw an
+   * UnsupportedOperationException.
+   * 
+   * @param targets the instances to find the neighbours for
+   * @param from the first target
+   * @param to the target after the last one
+   * @param kNN the number of nearest neighbours to find
+   * @param indices receives the indices of the neighbours of target from + i
+   *          at index i, nearest first
+   * @param distances receives the distances of these neighbours
+   * @param pool the pool to search on, null to search in the calling thread
+   * @throws Exception if the neighbours could not be found
+   */
+  public void kNearestNeighbours(final Instances targets, int from, int to,
+    final int kNN, final int[][] indices, final double[][] distances,
+    ExecutorService pool) throws Exception {
+
+    if (pool == null || !supportsConcurrentQueries()) {
+      for (int t = from; t < to; t++) {
+        searchTarget(targets.instance(t), kNN, indices, distances, t - from);
+      }
+      return;
+    }
+
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int start = from; start < to; start += QUERY_CHUNK) {
+      final int chunkStart = start;
+      final int chunkEnd = Math.min(start + QUERY_CHUNK, to);
+      final int first = from;
+      results.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int t = chunkStart; t < chunkEnd; t++) {
+            searchTarget(targets.instance(t), kNN, indices, distances, t
+              - first);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> result : results) {
+      result.get();
+    }
+  }
+
+  /**
+   * Searches the neighbours of one target for kNearestNeighbours(Instances,
+   * int, int, int, int[][], double[][], ExecutorService). Has to keep its
+   * state in the call if supportsConcurrentQueries() returns true, and has
+   * to be overridden then. Searches that can't give the rows of their
+   * neighbours keep the default, which throws an
+   * UnsupportedOperationException.
+   * 
+   * @param target the instance to find the neighbours for
+   * @param kNN the number of nearest neighbours to find
+   * @param indices receives the indices of the neighbours at index pos
+   * @param distances receives their distances at index pos
+   * @param pos the index to store the neighbours at
+   * @throws Exception if the neighbours could not be found
+   */
+  protected void searchTarget(Instance target, int kNN, int[][] indices,
+    double[][] distances, int pos) throws Exception {
+
+    throw new UnsupportedOperationException(getClass().getName()
+      + " can't return the indices of the neighbours.");
+  }
+
+  /**
+   * Empties a heap into arrays of indices and distances, nearest first.
+   * 
+   * @param heap the heap
+   * @param indices receives the indices, needs the size of the heap plus the
+   *          number of k-th nearest
+   * @param distances receives the distances
+   * @throws Exception if the heap fails
+   */
+  protected void drain(MyHeap heap, int[] indices, double[] distances)
+    throws Exception {
+
+    int i = 1;
+    MyHeapElement h;
+    while (heap.noOfKthNearest() > 0) {
+      h = heap.getKthNearest();
+      indices[indices.length - i] = h.index;
+      distances[indices.length - i] = h.distance;
+      i++;
+    }
+    while (heap.size() > 0) {
+      h = heap.get();
+      indices[indices.length - i] = h.index;
+      distances[indices.length - i] = h.distance;
+      i++;
+    }
+  }
+
   /**
    * Updates the NearNeighbourSearch algorithm for the new added instance. P.S.:
    * The method assumes the instance has already been added to the m_Instances
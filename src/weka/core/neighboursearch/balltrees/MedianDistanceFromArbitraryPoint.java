@@ -98,11 +98,6 @@ public class MedianDistanceFromArbitraryPoint extends BallSplitter implements
   /** Seed for random number generator. */
   protected int m_RandSeed = 17;
 
-  /**
-   * Random number generator for selecting an abitrary (random) point.
-   */
-  protected Random m_Rand;
-
   /** Constructor. */
   public MedianDistanceFromArbitraryPoint() {
   }
@@ -277,9 +272,10 @@ public class MedianDistanceFromArbitraryPoint extends BallSplitter implements
   public void splitNode(BallNode node, int numNodesCreated) throws Exception {
     correctlyInitialized();
 
-    m_Rand = new Random(m_RandSeed);
+    // a generator per call, so that nodes can be split concurrently
+    Random rand = new Random(m_RandSeed);
 
-    int ridx = node.m_Start + m_Rand.nextInt(node.m_NumInstances);
+    int ridx = node.m_Start + rand.nextInt(node.m_NumInstances);
     Instance randomInst = (Instance) m_Instances.instance(m_Instlist[ridx])
       .copy();
     double[] distList = new double[node.m_NumInstances - 1];
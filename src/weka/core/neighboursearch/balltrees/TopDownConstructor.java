@@ -23,6 +23,8 @@ package weka.core.neighboursearch.balltrees;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
@@ -68,6 +70,13 @@ import weka.core.Utils;
  *  Ball splitting algorithm to use.
  * </pre>
  * 
+ * <pre>
+ * -num-slots &lt;num&gt;
+ *  Number of execution slots for building the tree.
+ *  (default 1 - i.e. no parallelism)
+ *  (use 0 to auto-detect number of cores)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Ashraf M. Kibriya (amk14[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -85,6 +94,78 @@ public class TopDownConstructor extends BallTreeConstructor implements
    */
   protected BallSplitter m_Splitter = new PointsClosestToFurthestChildren();
 
+  /** The number of execution slots for building the tree. */
+  protected int m_NumExecutionSlots = 1;
+
+  /** The smallest ball whose two subtrees are split on separate tasks. */
+  protected static final int MIN_PARALLEL_NODE = 2048;
+
+  /**
+   * Splits a ball and its subtrees for a parallel build. The subtrees of balls
+   * with at least MIN_PARALLEL_NODE instances are forked, as they work on
+   * disjoint parts of the index list. The balls are numbered and counted
+   * afterwards by numberNodes(BallNode, int).
+   */
+  protected class SplitTask extends RecursiveAction {
+
+    /** for serialization. */
+    private static final long serialVersionUID = 2409716845271203811L;
+
+    /** The ball to split. */
+    protected BallNode m_Node;
+
+    /** The radius of the root ball. */
+    protected double m_RootRadius;
+
+    /**
+     * Creates a task splitting the given ball.
+     * 
+     * @param node The ball to split.
+     * @param rootRadius The radius of the root ball.
+     */
+    public SplitTask(BallNode node, double rootRadius) {
+      m_Node = node;
+      m_RootRadius = rootRadius;
+    }
+
+    /**
+     * Splits the ball like splitNodes(BallNode, int, double) does, without
+     * counting the balls.
+     */
+    @Override
+    protected void compute() {
+      if (m_Node.m_NumInstances <= m_MaxInstancesInLeaf
+        || (m_RootRadius == 0 ? true
+          : m_Node.m_Radius / m_RootRadius < m_MaxRelLeafRadius)) {
+        return;
+      }
+
+      try {
+        m_Splitter.splitNode(m_Node, 0);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+
+      SplitTask left = new SplitTask(m_Node.m_Left, m_RootRadius);
+      SplitTask right = new SplitTask(m_Node.m_Right, m_RootRadius);
+      if (m_Node.m_NumInstances >= MIN_PARALLEL_NODE) {
+        invokeAll(left, right);
+      } else {
+        left.compute();
+        right.compute();
+      }
+
+      if (m_FullyContainChildBalls) {
+        try {
+          m_Node.setRadius(BallNode.calcRadius(m_Node.m_Left, m_Node.m_Right,
+            m_Node.getPivot(), m_DistanceFunction));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
   /**
    * Creates a new instance of TopDownConstructor.
    */
@@ -151,11 +232,58 @@ public class TopDownConstructor extends BallTreeConstructor implements
     root.setRadius(BallNode.calcRadius(m_InstList, m_Instances,
       root.getPivot(), m_DistanceFunction));
 
-    splitNodes(root, m_MaxDepth + 1, root.m_Radius);
+    int numSlots = (m_NumExecutionSlots == 0) ? Runtime.getRuntime()
+      .availableProcessors() : m_NumExecutionSlots;
+    if (numSlots > 1 && m_InstList.length >= MIN_PARALLEL_NODE) {
+      ForkJoinPool pool = new ForkJoinPool(numSlots);
+      try {
+        pool.invoke(new SplitTask(root, root.m_Radius));
+      } catch (RuntimeException e) {
+        Throwable cause = e;
+        while (cause instanceof RuntimeException && cause.getCause() != null) {
+          cause = cause.getCause();
+        }
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      } finally {
+        pool.shutdown();
+      }
+      m_NumLeaves = 0;
+      numberNodes(root, m_MaxDepth + 1);
+    } else {
+      splitNodes(root, m_MaxDepth + 1, root.m_Radius);
+    }
 
     return root;
   }
 
+  /**
+   * Numbers and counts the balls of a tree built by SplitTask the way
+   * splitNodes(BallNode, int, double) does while splitting, so that the tree
+   * does not depend on the number of execution slots.
+   * 
+   * @param node The ball whose subtree to number.
+   * @param depth The depth of the ball.
+   */
+  protected void numberNodes(BallNode node, int depth) {
+    if (node.m_Left == null) {
+      m_NumLeaves++;
+      return;
+    }
+    if (m_MaxDepth < depth) {
+      m_MaxDepth = depth;
+    }
+
+    node.m_Left.m_NodeNumber = m_NumNodes + 1;
+    node.m_Right.m_NodeNumber = m_NumNodes + 2;
+    m_NumNodes += 2;
+
+    numberNodes(node.m_Left, depth + 1);
+    numberNodes(node.m_Right, depth + 1);
+  }
+
   /**
    * Recursively splits nodes of a ball tree until <=m_MaxInstancesInLeaf
    * instances remain in a node.
@@ -312,6 +440,36 @@ public class TopDownConstructor extends BallTreeConstructor implements
     m_Splitter = splitter;
   }
 
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+      + "subtrees of large balls (0 = one per core). The tree is the same for "
+      + "any number of slots.";
+  }
+
+  /**
+   * Returns the number of execution slots for building the tree.
+   * 
+   * @return The number of slots.
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
+  /**
+   * Sets the number of execution slots for building the tree.
+   * 
+   * @param numSlots The number of slots, 0 for one per core.
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_NumExecutionSlots = numSlots;
+  }
+
   /**
    * Returns an enumeration describing the available options.
    * 
@@ -324,6 +482,12 @@ public class TopDownConstructor extends BallTreeConstructor implements
     newVector.addElement(new Option("\tBall splitting algorithm to use.", "S",
       1, "-S <classname and options>"));
 
+    newVector.addElement(new Option(
+      "\tNumber of execution slots for building the tree.\n"
+        + "\t(default 1 - i.e. no parallelism)\n"
+        + "\t(use 0 to auto-detect number of cores)", "num-slots", 1,
+      "-num-slots <num>"));
+
     newVector.addAll(Collections.list(super.listOptions()));
 
     return newVector.elements();
@@ -340,6 +504,13 @@ public class TopDownConstructor extends BallTreeConstructor implements
    *  Ball splitting algorithm to use.
    * </pre>
    * 
+   * <pre>
+   * -num-slots &lt;num&gt;
+   *  Number of execution slots for building the tree.
+   *  (default 1 - i.e. no parallelism)
+   *  (use 0 to auto-detect number of cores)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -363,6 +534,13 @@ public class TopDownConstructor extends BallTreeConstructor implements
       setBallSplitter(new PointsClosestToFurthestChildren());
     }
 
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    } else {
+      setNumExecutionSlots(1);
+    }
+
     super.setOptions(options);
 
   }
@@ -379,6 +557,11 @@ public class TopDownConstructor extends BallTreeConstructor implements
     result.add("-S");
     result.add(m_Splitter.getClass().getName());
 
+    if (getNumExecutionSlots() != 1) {
+      result.add("-num-slots");
+      result.add("" + getNumExecutionSlots());
+    }
+
     Collections.addAll(result, super.getOptions());
 
     return result.toArray(new String[result.size()]);